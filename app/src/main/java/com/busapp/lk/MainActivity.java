@@ -1,30 +1,74 @@
 package com.busapp.lk;
 
 import android.Manifest;
-import android.animation.ValueAnimator;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
-import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Paint;
-import android.graphics.Path;
-import android.graphics.RectF;
-import android.location.Address;
-import android.location.Geocoder;
 import android.location.Location;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
 import android.view.View;
-import android.view.animation.LinearInterpolator;
+import android.widget.Button;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.cardview.widget.CardView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import com.busapp.lk.alert.StopAlerts;
+import com.busapp.lk.arrivals.ArrivalAdapter;
+import com.busapp.lk.arrivals.ArrivalRow;
+import com.busapp.lk.fleet.FleetEngine;
+import com.busapp.lk.fleet.FleetSnapshot;
+import com.busapp.lk.fleet.FleetTracker;
+import com.busapp.lk.fleet.HeadwayMonitor;
+import com.busapp.lk.fleet.UpdateScheduler;
+import com.busapp.lk.fleet.VehicleStateStore;
+import com.busapp.lk.geo.ClusterIndex;
+import com.busapp.lk.geo.DistanceKernel;
+import com.busapp.lk.geo.GeoMath;
+import com.busapp.lk.geo.SpatialGrid;
+import com.busapp.lk.geocode.AndroidReverseGeocoder;
+import com.busapp.lk.eta.ArrivalBoard;
+import com.busapp.lk.eta.EtaEngine;
+import com.busapp.lk.eta.InfoCardText;
+import com.busapp.lk.eta.TripStatus;
+import com.busapp.lk.geocode.GeocodingService;
+import com.busapp.lk.geocode.ReverseGeocoder;
+import com.busapp.lk.gtfs.GtfsLoader;
+import com.busapp.lk.gtfs.NetworkSnapshot;
+import com.busapp.lk.gtfs.TransitNetwork;
+import com.busapp.lk.ingest.LinePositionSource;
+import com.busapp.lk.ingest.PositionPipeline;
+import com.busapp.lk.ingest.PositionRecorder;
+import com.busapp.lk.ingest.PositionSource;
+import com.busapp.lk.ingest.ReplaySource;
+import com.busapp.lk.journal.PositionJournal;
+import com.busapp.lk.journal.PositionTrack;
+import com.busapp.lk.map.BusIconCache;
+import com.busapp.lk.map.ClusterLayer;
+import com.busapp.lk.map.MarkerAnimator;
+import com.busapp.lk.metrics.Counter;
+import com.busapp.lk.metrics.LatencyHistogram;
+import com.busapp.lk.metrics.MetricsRegistry;
+import com.busapp.lk.motion.MotionPredictor;
+import com.busapp.lk.plan.Journey;
+import com.busapp.lk.plan.JourneyPlanner;
+import com.busapp.lk.plan.RaptorTimetable;
+import com.busapp.lk.route.MapMatcher;
+import com.busapp.lk.route.RouteGeometry;
+import com.busapp.lk.route.RouteShapeLoader;
+import com.busapp.lk.util.IntList;
+import com.busapp.lk.util.TextBuffer;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.CameraUpdateFactory;
@@ -39,29 +83,160 @@ import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
 import com.google.android.gms.maps.model.Polyline;
 import com.google.android.gms.maps.model.PolylineOptions;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity implements OnMapReadyCallback {
 
+    private static final String TAG = "MainActivity";
     private static final int LOCATION_PERMISSION_REQUEST_CODE = 1001;
+    // The selected bus moves every tick, visible ones every 2 s, nearby every 4 s and the rest every 15 s
+    private static final long TICK_MILLIS = 500;
+    private static final int SELECTED_STRIDE = 1;
+    private static final int VISIBLE_STRIDE = 4;
+    private static final int NEARBY_STRIDE = 8;
+    private static final int FAR_STRIDE = 30;
+    // ~1.1 km cells
+    private static final double GRID_CELL_DEGREES = 0.01;
+    // Clustered below UNCLUSTERED_ZOOM; the whole island fits at about zoom 7
+    private static final int CLUSTER_MIN_ZOOM = 6;
+    private static final int UNCLUSTERED_ZOOM = 17;
+    private static final int ARRIVAL_ROWS = 5;
+    private static final double NEARBY_RADIUS_KM = 1.0;
+    private static final int STOP_ALERT_LEAD_SECONDS = 5 * 60;
+    private static final String ROUTE_SHAPES_ASSET = "route_shapes.csv";
+    // Optional GTFS feed in the app files dir, and the snapshot parsed from it
+    private static final String GTFS_FILE = "gtfs.zip";
+    private static final String NETWORK_SNAPSHOT_FILE = "network.bin";
+    // Position history, keyed by engineIndex, so only valid while the bus list is the same
+    private static final String JOURNAL_DIR = "journal";
+    // Older last-known positions are not worth showing after a restart
+    private static final long RESTORE_MAX_AGE_MILLIS = 60 * 60 * 1000;
+    private static final long METRICS_REFRESH_MILLIS = 1000;
+    // Info card colours and labels, indexed by TripStatus ordinals
+    private static final int RED = Color.parseColor("#D32F2F");
+    private static final int ORANGE = Color.parseColor("#F57C00");
+    private static final int GREEN = Color.parseColor("#388E3C");
+    private static final int GREY = Color.parseColor("#757575");
+    private static final int[] ETA_COLORS = {GREY, GREY, RED, GREEN, ORANGE, GREY};
+    private static final String[] MOTION_LABELS = {"● STOPPED", "● SLOW", "● MOVING"};
+    private static final int[] MOTION_COLORS = {RED, ORANGE, GREEN};
 
     private GoogleMap map;
     private Handler handler;
     private Runnable updateRunnable;
-    private Random random;
-    private Geocoder geocoder;
+    private FleetEngine fleetEngine;
+    private final AtomicBoolean snapshotPending = new AtomicBoolean();
+    // Set once the network has loaded; only one query runs at a time
+    private volatile JourneyPlanner journeyPlanner;
+    private final AtomicBoolean planning = new AtomicBoolean();
+    private FleetTracker fleetTracker;
+    private final IntList changedBuses = new IntList();
+    private long createdAtMillis;
+    // Live feed, used instead of the simulation when configured
+    private PositionPipeline positionPipeline;
+    private final VehicleStateStore liveStore = new VehicleStateStore(16);
+    private final Map<String, Integer> busIdsToIndex = new ConcurrentHashMap<>();
+    private Choreographer.FrameCallback liveFrameCallback;
+    // Replay of a recording through the live feed path; null when not replaying
+    private boolean replaying;
+    // Recorder behind the live feed when record_live_feed is set; null otherwise
+    private volatile PositionRecorder liveRecorder;
+    private ReplaySource replaySource;
+    private double replaySpeed = 1;
+    private long replayResumeAt = Long.MIN_VALUE;
+    private int replaySeekGeneration;
+    private long newestAppliedTimestamp = Long.MIN_VALUE;
+    private long replayStatusAtNanos;
+    private final SimpleDateFormat replayTimeFormat = new SimpleDateFormat("HH:mm:ss", Locale.US);
+    // Set once opened and the buses restored from it; null until then
+    private PositionJournal positionJournal;
+    private GeocodingService geocodingService;
     private FusedLocationProviderClient fusedLocationClient;
+    // Disabled, and so nearly free, unless the overlay is showing
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final LatencyHistogram tickTimes = metrics.histogram("tick");
+    private final LatencyHistogram markerRefreshTimes = metrics.histogram("markers.refresh");
+    private final LatencyHistogram infoCardTimes = metrics.histogram("infoCard");
+    private final Counter busUpdates = metrics.counter("busUpdates");
+    private final Counter infoCardViewUpdates = metrics.counter("infoCard.viewUpdates");
+    private final Counter infoCardLayouts = metrics.counter("infoCard.layouts");
+    private Runnable metricsRefresh;
 
     // Multiple buses
     private List<Bus> buses;
     private Map<Marker, Bus> markerBusMap;
+    private SpatialGrid busIndex;
+    private final ClusterIndex clusterIndex = new ClusterIndex(CLUSTER_MIN_ZOOM, UNCLUSTERED_ZOOM - 1);
+    private ClusterLayer clusterLayer;
+    private final IntList visibleBusIds = new IntList();
+    private final IntList focusVisible = new IntList();
+    private final IntList focusNearby = new IntList();
+    private final List<Bus> shownBuses = new ArrayList<>();
+    private final int[] nearestBusIds = new int[1];
+    private int visibleGeneration;
+    private final MotionPredictor motionPredictor = new MotionPredictor();
+    // Live fixes are matched to the route over a short window of history, so routes that double back do not jump legs
+    private final MapMatcher mapMatcher = new MapMatcher();
+    private final double[] matchedPoint = new double[2];
+    // Until segment history builds up, ETAs assume typical city bus speed
+    private final EtaEngine etaEngine = new EtaEngine(TimeZone.getDefault(), 20);
+    // Alerts and headways key routes by bus number, so buses running the same number share one
+    private final Map<String, Integer> routeKeys = new HashMap<>();
+    private final StopAlerts stopAlerts = new StopAlerts(etaEngine::etaSecondsToKm);
+    private final Map<String, Integer> stopAlertIds = new HashMap<>();
+    private final Map<Integer, String> stopAlertLabels = new HashMap<>();
+    private final IntList liveUpdatedBuses = new IntList();
+    private final StopAlerts.Listener stopAlertListener = this::onStopAlert;
+    private final HeadwayMonitor headwayMonitor = new HeadwayMonitor(etaEngine::etaSecondsToKm);
+    private final Counter bunchingEvents = metrics.counter("headway.bunched");
+    private final Counter gapEvents = metrics.counter("headway.gaps");
+    private final List<Polyline> headwayLines = new ArrayList<>();
+    // Per headway line, what it was drawn for, so it is only redrawn when its pair moves
+    private int[] headwayFollowers = new int[8];
+    private int[] headwayLeaders = new int[8];
+    private double[] headwayFromKm = new double[8];
+    private double[] headwayToKm = new double[8];
+    private int[] headwayColors = new int[8];
+    // The numbers in tvHeadways; -1 route after it is hidden
+    private int shownHeadwayRoute = -1;
+    private int shownHeadwayBuses;
+    private int shownHeadwayTenths;
+    private int shownBunched;
+    private int shownGaps;
+    private final IntList routeBuses = new IntList();
+    private final double[] routePoint = new double[2];
+    private final MarkerAnimator markerAnimator = new MarkerAnimator(motionPredictor);
+    private final ArrivalBoard arrivalBoard = new ArrivalBoard();
+    private final IntList topArrivals = new IntList();
+    // What the board shows, so rows are only rebuilt when a bus, stop or minute changes
+    private final int[] shownArrivalIds = new int[ARRIVAL_ROWS];
+    private final int[] shownArrivalStops = new int[ARRIVAL_ROWS];
+    private final int[] shownArrivalMinutes = new int[ARRIVAL_ROWS];
+    private int shownArrivalCount = -1;
+    // Hour bucket the board's ETAs were keyed in; a new hour changes every bus's ETA
+    private int arrivalsBucket = -1;
+    private ArrivalAdapter arrivalAdapter;
+    private BusIconCache busIconCache;
     private Polyline currentRouteLine;
+    private int routeLineZoom = -1;
     private Marker startMarker, endMarker, userMarker;
     private LatLng userLocation;
 
@@ -72,14 +247,30 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
     private TextView tvBusId, tvBusNumber, tvSpeed, tvLocation, tvStatus;
     private TextView tvRouteDistance, tvStartPoint, tvEndPoint, tvProgress;
     private TextView tvDistanceToUser, tvETA;
+    private CardView cardArrivals;
+    private CardView cardReplay;
+    private Button btnReplaySpeed;
+    private SeekBar seekReplay;
+    private TextView tvReplayStatus;
+    private TextView tvMetrics;
+    private TextView tvHeadways;
     private Bus selectedBus;
+    // What the info card currently shows
+    private final InfoCardText cardText = new InfoCardText();
+    private Bus cardBus;
+    private long addressCell;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        createdAtMillis = SystemClock.elapsedRealtime();
         setContentView(R.layout.activity_main);
 
         initViews();
+        fleetEngine = new FleetEngine(TICK_MILLIS);
+        fleetEngine.setUpdateScheduler(
+                new UpdateScheduler(SELECTED_STRIDE, VISIBLE_STRIDE, NEARBY_STRIDE, FAR_STRIDE));
+        handler = new Handler();
         initBuses();
 
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
@@ -88,10 +279,12 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
                 getSupportFragmentManager().findFragmentById(R.id.map);
         mapFragment.getMapAsync(this);
 
-        geocoder = new Geocoder(this, Locale.getDefault());
-        random = new Random();
-        handler = new Handler();
+        geocodingService = new GeocodingService(timed(new AndroidReverseGeocoder(this),
+                metrics.histogram("geocode")));
         markerBusMap = new HashMap<>();
+        busIconCache = new BusIconCache();
+        busIconCache.setDrawTimes(metrics.histogram("busIcon.create"));
+        markerAnimator.setUpdateTimes(metrics.histogram("markers.animate"));
 
         requestLocationPermission();
     }
@@ -111,16 +304,119 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         tvProgress = findViewById(R.id.tvProgress);
         tvDistanceToUser = findViewById(R.id.tvDistanceToUser);
         tvETA = findViewById(R.id.tvETA);
+        tvHeadways = findViewById(R.id.tvHeadways);
+        headwayMonitor.setListener(this::onSpacingChanged);
+        tvETA.setOnLongClickListener(v -> {
+            if (cardBus != null) toggleStopAlert(cardBus);
+            return true;
+        });
 
         cardBusInfo.setVisibility(View.GONE);
+        // Runs on every layout pass of the card, not only when its bounds change
+        busInfoContent.addOnLayoutChangeListener((v, l, t, r, b, oldL, oldT, oldR, oldB) ->
+                infoCardLayouts.increment());
+
+        cardArrivals = findViewById(R.id.cardArrivals);
+        RecyclerView rvArrivals = findViewById(R.id.rvArrivals);
+        rvArrivals.setLayoutManager(new LinearLayoutManager(this));
+        arrivalAdapter = new ArrivalAdapter(busIndex -> {
+            Bus bus = buses.get(busIndex);
+            showBusInfo(bus);
+            showBusRoute(bus);
+        });
+        rvArrivals.setAdapter(arrivalAdapter);
+
+        cardReplay = findViewById(R.id.cardReplay);
+        btnReplaySpeed = findViewById(R.id.btnReplaySpeed);
+        seekReplay = findViewById(R.id.seekReplay);
+        tvReplayStatus = findViewById(R.id.tvReplayStatus);
+        btnReplaySpeed.setOnClickListener(v -> cycleReplaySpeed());
+        seekReplay.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (fromUser && replaySource != null) {
+                    long start = replaySource.getStartTimestamp();
+                    long span = replaySource.getEndTimestamp() - start;
+                    replaySource.seek(start + span * progress / seekBar.getMax());
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+            }
+        });
+
+        tvMetrics = findViewById(R.id.tvMetrics);
+        findViewById(R.id.topBar).setOnLongClickListener(v -> {
+            toggleMetricsOverlay();
+            return true;
+        });
+        tvMetrics.setOnLongClickListener(v -> {
+            dumpMetrics();
+            return true;
+        });
 
         ivClose.setOnClickListener(v -> {
             cardBusInfo.setVisibility(View.GONE);
-            selectedBus = null;
+            setSelectedBus(null);
             clearRouteDisplay();
         });
     }
 
+    private static ReverseGeocoder timed(ReverseGeocoder geocoder, LatencyHistogram times) {
+        return (lat, lng) -> {
+            long start = times.start();
+            try {
+                return geocoder.reverseGeocode(lat, lng);
+            } finally {
+                times.stop(start);
+            }
+        };
+    }
+
+    /**
+     * Shows or hides the metrics overlay. Metrics are only recorded while it
+     * is showing, and start from zero each time it is shown.
+     */
+    private void toggleMetricsOverlay() {
+        if (metrics.isEnabled()) {
+            metrics.setEnabled(false);
+            handler.removeCallbacks(metricsRefresh);
+            tvMetrics.setVisibility(View.GONE);
+            return;
+        }
+        metrics.reset();
+        metrics.setEnabled(true);
+        tvMetrics.setVisibility(View.VISIBLE);
+        if (metricsRefresh == null) {
+            metricsRefresh = () -> {
+                tvMetrics.setText(metrics.dumpText().trim());
+                handler.postDelayed(metricsRefresh, METRICS_REFRESH_MILLIS);
+            };
+        }
+        metricsRefresh.run();
+    }
+
+    // Logs the text form and writes the JSON form to the files dir
+    private void dumpMetrics() {
+        Log.i(TAG, "Metrics\n" + metrics.dumpText());
+        String json = metrics.dumpJson();
+        File file = new File(getFilesDir(), "metrics-" + System.currentTimeMillis() + ".json");
+        new Thread(() -> {
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+                Log.i(TAG, "Metrics written to " + file);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not write metrics", e);
+            }
+        }, "metrics-dump").start();
+        Toast.makeText(this, "Metrics saved", Toast.LENGTH_SHORT).show();
+    }
+
     private void requestLocationPermission() {
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
                 != PackageManager.PERMISSION_GRANTED) {
@@ -156,6 +452,7 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
                 .addOnSuccessListener(this, location -> {
                     if (location != null) {
                         userLocation = new LatLng(location.getLatitude(), location.getLongitude());
+                        refreshNearbyStops();
                         if (map != null) {
                             addUserMarker();
                         }
@@ -181,6 +478,14 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
 
     private void initBuses() {
         buses = new ArrayList<>();
+        busIndex = SpatialGrid.forSriLanka(GRID_CELL_DEGREES);
+        fleetTracker = new FleetTracker(motionPredictor, etaEngine, busIndex, clusterIndex);
+
+        File feed = new File(getFilesDir(), GTFS_FILE);
+        if (feed.isFile()) {
+            loadTransitNetwork(feed);
+            return;
+        }
 
         // Bus 138: Pettah to Mount Lavinia
         buses.add(new Bus("001", "138",
@@ -205,6 +510,305 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
                 new LatLng(6.9140, 79.8800), // Start: Borella
                 new LatLng(6.8520, 79.8650), // End: Dehiwala
                 "Borella Junction", "Dehiwala Zoo", 9.3));
+
+        Map<String, RouteGeometry> shapes = loadRouteShapes();
+        for (Bus bus : buses) {
+            RouteGeometry route = shapes.get(bus.busNumber);
+            if (route == null) {
+                route = RouteGeometry.straight(
+                        bus.startPoint.latitude, bus.startPoint.longitude,
+                        bus.endPoint.latitude, bus.endPoint.longitude);
+            }
+            // The demo routes have no stops, so their shape vertices serve as timing points
+            double[] timingPoints = new double[route.vertexCount()];
+            for (int v = 0; v < timingPoints.length; v++) {
+                timingPoints[v] = route.cumulativeKm(v);
+            }
+            registerBus(bus, route, timingPoints, null);
+        }
+        refreshNearbyStops();
+        openPositionJournal();
+    }
+
+    // Every per-bus table (engine, live store, predictor, ETA) is indexed by engineIndex
+    private void registerBus(Bus bus, RouteGeometry route, double[] stopKm, String[] stopNames) {
+        bus.route = route;
+        bus.stopKm = stopKm;
+        bus.stopNames = stopNames;
+        bus.totalDistance = route.getLengthKm();
+        bus.engineIndex = fleetEngine.addBus(fleetEngine.addRoute(route));
+        etaEngine.addBus(etaEngine.addRoute(stopKm));
+        mapMatcher.addBus(mapMatcher.addRoute(route));
+        liveStore.add(bus.engineIndex, bus.currentLat, bus.currentLng);
+        // Stationary until the first fix
+        motionPredictor.place(bus.engineIndex, route, 0, 0, System.nanoTime());
+        busIdsToIndex.put(bus.id, bus.engineIndex);
+        stopAlerts.setBusRoute(bus.engineIndex, routeKey(bus.busNumber));
+        headwayMonitor.setBusRoute(bus.engineIndex, routeKey(bus.busNumber));
+        busIndex.update(bus.engineIndex, bus.currentLat, bus.currentLng);
+        clusterIndex.update(bus.engineIndex, bus.currentLat, bus.currentLng);
+    }
+
+    /**
+     * Loads the network off the main thread, from the binary snapshot when it
+     * matches the feed and otherwise by parsing the feed and writing a new snapshot.
+     */
+    private void loadTransitNetwork(File feed) {
+        File snapshotFile = new File(getFilesDir(), NETWORK_SNAPSHOT_FILE);
+        long stamp = feed.length() * 31 + feed.lastModified();
+        new Thread(() -> {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                TransitNetwork network = NetworkSnapshot.read(snapshotFile, stamp);
+                String source = "snapshot";
+                if (network == null) {
+                    network = GtfsLoader.load(feed);
+                    source = "GTFS feed";
+                    try {
+                        NetworkSnapshot.write(network, snapshotFile, stamp);
+                    } catch (IOException e) {
+                        Log.w(TAG, "Could not write network snapshot", e);
+                    }
+                }
+                long loaded = SystemClock.elapsedRealtime();
+                Log.i(TAG, "Transit network from " + source + " in " + (loaded - start)
+                        + "ms (" + (loaded - createdAtMillis) + "ms after onCreate)");
+                TransitNetwork result = network;
+                handler.post(() -> addNetworkBuses(result));
+
+                RaptorTimetable timetable = RaptorTimetable.build(network, RaptorTimetable.DEFAULT_MAX_WALK_KM,
+                        serviceDate(Calendar.getInstance()));
+                Log.i(TAG, "Journey timetable: " + timetable.patternCount() + " patterns, "
+                        + timetable.transferCount() + " footpaths in "
+                        + (SystemClock.elapsedRealtime() - loaded) + "ms");
+                journeyPlanner = new JourneyPlanner(timetable);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not load GTFS feed", e);
+            }
+        }, "network-loader").start();
+    }
+
+    // One simulated bus per route, running along the shape of its first trip
+    private void addNetworkBuses(TransitNetwork network) {
+        if (isDestroyed()) return;
+        boolean[] seen = new boolean[network.routeCount()];
+        for (int trip = 0; trip < network.tripCount(); trip++) {
+            int routeIndex = network.tripRoute(trip);
+            int shape = network.tripShape(trip);
+            int first = network.tripStopTimeStart(trip);
+            int last = network.tripStopTimeEnd(trip) - 1;
+            if (seen[routeIndex] || shape == TransitNetwork.NO_SHAPE || last <= first) continue;
+            seen[routeIndex] = true;
+
+            RouteGeometry route = network.shape(shape);
+            int startStop = network.stopTimeStop(first);
+            int endStop = network.stopTimeStop(last);
+            Bus bus = new Bus(network.routeId(routeIndex), network.routeShortName(routeIndex),
+                    new LatLng(route.lat(0), route.lng(0)),
+                    new LatLng(route.lat(route.vertexCount() - 1), route.lng(route.vertexCount() - 1)),
+                    network.stopName(startStop), network.stopName(endStop), route.getLengthKm());
+            buses.add(bus);
+            registerBus(bus, route, stopDistances(network, trip, route), stopNames(network, trip));
+        }
+        refreshNearbyStops();
+        refreshVisibleMarkers();
+        openPositionJournal();
+    }
+
+    /**
+     * Opens the position journal off the main thread, replaying whatever the
+     * last run had not compacted, and puts each bus back where it was last seen.
+     */
+    private void openPositionJournal() {
+        File dir = new File(getFilesDir(), JOURNAL_DIR);
+        new Thread(() -> {
+            long start = SystemClock.elapsedRealtime();
+            try {
+                PositionJournal journal = PositionJournal.open(dir);
+                PositionTrack last = new PositionTrack();
+                journal.snapshot(last);
+                Log.i(TAG, "Position journal opened in " + (SystemClock.elapsedRealtime() - start)
+                        + "ms: " + journal.stats());
+                handler.post(() -> restorePositions(journal, last));
+            } catch (IOException e) {
+                Log.e(TAG, "Could not open position journal", e);
+            }
+        }, "journal-open").start();
+    }
+
+    private void restorePositions(PositionJournal journal, PositionTrack last) {
+        if (isDestroyed()) {
+            closePositionJournal(journal);
+            return;
+        }
+        long oldest = System.currentTimeMillis() - RESTORE_MAX_AGE_MILLIS;
+        long now = System.nanoTime();
+        for (int i = 0; i < last.size(); i++) {
+            int vehicle = last.vehicle(i);
+            if (vehicle >= buses.size() || last.timestamp(i) < oldest) continue;
+            Bus bus = buses.get(vehicle);
+            // A different feed since the last run would put the bus off its route
+            if (last.km(i) > bus.route.getLengthKm()) continue;
+            bus.distanceTraveled = last.km(i);
+            fleetEngine.moveBus(vehicle, last.km(i));
+            motionPredictor.place(vehicle, bus.route, last.km(i), 0, now);
+            updateBusPosition(bus, last.lat(i), last.lng(i), last.speed(i), last.heading(i));
+        }
+        positionJournal = journal;
+        fleetTracker.setJournal(journal);
+        refreshVisibleMarkers();
+    }
+
+    // close() waits for the last batch to be written, so it runs off the main thread
+    private static void closePositionJournal(PositionJournal journal) {
+        new Thread(() -> {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Could not close position journal", e);
+            }
+        }, "journal-close").start();
+    }
+
+    // Stops of a trip as distances along its shape, each searched from the previous one onwards
+    private static double[] stopDistances(TransitNetwork network, int trip, RouteGeometry route) {
+        int first = network.tripStopTimeStart(trip);
+        double[] km = new double[network.tripStopTimeEnd(trip) - first];
+        double from = 0;
+        for (int i = 0; i < km.length; i++) {
+            int stop = network.stopTimeStop(first + i);
+            km[i] = route.project(network.stopLat(stop), network.stopLng(stop), from, route.getLengthKm());
+            from = km[i];
+        }
+        return km;
+    }
+
+    private static String[] stopNames(TransitNetwork network, int trip) {
+        int first = network.tripStopTimeStart(trip);
+        String[] names = new String[network.tripStopTimeEnd(trip) - first];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = network.stopName(network.stopTimeStop(first + i));
+        }
+        return names;
+    }
+
+    /**
+     * Finds, for every bus, the stops on its route within walking distance of
+     * the user. Only reruns when the user or the set of buses changes, so the
+     * per-tick board update never measures distances.
+     */
+    private void refreshNearbyStops() {
+        if (userLocation == null) return;
+        DistanceKernel kernel = new DistanceKernel(userLocation.latitude, userLocation.longitude);
+        double[] position = new double[2];
+        IntList nearby = new IntList();
+        for (Bus bus : buses) {
+            int count = bus.stopKm.length;
+            double[] lat = new double[count];
+            double[] lng = new double[count];
+            for (int s = 0; s < count; s++) {
+                bus.route.positionAt(bus.stopKm[s], position);
+                lat[s] = position[0];
+                lng[s] = position[1];
+            }
+            double[] km = new double[count];
+            kernel.distancesKm(lat, lng, count, km);
+            nearby.clear();
+            for (int s = 0; s < count; s++) {
+                if (km[s] <= NEARBY_RADIUS_KM) nearby.add(s);
+            }
+            bus.nearbyStops = nearby.toArray();
+        }
+        cardArrivals.setVisibility(View.VISIBLE);
+        rekeyAllArrivals();
+    }
+
+    /**
+     * Re-keys the buses that moved this tick by their ETA to the next nearby
+     * stop they have not passed, O(log n) each, then shows the soonest few.
+     * Other buses keep their keys until they next report, except when the
+     * hour changes the paces every ETA is built on.
+     */
+    private void updateArrivals(IntList changed, long timeMillis) {
+        if (userLocation == null) return;
+        int bucket = etaEngine.bucketOf(timeMillis);
+        if (bucket != arrivalsBucket) {
+            arrivalsBucket = bucket;
+            rekeyAllArrivals();
+            return;
+        }
+        for (int c = 0; c < changed.size(); c++) {
+            rekeyArrival(buses.get(changed.get(c)));
+        }
+        showArrivals();
+    }
+
+    // When the nearby stops change
+    private void rekeyAllArrivals() {
+        for (Bus bus : buses) {
+            rekeyArrival(bus);
+        }
+        showArrivals();
+    }
+
+    private void rekeyArrival(Bus bus) {
+        int id = bus.engineIndex;
+        int stop = nextNearbyStop(bus);
+        float eta = stop >= 0 ? etaEngine.etaSeconds(id, stop) : EtaEngine.NO_ETA;
+        if (eta != EtaEngine.NO_ETA) {
+            arrivalBoard.update(id, eta);
+        } else {
+            arrivalBoard.remove(id);
+        }
+    }
+
+    // Rebuilds the rows only when the buses shown, their stops or their minutes differ
+    private void showArrivals() {
+        arrivalBoard.top(ARRIVAL_ROWS, topArrivals);
+        boolean same = topArrivals.size() == shownArrivalCount;
+        for (int i = 0; i < topArrivals.size(); i++) {
+            int id = topArrivals.get(i);
+            int stop = nextNearbyStop(buses.get(id));
+            int minutes = (int) (arrivalBoard.eta(id) / 60);
+            if (same && shownArrivalIds[i] == id && shownArrivalStops[i] == stop
+                    && shownArrivalMinutes[i] == minutes) {
+                continue;
+            }
+            same = false;
+            shownArrivalIds[i] = id;
+            shownArrivalStops[i] = stop;
+            shownArrivalMinutes[i] = minutes;
+        }
+        if (same) return;
+        shownArrivalCount = topArrivals.size();
+
+        List<ArrivalRow> rows = new ArrayList<>(shownArrivalCount);
+        for (int i = 0; i < shownArrivalCount; i++) {
+            Bus bus = buses.get(shownArrivalIds[i]);
+            int stop = shownArrivalStops[i];
+            rows.add(new ArrivalRow(shownArrivalIds[i], bus.busNumber, bus.endPointName,
+                    bus.stopNames != null ? bus.stopNames[stop] : null, shownArrivalMinutes[i]));
+        }
+        arrivalAdapter.submitList(rows);
+    }
+
+    // First nearby stop the bus has not reached yet, or -1
+    private int nextNearbyStop(Bus bus) {
+        int last = etaEngine.lastStop(bus.engineIndex);
+        for (int stop : bus.nearbyStops) {
+            if (stop > last) return stop;
+        }
+        return -1;
+    }
+
+    private Map<String, RouteGeometry> loadRouteShapes() {
+        try (Reader reader = new InputStreamReader(
+                getAssets().open(ROUTE_SHAPES_ASSET), StandardCharsets.UTF_8)) {
+            return RouteShapeLoader.load(reader);
+        } catch (IOException e) {
+            Log.w(TAG, "Route shapes unavailable, using straight lines", e);
+            return Collections.emptyMap();
+        }
     }
 
     @Override
@@ -225,18 +829,17 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
             addUserMarker();
         }
 
-        // Add markers for all buses
-        for (Bus bus : buses) {
-            LatLng position = new LatLng(bus.currentLat, bus.currentLng);
-            Marker marker = map.addMarker(new MarkerOptions()
-                    .position(position)
-                    .icon(createBusIcon(bus.busNumber))
-                    .anchor(0.5f, 0.5f)
-                    .flat(true));
+        // Bus markers are only created for the visible part of the map, clustered when zoomed out
+        clusterLayer = new ClusterLayer(map, clusterIndex);
+        map.setOnMapLoadedCallback(() -> Log.i(TAG, "Cold start: map loaded "
+                + (SystemClock.elapsedRealtime() - createdAtMillis) + "ms after onCreate"));
 
-            markerBusMap.put(marker, bus);
-            bus.marker = marker;
-        }
+        map.setOnCameraIdleListener(() -> {
+            markerAnimator.setZoom(map.getCameraPosition().zoom);
+            refreshUpdateFocus();
+            refreshVisibleMarkers();
+            refreshRouteLine();
+        });
 
         LatLng colombo = new LatLng(6.9271, 79.8612);
         if (userLocation != null) {
@@ -246,6 +849,15 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         }
 
         map.setOnMarkerClickListener(marker -> {
+            if (marker.equals(userMarker)) {
+                showNearestBus();
+                return true;
+            }
+            if (clusterLayer.isCluster(marker)) {
+                map.animateCamera(CameraUpdateFactory.newLatLngZoom(marker.getPosition(),
+                        map.getCameraPosition().zoom + 2));
+                return true;
+            }
             Bus bus = markerBusMap.get(marker);
             if (bus != null) {
                 showBusInfo(bus);
@@ -257,122 +869,615 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         map.setOnMapClickListener(latLng -> {
             if (cardBusInfo.getVisibility() == View.VISIBLE) {
                 cardBusInfo.setVisibility(View.GONE);
-                selectedBus = null;
+                setSelectedBus(null);
                 clearRouteDisplay();
             }
         });
 
+        map.setOnMapLongClickListener(this::planJourneyTo);
+
         startRealTimeTracking();
     }
 
-    private BitmapDescriptor createBusIcon(String busNumber) {
-        int width = 120;
-        int height = 120;
-        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(bitmap);
-        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    /**
+     * Plans from the user's location to a long-pressed point, leaving now,
+     * and lists the journeys found.
+     */
+    private void planJourneyTo(LatLng destination) {
+        JourneyPlanner planner = journeyPlanner;
+        if (planner == null) {
+            Toast.makeText(this, "Timetable still loading", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (userLocation == null) {
+            Toast.makeText(this, "Location needed to plan a journey", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (!planning.compareAndSet(false, true)) return;
+        LatLng from = userLocation;
+        Calendar now = Calendar.getInstance();
+        int date = serviceDate(now);
+        int departure = now.get(Calendar.HOUR_OF_DAY) * 3600 + now.get(Calendar.MINUTE) * 60
+                + now.get(Calendar.SECOND);
+        new Thread(() -> {
+            try {
+                long start = SystemClock.elapsedRealtime();
+                JourneyPlanner dayPlanner = planner;
+                // The timetable only holds one day's trips; past midnight, rebuild it for the new day
+                if (planner.getTimetable().getServiceDate() != date) {
+                    dayPlanner = new JourneyPlanner(RaptorTimetable.build(planner.getTimetable().getNetwork(),
+                            RaptorTimetable.DEFAULT_MAX_WALK_KM, date));
+                    journeyPlanner = dayPlanner;
+                }
+                List<Journey> journeys = dayPlanner.plan(from.latitude, from.longitude,
+                        destination.latitude, destination.longitude, departure);
+                Log.i(TAG, "Planned " + journeys.size() + " journeys in "
+                        + (SystemClock.elapsedRealtime() - start) + "ms");
+                String text = describeJourneys(dayPlanner, journeys);
+                handler.post(() -> {
+                    if (isDestroyed()) return;
+                    new AlertDialog.Builder(this)
+                            .setTitle("Journeys")
+                            .setMessage(text)
+                            .setPositiveButton(android.R.string.ok, null)
+                            .show();
+                });
+            } finally {
+                planning.set(false);
+            }
+        }, "journey-planner").start();
+    }
+
+    // yyyymmdd, as GTFS calendars write dates
+    private static int serviceDate(Calendar day) {
+        return day.get(Calendar.YEAR) * 10000 + (day.get(Calendar.MONTH) + 1) * 100
+                + day.get(Calendar.DAY_OF_MONTH);
+    }
+
+    private static String describeJourneys(JourneyPlanner planner, List<Journey> journeys) {
+        if (journeys.isEmpty()) return "No bus journey found from here within walking distance";
+        TransitNetwork network = planner.getTimetable().getNetwork();
+        StringBuilder text = new StringBuilder();
+        for (Journey journey : journeys) {
+            if (text.length() > 0) text.append("\n\n");
+            text.append(clockText(journey.getDeparture())).append(" - ")
+                    .append(clockText(journey.getArrival())).append("  (")
+                    .append(journey.getTransfers() == 1 ? "1 change" : journey.getTransfers() + " changes")
+                    .append(')');
+            for (Journey.Leg leg : journey.getLegs()) {
+                text.append("\n");
+                if (leg.mode == Journey.Mode.RIDE) {
+                    text.append(clockText(leg.departure)).append(" Bus ")
+                            .append(network.routeShortName(network.tripRoute(leg.trip)))
+                            .append(" from ").append(network.stopName(leg.fromStop))
+                            .append(" to ").append(network.stopName(leg.toStop));
+                } else if (leg.toStop == Journey.Leg.POINT) {
+                    text.append(clockText(leg.departure)).append(" Walk to destination");
+                } else {
+                    text.append(clockText(leg.departure)).append(" Walk to ")
+                            .append(network.stopName(leg.toStop));
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    private static String clockText(int seconds) {
+        return String.format(Locale.US, "%02d:%02d", seconds / 3600 % 24, seconds / 60 % 60);
+    }
+
+    private void refreshVisibleMarkers() {
+        if (map == null) return;
+        long start = markerRefreshTimes.start();
 
-        paint.setColor(Color.parseColor("#2E7D32"));
-        paint.setStyle(Paint.Style.FILL);
-        RectF busBody = new RectF(20, 30, 100, 90);
-        canvas.drawRoundRect(busBody, 8, 8, paint);
+        LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+        float zoom = map.getCameraPosition().zoom;
+        if (zoom < UNCLUSTERED_ZOOM) {
+            // Buses alone in their cluster cell still get their own marker
+            clusterLayer.render(zoom, bounds, visibleBusIds);
+        } else {
+            clusterLayer.clear();
+            busIndex.queryBox(bounds.southwest.latitude, bounds.southwest.longitude,
+                    bounds.northeast.latitude, bounds.northeast.longitude, visibleBusIds);
+        }
 
-        paint.setColor(Color.parseColor("#C8E6C9"));
-        canvas.drawRect(30, 40, 50, 55, paint);
-        canvas.drawRect(55, 40, 75, 55, paint);
-        canvas.drawRect(80, 40, 95, 55, paint);
+        visibleGeneration++;
+        for (int i = 0; i < visibleBusIds.size(); i++) {
+            buses.get(visibleBusIds.get(i)).visibleGeneration = visibleGeneration;
+        }
+        // Keep the selected bus on the map even when the user pans away
+        if (selectedBus != null) {
+            selectedBus.visibleGeneration = visibleGeneration;
+        }
 
-        paint.setColor(Color.WHITE);
-        RectF numberBg = new RectF(35, 60, 85, 82);
-        canvas.drawRoundRect(numberBg, 4, 4, paint);
+        // Drop markers that left the viewport
+        int kept = 0;
+        for (int i = 0; i < shownBuses.size(); i++) {
+            Bus bus = shownBuses.get(i);
+            if (bus.visibleGeneration == visibleGeneration) {
+                shownBuses.set(kept++, bus);
+            } else {
+                removeBusMarker(bus);
+            }
+        }
+        shownBuses.subList(kept, shownBuses.size()).clear();
 
-        paint.setColor(Color.parseColor("#1B5E20"));
-        paint.setTextSize(18);
-        paint.setTextAlign(Paint.Align.CENTER);
-        paint.setFakeBoldText(true);
-        canvas.drawText(busNumber, 60, 76, paint);
+        for (int i = 0; i < visibleBusIds.size(); i++) {
+            Bus bus = buses.get(visibleBusIds.get(i));
+            if (bus.marker == null) {
+                addBusMarker(bus);
+            }
+        }
+        if (selectedBus != null && selectedBus.marker == null) {
+            addBusMarker(selectedBus);
+        }
+        markerRefreshTimes.stop(start);
+    }
 
-        paint.setColor(Color.parseColor("#66BB6A"));
-        Path triangle = new Path();
-        triangle.moveTo(60, 25);
-        triangle.lineTo(50, 35);
-        triangle.lineTo(70, 35);
-        triangle.close();
-        canvas.drawPath(triangle, paint);
+    /**
+     * Tells the engine which buses are worth frequent updates: the selected
+     * one, those in the viewport, and those within one screen of it.
+     */
+    private void refreshUpdateFocus() {
+        if (map == null) return;
+        LatLngBounds bounds = map.getProjection().getVisibleRegion().latLngBounds;
+        double south = bounds.southwest.latitude;
+        double west = bounds.southwest.longitude;
+        double north = bounds.northeast.latitude;
+        double east = bounds.northeast.longitude;
+        double height = north - south;
+        double width = east - west;
+        busIndex.queryBox(south, west, north, east, focusVisible);
+        busIndex.queryBox(south - height, west - width, north + height, east + width, focusNearby);
+        fleetEngine.focus(selectedBus != null ? selectedBus.engineIndex : -1, focusVisible, focusNearby);
+    }
 
-        return BitmapDescriptorFactory.fromBitmap(bitmap);
+    private void addBusMarker(Bus bus) {
+        LatLng position = new LatLng(bus.currentLat, bus.currentLng);
+        Marker marker = map.addMarker(new MarkerOptions()
+                .position(position)
+                .icon(busIcon(bus))
+                .anchor(0.5f, 0.5f)
+                .flat(true));
+
+        markerBusMap.put(marker, bus);
+        bus.marker = marker;
+        shownBuses.add(bus);
+        markerAnimator.track(bus.engineIndex, marker, bus.currentLat, bus.currentLng);
+    }
+
+    private void removeBusMarker(Bus bus) {
+        markerAnimator.untrack(bus.engineIndex);
+        markerBusMap.remove(bus.marker);
+        bus.marker.remove();
+        bus.marker = null;
+    }
+
+    private void showNearestBus() {
+        if (userLocation == null) return;
+
+        int found = busIndex.nearest(userLocation.latitude, userLocation.longitude,
+                nearestBusIds.length, nearestBusIds);
+        if (found == 0) {
+            Toast.makeText(this, "No buses nearby", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Bus bus = buses.get(nearestBusIds[0]);
+        showBusInfo(bus);
+        showBusRoute(bus);
+    }
+
+    private BitmapDescriptor busIcon(Bus bus) {
+        BusIconCache.Style style = bus == selectedBus
+                ? BusIconCache.Style.SELECTED : BusIconCache.Style.NORMAL;
+        return busIconCache.get(bus.busNumber, style, bus.heading);
+    }
+
+    private void refreshBusIcon(Bus bus) {
+        if (bus.marker != null) {
+            bus.marker.setIcon(busIcon(bus));
+        }
     }
 
     private void startRealTimeTracking() {
-        updateRunnable = new Runnable() {
-            @Override
-            public void run() {
-                for (Bus bus : buses) {
-                    updateBusPosition(bus);
-                }
+        // Markers move every frame from the predictor; fixes only correct it
+        markerAnimator.start();
+
+        String replayFile = getString(R.string.replay_file);
+        if (!replayFile.isEmpty()) {
+            startReplay(new File(getFilesDir(), replayFile));
+            return;
+        }
+        String liveFeed = getString(R.string.live_feed);
+        if (!liveFeed.isEmpty()) {
+            startLiveFeed(liveFeed);
+            return;
+        }
+
+        // The engine ticks on its own thread; only the newest snapshot is applied on the UI thread
+        updateRunnable = () -> {
+            snapshotPending.set(false);
+            applySnapshot(fleetEngine.acquireSnapshot());
+        };
+        fleetEngine.setListener(tick -> {
+            if (snapshotPending.compareAndSet(false, true)) {
+                handler.post(updateRunnable);
+            }
+        });
+        fleetEngine.start();
+    }
 
+    /**
+     * Connects to a line-delimited feed at host:port. Updates are decoded on
+     * the pipeline thread and applied here once per frame.
+     */
+    private void startLiveFeed(String hostAndPort) {
+        startPositionPipeline();
+        connectLiveFeed(hostAndPort);
+    }
+
+    /**
+     * Plays a recording through the same pipeline, predictor and animator as
+     * the live feed, with controls for speed and scrubbing. ETAs run on the
+     * recorded clock, and replayed fixes are not journaled.
+     */
+    private void startReplay(File recording) {
+        replaying = true;
+        startPositionPipeline();
+        cardReplay.setVisibility(View.VISIBLE);
+        btnReplaySpeed.setText(speedLabel(replaySpeed));
+        openReplay(recording);
+    }
+
+    private void startPositionPipeline() {
+        positionPipeline = new PositionPipeline(PositionPipeline.DEFAULT_CAPACITY,
+                id -> busIdsToIndex.getOrDefault(id, PositionPipeline.UNKNOWN_VEHICLE));
+
+        PositionPipeline.Listener listener = (vehicle, timestamp, receivedNanos) -> {
+            Bus bus = buses.get(vehicle);
+            double lat = liveStore.lat(vehicle);
+            double lng = liveStore.lng(vehicle);
+            long now = System.nanoTime();
+            // Fixes off the route keep the last match; the marker sits on the route, the journal keeps the fix
+            double km = mapMatcher.match(vehicle, lat, lng, timestamp);
+            double shownLat = lat;
+            double shownLng = lng;
+            if (!Double.isNaN(km)) {
+                bus.distanceTraveled = km;
+                bus.route.positionAt(km, matchedPoint);
+                shownLat = matchedPoint[0];
+                shownLng = matchedPoint[1];
+            }
+            motionPredictor.onFix(vehicle, bus.distanceTraveled, liveStore.speed(vehicle), now);
+            if (!replaying && positionJournal != null) {
+                positionJournal.append(vehicle, timestamp, lat, lng, bus.distanceTraveled,
+                        liveStore.speed(vehicle), liveStore.heading(vehicle));
+            }
+            etaEngine.updateBus(vehicle, bus.distanceTraveled,
+                    replaying ? timestamp : System.currentTimeMillis());
+            newestAppliedTimestamp = Math.max(newestAppliedTimestamp, timestamp);
+            liveUpdatedBuses.add(vehicle);
+            updateBusPosition(bus, shownLat, shownLng, liveStore.speed(vehicle), liveStore.heading(vehicle));
+        };
+        liveFrameCallback = frameTimeNanos -> {
+            ReplaySource replay = replaySource;
+            if (replay != null && replay.getSeekGeneration() != replaySeekGeneration) {
+                // Scrubbed: the pipeline already dropped what was in flight, on the ingest thread
+                replaySeekGeneration = replay.getSeekGeneration();
+                newestAppliedTimestamp = Long.MIN_VALUE;
+                for (int i = 0; i < buses.size(); i++) {
+                    mapMatcher.reset(i);
+                }
+            }
+            long start = tickTimes.start();
+            int drained = positionPipeline.drain(liveStore, listener);
+            if (drained > 0) {
+                long etaTime = replay != null ? replay.replayTime() : System.currentTimeMillis();
+                etaEngine.tick(etaTime);
+                updateRouteStages(liveUpdatedBuses);
+                updateArrivals(liveUpdatedBuses, etaTime);
+                liveUpdatedBuses.clear();
+                refreshVisibleMarkers();
                 if (selectedBus != null && cardBusInfo.getVisibility() == View.VISIBLE) {
                     updateBusInfoUI(selectedBus);
                 }
-
-                handler.postDelayed(this, 2000);
+                if (replay != null) {
+                    replay.recordApplied(newestAppliedTimestamp);
+                }
+                busUpdates.add(drained);
+                tickTimes.stop(start);
             }
+            if (replay != null) {
+                updateReplayBar(replay);
+            }
+            Choreographer.getInstance().postFrameCallback(liveFrameCallback);
         };
-        handler.post(updateRunnable);
+        Choreographer.getInstance().postFrameCallback(liveFrameCallback);
     }
 
-    private void updateBusPosition(Bus bus) {
-        // Calculate direction towards end point
-        double dirLat = bus.endPoint.latitude - bus.currentLat;
-        double dirLng = bus.endPoint.longitude - bus.currentLng;
-        double distance = Math.sqrt(dirLat * dirLat + dirLng * dirLng);
+    private void connectLiveFeed(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        String host = hostAndPort.substring(0, colon);
+        int port = Integer.parseInt(hostAndPort.substring(colon + 1));
+        boolean record = getResources().getBoolean(R.bool.record_live_feed);
+        File recording = new File(getFilesDir(), "live-" + System.currentTimeMillis() + ".busr");
+        new Thread(() -> {
+            try {
+                PositionSource source = LinePositionSource.socket(host, port);
+                if (record) {
+                    PositionRecorder recorder = PositionRecorder.create(recording);
+                    source = recorder.recording(source);
+                    liveRecorder = recorder;
+                    Log.i(TAG, "Recording live feed to " + recording);
+                }
+                positionPipeline.start(source);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not connect to live feed " + hostAndPort, e);
+            }
+        }, "live-feed-connect").start();
+    }
 
-        if (distance < 0.001) {
-            // Reached end, reset to start
-            bus.currentLat = bus.startPoint.latitude;
-            bus.currentLng = bus.startPoint.longitude;
-            bus.distanceTraveled = 0;
-        } else {
-            // Move towards end point with some randomness
-            double step = 0.0004;
-            bus.currentLat += (dirLat / distance) * step + (random.nextDouble() - 0.5) * 0.0001;
-            bus.currentLng += (dirLng / distance) * step + (random.nextDouble() - 0.5) * 0.0001;
+    // Opening reads only the footer; the pipeline thread streams the rest
+    private void openReplay(File recording) {
+        double speed = replaySpeed;
+        long resumeAt = replayResumeAt;
+        new Thread(() -> {
+            try {
+                ReplaySource replay = ReplaySource.open(recording);
+                replay.setSpeed(speed);
+                if (resumeAt != Long.MIN_VALUE) {
+                    replay.seek(resumeAt);
+                }
+                Log.i(TAG, "Replaying " + replay.getRecords() + " fixes of " + replay.getVehicleCount()
+                        + " vehicles from " + recording);
+                handler.post(() -> {
+                    replaySource = replay;
+                    replaySeekGeneration = replay.getSeekGeneration();
+                });
+                positionPipeline.start(replay);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not open recording " + recording, e);
+            }
+        }, "replay-open").start();
+    }
 
-            // Update distance traveled
-            bus.distanceTraveled += step * 111; // Rough km conversion
+    private void cycleReplaySpeed() {
+        replaySpeed = replaySpeed >= 100 ? 1 : replaySpeed * 10;
+        btnReplaySpeed.setText(speedLabel(replaySpeed));
+        if (replaySource != null) {
+            replaySource.setSpeed(replaySpeed);
         }
+    }
 
-        LatLng oldPosition = bus.marker.getPosition();
-        LatLng newPosition = new LatLng(bus.currentLat, bus.currentLng);
-        bus.speed = 20 + random.nextDouble() * 35;
+    private static String speedLabel(double speed) {
+        return (long) speed + "x";
+    }
 
-        animateMarker(bus.marker, oldPosition, newPosition);
+    // A few times a second is enough for the clock and lag readout
+    private void updateReplayBar(ReplaySource replay) {
+        long now = System.nanoTime();
+        if (now - replayStatusAtNanos < 250_000_000L) return;
+        replayStatusAtNanos = now;
+        long time = replay.replayTime();
+        long start = replay.getStartTimestamp();
+        long span = Math.max(1, replay.getEndTimestamp() - start);
+        seekReplay.setProgress((int) ((time - start) * seekReplay.getMax() / span));
+        tvReplayStatus.setText(String.format(Locale.US, "%s lag %.0fms",
+                replayTimeFormat.format(time), replay.getLastLagMillis()));
     }
 
-    private void animateMarker(Marker marker, LatLng from, LatLng to) {
-        ValueAnimator animator = ValueAnimator.ofFloat(0, 1);
-        animator.setDuration(2000);
-        animator.setInterpolator(new LinearInterpolator());
+    private void applySnapshot(FleetSnapshot snapshot) {
+        long start = tickTimes.start();
+        // The tracker feeds the predictor, ETAs, indexes and journal; only the views are left here
+        if (!fleetTracker.apply(snapshot, System.nanoTime(), System.currentTimeMillis(), changedBuses)) return;
+        for (int c = 0; c < changedBuses.size(); c++) {
+            int i = changedBuses.get(c);
+            Bus bus = buses.get(i);
+            bus.distanceTraveled = snapshot.distanceTraveled(i);
+            showBusState(bus, snapshot.lat(i), snapshot.lng(i), snapshot.speed(i), snapshot.heading(i));
+        }
+        updateRouteStages(changedBuses);
+        updateArrivals(changedBuses, System.currentTimeMillis());
+        refreshVisibleMarkers();
 
-        animator.addUpdateListener(animation -> {
-            float fraction = (float) animation.getAnimatedValue();
-            double lat = from.latitude + (to.latitude - from.latitude) * fraction;
-            double lng = from.longitude + (to.longitude - from.longitude) * fraction;
-            marker.setPosition(new LatLng(lat, lng));
-        });
+        if (selectedBus != null && cardBusInfo.getVisibility() == View.VISIBLE) {
+            updateBusInfoUI(selectedBus);
+        }
+        busUpdates.add(changedBuses.size());
+        tickTimes.stop(start);
+    }
+
+    // After the ETA tick, so headways and alerts see the same times as the card
+    private void updateRouteStages(IntList updated) {
+        boolean alerts = stopAlerts.size() > 0;
+        for (int c = 0; c < updated.size(); c++) {
+            int i = updated.get(c);
+            double km = buses.get(i).distanceTraveled;
+            headwayMonitor.update(i, km);
+            if (alerts) stopAlerts.update(i, km, stopAlertListener);
+        }
+        refreshHeadwayOverlay();
+    }
+
+    private void onSpacingChanged(int route, int follower, int leader, HeadwayMonitor.Spacing spacing,
+                                  float headwaySeconds) {
+        if (spacing == HeadwayMonitor.Spacing.REGULAR) return;
+        (spacing == HeadwayMonitor.Spacing.BUNCHED ? bunchingEvents : gapEvents).increment();
+        Log.i(TAG, "Bus " + buses.get(follower).id + " " + spacing + " behind "
+                + buses.get(leader).id + ": " + Math.round(headwaySeconds) + "s on " + buses.get(follower).busNumber);
+    }
+
+    /**
+     * Colours the selected route between each bus and the one ahead by
+     * spacing, and sums up the route's headways. A pair's line is only
+     * redrawn when either bus moved or the spacing changed, and the summary
+     * only when one of its numbers did.
+     */
+    private void refreshHeadwayOverlay() {
+        if (map == null || selectedBus == null || currentRouteLine == null) {
+            clearHeadwayOverlay();
+            return;
+        }
+        headwayMonitor.buses(routeKey(selectedBus.busNumber), routeBuses);
+        int pairs = Math.max(0, routeBuses.size() - 1);
+        while (headwayLines.size() > pairs) {
+            headwayLines.remove(headwayLines.size() - 1).remove();
+        }
+        if (pairs > headwayFollowers.length) {
+            int capacity = Math.max(pairs, headwayFollowers.length * 2);
+            headwayFollowers = Arrays.copyOf(headwayFollowers, capacity);
+            headwayLeaders = Arrays.copyOf(headwayLeaders, capacity);
+            headwayFromKm = Arrays.copyOf(headwayFromKm, capacity);
+            headwayToKm = Arrays.copyOf(headwayToKm, capacity);
+            headwayColors = Arrays.copyOf(headwayColors, capacity);
+        }
+        int bunched = 0;
+        int gaps = 0;
+        for (int i = 0; i < pairs; i++) {
+            int follower = routeBuses.get(i);
+            int leader = routeBuses.get(i + 1);
+            HeadwayMonitor.Spacing spacing = headwayMonitor.spacing(follower);
+            int color = spacing == HeadwayMonitor.Spacing.BUNCHED ? RED
+                    : spacing == HeadwayMonitor.Spacing.GAP ? ORANGE : GREEN;
+            if (spacing == HeadwayMonitor.Spacing.BUNCHED) bunched++;
+            if (spacing == HeadwayMonitor.Spacing.GAP) gaps++;
+            double fromKm = headwayMonitor.distanceKm(follower);
+            double toKm = headwayMonitor.distanceKm(leader);
+            boolean drawn = i < headwayLines.size();
+            if (drawn && headwayFollowers[i] == follower && headwayLeaders[i] == leader
+                    && headwayFromKm[i] == fromKm && headwayToKm[i] == toKm && headwayColors[i] == color) {
+                continue;
+            }
+            List<LatLng> points = routeBetween(buses.get(follower).route, fromKm, toKm);
+            if (drawn) {
+                Polyline line = headwayLines.get(i);
+                line.setPoints(points);
+                if (headwayColors[i] != color) line.setColor(color);
+            } else {
+                headwayLines.add(map.addPolyline(new PolylineOptions()
+                        .addAll(points).color(color).width(16).zIndex(1)));
+            }
+            headwayFollowers[i] = follower;
+            headwayLeaders[i] = leader;
+            headwayFromKm[i] = fromKm;
+            headwayToKm[i] = toKm;
+            headwayColors[i] = color;
+        }
 
-        animator.start();
+        int route = routeKey(selectedBus.busNumber);
+        // The summary shows the mean to a tenth of a minute
+        int tenths = pairs == 0 ? 0 : Math.round(headwayMonitor.meanHeadwaySeconds(route) / 6);
+        if (route == shownHeadwayRoute && routeBuses.size() == shownHeadwayBuses && tenths == shownHeadwayTenths
+                && bunched == shownBunched && gaps == shownGaps) {
+            return;
+        }
+        shownHeadwayRoute = route;
+        shownHeadwayBuses = routeBuses.size();
+        shownHeadwayTenths = tenths;
+        shownBunched = bunched;
+        shownGaps = gaps;
+        tvHeadways.setText(pairs == 0
+                ? String.format(Locale.US, "Route %s: %d bus", selectedBus.busNumber, routeBuses.size())
+                : String.format(Locale.US, "Route %s: %d buses, every %.1f min\n%d bunched, %d gaps",
+                        selectedBus.busNumber, routeBuses.size(), tenths / 10f, bunched, gaps));
+        tvHeadways.setVisibility(View.VISIBLE);
+    }
+
+    private void clearHeadwayOverlay() {
+        for (Polyline line : headwayLines) {
+            line.remove();
+        }
+        headwayLines.clear();
+        shownHeadwayRoute = -1;
+        if (tvHeadways != null) tvHeadways.setVisibility(View.GONE);
+    }
+
+    // Points along the route from one distance to another
+    private List<LatLng> routeBetween(RouteGeometry route, double fromKm, double toKm) {
+        List<LatLng> points = new ArrayList<>();
+        int segment = route.positionAt(fromKm, routePoint);
+        points.add(new LatLng(routePoint[0], routePoint[1]));
+        for (int v = segment + 1; v < route.vertexCount() && route.cumulativeKm(v) < toKm; v++) {
+            points.add(new LatLng(route.lat(v), route.lng(v)));
+        }
+        route.positionAt(toKm, routePoint);
+        points.add(new LatLng(routePoint[0], routePoint[1]));
+        return points;
+    }
+
+    private void onStopAlert(int subscription, int busIndex, float etaSeconds) {
+        Bus bus = buses.get(busIndex);
+        int minutes = Math.max(1, Math.round(etaSeconds / 60));
+        Toast.makeText(this, "Bus " + bus.busNumber + " is " + minutes + " min from "
+                + stopAlertLabels.get(subscription), Toast.LENGTH_LONG).show();
+    }
+
+    /**
+     * Long-pressing the ETA watches the next stop of this bus number at or
+     * after the user's position, or stops watching it.
+     */
+    private void toggleStopAlert(Bus bus) {
+        Integer existing = stopAlertIds.remove(bus.busNumber);
+        if (existing != null) {
+            stopAlerts.unsubscribe(existing);
+            stopAlertLabels.remove(existing);
+            Toast.makeText(this, "Alert for bus " + bus.busNumber + " removed", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (userLocation == null) {
+            Toast.makeText(this, "Location needed to set an alert", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        double userKm = bus.route.project(userLocation.latitude, userLocation.longitude);
+        int stop = 0;
+        while (stop < bus.stopKm.length && bus.stopKm[stop] < userKm) {
+            stop++;
+        }
+        boolean named = stop < bus.stopKm.length && bus.stopNames != null;
+        double km = named ? bus.stopKm[stop] : userKm;
+        String label = named ? bus.stopNames[stop] : "you";
+        int id = stopAlerts.subscribe(routeKey(bus.busNumber), km, STOP_ALERT_LEAD_SECONDS);
+        stopAlertIds.put(bus.busNumber, id);
+        stopAlertLabels.put(id, label);
+        Toast.makeText(this, "You will be alerted when a " + bus.busNumber + " is "
+                + STOP_ALERT_LEAD_SECONDS / 60 + " min from " + label, Toast.LENGTH_SHORT).show();
+    }
+
+    private int routeKey(String busNumber) {
+        Integer route = routeKeys.get(busNumber);
+        if (route == null) {
+            route = routeKeys.size();
+            routeKeys.put(busNumber, route);
+        }
+        return route;
+    }
+
+    private void updateBusPosition(Bus bus, double lat, double lng, float speed, float heading) {
+        fleetTracker.place(bus.engineIndex, lat, lng);
+        showBusState(bus, lat, lng, speed, heading);
+    }
+
+    private void showBusState(Bus bus, double lat, double lng, float speed, float heading) {
+        bus.currentLat = lat;
+        bus.currentLng = lng;
+        bus.speed = speed;
+
+        boolean turned = BusIconCache.headingBucket(heading) != BusIconCache.headingBucket(bus.heading);
+        bus.heading = heading;
+        if (turned) {
+            refreshBusIcon(bus);
+        }
     }
 
     private void showBusRoute(Bus bus) {
         clearRouteDisplay();
 
-        // Draw route line
+        // Draw route line, simplified for the current zoom
+        routeLineZoom = (int) map.getCameraPosition().zoom;
         PolylineOptions polylineOptions = new PolylineOptions()
-                .add(bus.startPoint, bus.endPoint)
+                .addAll(routePoints(bus.route, routeLineZoom))
                 .color(Color.parseColor("#4CAF50"))
-                .width(10)
-                .geodesic(true);
+                .width(10);
         currentRouteLine = map.addPolyline(polylineOptions);
 
         // Add start marker
@@ -389,18 +1494,41 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
 
         // Adjust camera to show full route
         LatLngBounds.Builder builder = new LatLngBounds.Builder();
-        builder.include(bus.startPoint);
-        builder.include(bus.endPoint);
+        for (LatLng point : currentRouteLine.getPoints()) {
+            builder.include(point);
+        }
         builder.include(new LatLng(bus.currentLat, bus.currentLng));
 
         LatLngBounds bounds = builder.build();
         map.animateCamera(CameraUpdateFactory.newLatLngBounds(bounds, 150));
+        refreshHeadwayOverlay();
+    }
+
+    private void refreshRouteLine() {
+        if (currentRouteLine == null || selectedBus == null) return;
+
+        int zoom = (int) map.getCameraPosition().zoom;
+        if (zoom != routeLineZoom) {
+            routeLineZoom = zoom;
+            currentRouteLine.setPoints(routePoints(selectedBus.route, zoom));
+        }
+    }
+
+    private List<LatLng> routePoints(RouteGeometry route, int zoom) {
+        int[] vertices = route.simplifiedForZoom(zoom);
+        List<LatLng> points = new ArrayList<>(vertices.length);
+        for (int vertex : vertices) {
+            points.add(new LatLng(route.lat(vertex), route.lng(vertex)));
+        }
+        return points;
     }
 
     private void clearRouteDisplay() {
+        clearHeadwayOverlay();
         if (currentRouteLine != null) {
             currentRouteLine.remove();
             currentRouteLine = null;
+            routeLineZoom = -1;
         }
         if (startMarker != null) {
             startMarker.remove();
@@ -412,8 +1540,22 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         }
     }
 
-    private void showBusInfo(Bus bus) {
+    private void setSelectedBus(Bus bus) {
+        Bus previous = selectedBus;
         selectedBus = bus;
+        if (previous != null && previous != bus) {
+            refreshBusIcon(previous);
+        }
+        if (bus != null && bus != previous) {
+            refreshBusIcon(bus);
+        }
+        if (bus != previous) {
+            refreshUpdateFocus();
+        }
+    }
+
+    private void showBusInfo(Bus bus) {
+        setSelectedBus(bus);
         updateBusInfoUI(bus);
         cardBusInfo.setVisibility(View.VISIBLE);
 
@@ -424,114 +1566,193 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
                 .start();
     }
 
+    /**
+     * Refreshes the info card, once per tick while it is open. Live fields
+     * are formatted into reused buffers and a view is only touched when its
+     * text changes, so most ticks set nothing and cause no layout.
+     */
     private void updateBusInfoUI(Bus bus) {
-        tvBusId.setText("Bus ID: " + bus.id);
-        tvBusNumber.setText("Bus #" + bus.busNumber);
-        tvSpeed.setText(String.format("%.0f km/h", bus.speed));
-
-        // Route information
-        tvRouteDistance.setText(String.format("%.1f km", bus.totalDistance));
-        tvStartPoint.setText(bus.startPointName);
-        tvEndPoint.setText(bus.endPointName);
-
-        // Calculate progress percentage
-        double progress = (bus.distanceTraveled / bus.totalDistance) * 100;
-        if (progress > 100) progress = 100;
-        tvProgress.setText(String.format("%.0f%% Complete", progress));
+        long start = infoCardTimes.start();
+        if (bus != cardBus) {
+            cardBus = bus;
+            cardText.reset();
+            addressCell = Long.MIN_VALUE;
+            tvBusId.setText("Bus ID: " + bus.id);
+            tvBusNumber.setText("Bus #" + bus.busNumber);
+            tvStartPoint.setText(bus.startPointName);
+            tvEndPoint.setText(bus.endPointName);
+            infoCardViewUpdates.add(4);
+        }
 
-        // Calculate distance to user and ETA
+        double distanceToUser = Double.NaN;
+        double userKm = 0;
+        float etaSeconds = EtaEngine.NO_ETA;
         if (userLocation != null) {
-            double distanceToUser = calculateDistance(
-                    userLocation.latitude, userLocation.longitude,
+            distanceToUser = GeoMath.distanceKm(userLocation.latitude, userLocation.longitude,
                     bus.currentLat, bus.currentLng);
-
-            tvDistanceToUser.setText(String.format("%.1f km away from you", distanceToUser));
-
-            // Calculate ETA (assuming average speed)
-            double avgSpeed = bus.speed > 0 ? bus.speed : 30; // Use 30 km/h as fallback
-            double etaHours = distanceToUser / avgSpeed;
-            double etaMinutes = etaHours * 60;
-
-            if (etaMinutes < 1) {
-                tvETA.setText("⚡ Arriving in less than 1 min");
-                tvETA.setTextColor(Color.parseColor("#D32F2F"));
-            } else if (etaMinutes <= 5) {
-                tvETA.setText(String.format("⏱️ Near you in %d mins", (int)Math.ceil(etaMinutes)));
-                tvETA.setTextColor(Color.parseColor("#388E3C"));
-            } else if (etaMinutes <= 15) {
-                tvETA.setText(String.format("🚌 Arriving in %d mins", (int)Math.ceil(etaMinutes)));
-                tvETA.setTextColor(Color.parseColor("#F57C00"));
-            } else {
-                tvETA.setText(String.format("⏰ Arriving in %d mins", (int)Math.ceil(etaMinutes)));
-                tvETA.setTextColor(Color.parseColor("#757575"));
-            }
-        } else {
-            tvDistanceToUser.setText("Enable location to see distance");
-            tvETA.setText("Location required for ETA");
+            // ETA to the point on the route closest to the user, from segment travel times
+            userKm = bus.route.project(userLocation.latitude, userLocation.longitude);
+            etaSeconds = etaEngine.etaSecondsToKm(bus.engineIndex, userKm);
         }
 
-        // Update status
-        if (bus.speed < 5) {
-            tvStatus.setText("● STOPPED");
-            tvStatus.setTextColor(Color.parseColor("#D32F2F"));
-        } else if (bus.speed < 20) {
-            tvStatus.setText("● SLOW");
-            tvStatus.setTextColor(Color.parseColor("#F57C00"));
-        } else {
-            tvStatus.setText("● MOVING");
-            tvStatus.setTextColor(Color.parseColor("#388E3C"));
+        int changed = cardText.update(bus.speed, bus.totalDistance, bus.distanceTraveled,
+                distanceToUser, etaSeconds, userKm);
+        if ((changed & InfoCardText.SPEED) != 0) {
+            show(tvSpeed, cardText.speed);
+        }
+        if ((changed & InfoCardText.ROUTE_DISTANCE) != 0) {
+            show(tvRouteDistance, cardText.routeDistance);
+        }
+        if ((changed & InfoCardText.PROGRESS) != 0) {
+            show(tvProgress, cardText.progress);
+        }
+        if ((changed & InfoCardText.DISTANCE_TO_USER) != 0) {
+            show(tvDistanceToUser, cardText.distanceToUser);
+        }
+        if ((changed & InfoCardText.ETA) != 0) {
+            show(tvETA, cardText.eta);
+            TripStatus.EtaBand band = cardText.getEtaBand();
+            tvETA.setTextColor(band != null ? ETA_COLORS[band.ordinal()] : GREY);
+        }
+        if ((changed & InfoCardText.STATUS) != 0) {
+            int motion = cardText.getMotion().ordinal();
+            tvStatus.setText(MOTION_LABELS[motion]);
+            tvStatus.setTextColor(MOTION_COLORS[motion]);
+            infoCardViewUpdates.increment();
         }
 
-        getAddressFromLocation(bus.currentLat, bus.currentLng);
+        // The geocoder answers per cell, so only ask again once the bus is in a new one
+        long cell = geocodingService.cellKey(bus.currentLat, bus.currentLng);
+        if (cell != addressCell) {
+            addressCell = cell;
+            requestBusAddress(bus);
+        }
+        infoCardTimes.stop(start);
     }
 
-    private double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
-        // Haversine formula
-        final int R = 6371; // Radius of the earth in km
-
-        double latDistance = Math.toRadians(lat2 - lat1);
-        double lonDistance = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
-                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-
-        return R * c; // Distance in km
+    // The char[] overload reuses the view's own wrapper rather than copying to a String
+    private void show(TextView view, TextBuffer text) {
+        view.setText(text.array(), 0, text.length());
+        infoCardViewUpdates.increment();
     }
 
-    private void getAddressFromLocation(double lat, double lng) {
-        new Thread(() -> {
-            try {
-                List<Address> addresses = geocoder.getFromLocation(lat, lng, 1);
-                if (addresses != null && !addresses.isEmpty()) {
-                    Address address = addresses.get(0);
-                    String location = "";
+    private void requestBusAddress(Bus bus) {
+        geocodingService.lookup(bus.id, bus.currentLat, bus.currentLng, address -> {
+            String location = address != null ? address : "Colombo Area";
+            runOnUiThread(() -> {
+                if (selectedBus == bus) {
+                    tvLocation.setText(location);
+                }
+            });
+        });
+    }
 
-                    if (address.getThoroughfare() != null) {
-                        location = address.getThoroughfare();
-                    }
-                    if (address.getLocality() != null) {
-                        location += (location.isEmpty() ? "" : ", ") + address.getLocality();
-                    }
-                    if (location.isEmpty() && address.getAddressLine(0) != null) {
-                        location = address.getAddressLine(0);
-                    }
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // The first start is handled by onMapReady
+        if (map == null) return;
+        markerAnimator.start();
+        if (positionPipeline != null) {
+            String replayFile = getString(R.string.replay_file);
+            if (!replayFile.isEmpty()) {
+                openReplay(new File(getFilesDir(), replayFile));
+            } else {
+                connectLiveFeed(getString(R.string.live_feed));
+            }
+            Choreographer.getInstance().postFrameCallback(liveFrameCallback);
+        } else {
+            fleetEngine.start();
+        }
+    }
 
-                    String finalLocation = location.isEmpty() ? "Colombo Area" : location;
-                    runOnUiThread(() -> tvLocation.setText(finalLocation));
+    /**
+     * Nothing is on screen, so the simulation, the live feed and the frame
+     * callbacks all stop rather than waking the device for updates nobody sees.
+     */
+    @Override
+    protected void onStop() {
+        super.onStop();
+        markerAnimator.stop();
+        fleetEngine.stop();
+        if (replaySource != null) {
+            // Stopping the pipeline closes the replay; carry on from here next time
+            replayResumeAt = replaySource.replayTime();
+            Log.i(TAG, "Replay lag " + replaySource.lagSummary());
+            replaySource = null;
+        }
+        if (positionPipeline != null) {
+            positionPipeline.stop();
+            Choreographer.getInstance().removeFrameCallback(liveFrameCallback);
+        }
+        Log.i(TAG, "Fleet updates " + fleetEngine.getUpdateScheduler().stats());
+        fleetEngine.getUpdateScheduler().resetCounters();
+        // The process may be killed from here on, so don't wait for the next batched sync
+        PositionJournal journal = positionJournal;
+        if (journal != null) {
+            new Thread(() -> {
+                try {
+                    journal.flush();
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not flush position journal", e);
                 }
-            } catch (IOException e) {
-                runOnUiThread(() -> tvLocation.setText("Colombo Area"));
-            }
-        }).start();
+            }, "journal-flush").start();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+        Log.i(TAG, "Marker animation " + markerAnimator.getFrameStats().summary());
+        Log.i(TAG, "Bus icons " + busIconCache.stats());
+        if (clusterLayer != null) {
+            Log.i(TAG, "Clusters " + clusterLayer.stats());
+        }
+        Log.i(TAG, "Geocoder " + geocodingService.stats());
+        Log.i(TAG, "Motion prediction " + motionPredictor.stats());
+        if (positionPipeline != null) {
+            Log.i(TAG, "Live feed " + positionPipeline.stats());
+        }
+        PositionRecorder recorder = liveRecorder;
+        if (recorder != null && recorder.getFailure() != null) {
+            Log.w(TAG, "Live feed recording stopped after " + recorder.getRecords() + " records",
+                    recorder.getFailure());
+        }
+        if (positionJournal != null) {
+            Log.i(TAG, "Position journal " + positionJournal.stats());
+        }
+        if (metrics.isEnabled()) {
+            Log.i(TAG, "Metrics\n" + metrics.dumpText());
+        }
+        markerAnimator.getFrameStats().reset();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        markerAnimator.stop();
+        if (liveFrameCallback != null) {
+            Choreographer.getInstance().removeFrameCallback(liveFrameCallback);
+        }
+        if (positionPipeline != null) {
+            positionPipeline.stop();
+        }
+        geocodingService.shutdown();
+        if (positionJournal != null) {
+            fleetTracker.setJournal(null);
+            closePositionJournal(positionJournal);
+            positionJournal = null;
+        }
+        if (fleetEngine != null) {
+            fleetEngine.setListener(null);
+            fleetEngine.shutdown();
+        }
         if (handler != null && updateRunnable != null) {
             handler.removeCallbacks(updateRunnable);
         }
+        if (handler != null && metricsRefresh != null) {
+            handler.removeCallbacks(metricsRefresh);
+        }
     }
 
     static class Bus {
@@ -542,10 +1763,19 @@ public class MainActivity extends AppCompatActivity implements OnMapReadyCallbac
         String startPointName;
         String endPointName;
         double totalDistance;
+        RouteGeometry route;
         double currentLat;
         double currentLng;
         double speed;
+        float heading;
         double distanceTraveled;
+        double[] stopKm;
+        // Null when the stops are unnamed shape vertices
+        String[] stopNames;
+        // Indices into stopKm within NEARBY_RADIUS_KM of the user, ascending
+        int[] nearbyStops = new int[0];
+        int engineIndex;
+        int visibleGeneration;
         Marker marker;
 
         Bus(String id, String busNumber, LatLng start, LatLng end,
@@ -0,0 +1,91 @@
+package com.busapp.lk.arrivals;
+
+import android.graphics.Color;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+import com.busapp.lk.R;
+
+/**
+ * Rows of the nearby arrivals board. Lists are diffed off the main thread,
+ * so a tick where only one bus's minute changed rebinds one row and a bus
+ * overtaking another is a move rather than two rebinds.
+ */
+public final class ArrivalAdapter extends ListAdapter<ArrivalRow, ArrivalAdapter.ViewHolder> {
+
+    public interface OnArrivalClickListener {
+        void onArrivalClick(int busIndex);
+    }
+
+    private static final int SOON = Color.parseColor("#D32F2F");
+    private static final int NEAR = Color.parseColor("#388E3C");
+    private static final int LATER = Color.parseColor("#757575");
+
+    private static final DiffUtil.ItemCallback<ArrivalRow> DIFF = new DiffUtil.ItemCallback<ArrivalRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ArrivalRow a, @NonNull ArrivalRow b) {
+            return a.busIndex == b.busIndex;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ArrivalRow a, @NonNull ArrivalRow b) {
+            return a.equals(b);
+        }
+    };
+
+    private final OnArrivalClickListener listener;
+
+    public ArrivalAdapter(OnArrivalClickListener listener) {
+        super(DIFF);
+        this.listener = listener;
+    }
+
+    @NonNull
+    @Override
+    public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_arrival, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        view.setOnClickListener(v -> {
+            int position = holder.getBindingAdapterPosition();
+            if (position != RecyclerView.NO_POSITION) {
+                listener.onArrivalClick(getItem(position).busIndex);
+            }
+        });
+        return holder;
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+        ArrivalRow row = getItem(position);
+        holder.bus.setText(row.busNumber);
+        holder.destination.setText("To " + row.destination);
+        holder.stop.setText(row.stopName != null ? "At " + row.stopName : "Passes near you");
+        if (row.etaMinutes < 1) {
+            holder.eta.setText("Now");
+            holder.eta.setTextColor(SOON);
+        } else {
+            holder.eta.setText(row.etaMinutes + " min");
+            holder.eta.setTextColor(row.etaMinutes <= 5 ? NEAR : LATER);
+        }
+    }
+
+    static final class ViewHolder extends RecyclerView.ViewHolder {
+        final TextView bus;
+        final TextView destination;
+        final TextView stop;
+        final TextView eta;
+
+        ViewHolder(View view) {
+            super(view);
+            bus = view.findViewById(R.id.tvArrivalBus);
+            destination = view.findViewById(R.id.tvArrivalDestination);
+            stop = view.findViewById(R.id.tvArrivalStop);
+            eta = view.findViewById(R.id.tvArrivalEta);
+        }
+    }
+}
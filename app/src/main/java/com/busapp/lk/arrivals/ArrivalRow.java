@@ -0,0 +1,41 @@
+package com.busapp.lk.arrivals;
+
+import java.util.Objects;
+
+/**
+ * One immutable row of the nearby arrivals board. ETAs are kept in whole
+ * minutes, so a row only changes, and only rebinds, when the text would.
+ */
+public final class ArrivalRow {
+
+    final int busIndex;
+    final String busNumber;
+    final String destination;
+    final String stopName;
+    final int etaMinutes;
+
+    public ArrivalRow(int busIndex, String busNumber, String destination, String stopName, int etaMinutes) {
+        this.busIndex = busIndex;
+        this.busNumber = busNumber;
+        this.destination = destination;
+        this.stopName = stopName;
+        this.etaMinutes = etaMinutes;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof ArrivalRow)) return false;
+        ArrivalRow row = (ArrivalRow) other;
+        return busIndex == row.busIndex
+                && etaMinutes == row.etaMinutes
+                && busNumber.equals(row.busNumber)
+                && destination.equals(row.destination)
+                && Objects.equals(stopName, row.stopName);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * busIndex + etaMinutes;
+    }
+}
@@ -0,0 +1,43 @@
+package com.busapp.lk.geocode;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * {@link ReverseGeocoder} backed by the platform {@link Geocoder}, formatting
+ * "street, locality" like the bus info card expects.
+ */
+public final class AndroidReverseGeocoder implements ReverseGeocoder {
+
+    private final Geocoder geocoder;
+
+    public AndroidReverseGeocoder(Context context) {
+        geocoder = new Geocoder(context, Locale.getDefault());
+    }
+
+    @Override
+    public String reverseGeocode(double lat, double lng) throws IOException {
+        List<Address> addresses = geocoder.getFromLocation(lat, lng, 1);
+        if (addresses == null || addresses.isEmpty()) {
+            return null;
+        }
+
+        Address address = addresses.get(0);
+        String location = "";
+
+        if (address.getThoroughfare() != null) {
+            location = address.getThoroughfare();
+        }
+        if (address.getLocality() != null) {
+            location += (location.isEmpty() ? "" : ", ") + address.getLocality();
+        }
+        if (location.isEmpty() && address.getAddressLine(0) != null) {
+            location = address.getAddressLine(0);
+        }
+        return location.isEmpty() ? null : location;
+    }
+}
@@ -0,0 +1,168 @@
+package com.busapp.lk.map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.SystemClock;
+import android.util.LruCache;
+import com.busapp.lk.metrics.LatencyHistogram;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Shared bus marker icons keyed by route number, style and heading bucket.
+ * Every bus on the same route and heading reuses one {@link BitmapDescriptor},
+ * and the cache is bounded by bitmap bytes with LRU eviction.
+ *
+ * <p>The Maps SDK has no sprite or atlas API for markers, so sharing whole
+ * descriptors is the reuse available. Must be used from the main thread.
+ */
+public final class BusIconCache {
+
+    public enum Style {
+        NORMAL,
+        SELECTED
+    }
+
+    public static final int HEADING_BUCKETS = 8;
+    public static final int DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+
+    private static final int SIZE = 120;
+    private static final float BUCKET_DEGREES = 360f / HEADING_BUCKETS;
+
+    private static final int BODY = Color.parseColor("#2E7D32");
+    private static final int BODY_SELECTED = Color.parseColor("#F57C00");
+    private static final int WINDOW = Color.parseColor("#C8E6C9");
+    private static final int NUMBER_TEXT = Color.parseColor("#1B5E20");
+    private static final int POINTER = Color.parseColor("#66BB6A");
+
+    private final LruCache<Integer, Icon> icons;
+    private final Map<String, Integer> routeKeys = new HashMap<>();
+
+    private final Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final RectF busBody = new RectF(20, 30, 100, 90);
+    private final RectF numberBg = new RectF(35, 60, 85, 82);
+    private final Path pointer = new Path();
+
+    private long hits;
+    private long misses;
+    private long drawNanos;
+    // Null unless timing icon creation for the metrics overlay
+    private LatencyHistogram drawTimes;
+
+    public BusIconCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public BusIconCache(int maxBytes) {
+        icons = new LruCache<Integer, Icon>(maxBytes) {
+            @Override
+            protected int sizeOf(Integer key, Icon icon) {
+                return icon.byteCount;
+            }
+        };
+
+        fillPaint.setStyle(Paint.Style.FILL);
+        textPaint.setColor(NUMBER_TEXT);
+        textPaint.setTextSize(18);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setFakeBoldText(true);
+
+        pointer.moveTo(60, 25);
+        pointer.lineTo(50, 35);
+        pointer.lineTo(70, 35);
+        pointer.close();
+    }
+
+    public void setDrawTimes(LatencyHistogram drawTimes) {
+        this.drawTimes = drawTimes;
+    }
+
+    public static int headingBucket(float headingDegrees) {
+        float normalized = ((headingDegrees % 360) + 360) % 360;
+        return Math.round(normalized / BUCKET_DEGREES) % HEADING_BUCKETS;
+    }
+
+    public BitmapDescriptor get(String busNumber, Style style, float headingDegrees) {
+        int bucket = headingBucket(headingDegrees);
+        Integer key = key(busNumber, style, bucket);
+        Icon icon = icons.get(key);
+        if (icon != null) {
+            hits++;
+            return icon.descriptor;
+        }
+
+        misses++;
+        long start = SystemClock.elapsedRealtimeNanos();
+        long timed = drawTimes != null ? drawTimes.start() : LatencyHistogram.OFF;
+        Bitmap bitmap = draw(busNumber, style, bucket);
+        icon = new Icon(BitmapDescriptorFactory.fromBitmap(bitmap), bitmap.getByteCount());
+        drawNanos += SystemClock.elapsedRealtimeNanos() - start;
+        if (drawTimes != null) {
+            drawTimes.stop(timed);
+        }
+        icons.put(key, icon);
+        return icon.descriptor;
+    }
+
+    public String stats() {
+        long lookups = hits + misses;
+        return String.format(Locale.US,
+                "icons=%d bytes=%d hits=%d misses=%d hitRate=%.1f%% avgDraw=%.2fms",
+                icons.putCount() - icons.evictionCount(), icons.size(), hits, misses,
+                lookups == 0 ? 0 : 100.0 * hits / lookups,
+                misses == 0 ? 0 : drawNanos / 1e6 / misses);
+    }
+
+    private Integer key(String busNumber, Style style, int bucket) {
+        Integer route = routeKeys.get(busNumber);
+        if (route == null) {
+            route = routeKeys.size();
+            routeKeys.put(busNumber, route);
+        }
+        return (route << 8) | (style.ordinal() << 4) | bucket;
+    }
+
+    private Bitmap draw(String busNumber, Style style, int bucket) {
+        Bitmap bitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        fillPaint.setColor(style == Style.SELECTED ? BODY_SELECTED : BODY);
+        canvas.drawRoundRect(busBody, 8, 8, fillPaint);
+
+        fillPaint.setColor(WINDOW);
+        canvas.drawRect(30, 40, 50, 55, fillPaint);
+        canvas.drawRect(55, 40, 75, 55, fillPaint);
+        canvas.drawRect(80, 40, 95, 55, fillPaint);
+
+        fillPaint.setColor(Color.WHITE);
+        canvas.drawRoundRect(numberBg, 4, 4, fillPaint);
+        canvas.drawText(busNumber, 60, 76, textPaint);
+
+        // Direction pointer, rotated around the icon centre to the heading bucket
+        fillPaint.setColor(POINTER);
+        canvas.save();
+        canvas.rotate(bucket * BUCKET_DEGREES, SIZE / 2f, SIZE / 2f);
+        canvas.drawPath(pointer, fillPaint);
+        canvas.restore();
+
+        return bitmap;
+    }
+
+    private static final class Icon {
+        final BitmapDescriptor descriptor;
+        final int byteCount;
+
+        Icon(BitmapDescriptor descriptor, int byteCount) {
+            this.descriptor = descriptor;
+            this.byteCount = byteCount;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.busapp.lk.map;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.SystemClock;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import java.util.Locale;
+
+/**
+ * Cluster marker icons, one per count bucket. Counts under ten are drawn
+ * exactly and larger ones round down to a label like "50+", so the whole
+ * set is a couple of dozen bitmaps drawn once and reused for every cluster.
+ * Must be used from the main thread.
+ */
+public final class ClusterIconCache {
+
+    private static final int[] THRESHOLDS = {10, 20, 50, 100, 200, 500, 1000, 5000};
+    private static final int EXACT = THRESHOLDS[0];
+
+    private static final int FILL = Color.parseColor("#2E7D32");
+    private static final int RING = Color.parseColor("#A5D6A7");
+    private static final float DENSITY_STEP = 6;
+    private static final float BASE_RADIUS = 36;
+
+    private final BitmapDescriptor[] icons = new BitmapDescriptor[EXACT + THRESHOLDS.length];
+    private final Paint fillPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+    private long hits;
+    private long misses;
+    private long drawNanos;
+
+    public ClusterIconCache() {
+        fillPaint.setStyle(Paint.Style.FILL);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setFakeBoldText(true);
+    }
+
+    /**
+     * Bucket of a cluster size; two clusters with the same bucket share an icon.
+     */
+    public static int bucket(int count) {
+        if (count < EXACT) return count;
+        int bucket = EXACT;
+        for (int i = 1; i < THRESHOLDS.length && count >= THRESHOLDS[i]; i++) {
+            bucket++;
+        }
+        return bucket;
+    }
+
+    public BitmapDescriptor get(int count) {
+        int bucket = bucket(count);
+        BitmapDescriptor icon = icons[bucket];
+        if (icon != null) {
+            hits++;
+            return icon;
+        }
+
+        misses++;
+        long start = SystemClock.elapsedRealtimeNanos();
+        icon = BitmapDescriptorFactory.fromBitmap(draw(bucket));
+        drawNanos += SystemClock.elapsedRealtimeNanos() - start;
+        icons[bucket] = icon;
+        return icon;
+    }
+
+    public String stats() {
+        long lookups = hits + misses;
+        return String.format(Locale.US, "icons=%d hits=%d misses=%d hitRate=%.1f%% avgDraw=%.2fms",
+                misses, hits, misses, lookups == 0 ? 0 : 100.0 * hits / lookups,
+                misses == 0 ? 0 : drawNanos / 1e6 / misses);
+    }
+
+    private Bitmap draw(int bucket) {
+        String label = bucket < EXACT ? String.valueOf(bucket) : THRESHOLDS[bucket - EXACT] + "+";
+        // Bigger buckets get bigger circles so density reads at a glance
+        float radius = BASE_RADIUS + DENSITY_STEP * Math.max(0, bucket - EXACT + 1);
+        int size = (int) Math.ceil(2 * radius);
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        fillPaint.setColor(RING);
+        canvas.drawCircle(radius, radius, radius, fillPaint);
+        fillPaint.setColor(FILL);
+        canvas.drawCircle(radius, radius, radius * 0.78f, fillPaint);
+
+        textPaint.setTextSize(radius * 0.62f);
+        float baseline = radius - (textPaint.descent() + textPaint.ascent()) / 2;
+        canvas.drawText(label, radius, baseline, textPaint);
+        return bitmap;
+    }
+}
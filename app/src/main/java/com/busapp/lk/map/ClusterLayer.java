@@ -0,0 +1,168 @@
+package com.busapp.lk.map;
+
+import android.os.SystemClock;
+import com.busapp.lk.geo.ClusterIndex;
+import com.busapp.lk.util.IntList;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Draws the clusters of a {@link ClusterIndex} for the viewport. Each render
+ * is diffed against the last one by cluster cell: surviving markers are only
+ * moved when their centre shifts a pixel and only re-iconed when their count
+ * bucket changes. Markers that leave are hidden and pooled, so changing zoom
+ * reuses them instead of asking the map for new ones.
+ *
+ * <p>Clusters of one are not drawn here; their bus ids are handed back so
+ * the caller can show a normal bus marker. Must be used from the main thread.
+ */
+public final class ClusterLayer {
+
+    private final GoogleMap map;
+    private final ClusterIndex index;
+    private final ClusterIconCache icons = new ClusterIconCache();
+    private final IntList clusters = new IntList();
+    private final Map<Long, Shown> shown = new HashMap<>();
+    private final ArrayDeque<Marker> pool = new ArrayDeque<>();
+    private int shownZoom = -1;
+    private int generation;
+
+    private int lastClusters;
+    private int lastSingles;
+    private long renders;
+    private long renderNanos;
+    private long maxRenderNanos;
+
+    public ClusterLayer(GoogleMap map, ClusterIndex index) {
+        this.map = map;
+        this.index = index;
+    }
+
+    /**
+     * Shows the clusters in the viewport and writes the ids of buses that
+     * stand alone at this zoom into {@code singles}, which is cleared first.
+     */
+    public void render(float zoom, LatLngBounds bounds, IntList singles) {
+        long start = SystemClock.elapsedRealtimeNanos();
+        // Cell keys are only comparable within one zoom level
+        int level = (int) Math.floor(zoom);
+        if (level != shownZoom) {
+            clear();
+            shownZoom = level;
+        }
+        double degreesPerPixel = 360 / (256 * Math.pow(2, zoom));
+
+        index.query(zoom, bounds.southwest.latitude, bounds.southwest.longitude,
+                bounds.northeast.latitude, bounds.northeast.longitude, clusters);
+        generation++;
+        singles.clear();
+        for (int i = 0; i < clusters.size(); i++) {
+            int cluster = clusters.get(i);
+            int count = index.count(zoom, cluster);
+            if (count == 1) {
+                singles.add(index.single(zoom, cluster));
+                continue;
+            }
+            double lat = index.lat(zoom, cluster);
+            double lng = index.lng(zoom, cluster);
+            long key = index.key(zoom, cluster);
+            Shown entry = shown.get(key);
+            if (entry == null) {
+                entry = new Shown(obtainMarker(lat, lng, count), lat, lng, count);
+                shown.put(key, entry);
+            } else {
+                if (Math.abs(lat - entry.lat) > degreesPerPixel || Math.abs(lng - entry.lng) > degreesPerPixel) {
+                    entry.lat = lat;
+                    entry.lng = lng;
+                    entry.marker.setPosition(new LatLng(lat, lng));
+                }
+                if (ClusterIconCache.bucket(count) != ClusterIconCache.bucket(entry.count)) {
+                    entry.marker.setIcon(icons.get(count));
+                }
+                entry.count = count;
+            }
+            entry.generation = generation;
+        }
+
+        Iterator<Shown> it = shown.values().iterator();
+        while (it.hasNext()) {
+            Shown entry = it.next();
+            if (entry.generation != generation) {
+                recycle(entry.marker);
+                it.remove();
+            }
+        }
+
+        lastClusters = shown.size();
+        lastSingles = singles.size();
+        long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+        renders++;
+        renderNanos += elapsed;
+        maxRenderNanos = Math.max(maxRenderNanos, elapsed);
+    }
+
+    public boolean isCluster(Marker marker) {
+        return marker.getTag() == this;
+    }
+
+    // Hides every cluster marker, for when the map stops clustering
+    public void clear() {
+        for (Shown entry : shown.values()) {
+            recycle(entry.marker);
+        }
+        shown.clear();
+        shownZoom = -1;
+    }
+
+    public String stats() {
+        return String.format(Locale.US,
+                "clusters=%d singles=%d renders=%d avg=%.2fms max=%.2fms pooled=%d %s",
+                lastClusters, lastSingles, renders,
+                renders == 0 ? 0 : renderNanos / 1e6 / renders, maxRenderNanos / 1e6,
+                pool.size(), icons.stats());
+    }
+
+    private Marker obtainMarker(double lat, double lng, int count) {
+        Marker marker = pool.poll();
+        if (marker == null) {
+            marker = map.addMarker(new MarkerOptions()
+                    .position(new LatLng(lat, lng))
+                    .icon(icons.get(count))
+                    .anchor(0.5f, 0.5f));
+            marker.setTag(this);
+            return marker;
+        }
+        marker.setPosition(new LatLng(lat, lng));
+        marker.setIcon(icons.get(count));
+        marker.setVisible(true);
+        return marker;
+    }
+
+    private void recycle(Marker marker) {
+        marker.setVisible(false);
+        pool.push(marker);
+    }
+
+    private static final class Shown {
+        final Marker marker;
+        double lat;
+        double lng;
+        int count;
+        int generation;
+
+        Shown(Marker marker, double lat, double lng, int count) {
+            this.marker = marker;
+            this.lat = lat;
+            this.lng = lng;
+            this.count = count;
+        }
+    }
+}
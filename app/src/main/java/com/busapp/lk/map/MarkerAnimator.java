@@ -0,0 +1,148 @@
+package com.busapp.lk.map;
+
+import android.view.Choreographer;
+import com.busapp.lk.metrics.FrameStats;
+import com.busapp.lk.metrics.LatencyHistogram;
+import com.busapp.lk.motion.MotionPredictor;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import java.util.Arrays;
+
+/**
+ * Moves every tracked bus marker from one frame callback. Each frame asks
+ * the {@link MotionPredictor} where a bus should be drawn, so markers keep
+ * following the road between sparse fixes instead of freezing and jumping.
+ * A marker is only touched when it would move at least one pixel.
+ *
+ * <p>{@link LatLng} is immutable in the Maps API, so each real move still
+ * allocates one, but the sub-pixel skip removes most of them at city zoom.
+ * Frame times share {@link System#nanoTime()}'s clock, so fixes given to the
+ * predictor must use it too. Must be used from the main thread.
+ */
+public final class MarkerAnimator implements Choreographer.FrameCallback {
+
+    // Web Mercator world width in pixels at zoom 0
+    private static final double TILE_SIZE = 256;
+
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final FrameStats frameStats = FrameStats.sixtyHz();
+    private final MotionPredictor predictor;
+    private final double[] position = new double[2];
+
+    private Marker[] markers = new Marker[16];
+    // What each marker was last set to
+    private double[] shownLat = new double[16];
+    private double[] shownLng = new double[16];
+
+    // Dense list of tracked ids with a reverse index for O(1) removal
+    private int[] trackedIds = new int[16];
+    private int[] trackedPos = new int[16];
+    private int trackedCount;
+
+    private double pixelsPerDegree = pixelsPerDegree(12);
+    private long lastFrameNanos;
+    private boolean running;
+    // Null unless timing the marker pass for the metrics overlay
+    private LatencyHistogram updateTimes;
+
+    public MarkerAnimator(MotionPredictor predictor) {
+        this.predictor = predictor;
+    }
+
+    public void setZoom(float zoom) {
+        pixelsPerDegree = pixelsPerDegree(zoom);
+    }
+
+    public void setUpdateTimes(LatencyHistogram updateTimes) {
+        this.updateTimes = updateTimes;
+    }
+
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    /**
+     * Starts drawing a marker for a vehicle the predictor already tracks.
+     */
+    public void track(int id, Marker marker, double lat, double lng) {
+        ensureCapacity(id + 1);
+        if (markers[id] == null) {
+            trackedPos[id] = trackedCount;
+            trackedIds[trackedCount++] = id;
+        }
+        markers[id] = marker;
+        shownLat[id] = lat;
+        shownLng[id] = lng;
+    }
+
+    public void untrack(int id) {
+        if (id >= markers.length || markers[id] == null) return;
+        markers[id] = null;
+        int pos = trackedPos[id];
+        int last = trackedIds[--trackedCount];
+        trackedIds[pos] = last;
+        trackedPos[last] = pos;
+    }
+
+    public void start() {
+        if (!running) {
+            running = true;
+            lastFrameNanos = 0;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    public void stop() {
+        if (running) {
+            choreographer.removeFrameCallback(this);
+            running = false;
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (lastFrameNanos != 0) {
+            frameStats.record(frameTimeNanos - lastFrameNanos);
+        }
+        lastFrameNanos = frameTimeNanos;
+        LatencyHistogram times = updateTimes;
+        long start = times != null ? times.start() : LatencyHistogram.OFF;
+        double ppd = pixelsPerDegree;
+
+        for (int n = 0; n < trackedCount; n++) {
+            int id = trackedIds[n];
+            if (!predictor.isTracked(id)) continue;
+            predictor.positionAt(id, frameTimeNanos, position);
+            double lat = position[0];
+            double lng = position[1];
+
+            // Mercator stretches latitude by 1/cos(lat); close enough over a marker's step
+            double dx = (lng - shownLng[id]) * ppd;
+            double dy = (lat - shownLat[id]) * ppd / Math.cos(Math.toRadians(lat));
+            if (dx * dx + dy * dy < 1) continue;
+
+            shownLat[id] = lat;
+            shownLng[id] = lng;
+            markers[id].setPosition(new LatLng(lat, lng));
+        }
+        if (times != null) {
+            times.stop(start);
+        }
+
+        choreographer.postFrameCallback(this);
+    }
+
+    private static double pixelsPerDegree(float zoom) {
+        return TILE_SIZE * Math.pow(2, zoom) / 360.0;
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= markers.length) return;
+        int capacity = Math.max(size, markers.length * 2);
+        markers = Arrays.copyOf(markers, capacity);
+        shownLat = Arrays.copyOf(shownLat, capacity);
+        shownLng = Arrays.copyOf(shownLng, capacity);
+        trackedIds = Arrays.copyOf(trackedIds, capacity);
+        trackedPos = Arrays.copyOf(trackedPos, capacity);
+    }
+}
@@ -0,0 +1,113 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.geo.ClusterIndex;
+import com.busapp.lk.geo.SpatialGrid;
+import com.busapp.lk.util.IntList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Clustering a 10k fleet over greater Colombo for a phone-sized viewport
+ * (1080x2280 px) centred on Fort. {@code render} is the per-frame work of
+ * the map layer: query the visible clusters and read each one's centre and
+ * count. The marker counts with and without clustering are printed once
+ * per zoom at setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClusterBenchmark {
+
+    private static final int FLEET_SIZE = 10_000;
+    private static final double CENTER_LAT = 6.9271;
+    private static final double CENTER_LNG = 79.8612;
+    private static final int WIDTH_PX = 1080;
+    private static final int HEIGHT_PX = 2280;
+
+    @Param({"10", "13", "16"})
+    public int zoom;
+
+    private double[] homeLat;
+    private double[] homeLng;
+    private double[] lat;
+    private double[] lng;
+    private ClusterIndex index;
+    private double south, west, north, east;
+    private final IntList clusters = new IntList();
+    private Random random;
+
+    @Setup
+    public void setUp() {
+        random = new Random(17);
+        homeLat = new double[FLEET_SIZE];
+        homeLng = new double[FLEET_SIZE];
+        lat = new double[FLEET_SIZE];
+        lng = new double[FLEET_SIZE];
+        index = new ClusterIndex(8, 16);
+        for (int i = 0; i < FLEET_SIZE; i++) {
+            homeLat[i] = lat[i] = FleetFixtures.randomLat(random);
+            homeLng[i] = lng[i] = FleetFixtures.randomLng(random);
+            index.update(i, lat[i], lng[i]);
+        }
+
+        // Near the equator a degree of latitude is about a degree of longitude on screen
+        double degreesPerPixel = 360.0 / (256 * Math.pow(2, zoom));
+        west = CENTER_LNG - WIDTH_PX / 2.0 * degreesPerPixel;
+        east = CENTER_LNG + WIDTH_PX / 2.0 * degreesPerPixel;
+        south = CENTER_LAT - HEIGHT_PX / 2.0 * degreesPerPixel;
+        north = CENTER_LAT + HEIGHT_PX / 2.0 * degreesPerPixel;
+
+        SpatialGrid grid = SpatialGrid.forSriLanka(0.01);
+        for (int i = 0; i < FLEET_SIZE; i++) {
+            grid.update(i, lat[i], lng[i]);
+        }
+        IntList visible = new IntList();
+        grid.queryBox(south, west, north, east, visible);
+        index.query(zoom, south, west, north, east, clusters);
+        int singles = 0;
+        for (int i = 0; i < clusters.size(); i++) {
+            if (index.count(zoom, clusters.get(i)) == 1) singles++;
+        }
+        System.out.printf("%nzoom %d: %d buses in view, %d markers clustered (%d clusters, %d single buses)%n",
+                zoom, visible.size(), clusters.size(), clusters.size() - singles, singles);
+    }
+
+    @Benchmark
+    public double render() {
+        index.query(zoom, south, west, north, east, clusters);
+        double checksum = 0;
+        for (int i = 0; i < clusters.size(); i++) {
+            int cluster = clusters.get(i);
+            checksum += index.lat(zoom, cluster) + index.lng(zoom, cluster) + index.count(zoom, cluster);
+        }
+        return checksum;
+    }
+
+    // One fleet tick: every bus moves within about 100 m of home, so the fleet stays put across iterations
+    @Benchmark
+    public void incrementalMove() {
+        for (int i = 0; i < FLEET_SIZE; i++) {
+            lat[i] = homeLat[i] + (random.nextDouble() - 0.5) * 0.002;
+            lng[i] = homeLng[i] + (random.nextDouble() - 0.5) * 0.002;
+            index.update(i, lat[i], lng[i]);
+        }
+    }
+
+    // What the tick would cost if the clusters were rebuilt from scratch instead
+    @Benchmark
+    public ClusterIndex rebuild() {
+        ClusterIndex fresh = new ClusterIndex(8, 16);
+        for (int i = 0; i < FLEET_SIZE; i++) {
+            fresh.update(i, lat[i], lng[i]);
+        }
+        return fresh;
+    }
+}
@@ -0,0 +1,85 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.geo.DistanceKernel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Distance from the user to every bus: the per-pair haversine the info card
+ * uses versus the batch kernel's haversine and equirectangular paths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DistanceBenchmark {
+
+    private static final double USER_LAT = 6.9271;
+    private static final double USER_LNG = 79.8612;
+
+    @Param({"1000", "10000"})
+    public int points;
+
+    private double[] lat;
+    private double[] lng;
+    private double[] out;
+    private DistanceKernel kernel;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(23);
+        lat = new double[points];
+        lng = new double[points];
+        out = new double[points];
+        for (int i = 0; i < points; i++) {
+            lat[i] = FleetFixtures.randomLat(random);
+            lng[i] = FleetFixtures.randomLng(random);
+        }
+        kernel = new DistanceKernel(USER_LAT, USER_LNG);
+    }
+
+    @Benchmark
+    public double[] perPairHaversine() {
+        for (int i = 0; i < points; i++) {
+            out[i] = calculateDistance(USER_LAT, USER_LNG, lat[i], lng[i]);
+        }
+        return out;
+    }
+
+    @Benchmark
+    public double[] batchHaversine() {
+        kernel.haversineKm(lat, lng, points, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] batchEquirectangular() {
+        kernel.equirectangularKm(lat, lng, points, out);
+        return out;
+    }
+
+    @Benchmark
+    public double[] batchDistances() {
+        kernel.distancesKm(lat, lng, points, out);
+        return out;
+    }
+
+    // MainActivity.calculateDistance as shipped
+    private static double calculateDistance(double lat1, double lon1, double lat2, double lon2) {
+        final int R = 6371;
+        double latDistance = Math.toRadians(lat2 - lat1);
+        double lonDistance = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return R * c;
+    }
+}
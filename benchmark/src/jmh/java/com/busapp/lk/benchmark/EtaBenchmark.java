@@ -0,0 +1,127 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.eta.EtaEngine;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * ETAs to every downstream stop for every bus. The engine builds cumulative
+ * stop times once per route per tick; the baseline sums segment estimates
+ * from each bus's position to each stop, as a per-bus loop would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EtaBenchmark {
+
+    private static final int STOPS = 40;
+    private static final int BUSES_PER_ROUTE = 40;
+    private static final long NOW = 8 * 3_600_000L;
+
+    @Param({"5000"})
+    public int buses;
+
+    private EtaEngine engine;
+    private int[] busRoute;
+    private double[] busKm;
+    private double[][] routeStops;
+    private float[] etas;
+    private long time = NOW;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(17);
+        engine = new EtaEngine(TimeZone.getTimeZone("Asia/Colombo"), 20);
+        int routes = (buses + BUSES_PER_ROUTE - 1) / BUSES_PER_ROUTE;
+        routeStops = new double[routes][STOPS];
+        for (int r = 0; r < routes; r++) {
+            for (int s = 1; s < STOPS; s++) {
+                routeStops[r][s] = routeStops[r][s - 1] + 0.2 + random.nextDouble() * 0.8;
+            }
+            engine.addRoute(routeStops[r]);
+        }
+
+        busRoute = new int[buses];
+        busKm = new double[buses];
+        for (int b = 0; b < buses; b++) {
+            busRoute[b] = b / BUSES_PER_ROUTE;
+            engine.addBus(busRoute[b]);
+        }
+        // A morning of history: every bus drives its route a few times at varying speeds
+        for (int run = 0; run < 3; run++) {
+            long t = NOW - 3 * 3_600_000L + run * 3_600_000L;
+            for (int step = 0; step < 600; step++) {
+                for (int b = 0; b < buses; b++) {
+                    double length = routeStops[busRoute[b]][STOPS - 1];
+                    double km = Math.min(length, step * (0.05 + (b % 7) * 0.01));
+                    engine.updateBus(b, km, t + step * 10_000L);
+                }
+            }
+        }
+        for (int b = 0; b < buses; b++) {
+            busKm[b] = random.nextDouble() * routeStops[busRoute[b]][STOPS - 1];
+            engine.updateBus(b, busKm[b], NOW);
+        }
+        etas = new float[buses * STOPS];
+    }
+
+    @Benchmark
+    public float[] engineTick() {
+        engine.tick(NOW);
+        for (int b = 0; b < buses; b++) {
+            int base = b * STOPS;
+            for (int s = 0; s < STOPS; s++) {
+                etas[base + s] = engine.etaSeconds(b, s);
+            }
+        }
+        return etas;
+    }
+
+    @Benchmark
+    public float[] perBusSummation() {
+        int bucket = engine.bucketOf(NOW);
+        for (int b = 0; b < buses; b++) {
+            int route = busRoute[b];
+            double[] stops = routeStops[route];
+            double km = busKm[b];
+            int base = b * STOPS;
+            for (int s = 0; s < STOPS; s++) {
+                if (stops[s] <= km) {
+                    etas[base + s] = EtaEngine.NO_ETA;
+                    continue;
+                }
+                // Sum every segment between the bus and the stop
+                double seconds = 0;
+                for (int seg = 0; seg < s; seg++) {
+                    double from = Math.max(stops[seg], km);
+                    if (from < stops[seg + 1]) {
+                        seconds += (stops[seg + 1] - from) * engine.pace(route, seg, bucket);
+                    }
+                }
+                etas[base + s] = (float) seconds;
+            }
+        }
+        return etas;
+    }
+
+    // The per-tick learning cost: every bus reports a new position
+    @Benchmark
+    public void updateAllBuses() {
+        time += 2_000;
+        for (int b = 0; b < buses; b++) {
+            double length = routeStops[busRoute[b]][STOPS - 1];
+            double km = busKm[b] + 0.02;
+            busKm[b] = km > length ? 0 : km;
+            engine.updateBus(b, busKm[b], time);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.busapp.lk.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic fleets spread over greater Colombo.
+ */
+final class FleetFixtures {
+
+    static final double MIN_LAT = 6.80;
+    static final double MAX_LAT = 7.00;
+    static final double MIN_LNG = 79.83;
+    static final double MAX_LNG = 80.00;
+
+    private FleetFixtures() {
+    }
+
+    // Returns {startLat, startLng, endLat, endLng} per route
+    static double[][] randomRoutes(int count, long seed) {
+        Random random = new Random(seed);
+        double[][] routes = new double[count][];
+        for (int i = 0; i < count; i++) {
+            routes[i] = new double[]{
+                    randomLat(random), randomLng(random),
+                    randomLat(random), randomLng(random)};
+        }
+        return routes;
+    }
+
+    static double randomLat(Random random) {
+        return MIN_LAT + random.nextDouble() * (MAX_LAT - MIN_LAT);
+    }
+
+    static double randomLng(Random random) {
+        return MIN_LNG + random.nextDouble() * (MAX_LNG - MIN_LNG);
+    }
+}
@@ -0,0 +1,67 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.fleet.FleetEngine;
+import com.busapp.lk.fleet.FleetSnapshot;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One simulation tick over the whole fleet: per-bus objects versus the
+ * struct-of-arrays {@code VehicleStateStore}. Run with the gc profiler
+ * (the module default) to compare gc.alloc.rate.norm per tick.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FleetTickBenchmark {
+
+    private static final int ROUTES = 200;
+
+    @Param({"10000", "50000"})
+    public int fleetSize;
+
+    private ObjectFleetBaseline baseline;
+    private FleetEngine engine;
+
+    @Setup
+    public void setUp() {
+        double[][] routes = FleetFixtures.randomRoutes(ROUTES, 7);
+
+        baseline = new ObjectFleetBaseline();
+        for (int i = 0; i < fleetSize; i++) {
+            double[] route = routes[i % ROUTES];
+            baseline.add(new ObjectFleetBaseline.Bus(String.valueOf(i), String.valueOf(i % ROUTES),
+                    new ObjectFleetBaseline.Point(route[0], route[1]),
+                    new ObjectFleetBaseline.Point(route[2], route[3])));
+        }
+
+        engine = new FleetEngine(2000, new Random(42));
+        int[] routeIds = new int[ROUTES];
+        for (int r = 0; r < ROUTES; r++) {
+            double[] route = routes[r];
+            routeIds[r] = engine.addRoute(route[0], route[1], route[2], route[3]);
+        }
+        for (int i = 0; i < fleetSize; i++) {
+            engine.addBus(routeIds[i % ROUTES]);
+        }
+    }
+
+    @Benchmark
+    public double[][] objectPerBus() {
+        return baseline.tick();
+    }
+
+    @Benchmark
+    public FleetSnapshot vehicleStateStore() {
+        engine.tick();
+        return engine.acquireSnapshot();
+    }
+}
@@ -0,0 +1,71 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.fleet.HeadwayMonitor;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One position update on a single busy route: {@link HeadwayMonitor}
+ * keeping the order incrementally versus sorting the route's distances
+ * again. Buses creep forward by up to 300 m, so some updates overtake,
+ * and one in a hundred starts a new run from the terminus.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HeadwayBenchmark {
+
+    private static final double ROUTE_KM = 30;
+
+    @Param({"100", "1000", "10000"})
+    public int busesOnRoute;
+
+    private HeadwayMonitor monitor;
+    private double[] km;
+    private double[] sorted;
+    private Random random;
+
+    @Setup
+    public void setUp() {
+        random = new Random(13);
+        km = new double[busesOnRoute];
+        sorted = new double[busesOnRoute];
+        monitor = new HeadwayMonitor((bus, to) -> -1f);
+        for (int bus = 0; bus < busesOnRoute; bus++) {
+            km[bus] = random.nextDouble() * ROUTE_KM;
+            monitor.setBusRoute(bus, 138);
+            monitor.update(bus, km[bus]);
+        }
+    }
+
+    private int move() {
+        int bus = random.nextInt(busesOnRoute);
+        double next = km[bus] + random.nextDouble() * 0.3;
+        km[bus] = next >= ROUTE_KM || random.nextInt(100) == 0 ? 0 : next;
+        return bus;
+    }
+
+    @Benchmark
+    public float incremental() {
+        int bus = move();
+        monitor.update(bus, km[bus]);
+        return monitor.headwaySeconds(bus);
+    }
+
+    @Benchmark
+    public double resort() {
+        move();
+        System.arraycopy(km, 0, sorted, 0, busesOnRoute);
+        Arrays.sort(sorted);
+        return sorted[busesOnRoute / 2];
+    }
+}
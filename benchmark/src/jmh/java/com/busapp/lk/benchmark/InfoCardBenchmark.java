@@ -0,0 +1,96 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.eta.InfoCardText;
+import com.busapp.lk.eta.TripStatus;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * One minute of info card refreshes for a selected bus, at the simulation's
+ * two ticks a second. {@code formatted} builds every field with
+ * String.format as the card used to; {@code buffered} uses InfoCardText.
+ * gc.alloc.rate.norm is bytes per minute with the card open. The
+ * viewUpdates counter over the score is setText calls per minute, each
+ * of which can request a layout.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InfoCardBenchmark {
+
+    private static final int TICKS_PER_MINUTE = 120;
+    private static final double ROUTE_KM = 15.2;
+
+    private final double[] speed = new double[TICKS_PER_MINUTE];
+    private final double[] traveled = new double[TICKS_PER_MINUTE];
+    private final double[] toUser = new double[TICKS_PER_MINUTE];
+    private final float[] eta = new float[TICKS_PER_MINUTE];
+    private final InfoCardText card = new InfoCardText();
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Views {
+        public long viewUpdates;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            viewUpdates = 0;
+        }
+    }
+
+    // A bus in traffic: speed wanders around 30 km/h, 6 km short of the user
+    @Setup
+    public void setUp() {
+        Random random = new Random(5);
+        double km = 4;
+        for (int i = 0; i < TICKS_PER_MINUTE; i++) {
+            speed[i] = Math.max(0, 30 + random.nextGaussian() * 6);
+            km += speed[i] / 7200;
+            traveled[i] = km;
+            toUser[i] = 10 - km;
+            eta[i] = (float) ((10 - km) / 28 * 3600);
+        }
+    }
+
+    @Benchmark
+    public int formatted(Views views) {
+        int length = 0;
+        for (int i = 0; i < TICKS_PER_MINUTE; i++) {
+            // The old card set all ten of its texts every tick, bus id to status
+            String[] text = {
+                    String.format("%.0f km/h", speed[i]),
+                    String.format("%.1f km", ROUTE_KM),
+                    String.format("%.0f%% Complete", TripStatus.progressPercent(traveled[i], ROUTE_KM)),
+                    String.format("%.1f km away from you", toUser[i]),
+                    String.format("\uD83D\uDE8C Arriving in %d mins", TripStatus.etaMinutes(eta[i])),
+                    "Bus ID: " + i,
+            };
+            for (String s : text) {
+                length += s.length();
+            }
+            views.viewUpdates += 10;
+        }
+        return length;
+    }
+
+    @Benchmark
+    public int buffered(Views views) {
+        int length = 0;
+        for (int i = 0; i < TICKS_PER_MINUTE; i++) {
+            int changed = card.update(speed[i], ROUTE_KM, traveled[i], toUser[i], eta[i], 10);
+            views.viewUpdates += Integer.bitCount(changed);
+            length += card.speed.length() + card.eta.length();
+        }
+        card.reset();
+        return length;
+    }
+}
@@ -0,0 +1,115 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.journal.PositionJournal;
+import com.busapp.lk.journal.PositionTrack;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Position journal with two hours of history for 1000 buses reporting every
+ * 10 s (720k fixes compacted) plus 40k fixes still in journal segments.
+ * {@code queryLastHour} is "positions of bus X over the last hour",
+ * {@code reopen} is the recovery cost of a restart and {@code append} is the
+ * per-fix cost on the caller's thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JournalBenchmark {
+
+    private static final int BUSES = 1000;
+    private static final int HISTORY_FIXES = 720;
+    private static final int TAIL_FIXES = 40;
+    private static final long INTERVAL_MILLIS = 10_000;
+    private static final long T0 = 1_700_000_000_000L;
+    private static final long END = T0 + (HISTORY_FIXES + TAIL_FIXES) * INTERVAL_MILLIS;
+
+    private File dir;
+    private PositionJournal journal;
+    private final PositionTrack out = new PositionTrack(1024);
+    private Random random;
+
+    @Setup
+    public void setUp() throws IOException {
+        random = new Random(5);
+        dir = Files.createTempDirectory("journal-bench").toFile();
+        try (PositionJournal writer = PositionJournal.open(dir, 1 << 16, 1000, Integer.MAX_VALUE)) {
+            for (int i = 0; i < HISTORY_FIXES + TAIL_FIXES; i++) {
+                for (int bus = 0; bus < BUSES; bus++) {
+                    writer.append(bus, T0 + i * INTERVAL_MILLIS, FleetFixtures.randomLat(random),
+                            FleetFixtures.randomLng(random), i * 0.1, 25, 0);
+                }
+                if (i % 50 == 49) writer.flush();
+                if (i == HISTORY_FIXES - 1) writer.compact();
+            }
+        }
+        journal = PositionJournal.open(dir);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        journal.close();
+        delete(dir);
+    }
+
+    @Benchmark
+    public int queryLastHour() {
+        journal.query(random.nextInt(BUSES), END - 3_600_000L, END, out);
+        return out.size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int reopen() throws IOException {
+        try (PositionJournal reopened = PositionJournal.open(dir)) {
+            return reopened.getTailSize();
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public boolean append(Appender appender) {
+        return appender.journal.append(random.nextInt(BUSES), appender.time++, 6.9, 79.86, 1, 25, 0);
+    }
+
+    // A separate journal, so appends don't grow the tail the other benchmarks scan
+    @State(Scope.Benchmark)
+    public static class Appender {
+        File dir;
+        PositionJournal journal;
+        long time = T0;
+
+        @Setup
+        public void setUp() throws IOException {
+            dir = Files.createTempDirectory("journal-append").toFile();
+            journal = PositionJournal.open(dir);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            journal.close();
+            delete(dir);
+        }
+    }
+
+    private static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
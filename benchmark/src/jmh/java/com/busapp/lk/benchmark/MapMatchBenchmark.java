@@ -0,0 +1,180 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.ingest.PositionRecorder;
+import com.busapp.lk.ingest.ReplaySource;
+import com.busapp.lk.route.MapMatcher;
+import com.busapp.lk.route.RouteGeometry;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Matching one recorded fix to its route, in fixes per second on one
+ * core: the {@link MapMatcher} lattice versus greedy projection within a
+ * window of the last match and over the whole route. The route zig-zags
+ * over parallel streets 60 m apart, as routes that double back do, and 40
+ * buses report every 5 s with 15 m of noise and one fix in twenty thrown
+ * 80 to 300 m off. The trace goes through a {@link PositionRecorder} file
+ * and is read back with {@link ReplaySource}, so it holds what a replay
+ * delivers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MapMatchBenchmark {
+
+    private static final int BUSES = 40;
+    private static final int LEGS = 10;
+    private static final double LEG_METERS = 2000;
+    private static final double STREET_SPACING_METERS = 60;
+    private static final long FIX_INTERVAL_MILLIS = 5000;
+    private static final double WINDOW_KM = 1.0;
+
+    private RouteGeometry route;
+    private MapMatcher matcher;
+    private int fixes;
+    private int[] bus;
+    private long[] time;
+    private double[] lat;
+    private double[] lng;
+    private final double[] lastKm = new double[BUSES];
+    private int next = -1;
+
+    @Setup
+    public void setUp() throws IOException {
+        route = serpentine();
+        File file = File.createTempFile("map-match", ".busr");
+        try {
+            record(file);
+            read(file);
+        } finally {
+            file.delete();
+        }
+        matcher = new MapMatcher();
+        int routeIndex = matcher.addRoute(route);
+        for (int b = 0; b < BUSES; b++) {
+            matcher.addBus(routeIndex);
+        }
+    }
+
+    // Each new pass over the trace goes back in time, so the buses start over
+    private int nextFix() {
+        if (next == fixes || next < 0) {
+            next = 0;
+            for (int b = 0; b < BUSES; b++) {
+                matcher.reset(b);
+            }
+            Arrays.fill(lastKm, Double.NaN);
+        }
+        return next++;
+    }
+
+    @Benchmark
+    public double viterbi() {
+        int i = nextFix();
+        return matcher.match(bus[i], lat[i], lng[i], time[i]);
+    }
+
+    @Benchmark
+    public double projectWindow() {
+        int i = nextFix();
+        double last = lastKm[bus[i]];
+        double km = Double.isNaN(last) ? route.project(lat[i], lng[i])
+                : route.project(lat[i], lng[i], last - WINDOW_KM, last + WINDOW_KM);
+        lastKm[bus[i]] = km;
+        return km;
+    }
+
+    @Benchmark
+    public double projectWholeRoute() {
+        int i = nextFix();
+        return route.project(lat[i], lng[i]);
+    }
+
+    // Streets every 60 m north, run alternately east and west, with a vertex every 25 m
+    private static RouteGeometry serpentine() {
+        int perLeg = (int) (LEG_METERS / 25);
+        double[] lat = new double[LEGS * (perLeg + 1)];
+        double[] lng = new double[lat.length];
+        int v = 0;
+        for (int leg = 0; leg < LEGS; leg++) {
+            for (int i = 0; i <= perLeg; i++) {
+                double east = leg % 2 == 0 ? i * 25 : LEG_METERS - i * 25;
+                lat[v] = north(leg * STREET_SPACING_METERS);
+                lng[v++] = east(east);
+            }
+        }
+        return new RouteGeometry(lat, lng);
+    }
+
+    private void record(File file) throws IOException {
+        Random random = new Random(17);
+        double[] km = new double[BUSES];
+        double[] speed = new double[BUSES];
+        for (int b = 0; b < BUSES; b++) {
+            km[b] = random.nextDouble() * route.getLengthKm() / 2;
+            speed[b] = 6 + random.nextDouble() * 6;
+        }
+        double[] position = new double[2];
+        long start = 1_700_000_000_000L;
+        try (PositionRecorder recorder = PositionRecorder.create(file)) {
+            for (long t = 0; t < 3_600_000L; t += FIX_INTERVAL_MILLIS) {
+                for (int b = 0; b < BUSES; b++) {
+                    km[b] += speed[b] * FIX_INTERVAL_MILLIS / 1_000_000.0;
+                    if (km[b] >= route.getLengthKm()) km[b] = 0;
+                    route.positionAt(km[b], position);
+                    double offset = random.nextInt(20) == 0 ? 80 + random.nextDouble() * 220
+                            : random.nextGaussian() * 15;
+                    double angle = random.nextDouble() * 2 * Math.PI;
+                    recorder.accept("B" + b, start + t + b * FIX_INTERVAL_MILLIS / BUSES,
+                            position[0] + north(offset * Math.sin(angle)) - FleetFixtures.MIN_LAT,
+                            position[1] + east(offset * Math.cos(angle)) - FleetFixtures.MIN_LNG,
+                            (float) (speed[b] * 3.6), 0);
+                }
+            }
+        }
+    }
+
+    private void read(File file) throws IOException {
+        try (ReplaySource replay = ReplaySource.open(file)) {
+            int records = (int) replay.getRecords();
+            bus = new int[records];
+            time = new long[records];
+            lat = new double[records];
+            lng = new double[records];
+            replay.setSpeed(1e9);
+            replay.run((vehicleId, timestamp, fixLat, fixLng, speed, heading) -> {
+                bus[fixes] = Integer.parseInt(vehicleId.substring(1));
+                time[fixes] = timestamp;
+                lat[fixes] = fixLat;
+                lng[fixes++] = fixLng;
+                // Otherwise the replay waits at the end for a seek back
+                if (fixes == records) {
+                    try {
+                        replay.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        }
+    }
+
+    private static double north(double meters) {
+        return FleetFixtures.MIN_LAT + meters / 110_540;
+    }
+
+    private static double east(double meters) {
+        return FleetFixtures.MIN_LNG + meters / (111_320 * Math.cos(Math.toRadians(FleetFixtures.MIN_LAT)));
+    }
+}
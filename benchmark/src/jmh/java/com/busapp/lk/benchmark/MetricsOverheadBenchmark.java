@@ -0,0 +1,56 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.geo.GeoMath;
+import com.busapp.lk.metrics.Counter;
+import com.busapp.lk.metrics.LatencyHistogram;
+import com.busapp.lk.metrics.MetricsRegistry;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of timing and counting a small unit of work, one distance
+ * calculation, against the bare work. With the registry disabled
+ * {@code instrumented} should match {@code bare} to within noise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MetricsOverheadBenchmark {
+
+    @Param({"false", "true"})
+    public boolean enabled;
+
+    private LatencyHistogram histogram;
+    private Counter counter;
+    private double lat = 6.9271;
+    private double lng = 79.8612;
+
+    @Setup
+    public void setUp() {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.setEnabled(enabled);
+        histogram = registry.histogram("distance");
+        counter = registry.counter("distances");
+    }
+
+    @Benchmark
+    public double bare() {
+        return GeoMath.distanceKm(lat, lng, 6.8406, 79.8636);
+    }
+
+    @Benchmark
+    public double instrumented() {
+        long start = histogram.start();
+        double km = GeoMath.distanceKm(lat, lng, 6.8406, 79.8636);
+        counter.increment();
+        histogram.stop(start);
+        return km;
+    }
+}
@@ -0,0 +1,64 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.gtfs.GtfsLoader;
+import com.busapp.lk.gtfs.NetworkSnapshot;
+import com.busapp.lk.gtfs.TransitNetwork;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Cold-start network load: parsing the GTFS zip versus reading the binary
+ * snapshot written from it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class NetworkLoadBenchmark {
+
+    private static final long STAMP = 1L;
+
+    // Trips per route; 40 stops per trip, 200 routes
+    @Param({"10", "50"})
+    public int tripsPerRoute;
+
+    private File directory;
+    private File feed;
+    private File snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("gtfs-bench").toFile();
+        feed = SyntheticFeed.write(new File(directory, "gtfs.zip"),
+                4000, 200, tripsPerRoute, 40, 400, 5);
+        snapshot = new File(directory, "network.bin");
+        NetworkSnapshot.write(GtfsLoader.load(feed), snapshot, STAMP);
+    }
+
+    @TearDown
+    public void tearDown() {
+        feed.delete();
+        snapshot.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public TransitNetwork parseGtfs() throws IOException {
+        return GtfsLoader.load(feed);
+    }
+
+    @Benchmark
+    public TransitNetwork readSnapshot() throws IOException {
+        return NetworkSnapshot.read(snapshot, STAMP);
+    }
+}
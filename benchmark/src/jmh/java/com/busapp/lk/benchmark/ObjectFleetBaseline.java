@@ -0,0 +1,90 @@
+package com.busapp.lk.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The pre-VehicleStateStore tick: one object per bus holding boxed endpoints,
+ * a fresh position object per bus per tick (the old {@code new LatLng(...)} in
+ * {@code updateBusPosition()}) and freshly allocated snapshot arrays.
+ * Kept only as a benchmark reference.
+ */
+final class ObjectFleetBaseline {
+
+    static final class Point {
+        final double latitude;
+        final double longitude;
+
+        Point(double latitude, double longitude) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+    }
+
+    static final class Bus {
+        final String id;
+        final String busNumber;
+        final Point startPoint;
+        final Point endPoint;
+        double currentLat;
+        double currentLng;
+        double speed;
+        double distanceTraveled;
+        Point position;
+
+        Bus(String id, String busNumber, Point start, Point end) {
+            this.id = id;
+            this.busNumber = busNumber;
+            this.startPoint = start;
+            this.endPoint = end;
+            this.currentLat = start.latitude;
+            this.currentLng = start.longitude;
+            this.position = start;
+            this.speed = 30;
+        }
+    }
+
+    private final List<Bus> buses = new ArrayList<>();
+    private final Random random = new Random(42);
+
+    void add(Bus bus) {
+        buses.add(bus);
+    }
+
+    double[][] tick() {
+        for (Bus bus : buses) {
+            double dirLat = bus.endPoint.latitude - bus.currentLat;
+            double dirLng = bus.endPoint.longitude - bus.currentLng;
+            double distance = Math.sqrt(dirLat * dirLat + dirLng * dirLng);
+
+            if (distance < 0.001) {
+                bus.currentLat = bus.startPoint.latitude;
+                bus.currentLng = bus.startPoint.longitude;
+                bus.distanceTraveled = 0;
+            } else {
+                double step = 0.0004;
+                bus.currentLat += (dirLat / distance) * step + (random.nextDouble() - 0.5) * 0.0001;
+                bus.currentLng += (dirLng / distance) * step + (random.nextDouble() - 0.5) * 0.0001;
+                bus.distanceTraveled += step * 111;
+            }
+
+            bus.position = new Point(bus.currentLat, bus.currentLng);
+            bus.speed = 20 + random.nextDouble() * 35;
+        }
+
+        int count = buses.size();
+        double[] lat = new double[count];
+        double[] lng = new double[count];
+        double[] speed = new double[count];
+        double[] distanceTraveled = new double[count];
+        for (int i = 0; i < count; i++) {
+            Bus bus = buses.get(i);
+            lat[i] = bus.currentLat;
+            lng[i] = bus.currentLng;
+            speed[i] = bus.speed;
+            distanceTraveled[i] = bus.distanceTraveled;
+        }
+        return new double[][]{lat, lng, speed, distanceTraveled};
+    }
+}
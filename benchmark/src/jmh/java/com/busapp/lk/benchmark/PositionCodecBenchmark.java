@@ -0,0 +1,239 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.fleet.VehicleStateStore;
+import com.busapp.lk.ingest.PositionBatchDecoder;
+import com.busapp.lk.ingest.PositionBatchEncoder;
+import com.busapp.lk.ingest.PositionPipeline;
+import com.busapp.lk.util.IntList;
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding a feed of position updates into the vehicle store, in ns per
+ * update: {@link PositionBatchDecoder} against the same batches as a JSON
+ * array of objects, read with Gson's streaming reader and with data
+ * binding. 1500 buses on 60 routes report every 15 s and a batch is one
+ * second of the feed, so 100 updates; 15 minutes of batches are replayed
+ * in a loop, the binary ones from a fresh session each time so the first
+ * batch carries the dictionaries again. Setup prints the bytes per update
+ * of each format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PositionCodecBenchmark {
+
+    private static final int BUSES = 1500;
+    private static final int ROUTES = 60;
+    private static final int BATCH_UPDATES = 100;
+    private static final int BATCHES = 900;
+
+    // Gson data binding target
+    static final class Update {
+        String vehicleId;
+        String routeId;
+        long timestamp;
+        double lat;
+        double lng;
+        float speed;
+        float heading;
+    }
+
+    private final Gson gson = new Gson();
+    private final Map<String, Integer> vehicleIndex = new HashMap<>();
+    private final Map<String, Integer> routeIndex = new HashMap<>();
+    private final VehicleStateStore store = new VehicleStateStore(BUSES);
+    private final long[] lastTimestamp = new long[BUSES];
+    private final IntList updated = new IntList();
+    private PositionBatchDecoder decoder;
+    private ByteBuffer[] binary;
+    private byte[][] json;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (int bus = 0; bus < BUSES; bus++) {
+            vehicleIndex.put(vehicleId(bus), bus);
+            store.add(-1, 0, 0);
+        }
+        for (int route = 0; route < ROUTES; route++) {
+            routeIndex.put(routeId(route), route);
+        }
+        decoder = new PositionBatchDecoder(
+                id -> vehicleIndex.getOrDefault(id, PositionPipeline.UNKNOWN_VEHICLE),
+                id -> routeIndex.getOrDefault(id, -1));
+
+        Random random = new Random(23);
+        double[] lat = new double[BUSES];
+        double[] lng = new double[BUSES];
+        int[] route = new int[BUSES];
+        for (int bus = 0; bus < BUSES; bus++) {
+            lat[bus] = FleetFixtures.randomLat(random);
+            lng[bus] = FleetFixtures.randomLng(random);
+            route[bus] = bus % ROUTES;
+        }
+        PositionBatchEncoder encoder = new PositionBatchEncoder();
+        binary = new ByteBuffer[BATCHES];
+        json = new byte[BATCHES][];
+        long binaryBytes = 0;
+        long jsonBytes = 0;
+        long start = 1_700_000_000_000L;
+        int bus = 0;
+        for (int batch = 0; batch < BATCHES; batch++) {
+            StringWriter text = new StringWriter();
+            JsonWriter writer = new JsonWriter(text);
+            writer.beginArray();
+            for (int i = 0; i < BATCH_UPDATES; i++) {
+                // Up to 150 m since the last fix, 15 s ago
+                lat[bus] += (random.nextDouble() - 0.5) * 0.0027;
+                lng[bus] += (random.nextDouble() - 0.5) * 0.0027;
+                long timestamp = start + batch * 1000L + i * 10;
+                float speed = Math.round(random.nextFloat() * 600) / 10f;
+                float heading = Math.round(random.nextFloat() * 3600) / 10f;
+                encoder.add(vehicleId(bus), routeId(route[bus]), timestamp, lat[bus], lng[bus], speed, heading);
+                writer.beginObject()
+                        .name("vehicleId").value(vehicleId(bus))
+                        .name("routeId").value(routeId(route[bus]))
+                        .name("timestamp").value(timestamp)
+                        .name("lat").jsonValue(String.format(Locale.US, "%.6f", lat[bus]))
+                        .name("lng").jsonValue(String.format(Locale.US, "%.6f", lng[bus]))
+                        .name("speed").value(speed)
+                        .name("heading").value(heading)
+                        .endObject();
+                bus = (bus + 1) % BUSES;
+            }
+            writer.endArray();
+            writer.close();
+            binary[batch] = ByteBuffer.allocate(encoder.maxBatchBytes());
+            binaryBytes += encoder.finish(binary[batch]);
+            binary[batch].flip();
+            json[batch] = text.toString().getBytes(StandardCharsets.UTF_8);
+            jsonBytes += json[batch].length;
+        }
+        int updates = BATCHES * BATCH_UPDATES;
+        System.out.printf(Locale.US, "%nbytes/update: binary %.1f, JSON %.1f%n",
+                (double) binaryBytes / updates, (double) jsonBytes / updates);
+    }
+
+    private static String vehicleId(int bus) {
+        return String.format(Locale.US, "NB-%04d", bus);
+    }
+
+    private static String routeId(int route) {
+        return Integer.toString(100 + route);
+    }
+
+    private int nextBatch() {
+        if (next == BATCHES) {
+            next = 0;
+            decoder.reset();
+            Arrays.fill(lastTimestamp, Long.MIN_VALUE);
+        }
+        return next++;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_UPDATES)
+    public int binary() {
+        ByteBuffer batch = binary[nextBatch()];
+        batch.rewind();
+        updated.clear();
+        return decoder.decode(batch, store, updated);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_UPDATES)
+    public int jsonStreaming() throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(json[nextBatch()]), StandardCharsets.UTF_8));
+        int applied = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int vehicle = PositionPipeline.UNKNOWN_VEHICLE;
+            int route = -1;
+            long timestamp = 0;
+            double lat = 0;
+            double lng = 0;
+            double speed = 0;
+            double heading = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "vehicleId":
+                        vehicle = vehicleIndex.getOrDefault(reader.nextString(), PositionPipeline.UNKNOWN_VEHICLE);
+                        break;
+                    case "routeId":
+                        route = routeIndex.getOrDefault(reader.nextString(), -1);
+                        break;
+                    case "timestamp":
+                        timestamp = reader.nextLong();
+                        break;
+                    case "lat":
+                        lat = reader.nextDouble();
+                        break;
+                    case "lng":
+                        lng = reader.nextDouble();
+                        break;
+                    case "speed":
+                        speed = reader.nextDouble();
+                        break;
+                    case "heading":
+                        heading = reader.nextDouble();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (apply(vehicle, route, timestamp, lat, lng, (float) speed, (float) heading)) applied++;
+        }
+        reader.endArray();
+        return applied;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_UPDATES)
+    public int jsonBinding() {
+        Update[] updates = gson.fromJson(new InputStreamReader(
+                new ByteArrayInputStream(json[nextBatch()]), StandardCharsets.UTF_8), Update[].class);
+        int applied = 0;
+        for (Update u : updates) {
+            int vehicle = vehicleIndex.getOrDefault(u.vehicleId, PositionPipeline.UNKNOWN_VEHICLE);
+            int route = routeIndex.getOrDefault(u.routeId, -1);
+            if (apply(vehicle, route, u.timestamp, u.lat, u.lng, u.speed, u.heading)) applied++;
+        }
+        return applied;
+    }
+
+    // The same last-writer-wins the binary decoder applies
+    private boolean apply(int vehicle, int route, long timestamp, double lat, double lng, float speed, float heading) {
+        if (vehicle < 0 || timestamp < lastTimestamp[vehicle]) return false;
+        lastTimestamp[vehicle] = timestamp;
+        store.setPosition(vehicle, lat, lng);
+        store.setSpeed(vehicle, speed);
+        store.setHeading(vehicle, heading);
+        store.routeIds()[vehicle] = route;
+        return true;
+    }
+}
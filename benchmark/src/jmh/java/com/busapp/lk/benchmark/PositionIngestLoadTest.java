@@ -0,0 +1,132 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.fleet.VehicleStateStore;
+import com.busapp.lk.ingest.LinePositionSource;
+import com.busapp.lk.ingest.PositionPipeline;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * End-to-end load test for the position pipeline: a producer streams
+ * line-delimited updates over a loopback socket at a fixed rate, the
+ * pipeline decodes them on its ingest thread, and a 60 Hz "frame" thread
+ * drains them into a store. Latency is measured from the producer writing a
+ * line to the frame that applied it, so it includes up to one frame of
+ * batching by design.
+ *
+ * <p>Run with {@code ./gradlew :benchmark:ingestLoadTest}, optionally with
+ * {@code --args="rate seconds vehicles"}.
+ */
+public final class PositionIngestLoadTest {
+
+    private static final long FRAME_NANOS = 16_666_667L;
+
+    public static void main(String[] args) throws Exception {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int vehicles = args.length > 2 ? Integer.parseInt(args[2]) : 5_000;
+
+        Map<String, Integer> ids = new HashMap<>();
+        VehicleStateStore store = new VehicleStateStore(vehicles);
+        Random random = new Random(3);
+        for (int v = 0; v < vehicles; v++) {
+            ids.put("V" + v, v);
+            store.add(0, FleetFixtures.randomLat(random), FleetFixtures.randomLng(random));
+        }
+        PositionPipeline pipeline = new PositionPipeline(PositionPipeline.DEFAULT_CAPACITY,
+                id -> ids.getOrDefault(id, PositionPipeline.UNKNOWN_VEHICLE));
+
+        try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread producer = new Thread(() -> produce(server, rate, seconds, vehicles, store),
+                    "load-producer");
+            producer.start();
+            pipeline.start(LinePositionSource.socket("127.0.0.1", server.getLocalPort()));
+
+            // Latencies in microseconds; the producer's timestamp is its System.nanoTime()
+            long[] latencies = new long[rate * (seconds + 1)];
+            int[] recorded = new int[1];
+            PositionPipeline.Listener listener = (vehicle, timestamp, receivedNanos) -> {
+                if (recorded[0] < latencies.length) {
+                    latencies[recorded[0]++] = (System.nanoTime() - timestamp) / 1000;
+                }
+            };
+
+            long nextFrame = System.nanoTime();
+            long frames = 0;
+            long maxBatch = 0;
+            while (producer.isAlive() || pipeline.isRunning() || pipeline.getQueued() > 0) {
+                nextFrame += FRAME_NANOS;
+                LockSupport.parkNanos(nextFrame - System.nanoTime());
+                maxBatch = Math.max(maxBatch, pipeline.drain(store, listener));
+                frames++;
+            }
+            pipeline.stop();
+
+            long[] sorted = Arrays.copyOf(latencies, recorded[0]);
+            Arrays.sort(sorted);
+            System.out.printf(Locale.US, "rate=%d/s seconds=%d vehicles=%d frames=%d maxBatch=%d%n",
+                    rate, seconds, vehicles, frames, maxBatch);
+            System.out.println(pipeline.stats());
+            System.out.printf(Locale.US,
+                    "latency ms: p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                    percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1000.0);
+        }
+    }
+
+    private static void produce(ServerSocket server, int rate, int seconds, int vehicles,
+                                VehicleStateStore start) {
+        Random random = new Random(7);
+        double[] lat = new double[vehicles];
+        double[] lng = new double[vehicles];
+        for (int v = 0; v < vehicles; v++) {
+            lat[v] = start.lat(v);
+            lng[v] = start.lng(v);
+        }
+        // Write in 1 ms slices to keep the rate smooth
+        int perSlice = Math.max(1, rate / 1000);
+        long sliceNanos = 1_000_000L * perSlice * 1000 / rate;
+        long total = (long) rate * seconds;
+        StringBuilder line = new StringBuilder(64);
+        try (Socket socket = server.accept();
+             Writer out = new BufferedWriter(
+                     new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII), 64 * 1024)) {
+            socket.setTcpNoDelay(true);
+            long next = System.nanoTime();
+            for (long sent = 0; sent < total; sent += perSlice) {
+                for (int i = 0; i < perSlice; i++) {
+                    int v = random.nextInt(vehicles);
+                    lat[v] += (random.nextDouble() - 0.5) * 1e-4;
+                    lng[v] += (random.nextDouble() - 0.5) * 1e-4;
+                    line.setLength(0);
+                    line.append('V').append(v).append(',').append(System.nanoTime()).append(',')
+                            .append(lat[v]).append(',').append(lng[v]).append(",30,90\n");
+                    out.append(line);
+                }
+                out.flush();
+                next += sliceNanos;
+                LockSupport.parkNanos(next - System.nanoTime());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static double percentile(long[] sortedMicros, double p) {
+        if (sortedMicros.length == 0) return 0;
+        int index = (int) Math.min(sortedMicros.length - 1, Math.ceil(p * sortedMicros.length) - 1);
+        return sortedMicros[Math.max(0, index)] / 1000.0;
+    }
+}
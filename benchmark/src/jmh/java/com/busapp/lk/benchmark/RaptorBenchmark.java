@@ -0,0 +1,100 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.gtfs.GtfsLoader;
+import com.busapp.lk.gtfs.TransitNetwork;
+import com.busapp.lk.plan.Journey;
+import com.busapp.lk.plan.JourneyPlanner;
+import com.busapp.lk.plan.RaptorTimetable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Journey planning over a Colombo-sized network: 4000 stops and 200 routes
+ * of 40 stops, a bus every 10 minutes from 05:00. Queries cycle through
+ * random origin/destination pairs leaving between 06:00 and 10:00, so no
+ * single easy pair dominates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RaptorBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    // Trips per route
+    @Param({"50", "100"})
+    public int tripsPerRoute;
+
+    @Param({"0", "300"})
+    public int maxDelaySeconds;
+
+    private TransitNetwork network;
+    private RaptorTimetable timetable;
+    private JourneyPlanner planner;
+    private final int[] fromStop = new int[QUERIES];
+    private final int[] toStop = new int[QUERIES];
+    private final double[] points = new double[QUERIES * 4];
+    private final int[] departure = new int[QUERIES];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        File directory = Files.createTempDirectory("raptor-bench").toFile();
+        File feed = SyntheticFeed.write(new File(directory, "gtfs.zip"),
+                4000, 200, tripsPerRoute, 40, 40, 11);
+        network = GtfsLoader.load(feed);
+        feed.delete();
+        directory.delete();
+
+        timetable = RaptorTimetable.build(network);
+        planner = new JourneyPlanner(timetable);
+        Random random = new Random(3);
+        if (maxDelaySeconds > 0) {
+            // A tenth of the fleet running late
+            for (int t = 0; t < network.tripCount(); t++) {
+                if (random.nextInt(10) == 0) {
+                    planner.setDelay(t, random.nextInt(maxDelaySeconds + 1));
+                }
+            }
+        }
+        for (int i = 0; i < QUERIES; i++) {
+            fromStop[i] = random.nextInt(network.stopCount());
+            toStop[i] = random.nextInt(network.stopCount());
+            points[i * 4] = FleetFixtures.randomLat(random);
+            points[i * 4 + 1] = FleetFixtures.randomLng(random);
+            points[i * 4 + 2] = FleetFixtures.randomLat(random);
+            points[i * 4 + 3] = FleetFixtures.randomLng(random);
+            departure[i] = 6 * 3600 + random.nextInt(4 * 3600);
+        }
+    }
+
+    @Benchmark
+    public List<Journey> stopToStop() {
+        int i = next++ & (QUERIES - 1);
+        return planner.plan(fromStop[i], toStop[i], departure[i]);
+    }
+
+    @Benchmark
+    public List<Journey> pointToPoint() {
+        int i = next++ & (QUERIES - 1);
+        return planner.plan(points[i * 4], points[i * 4 + 1], points[i * 4 + 2], points[i * 4 + 3],
+                departure[i]);
+    }
+
+    @Benchmark
+    public RaptorTimetable buildTimetable() {
+        return RaptorTimetable.build(network);
+    }
+}
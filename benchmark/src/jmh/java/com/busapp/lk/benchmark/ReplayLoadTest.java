@@ -0,0 +1,110 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.fleet.VehicleStateStore;
+import com.busapp.lk.ingest.PositionPipeline;
+import com.busapp.lk.ingest.PositionRecorder;
+import com.busapp.lk.ingest.ReplaySource;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a synthetic recording through the position pipeline at 1x, 10x
+ * and 100x and prints how far the 60 Hz "frame" thread falls behind the
+ * replay clock at each speed. The frame thread drains the pipeline the way
+ * the map does and reports the newest timestamp it applied.
+ *
+ * <p>Run with {@code ./gradlew :benchmark:replayLoadTest}, optionally with
+ * {@code --args="vehicles hours secondsPerSpeed"}.
+ */
+public final class ReplayLoadTest {
+
+    private static final long FRAME_NANOS = 16_666_667L;
+    private static final long FIX_INTERVAL_MILLIS = 15_000;
+    private static final double[] SPEEDS = {1, 10, 100};
+
+    public static void main(String[] args) throws Exception {
+        int vehicles = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int hours = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        File file = File.createTempFile("replay", ".busr");
+        file.deleteOnExit();
+        long recordStart = System.nanoTime();
+        long records = record(file, vehicles, hours);
+        System.out.printf(Locale.US, "recorded %d fixes in %d ms, %.1f bytes/fix%n", records,
+                (System.nanoTime() - recordStart) / 1_000_000, (double) file.length() / records);
+
+        Map<String, Integer> ids = new HashMap<>();
+        VehicleStateStore store = new VehicleStateStore(vehicles);
+        for (int v = 0; v < vehicles; v++) {
+            ids.put("V" + v, v);
+            store.add(0, 0, 0);
+        }
+        PositionPipeline pipeline = new PositionPipeline(PositionPipeline.DEFAULT_CAPACITY,
+                id -> ids.getOrDefault(id, PositionPipeline.UNKNOWN_VEHICLE));
+        ReplaySource replay = ReplaySource.open(file);
+        long[] newest = new long[1];
+        PositionPipeline.Listener listener = (vehicle, timestamp, receivedNanos) ->
+                newest[0] = Math.max(newest[0], timestamp);
+        pipeline.start(replay);
+
+        // Each speed starts from its own point in the recording, scrubbing to get there
+        int seekGeneration = replay.getSeekGeneration();
+        long span = replay.getEndTimestamp() - replay.getStartTimestamp();
+        for (int s = 0; s < SPEEDS.length; s++) {
+            replay.seek(replay.getStartTimestamp() + span * s / SPEEDS.length);
+            replay.setSpeed(SPEEDS[s]);
+            long end = System.nanoTime() + seconds * 1_000_000_000L;
+            long nextFrame = System.nanoTime();
+            while (System.nanoTime() < end) {
+                nextFrame += FRAME_NANOS;
+                LockSupport.parkNanos(nextFrame - System.nanoTime());
+                if (replay.getSeekGeneration() != seekGeneration) {
+                    seekGeneration = replay.getSeekGeneration();
+                    newest[0] = Long.MIN_VALUE;
+                }
+                if (pipeline.drain(store, listener) > 0) {
+                    replay.recordApplied(newest[0]);
+                }
+            }
+        }
+        pipeline.stop();
+
+        System.out.printf(Locale.US, "vehicles=%d hours=%d secondsPerSpeed=%d%n", vehicles, hours, seconds);
+        System.out.println(pipeline.stats());
+        for (String line : replay.lagSummary().split("; ")) {
+            System.out.println("lag " + line);
+        }
+    }
+
+    private static long record(File file, int vehicles, int hours) throws IOException {
+        Random random = new Random(11);
+        double[] lat = new double[vehicles];
+        double[] lng = new double[vehicles];
+        String[] ids = new String[vehicles];
+        for (int v = 0; v < vehicles; v++) {
+            lat[v] = FleetFixtures.randomLat(random);
+            lng[v] = FleetFixtures.randomLng(random);
+            ids[v] = "V" + v;
+        }
+        long start = 1_700_000_000_000L;
+        long end = start + hours * 3_600_000L;
+        try (PositionRecorder recorder = PositionRecorder.create(file)) {
+            // Each bus reports every 15 s, spread evenly over the interval
+            for (long t = start; t < end; t += FIX_INTERVAL_MILLIS) {
+                for (int v = 0; v < vehicles; v++) {
+                    lat[v] += (random.nextDouble() - 0.5) * 2e-3;
+                    lng[v] += (random.nextDouble() - 0.5) * 2e-3;
+                    recorder.accept(ids[v], t + v * FIX_INTERVAL_MILLIS / vehicles, lat[v], lng[v],
+                            20 + random.nextFloat() * 30, random.nextInt(360));
+                }
+            }
+            return recorder.getRecords();
+        }
+    }
+}
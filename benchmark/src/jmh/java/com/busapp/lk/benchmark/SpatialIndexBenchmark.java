@@ -0,0 +1,113 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.geo.SpatialGrid;
+import com.busapp.lk.util.IntList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Viewport and nearest-bus queries: {@link SpatialGrid} versus the linear
+ * scan over every bus that the map code used to do.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpatialIndexBenchmark {
+
+    // Roughly a zoom 14 viewport around Colombo Fort
+    private static final double SOUTH = 6.905;
+    private static final double WEST = 79.840;
+    private static final double NORTH = 6.945;
+    private static final double EAST = 79.880;
+    private static final double USER_LAT = 6.9271;
+    private static final double USER_LNG = 79.8612;
+    private static final int K = 5;
+
+    @Param({"1000", "10000", "100000"})
+    public int fleetSize;
+
+    private double[] lat;
+    private double[] lng;
+    private SpatialGrid grid;
+    private final IntList result = new IntList();
+    private final int[] nearest = new int[K];
+    private final double[] nearestDist = new double[K];
+    private Random random;
+
+    @Setup
+    public void setUp() {
+        random = new Random(11);
+        lat = new double[fleetSize];
+        lng = new double[fleetSize];
+        grid = SpatialGrid.forSriLanka(0.01);
+        for (int i = 0; i < fleetSize; i++) {
+            lat[i] = FleetFixtures.randomLat(random);
+            lng[i] = FleetFixtures.randomLng(random);
+            grid.update(i, lat[i], lng[i]);
+        }
+    }
+
+    @Benchmark
+    public int viewportLinearScan() {
+        result.clear();
+        for (int i = 0; i < fleetSize; i++) {
+            if (lat[i] >= SOUTH && lat[i] <= NORTH && lng[i] >= WEST && lng[i] <= EAST) {
+                result.add(i);
+            }
+        }
+        return result.size();
+    }
+
+    @Benchmark
+    public int viewportGrid() {
+        grid.queryBox(SOUTH, WEST, NORTH, EAST, result);
+        return result.size();
+    }
+
+    @Benchmark
+    public int nearestLinearScan() {
+        double cosLat = Math.cos(Math.toRadians(USER_LAT));
+        int found = 0;
+        for (int i = 0; i < fleetSize; i++) {
+            double dy = lat[i] - USER_LAT;
+            double dx = (lng[i] - USER_LNG) * cosLat;
+            double dist = dx * dx + dy * dy;
+            // Insertion into a small sorted array, like a k-sized top list
+            int pos = found < K ? found++ : K;
+            while (pos > 0 && nearestDist[pos - 1] > dist) {
+                if (pos < K) {
+                    nearestDist[pos] = nearestDist[pos - 1];
+                    nearest[pos] = nearest[pos - 1];
+                }
+                pos--;
+            }
+            if (pos < K) {
+                nearestDist[pos] = dist;
+                nearest[pos] = i;
+            }
+        }
+        return nearest[0];
+    }
+
+    @Benchmark
+    public int nearestGrid() {
+        return grid.nearest(USER_LAT, USER_LNG, K, nearest);
+    }
+
+    // The cost of keeping the index current: one moved bus
+    @Benchmark
+    public void gridUpdate() {
+        int id = random.nextInt(fleetSize);
+        lat[id] += (random.nextDouble() - 0.5) * 0.002;
+        lng[id] += (random.nextDouble() - 0.5) * 0.002;
+        grid.update(id, lat[id], lng[id]);
+    }
+}
@@ -0,0 +1,125 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.alert.StopAlerts;
+import com.busapp.lk.metrics.LatencyHistogram;
+import com.busapp.lk.metrics.MetricsRegistry;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Throughput test for stop-approach alerts: a fleet on 200 routes streams
+ * position updates at a fixed rate into {@link StopAlerts} holding 10k
+ * subscriptions, on one thread as the tracking tick would. Reports the time
+ * per update, the share of the thread it took, and how many updates needed
+ * an ETA lookup. A second pass runs the same stream unpaced to find the
+ * rate one thread can sustain.
+ *
+ * <p>Run with {@code ./gradlew :benchmark:alertLoadTest}, optionally with
+ * {@code --args="rate seconds subscriptions buses"}.
+ */
+public final class StopAlertLoadTest {
+
+    private static final int ROUTES = 200;
+    private static final double ROUTE_KM = 25;
+
+    public static void main(String[] args) {
+        int rate = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int subscriptions = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        int buses = args.length > 3 ? Integer.parseInt(args[3]) : 5_000;
+
+        Fleet fleet = new Fleet(buses, new Random(5));
+        StopAlerts alerts = new StopAlerts(fleet::etaSeconds);
+        Random random = new Random(9);
+        for (int i = 0; i < subscriptions; i++) {
+            alerts.subscribe(random.nextInt(ROUTES), random.nextDouble() * ROUTE_KM, 60 * (2 + random.nextInt(9)));
+        }
+        for (int bus = 0; bus < buses; bus++) {
+            alerts.setBusRoute(bus, fleet.route[bus]);
+        }
+        long[] fired = new long[1];
+        StopAlerts.Listener listener = (subscription, bus, eta) -> fired[0]++;
+
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.setEnabled(true);
+        LatencyHistogram perUpdate = metrics.histogram("alerts.update");
+
+        // Paced: 1 ms slices, fleet time following the wall clock
+        int perSlice = Math.max(1, rate / 1000);
+        long sliceNanos = 1_000_000L * perSlice * 1000 / rate;
+        long total = (long) rate * seconds;
+        long busy = 0;
+        long begin = System.nanoTime();
+        long next = begin;
+        for (long sent = 0; sent < total; sent += perSlice) {
+            long sliceStart = System.nanoTime();
+            double clock = (sliceStart - begin) / 1e9;
+            for (int i = 0; i < perSlice; i++) {
+                int bus = random.nextInt(buses);
+                double km = fleet.advance(bus, clock);
+                long start = perUpdate.start();
+                alerts.update(bus, km, listener);
+                perUpdate.stop(start);
+            }
+            busy += System.nanoTime() - sliceStart;
+            next += sliceNanos;
+            LockSupport.parkNanos(next - System.nanoTime());
+        }
+        long elapsed = System.nanoTime() - begin;
+        System.out.printf(Locale.US, "rate=%d/s seconds=%d subscriptions=%d buses=%d routes=%d%n",
+                rate, seconds, subscriptions, buses, ROUTES);
+        System.out.printf(Locale.US, "achieved=%.0f/s busy=%.1f%% of one thread alerts=%d%n",
+                alerts.getUpdates() * 1e9 / elapsed, 100.0 * busy / elapsed, fired[0]);
+        System.out.printf(Locale.US, "eta lookups=%.3f per update%n",
+                alerts.getChecks() / (double) alerts.getUpdates());
+        System.out.printf(Locale.US, "update us: p50=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+                perUpdate.percentileMillis(0.50) * 1000, perUpdate.percentileMillis(0.99) * 1000,
+                perUpdate.percentileMillis(0.999) * 1000, perUpdate.getMaxMillis() * 1000);
+
+        // Unpaced: fleet time advances as if at the target rate
+        long updates = total;
+        double step = 1.0 / rate;
+        double clock = elapsed / 1e9;
+        begin = System.nanoTime();
+        for (long i = 0; i < updates; i++) {
+            int bus = random.nextInt(buses);
+            alerts.update(bus, fleet.advance(bus, clock), listener);
+            clock += step;
+        }
+        elapsed = System.nanoTime() - begin;
+        System.out.printf(Locale.US, "sustainable=%.0f updates/s on one thread%n", updates * 1e9 / elapsed);
+    }
+
+    // Buses running their routes end to end at their own constant speed
+    private static final class Fleet {
+        final int[] route;
+        final double[] speedKmh;
+        final double[] km;
+        final double[] seenAt;
+
+        Fleet(int buses, Random random) {
+            route = new int[buses];
+            speedKmh = new double[buses];
+            km = new double[buses];
+            seenAt = new double[buses];
+            for (int bus = 0; bus < buses; bus++) {
+                route[bus] = random.nextInt(ROUTES);
+                speedKmh[bus] = 12 + random.nextDouble() * 28;
+                km[bus] = random.nextDouble() * ROUTE_KM;
+            }
+        }
+
+        // Moves the bus to the given time in seconds, starting a new run past the terminus
+        double advance(int bus, double clock) {
+            double moved = km[bus] + (clock - seenAt[bus]) * speedKmh[bus] / 3600;
+            seenAt[bus] = clock;
+            km[bus] = moved >= ROUTE_KM ? moved - ROUTE_KM : moved;
+            return km[bus];
+        }
+
+        float etaSeconds(int bus, double toKm) {
+            return toKm <= km[bus] ? -1f : (float) ((toKm - km[bus]) / speedKmh[bus] * 3600);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.busapp.lk.benchmark;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a deterministic GTFS zip over greater Colombo. Each route has one
+ * shape and a set of trips that all call at the same stop pattern.
+ */
+final class SyntheticFeed {
+
+    private SyntheticFeed() {
+    }
+
+    static File write(File zipFile, int stops, int routes, int tripsPerRoute,
+                      int stopsPerTrip, int shapePoints, long seed) throws IOException {
+        Random random = new Random(seed);
+        double[] stopLat = new double[stops];
+        double[] stopLng = new double[stops];
+        int[][] patterns = new int[routes][stopsPerTrip];
+
+        try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile));
+             Writer out = new OutputStreamWriter(zip, StandardCharsets.UTF_8)) {
+            zip.putNextEntry(new ZipEntry("stops.txt"));
+            out.write("stop_id,stop_name,stop_lat,stop_lon\n");
+            for (int s = 0; s < stops; s++) {
+                stopLat[s] = FleetFixtures.randomLat(random);
+                stopLng[s] = FleetFixtures.randomLng(random);
+                out.write(String.format(Locale.US, "ST%d,\"Stop %d, Colombo\",%.6f,%.6f\n",
+                        s, s, stopLat[s], stopLng[s]));
+            }
+            out.flush();
+
+            zip.putNextEntry(new ZipEntry("routes.txt"));
+            out.write("route_id,route_short_name,route_long_name,route_type\n");
+            for (int r = 0; r < routes; r++) {
+                out.write("R" + r + "," + (100 + r) + ",Route " + r + ",3\n");
+            }
+            out.flush();
+
+            zip.putNextEntry(new ZipEntry("shapes.txt"));
+            out.write("shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n");
+            for (int r = 0; r < routes; r++) {
+                for (int i = 0; i < stopsPerTrip; i++) {
+                    patterns[r][i] = random.nextInt(stops);
+                }
+                // Densify the stop-to-stop path into the requested vertex count
+                for (int p = 0; p < shapePoints; p++) {
+                    double t = p * (stopsPerTrip - 1) / (double) (shapePoints - 1);
+                    int from = Math.min((int) t, stopsPerTrip - 2);
+                    double f = t - from;
+                    int a = patterns[r][from];
+                    int b = patterns[r][from + 1];
+                    out.write(String.format(Locale.US, "SH%d,%.6f,%.6f,%d\n", r,
+                            stopLat[a] + (stopLat[b] - stopLat[a]) * f,
+                            stopLng[a] + (stopLng[b] - stopLng[a]) * f, p + 1));
+                }
+            }
+            out.flush();
+
+            zip.putNextEntry(new ZipEntry("trips.txt"));
+            out.write("route_id,service_id,trip_id,shape_id\n");
+            for (int r = 0; r < routes; r++) {
+                for (int t = 0; t < tripsPerRoute; t++) {
+                    out.write("R" + r + ",WK,R" + r + "T" + t + ",SH" + r + "\n");
+                }
+            }
+            out.flush();
+
+            zip.putNextEntry(new ZipEntry("stop_times.txt"));
+            out.write("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+            for (int r = 0; r < routes; r++) {
+                for (int t = 0; t < tripsPerRoute; t++) {
+                    int time = 5 * 3600 + t * 10 * 60;
+                    for (int i = 0; i < stopsPerTrip; i++) {
+                        String clock = clock(time);
+                        out.write("R" + r + "T" + t + "," + clock + "," + clock
+                                + ",ST" + patterns[r][i] + "," + (i + 1) + "\n");
+                        time += 90;
+                    }
+                }
+            }
+            out.flush();
+        }
+        return zipFile;
+    }
+
+    private static String clock(int seconds) {
+        return String.format(Locale.US, "%02d:%02d:%02d",
+                seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
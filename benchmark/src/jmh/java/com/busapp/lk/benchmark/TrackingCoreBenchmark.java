@@ -0,0 +1,150 @@
+package com.busapp.lk.benchmark;
+
+import com.busapp.lk.eta.EtaEngine;
+import com.busapp.lk.eta.TripStatus;
+import com.busapp.lk.fleet.FleetEngine;
+import com.busapp.lk.fleet.FleetSnapshot;
+import com.busapp.lk.fleet.FleetTracker;
+import com.busapp.lk.geo.ClusterIndex;
+import com.busapp.lk.geo.GeoMath;
+import com.busapp.lk.geo.SpatialGrid;
+import com.busapp.lk.motion.MotionPredictor;
+import com.busapp.lk.route.RouteGeometry;
+import com.busapp.lk.util.IntList;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The map screen's per-tick work without the views: engine tick, then
+ * {@link FleetTracker#apply} (predictor, ETAs, spatial and cluster
+ * indexes), plus the distance and info card math run for every bus.
+ * The busUpdates counter gives bus-updates/sec for {@code fullTick};
+ * run with the gc profiler for gc.alloc.rate.norm per tick.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TrackingCoreBenchmark {
+
+    private static final int ROUTES = 200;
+    private static final int STOPS = 20;
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Param({"10", "1000", "10000", "100000"})
+    public int fleetSize;
+
+    private FleetEngine engine;
+    private FleetTracker tracker;
+    private EtaEngine eta;
+    private RouteGeometry[] busRoutes;
+    private final IntList changed = new IntList();
+    private double userLat;
+    private double userLng;
+    private long tickMillis;
+    private long nanos;
+    private long wallClock = T0;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Updates {
+        public long busUpdates;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            busUpdates = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        double[][] routes = FleetFixtures.randomRoutes(ROUTES, 7);
+        engine = new FleetEngine(2000, new Random(42));
+        tickMillis = engine.getTickMillis();
+        eta = new EtaEngine(TimeZone.getTimeZone("Asia/Colombo"), 20);
+        MotionPredictor predictor = new MotionPredictor();
+        SpatialGrid grid = SpatialGrid.forSriLanka(0.01);
+        ClusterIndex clusters = new ClusterIndex(6, 16);
+        tracker = new FleetTracker(predictor, eta, grid, clusters);
+
+        int[] routeIds = new int[ROUTES];
+        int[] etaRoutes = new int[ROUTES];
+        for (int r = 0; r < ROUTES; r++) {
+            double[] route = routes[r];
+            routeIds[r] = engine.addRoute(route[0], route[1], route[2], route[3]);
+            double length = engine.getRoute(routeIds[r]).getLengthKm();
+            double[] stops = new double[STOPS];
+            for (int s = 0; s < STOPS; s++) {
+                stops[s] = length * s / (STOPS - 1);
+            }
+            etaRoutes[r] = eta.addRoute(stops);
+        }
+        busRoutes = new RouteGeometry[fleetSize];
+        for (int i = 0; i < fleetSize; i++) {
+            int bus = engine.addBus(routeIds[i % ROUTES]);
+            eta.addBus(etaRoutes[i % ROUTES]);
+            busRoutes[bus] = engine.getRoute(routeIds[i % ROUTES]);
+            predictor.place(bus, busRoutes[bus], 0, 30, 0);
+        }
+        Random random = new Random(3);
+        userLat = FleetFixtures.randomLat(random);
+        userLng = FleetFixtures.randomLng(random);
+        // Warm the indexes so the measured ticks only move buses
+        fullTick(new Updates());
+    }
+
+    @Benchmark
+    public FleetSnapshot engineTick() {
+        engine.tick();
+        return engine.acquireSnapshot();
+    }
+
+    @Benchmark
+    public boolean fullTick(Updates updates) {
+        engine.tick();
+        nanos += tickMillis * 1_000_000L;
+        wallClock += tickMillis;
+        boolean applied = tracker.apply(engine.acquireSnapshot(), nanos, wallClock, changed);
+        updates.busUpdates += changed.size();
+        return applied;
+    }
+
+    @Benchmark
+    public double distanceToUser() {
+        FleetSnapshot snapshot = engine.acquireSnapshot();
+        double nearest = Double.MAX_VALUE;
+        for (int i = 0, n = snapshot.size(); i < n; i++) {
+            nearest = Math.min(nearest, GeoMath.distanceKm(userLat, userLng, snapshot.lat(i), snapshot.lng(i)));
+        }
+        return nearest;
+    }
+
+    // What the info card computes, for every bus rather than just the selected one
+    @Benchmark
+    public int infoCard() {
+        FleetSnapshot snapshot = engine.acquireSnapshot();
+        int imminent = 0;
+        for (int i = 0, n = snapshot.size(); i < n; i++) {
+            RouteGeometry route = busRoutes[i];
+            double traveled = snapshot.distanceTraveled(i);
+            double progress = TripStatus.progressPercent(traveled, route.getLengthKm());
+            double userKm = route.project(userLat, userLng);
+            float seconds = eta.etaSecondsToKm(i, userKm);
+            if (TripStatus.etaBand(seconds, userKm, traveled) == TripStatus.EtaBand.IMMINENT
+                    && progress < 100) {
+                imminent++;
+            }
+        }
+        return imminent;
+    }
+}
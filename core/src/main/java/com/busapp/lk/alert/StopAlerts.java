@@ -0,0 +1,249 @@
+package com.busapp.lk.alert;
+
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+
+/**
+ * Stop-approach alerts: "tell me when a bus on this route is N minutes from
+ * this stop", evaluated on every position update of the fleet.
+ *
+ * <p>A subscription is a stop on a route, given by its distance along the
+ * route geometry, and a lead time. Its geofence is the stretch of route
+ * before the stop that a bus could cover in the lead time at
+ * {@link #MAX_SPEED_KMH}. Subscriptions are kept per route in stop order,
+ * so an update only binary searches its bus's route and walks the
+ * geofences that start behind the bus and end ahead of it. Only buses
+ * inside a geofence get an ETA lookup.
+ *
+ * <p>A subscription fires once per approach. It re-arms when the bus it
+ * fired for reaches the stop or starts a new run, and until then other
+ * buses close behind stay quiet. Not thread safe.
+ */
+public final class StopAlerts {
+
+    /** Seconds until a bus reaches a distance along its route, negative if unknown. */
+    public interface Eta {
+        float etaSeconds(int bus, double km);
+    }
+
+    public interface Listener {
+        void onAlert(int subscription, int bus, float etaSeconds);
+    }
+
+    // No bus in Colombo traffic keeps up more than this between updates
+    public static final double MAX_SPEED_KMH = 70;
+
+    private static final int NONE = -1;
+
+    private final Eta eta;
+
+    // Subscriptions by id; a free id has route NONE
+    private int subscriptionCount;
+    private int[] subRoute = new int[64];
+    private double[] subKm = new double[64];
+    private float[] subLeadSeconds = new float[64];
+    private double[] subReachKm = new double[64];
+    private int[] firedBus = new int[64];
+    private int[] firedRun = new int[64];
+    private final IntList freeIds = new IntList();
+    private int active;
+
+    // Per route: subscription ids ordered by stop km, the km alongside, and the longest reach
+    private int[][] routeSubs = new int[16][];
+    private double[][] routeKm = new double[16][];
+    private int[] routeSize = new int[16];
+    private double[] routeReachKm = new double[16];
+
+    // Per bus: route, last reported km, and how many times the km went down (new runs)
+    private int[] busRoute = new int[16];
+    private double[] busKm = new double[16];
+    private int[] busRun = new int[16];
+
+    private long updates;
+    private long checks;
+    private long alerts;
+
+    public StopAlerts(Eta eta) {
+        this.eta = eta;
+        Arrays.fill(busRoute, NONE);
+    }
+
+    /**
+     * Watches a stop at {@code stopKm} along a route for buses due within
+     * {@code leadSeconds}. Returns the subscription id, which is reused
+     * after {@link #unsubscribe}.
+     */
+    public int subscribe(int route, double stopKm, int leadSeconds) {
+        if (route < 0 || stopKm < 0 || leadSeconds <= 0) {
+            throw new IllegalArgumentException("Bad subscription: route " + route + ", km " + stopKm
+                    + ", lead " + leadSeconds + "s");
+        }
+        int id;
+        if (!freeIds.isEmpty()) {
+            id = freeIds.get(freeIds.size() - 1);
+            freeIds.truncate(freeIds.size() - 1);
+        } else {
+            id = subscriptionCount++;
+            if (id == subRoute.length) growSubscriptions(id * 2);
+        }
+        double reach = leadSeconds * MAX_SPEED_KMH / 3600;
+        subRoute[id] = route;
+        subKm[id] = stopKm;
+        subLeadSeconds[id] = leadSeconds;
+        subReachKm[id] = reach;
+        firedBus[id] = NONE;
+        active++;
+
+        ensureRoute(route);
+        int size = routeSize[route];
+        if (routeSubs[route] == null) {
+            routeSubs[route] = new int[8];
+            routeKm[route] = new double[8];
+        } else if (size == routeSubs[route].length) {
+            routeSubs[route] = Arrays.copyOf(routeSubs[route], size * 2);
+            routeKm[route] = Arrays.copyOf(routeKm[route], size * 2);
+        }
+        int at = firstAfter(routeKm[route], size, stopKm);
+        System.arraycopy(routeSubs[route], at, routeSubs[route], at + 1, size - at);
+        System.arraycopy(routeKm[route], at, routeKm[route], at + 1, size - at);
+        routeSubs[route][at] = id;
+        routeKm[route][at] = stopKm;
+        routeSize[route] = size + 1;
+        routeReachKm[route] = Math.max(routeReachKm[route], reach);
+        return id;
+    }
+
+    public void unsubscribe(int id) {
+        if (id < 0 || id >= subscriptionCount || subRoute[id] == NONE) return;
+        int route = subRoute[id];
+        int[] subs = routeSubs[route];
+        double[] km = routeKm[route];
+        int size = routeSize[route];
+        double reach = 0;
+        for (int i = 0, kept = 0; i < size; i++) {
+            if (subs[i] == id) continue;
+            subs[kept] = subs[i];
+            km[kept] = km[i];
+            reach = Math.max(reach, subReachKm[subs[i]]);
+            kept++;
+        }
+        routeSize[route] = size - 1;
+        routeReachKm[route] = reach;
+        subRoute[id] = NONE;
+        freeIds.add(id);
+        active--;
+    }
+
+    public void setBusRoute(int bus, int route) {
+        if (bus >= busRoute.length) {
+            int capacity = Math.max(bus + 1, busRoute.length * 2);
+            int oldSize = busRoute.length;
+            busRoute = Arrays.copyOf(busRoute, capacity);
+            busKm = Arrays.copyOf(busKm, capacity);
+            busRun = Arrays.copyOf(busRun, capacity);
+            Arrays.fill(busRoute, oldSize, capacity, NONE);
+        }
+        busRoute[bus] = route;
+    }
+
+    /**
+     * Checks a bus's new distance along its route against the geofences it
+     * is in and reports each subscription that fires. Returns how many did.
+     */
+    public int update(int bus, double km, Listener listener) {
+        updates++;
+        if (bus >= busRoute.length) return 0;
+        if (km < busKm[bus]) busRun[bus]++;
+        busKm[bus] = km;
+        int route = busRoute[bus];
+        if (route == NONE || route >= routeSize.length) return 0;
+        int size = routeSize[route];
+        if (size == 0) return 0;
+
+        int[] subs = routeSubs[route];
+        double[] stopKm = routeKm[route];
+        double limit = km + routeReachKm[route];
+        int fired = 0;
+        for (int i = firstAfter(stopKm, size, km); i < size && stopKm[i] <= limit; i++) {
+            int id = subs[i];
+            if (stopKm[i] - km > subReachKm[id] || !armed(id, bus)) continue;
+            checks++;
+            float seconds = eta.etaSeconds(bus, stopKm[i]);
+            if (seconds < 0 || seconds > subLeadSeconds[id]) continue;
+            firedBus[id] = bus;
+            firedRun[id] = busRun[bus];
+            alerts++;
+            fired++;
+            listener.onAlert(id, bus, seconds);
+        }
+        return fired;
+    }
+
+    // Whether the subscription may fire for this bus, re-arming it if its last bus has moved on
+    private boolean armed(int id, int bus) {
+        int last = firedBus[id];
+        if (last == NONE) return true;
+        boolean movedOn = busRun[last] != firedRun[id] || busRoute[last] != subRoute[id];
+        if (last != bus && busKm[last] >= subKm[id]) movedOn = true;
+        if (movedOn) firedBus[id] = NONE;
+        return movedOn;
+    }
+
+    public int size() {
+        return active;
+    }
+
+    public int routeOf(int id) {
+        return subRoute[id];
+    }
+
+    public double stopKm(int id) {
+        return subKm[id];
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    // ETA lookups, i.e. updates that landed inside a geofence
+    public long getChecks() {
+        return checks;
+    }
+
+    public long getAlerts() {
+        return alerts;
+    }
+
+    // First index whose km is strictly greater
+    private static int firstAfter(double[] km, int size, double value) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (km[mid] <= value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void ensureRoute(int route) {
+        if (route < routeSize.length) return;
+        int capacity = Math.max(route + 1, routeSize.length * 2);
+        routeSubs = Arrays.copyOf(routeSubs, capacity);
+        routeKm = Arrays.copyOf(routeKm, capacity);
+        routeSize = Arrays.copyOf(routeSize, capacity);
+        routeReachKm = Arrays.copyOf(routeReachKm, capacity);
+    }
+
+    private void growSubscriptions(int capacity) {
+        subRoute = Arrays.copyOf(subRoute, capacity);
+        subKm = Arrays.copyOf(subKm, capacity);
+        subLeadSeconds = Arrays.copyOf(subLeadSeconds, capacity);
+        subReachKm = Arrays.copyOf(subReachKm, capacity);
+        firedBus = Arrays.copyOf(firedBus, capacity);
+        firedRun = Arrays.copyOf(firedRun, capacity);
+    }
+}
@@ -0,0 +1,186 @@
+package com.busapp.lk.eta;
+
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+
+/**
+ * Upcoming arrivals ordered by ETA, as an indexed binary min-heap keyed by a
+ * dense id (the bus index). Changing one ETA moves only that entry, so the
+ * tracking loop can feed it bus by bus without ever re-sorting the board,
+ * and reading the first N entries walks just the top of the heap.
+ *
+ * <p>Not thread safe.
+ */
+public final class ArrivalBoard {
+
+    private static final int ABSENT = -1;
+
+    // heap[i] is an id; position[id] is its heap slot or ABSENT
+    private int[] heap = new int[16];
+    private int[] position = new int[16];
+    private float[] eta = new float[16];
+    private int size;
+
+    // Scratch for top(): heap slots still to visit, itself a small heap by ETA
+    private int[] frontier = new int[16];
+
+    public ArrivalBoard() {
+        Arrays.fill(position, ABSENT);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return id < position.length && position[id] != ABSENT;
+    }
+
+    public float eta(int id) {
+        return eta[id];
+    }
+
+    /**
+     * Inserts the id or moves it to its new ETA.
+     */
+    public void update(int id, float etaSeconds) {
+        ensureId(id);
+        int slot = position[id];
+        if (slot == ABSENT) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            eta[id] = etaSeconds;
+            heap[size] = id;
+            position[id] = size;
+            siftUp(size++);
+            return;
+        }
+        float old = eta[id];
+        eta[id] = etaSeconds;
+        if (etaSeconds < old) {
+            siftUp(slot);
+        } else if (etaSeconds > old) {
+            siftDown(slot);
+        }
+    }
+
+    public void remove(int id) {
+        if (!contains(id)) return;
+        int slot = position[id];
+        position[id] = ABSENT;
+        int last = heap[--size];
+        if (slot == size) return;
+        heap[slot] = last;
+        position[last] = slot;
+        siftUp(slot);
+        siftDown(position[last]);
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = ABSENT;
+        }
+        size = 0;
+    }
+
+    /**
+     * Writes up to {@code n} ids with the smallest ETAs into {@code out}, soonest first.
+     */
+    public void top(int n, IntList out) {
+        out.clear();
+        if (size == 0 || n <= 0) return;
+        if (frontier.length < n + 1) {
+            frontier = new int[Math.max(n + 1, frontier.length * 2)];
+        }
+        // A candidate's children can only follow it, so at most n + 1 slots are ever pending
+        int pending = 0;
+        frontier[pending++] = 0;
+        while (pending > 0 && out.size() < n) {
+            int slot = frontier[0];
+            frontier[0] = frontier[--pending];
+            frontierSiftDown(pending);
+            out.add(heap[slot]);
+
+            int child = 2 * slot + 1;
+            for (int c = child; c <= child + 1 && c < size; c++) {
+                frontier[pending] = c;
+                frontierSiftUp(pending++);
+            }
+        }
+    }
+
+    private void siftUp(int slot) {
+        int id = heap[slot];
+        float key = eta[id];
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            int parentId = heap[parent];
+            if (eta[parentId] <= key) break;
+            heap[slot] = parentId;
+            position[parentId] = slot;
+            slot = parent;
+        }
+        heap[slot] = id;
+        position[id] = slot;
+    }
+
+    private void siftDown(int slot) {
+        int id = heap[slot];
+        float key = eta[id];
+        int half = size >>> 1;
+        while (slot < half) {
+            int child = 2 * slot + 1;
+            int right = child + 1;
+            if (right < size && eta[heap[right]] < eta[heap[child]]) {
+                child = right;
+            }
+            int childId = heap[child];
+            if (key <= eta[childId]) break;
+            heap[slot] = childId;
+            position[childId] = slot;
+            slot = child;
+        }
+        heap[slot] = id;
+        position[id] = slot;
+    }
+
+    private void frontierSiftUp(int i) {
+        int slot = frontier[i];
+        float key = eta[heap[slot]];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (eta[heap[frontier[parent]]] <= key) break;
+            frontier[i] = frontier[parent];
+            i = parent;
+        }
+        frontier[i] = slot;
+    }
+
+    private void frontierSiftDown(int count) {
+        if (count == 0) return;
+        int i = 0;
+        int slot = frontier[0];
+        float key = eta[heap[slot]];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= count) break;
+            if (child + 1 < count && eta[heap[frontier[child + 1]]] < eta[heap[frontier[child]]]) {
+                child++;
+            }
+            if (key <= eta[heap[frontier[child]]]) break;
+            frontier[i] = frontier[child];
+            i = child;
+        }
+        frontier[i] = slot;
+    }
+
+    private void ensureId(int id) {
+        if (id < position.length) return;
+        int capacity = Math.max(id + 1, position.length * 2);
+        int old = position.length;
+        position = Arrays.copyOf(position, capacity);
+        Arrays.fill(position, old, capacity, ABSENT);
+        eta = Arrays.copyOf(eta, capacity);
+    }
+}
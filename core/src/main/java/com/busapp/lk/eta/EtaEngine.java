@@ -0,0 +1,330 @@
+package com.busapp.lk.eta;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Arrival time predictions from historical travel times rather than a bus's
+ * instantaneous speed.
+ *
+ * <p>Each route is a list of timing points (stops) by distance along its
+ * geometry. For every segment between two stops the engine keeps a pace
+ * histogram (seconds per km) per hour of the day, learnt from buses crossing
+ * the segment. Paces are bucketed on a geometric scale in {@code char}
+ * counters and halved once a bucket holds {@link #DECAY_AT} samples, so old
+ * traffic patterns fade out. Histograms are allocated on the first sample.
+ *
+ * <p>{@link #tick} makes one pass: per route it turns the current hour's
+ * median paces into cumulative seconds from the first stop, then stores each
+ * bus's own position on that scale. Any ETA is then a single subtraction.
+ * Not thread safe.
+ */
+public final class EtaEngine {
+
+    public static final float NO_ETA = -1f;
+    public static final int BUCKETS = 24;
+    public static final int DECAY_AT = 64;
+
+    // Pace bins: 40 s/km (90 km/h) up to ~1350 s/km (2.7 km/h), 12% apart
+    static final int BINS = 32;
+    private static final double MIN_PACE = 40;
+    private static final double BIN_RATIO = 1.12;
+    private static final double LOG_BIN_RATIO = Math.log(BIN_RATIO);
+    // A first report this close past a stop counts as starting the segment at the stop
+    private static final double AT_STOP_KM = 0.01;
+    // Histogram row BUCKETS holds every hour together, for hours with no data yet
+    private static final int ROWS = BUCKETS + 1;
+
+    private final TimeZone zone;
+    private final float defaultPace;
+
+    // Routes: stops of route r are [routeStopStart[r], routeStopStart[r + 1]) in the stop tables
+    private int routeCount;
+    private int[] routeStopStart = new int[17];
+    private int stopCount;
+    private double[] stopKm = new double[64];
+    private char[][] histograms = new char[64][];
+    // Median pace per stop slot and row, NaN without samples
+    private float[] pace = new float[64 * ROWS];
+    // Filled by tick(): seconds of the segment starting at the stop, and seconds from the first stop
+    private float[] segmentSeconds = new float[64];
+    private float[] cumulativeSeconds = new float[64];
+
+    // Buses
+    private int busCount;
+    private int[] busRoute = new int[16];
+    private double[] busKm = new double[16];
+    private int[] busSegment = new int[16];
+    private long[] segmentEnteredMillis = new long[16];
+    private double[] segmentEnteredKm = new double[16];
+    private boolean[] enteredAtStop = new boolean[16];
+    private float[] busSeconds = new float[16];
+
+    private long observations;
+
+    public EtaEngine(TimeZone zone, float defaultSpeedKmh) {
+        this.zone = zone;
+        this.defaultPace = 3600f / defaultSpeedKmh;
+    }
+
+    /**
+     * Adds a route by the distance of each stop along it, in increasing order.
+     */
+    public int addRoute(double[] stopDistancesKm) {
+        if (stopDistancesKm.length < 2) {
+            throw new IllegalArgumentException("A route needs at least two stops");
+        }
+        for (int i = 1; i < stopDistancesKm.length; i++) {
+            if (stopDistancesKm[i] < stopDistancesKm[i - 1]) {
+                throw new IllegalArgumentException("Stop distances must not decrease");
+            }
+        }
+        if (routeCount + 2 > routeStopStart.length) {
+            routeStopStart = Arrays.copyOf(routeStopStart, routeStopStart.length * 2);
+        }
+        ensureStops(stopCount + stopDistancesKm.length);
+        System.arraycopy(stopDistancesKm, 0, stopKm, stopCount, stopDistancesKm.length);
+        Arrays.fill(pace, stopCount * ROWS, (stopCount + stopDistancesKm.length) * ROWS, Float.NaN);
+        stopCount += stopDistancesKm.length;
+        routeStopStart[++routeCount] = stopCount;
+        return routeCount - 1;
+    }
+
+    public int stopCount(int route) {
+        return routeStopStart[route + 1] - routeStopStart[route];
+    }
+
+    public int addBus(int route) {
+        if (route < 0 || route >= routeCount) {
+            throw new IllegalArgumentException("Unknown route " + route);
+        }
+        if (busCount == busRoute.length) {
+            int capacity = busCount * 2;
+            busRoute = Arrays.copyOf(busRoute, capacity);
+            busKm = Arrays.copyOf(busKm, capacity);
+            busSegment = Arrays.copyOf(busSegment, capacity);
+            segmentEnteredMillis = Arrays.copyOf(segmentEnteredMillis, capacity);
+            segmentEnteredKm = Arrays.copyOf(segmentEnteredKm, capacity);
+            enteredAtStop = Arrays.copyOf(enteredAtStop, capacity);
+            busSeconds = Arrays.copyOf(busSeconds, capacity);
+        }
+        int bus = busCount++;
+        busRoute[bus] = route;
+        busSegment[bus] = -1;
+        return bus;
+    }
+
+    /**
+     * Reports a bus's distance along its route. Each stop it passed since the
+     * last report completes a segment, whose travel time is learnt. A
+     * distance lower than the last one means a new run of the route.
+     */
+    public void updateBus(int bus, double km, long timeMillis) {
+        int route = busRoute[bus];
+        int segment = segmentOf(route, km);
+        int previous = busSegment[bus];
+        if (previous < 0 || km < busKm[bus]) {
+            startSegment(bus, segment, km, timeMillis, isAtStop(route, segment, km));
+            return;
+        }
+        busKm[bus] = km;
+        if (segment == previous) return;
+
+        double distance = km - segmentEnteredKm[bus];
+        long elapsed = timeMillis - segmentEnteredMillis[bus];
+        if (distance <= 0 || elapsed <= 0) {
+            startSegment(bus, segment, km, timeMillis, isAtStop(route, segment, km));
+            return;
+        }
+        // Seconds per km over everything since the segment was entered, spread over the stops passed
+        double observedPace = elapsed / 1000.0 / distance;
+        int bucket = bucketOf(segmentEnteredMillis[bus]);
+        int base = routeStopStart[route];
+        int first = enteredAtStop[bus] ? previous : previous + 1;
+        for (int s = first; s < segment; s++) {
+            observe(base + s, bucket, observedPace);
+        }
+
+        // Estimate when the bus passed its current segment's first stop
+        double boundary = stopKm[base + segment];
+        long crossedAt = segmentEnteredMillis[bus]
+                + (long) ((boundary - segmentEnteredKm[bus]) * observedPace * 1000);
+        startSegment(bus, segment, km, crossedAt, true);
+        segmentEnteredKm[bus] = boundary;
+    }
+
+    /**
+     * Recomputes cumulative stop times for every route at the time's hour and
+     * places every bus on them. ETAs reflect the state as of the last tick.
+     */
+    public void tick(long timeMillis) {
+        int bucket = bucketOf(timeMillis);
+        for (int r = 0; r < routeCount; r++) {
+            int from = routeStopStart[r];
+            int to = routeStopStart[r + 1];
+            float total = 0;
+            for (int i = from; i < to; i++) {
+                cumulativeSeconds[i] = total;
+                if (i + 1 < to) {
+                    float seconds = (float) ((stopKm[i + 1] - stopKm[i]) * paceOf(i, bucket));
+                    segmentSeconds[i] = seconds;
+                    total += seconds;
+                } else {
+                    segmentSeconds[i] = 0;
+                }
+            }
+        }
+        for (int b = 0; b < busCount; b++) {
+            busSeconds[b] = busSegment[b] < 0 ? 0 : secondsAt(busRoute[b], busSegment[b], busKm[b]);
+        }
+    }
+
+    /**
+     * Seconds until the bus reaches the stop (an index within its route), or
+     * {@link #NO_ETA} if it is already past it or has not reported yet.
+     */
+    public float etaSeconds(int bus, int stop) {
+        int segment = busSegment[bus];
+        if (segment < 0 || stop <= segment) return NO_ETA;
+        return cumulativeSeconds[routeStopStart[busRoute[bus]] + stop] - busSeconds[bus];
+    }
+
+    /**
+     * Seconds until the bus reaches a distance along its route, such as the
+     * point on the route closest to the user.
+     */
+    public float etaSecondsToKm(int bus, double km) {
+        if (busSegment[bus] < 0 || km <= busKm[bus]) return NO_ETA;
+        int route = busRoute[bus];
+        return secondsAt(route, segmentOf(route, km), km) - busSeconds[bus];
+    }
+
+    // Index within its route of the last stop the bus passed, or -1 before its first report
+    public int lastStop(int bus) {
+        return busSegment[bus];
+    }
+
+    public long getObservations() {
+        return observations;
+    }
+
+    /**
+     * Median learnt pace for a segment at an hour, falling back to the
+     * all-day median and then to the default speed.
+     */
+    public float pace(int route, int segment, int bucket) {
+        return paceOf(routeStopStart[route] + segment, bucket);
+    }
+
+    public int bucketOf(long timeMillis) {
+        long local = timeMillis + zone.getOffset(timeMillis);
+        long minuteOfDay = Math.floorMod(local / 60_000, 24 * 60);
+        return (int) (minuteOfDay * BUCKETS / (24 * 60));
+    }
+
+    private float paceOf(int slot, int bucket) {
+        float p = pace[slot * ROWS + bucket];
+        if (p == p) return p;
+        p = pace[slot * ROWS + BUCKETS];
+        return p == p ? p : defaultPace;
+    }
+
+    private float secondsAt(int route, int segment, double km) {
+        int slot = routeStopStart[route] + segment;
+        double length = stopKm[slot + 1] - stopKm[slot];
+        double fraction = length > 0 ? (km - stopKm[slot]) / length : 0;
+        if (fraction < 0) fraction = 0;
+        if (fraction > 1) fraction = 1;
+        return (float) (cumulativeSeconds[slot] + fraction * segmentSeconds[slot]);
+    }
+
+    // Segment containing the distance: s such that stopKm[s] <= km < stopKm[s + 1], clamped
+    private int segmentOf(int route, double km) {
+        int from = routeStopStart[route];
+        int last = routeStopStart[route + 1] - 2;
+        int lo = 0;
+        int hi = last - from;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (stopKm[from + mid] <= km) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private boolean isAtStop(int route, int segment, double km) {
+        return km - stopKm[routeStopStart[route] + segment] < AT_STOP_KM;
+    }
+
+    private void startSegment(int bus, int segment, double km, long timeMillis, boolean atStop) {
+        busSegment[bus] = segment;
+        busKm[bus] = km;
+        segmentEnteredMillis[bus] = timeMillis;
+        segmentEnteredKm[bus] = km;
+        enteredAtStop[bus] = atStop;
+    }
+
+    private void observe(int slot, int bucket, double secondsPerKm) {
+        char[] histogram = histograms[slot];
+        if (histogram == null) {
+            histogram = new char[ROWS * BINS];
+            histograms[slot] = histogram;
+        }
+        int bin = binOf(secondsPerKm);
+        record(histogram, slot, bucket, bin);
+        record(histogram, slot, BUCKETS, bin);
+        observations++;
+    }
+
+    private void record(char[] histogram, int slot, int row, int bin) {
+        int offset = row * BINS;
+        histogram[offset + bin]++;
+        int total = 0;
+        for (int i = 0; i < BINS; i++) {
+            total += histogram[offset + i];
+        }
+        if (total >= DECAY_AT) {
+            total = 0;
+            for (int i = 0; i < BINS; i++) {
+                // Halve, but keep single samples so rare paces are not lost entirely
+                histogram[offset + i] = (char) ((histogram[offset + i] + 1) >> 1);
+                total += histogram[offset + i];
+            }
+        }
+        pace[slot * ROWS + row] = median(histogram, offset, total);
+    }
+
+    // Median, interpolated geometrically inside its bin
+    private static float median(char[] histogram, int offset, int total) {
+        double half = total / 2.0;
+        int seen = 0;
+        for (int i = 0; i < BINS; i++) {
+            int count = histogram[offset + i];
+            if (count > 0 && seen + count >= half) {
+                double within = (half - seen) / count;
+                return (float) (MIN_PACE * Math.pow(BIN_RATIO, i + within));
+            }
+            seen += count;
+        }
+        return Float.NaN;
+    }
+
+    static int binOf(double secondsPerKm) {
+        if (secondsPerKm <= MIN_PACE) return 0;
+        int bin = (int) (Math.log(secondsPerKm / MIN_PACE) / LOG_BIN_RATIO);
+        return Math.min(bin, BINS - 1);
+    }
+
+    private void ensureStops(int size) {
+        if (size <= stopKm.length) return;
+        int capacity = Math.max(size, stopKm.length * 2);
+        stopKm = Arrays.copyOf(stopKm, capacity);
+        histograms = Arrays.copyOf(histograms, capacity);
+        pace = Arrays.copyOf(pace, capacity * ROWS);
+        segmentSeconds = Arrays.copyOf(segmentSeconds, capacity);
+        cumulativeSeconds = Arrays.copyOf(cumulativeSeconds, capacity);
+    }
+}
@@ -0,0 +1,157 @@
+package com.busapp.lk.eta;
+
+import com.busapp.lk.util.TextBuffer;
+
+/**
+ * Text of the bus info card's live fields, kept in reused buffers and only
+ * rebuilt when what it shows changes: the speed in whole km/h, distances
+ * in tenths of a km, progress in whole percent, the ETA band and minute,
+ * and the motion label. {@link #update} returns which fields changed, so
+ * the card only touches views whose text did and a tick that changes
+ * nothing visible costs no layout. Nothing allocates after construction.
+ *
+ * <p>Not thread safe; one instance per card.
+ */
+public final class InfoCardText {
+
+    public static final int SPEED = 1;
+    public static final int ROUTE_DISTANCE = 1 << 1;
+    public static final int PROGRESS = 1 << 2;
+    public static final int DISTANCE_TO_USER = 1 << 3;
+    public static final int ETA = 1 << 4;
+    public static final int STATUS = 1 << 5;
+    public static final int ALL = (1 << 6) - 1;
+
+    // Keys for fields that do not depend on a number
+    private static final long NO_LOCATION = -1;
+    private static final long UNSET = Long.MIN_VALUE;
+
+    public final TextBuffer speed = new TextBuffer(16);
+    public final TextBuffer routeDistance = new TextBuffer(16);
+    public final TextBuffer progress = new TextBuffer(16);
+    public final TextBuffer distanceToUser = new TextBuffer(40);
+    public final TextBuffer eta = new TextBuffer(40);
+
+    private long speedKey = UNSET;
+    private long routeDistanceKey = UNSET;
+    private long progressKey = UNSET;
+    private long distanceToUserKey = UNSET;
+    private long etaKey = UNSET;
+    private TripStatus.EtaBand etaBand = TripStatus.EtaBand.UNAVAILABLE;
+    private TripStatus.Motion motion;
+
+    // Null until the user's location is known
+    public TripStatus.EtaBand getEtaBand() {
+        return etaKey == NO_LOCATION ? null : etaBand;
+    }
+
+    public TripStatus.Motion getMotion() {
+        return motion;
+    }
+
+    // Forgets what was shown, e.g. when the card switches to another bus
+    public void reset() {
+        speedKey = UNSET;
+        routeDistanceKey = UNSET;
+        progressKey = UNSET;
+        distanceToUserKey = UNSET;
+        etaKey = UNSET;
+        motion = null;
+    }
+
+    /**
+     * Rebuilds the fields whose shown value changed and returns them as a
+     * mask of the field constants.
+     *
+     * @param distanceToUserKm NaN when the user's location is unknown, in
+     *                         which case the ETA arguments are ignored
+     */
+    public int update(double speedKmh, double routeKm, double traveledKm, double distanceToUserKm,
+                      float etaSeconds, double userKm) {
+        int changed = 0;
+
+        long key = Math.round(speedKmh);
+        if (key != speedKey) {
+            speedKey = key;
+            speed.clear().append(key).append(" km/h");
+            changed |= SPEED;
+        }
+
+        key = Math.round(routeKm * 10);
+        if (key != routeDistanceKey) {
+            routeDistanceKey = key;
+            routeDistance.clear().append(routeKm, 1).append(" km");
+            changed |= ROUTE_DISTANCE;
+        }
+
+        key = Math.round(TripStatus.progressPercent(traveledKm, routeKm));
+        if (key != progressKey) {
+            progressKey = key;
+            progress.clear().append(key).append("% Complete");
+            changed |= PROGRESS;
+        }
+
+        TripStatus.Motion m = TripStatus.motion(speedKmh);
+        if (m != motion) {
+            motion = m;
+            changed |= STATUS;
+        }
+
+        if (Double.isNaN(distanceToUserKm)) {
+            if (distanceToUserKey != NO_LOCATION) {
+                distanceToUserKey = NO_LOCATION;
+                distanceToUser.clear().append("Enable location to see distance");
+                changed |= DISTANCE_TO_USER;
+            }
+            if (etaKey != NO_LOCATION) {
+                etaKey = NO_LOCATION;
+                eta.clear().append("Location required for ETA");
+                changed |= ETA;
+            }
+            return changed;
+        }
+
+        key = Math.round(distanceToUserKm * 10);
+        if (key != distanceToUserKey) {
+            distanceToUserKey = key;
+            distanceToUser.clear().append(distanceToUserKm, 1).append(" km away from you");
+            changed |= DISTANCE_TO_USER;
+        }
+
+        TripStatus.EtaBand band = TripStatus.etaBand(etaSeconds, userKm, traveledKm);
+        int minutes = band.compareTo(TripStatus.EtaBand.NEAR) >= 0 ? TripStatus.etaMinutes(etaSeconds) : 0;
+        key = ((long) band.ordinal() << 32) | minutes;
+        if (key != etaKey) {
+            etaKey = key;
+            etaBand = band;
+            formatEta(band, minutes);
+            changed |= ETA;
+        }
+        return changed;
+    }
+
+    private void formatEta(TripStatus.EtaBand band, int minutes) {
+        eta.clear();
+        switch (band) {
+            case PASSED:
+                eta.append("Already passed your location");
+                return;
+            case UNAVAILABLE:
+                eta.append("ETA not available yet");
+                return;
+            case IMMINENT:
+                eta.append("\u26A1 Arriving in less than 1 min");
+                return;
+            case NEAR:
+                eta.append("\u23F1\uFE0F Near you in ");
+                break;
+            case SOON:
+                eta.append("\uD83D\uDE8C Arriving in ");
+                break;
+            default:
+                eta.append("\u23F0 Arriving in ");
+                break;
+        }
+        eta.append(minutes).append(" mins");
+    }
+}
@@ -0,0 +1,67 @@
+package com.busapp.lk.eta;
+
+/**
+ * The derived values the bus info card shows: trip progress, a motion
+ * label from speed and an urgency band for the ETA. Pure functions so the
+ * card's thresholds can be tested and benchmarked without a view.
+ */
+public final class TripStatus {
+
+    public enum Motion {
+        STOPPED,
+        SLOW,
+        MOVING
+    }
+
+    public enum EtaBand {
+        // No ETA and the bus has not reached the user yet
+        UNAVAILABLE,
+        // No ETA because the bus is already past the user
+        PASSED,
+        // Under a minute
+        IMMINENT,
+        // Up to 5 minutes
+        NEAR,
+        // Up to 15 minutes
+        SOON,
+        LATER
+    }
+
+    public static final double STOPPED_BELOW_KMH = 5;
+    public static final double SLOW_BELOW_KMH = 20;
+
+    private TripStatus() {
+    }
+
+    // Share of the route covered, 0-100
+    public static double progressPercent(double traveledKm, double routeKm) {
+        if (routeKm <= 0) return 0;
+        return Math.max(0, Math.min(100, traveledKm / routeKm * 100));
+    }
+
+    public static Motion motion(double speedKmh) {
+        if (speedKmh < STOPPED_BELOW_KMH) return Motion.STOPPED;
+        if (speedKmh < SLOW_BELOW_KMH) return Motion.SLOW;
+        return Motion.MOVING;
+    }
+
+    /**
+     * @param etaSeconds from {@link EtaEngine#etaSecondsToKm}, or
+     *                   {@link EtaEngine#NO_ETA}
+     * @param userKm     the user's position projected onto the route
+     */
+    public static EtaBand etaBand(float etaSeconds, double userKm, double traveledKm) {
+        if (etaSeconds == EtaEngine.NO_ETA) {
+            return userKm <= traveledKm ? EtaBand.PASSED : EtaBand.UNAVAILABLE;
+        }
+        if (etaSeconds < 60) return EtaBand.IMMINENT;
+        if (etaSeconds <= 5 * 60) return EtaBand.NEAR;
+        if (etaSeconds <= 15 * 60) return EtaBand.SOON;
+        return EtaBand.LATER;
+    }
+
+    // Whole minutes, rounded up as shown to riders
+    public static int etaMinutes(float etaSeconds) {
+        return (int) Math.ceil(etaSeconds / 60.0);
+    }
+}
@@ -0,0 +1,295 @@
+package com.busapp.lk.fleet;
+
+import com.busapp.lk.route.RouteGeometry;
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Advances every bus on a background thread at a fixed tick rate and publishes
+ * a {@link FleetSnapshot} after each tick.
+ *
+ * <p>Each tick moves every bus along its {@link RouteGeometry} by its speed
+ * over exactly one tick interval, independent of how late the scheduler
+ * fired, so results only depend on the number of ticks.
+ * Bus state lives in a {@link VehicleStateStore} and snapshots are recycled
+ * through a triple buffer, so a tick allocates nothing once the fleet is built.
+ *
+ * <p>With an {@link UpdateScheduler} the engine only wakes as often as the
+ * highest priority in use needs, and each wakeup only advances the buses
+ * that are due, each by every tick it missed.
+ */
+public final class FleetEngine {
+
+    public interface Listener {
+        // Called on the engine thread; implementations should hand off quickly.
+        void onSnapshotPublished(long tick);
+    }
+
+    static final double MIN_SPEED_KMH = 20;
+    static final double SPEED_RANGE_KMH = 35;
+
+    private final long tickMillis;
+    private final Random random;
+    private final VehicleStateStore store = new VehicleStateStore(16);
+
+    // Indexed by route id
+    private RouteGeometry[] routes = new RouteGeometry[4];
+    private int routeCount;
+    private final double[] position = new double[2];
+    // Tick at which each bus last moved
+    private long[] updatedTick = new long[16];
+    private UpdateScheduler updateScheduler;
+
+    // Triple buffer: the engine fills back, publishes it as middle, the consumer owns front
+    private FleetSnapshot back = new FleetSnapshot();
+    private final AtomicReference<FleetSnapshot> middle = new AtomicReference<>(new FleetSnapshot());
+    private FleetSnapshot front = new FleetSnapshot();
+
+    private volatile Listener listener;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> tickTask;
+    // Bumped whenever the wakeup chain is replaced, so a superseded wakeup does not reschedule
+    private int chain;
+    private int scheduledStride;
+    private long tick;
+
+    public FleetEngine(long tickMillis) {
+        this(tickMillis, new Random());
+    }
+
+    public FleetEngine(long tickMillis, Random random) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive: " + tickMillis);
+        }
+        this.tickMillis = tickMillis;
+        this.random = random;
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Advances buses by priority from now on. Existing and future buses start
+     * as {@link UpdateScheduler.Priority#FAR} until {@link #focus} raises them.
+     */
+    public synchronized void setUpdateScheduler(UpdateScheduler scheduler) {
+        updateScheduler = scheduler;
+        for (int i = 0; i < store.size(); i++) {
+            scheduler.add(i, tick);
+        }
+    }
+
+    public synchronized UpdateScheduler getUpdateScheduler() {
+        return updateScheduler;
+    }
+
+    /**
+     * Re-prioritises buses (see {@link UpdateScheduler#focus}) and, when that
+     * needs a faster wakeup than the one pending, brings the next tick forward.
+     */
+    public synchronized void focus(int selected, IntList visible, IntList nearby) {
+        if (updateScheduler == null) return;
+        updateScheduler.focus(selected, visible, nearby);
+        int stride = updateScheduler.wakeStride();
+        if (tickTask != null && stride < scheduledStride) {
+            tickTask.cancel(false);
+            scheduleNext(++chain, stride);
+        }
+    }
+
+    public synchronized int addRoute(RouteGeometry route) {
+        if (routeCount == routes.length) {
+            routes = Arrays.copyOf(routes, routeCount * 2);
+        }
+        routes[routeCount] = route;
+        return routeCount++;
+    }
+
+    public int addRoute(double startLat, double startLng, double endLat, double endLng) {
+        return addRoute(RouteGeometry.straight(startLat, startLng, endLat, endLng));
+    }
+
+    public synchronized RouteGeometry getRoute(int routeId) {
+        return routes[routeId];
+    }
+
+    /**
+     * Places a new bus at the start of the route and returns its index in every snapshot.
+     */
+    public synchronized int addBus(int routeId) {
+        if (routeId < 0 || routeId >= routeCount) {
+            throw new IllegalArgumentException("Unknown route: " + routeId);
+        }
+        RouteGeometry route = routes[routeId];
+        int index = store.add(routeId, route.lat(0), route.lng(0));
+        store.setSpeed(index, 30);
+        store.setHeading(index, route.segmentBearing(0));
+        if (index >= updatedTick.length) {
+            updatedTick = Arrays.copyOf(updatedTick, store.capacity());
+        }
+        updatedTick[index] = tick;
+        if (updateScheduler != null) {
+            updateScheduler.add(index, tick);
+        }
+        return index;
+    }
+
+    /**
+     * Puts a bus at a distance along its route, e.g. where it was last seen
+     * before a restart. Shows up in the next snapshot.
+     */
+    public synchronized void moveBus(int index, double km) {
+        if (index < 0 || index >= store.size()) {
+            throw new IllegalArgumentException("Unknown bus: " + index);
+        }
+        RouteGeometry route = routes[store.routeId(index)];
+        double clamped = Math.max(0, Math.min(km, route.getLengthKm()));
+        int segment = route.positionAt(clamped, position);
+        store.setPosition(index, position[0], position[1]);
+        store.setDistanceTraveled(index, clamped);
+        store.setHeading(index, route.segmentBearing(segment));
+        // As in addBus, but the current tick may already be published and consumed
+        updatedTick[index] = tick + 1;
+    }
+
+    public synchronized int size() {
+        return store.size();
+    }
+
+    /**
+     * Returns the newest published snapshot. Only one thread may consume
+     * snapshots; the returned instance stays unchanged until that thread
+     * calls this method again.
+     */
+    public FleetSnapshot acquireSnapshot() {
+        FleetSnapshot current = front;
+        if (middle.get().getTick() > current.getTick()) {
+            front = middle.getAndSet(current);
+        }
+        return front;
+    }
+
+    public synchronized void start() {
+        if (tickTask != null) return;
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "fleet-engine");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        scheduleNext(++chain, 0);
+    }
+
+    public synchronized void stop() {
+        if (tickTask != null) {
+            tickTask.cancel(false);
+            tickTask = null;
+            chain++;
+        }
+    }
+
+    public synchronized void shutdown() {
+        stop();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return tickTask != null;
+    }
+
+    /**
+     * Runs a single wakeup on the calling thread: one tick, or the scheduler's
+     * wakeup stride in ticks. The scheduler uses this too, which lets tests
+     * and benchmarks drive the engine deterministically.
+     */
+    public void tick() {
+        int ticks;
+        synchronized (this) {
+            ticks = updateScheduler != null ? updateScheduler.wakeStride() : 1;
+        }
+        advance(ticks);
+    }
+
+    // Wakeups are chained one at a time so the period can follow the wakeup stride
+    private void scheduleNext(int forChain, int stride) {
+        scheduledStride = Math.max(stride, 1);
+        int ticks = scheduledStride;
+        tickTask = scheduler.schedule(() -> {
+            advance(ticks);
+            synchronized (this) {
+                if (chain == forChain && tickTask != null) {
+                    scheduleNext(forChain, updateScheduler != null ? updateScheduler.wakeStride() : 1);
+                }
+            }
+        }, stride * tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void advance(int ticks) {
+        long published;
+        synchronized (this) {
+            published = tick + ticks;
+            tick = published;
+            advanceDue(published);
+            back.copyFrom(store, updatedTick, published, System.currentTimeMillis());
+            back = middle.getAndSet(back);
+        }
+
+        Listener current = listener;
+        if (current != null) {
+            current.onSnapshotPublished(published);
+        }
+    }
+
+    private void advanceDue(long now) {
+        int count = store.size();
+        double[] lat = store.latitudes();
+        double[] lng = store.longitudes();
+        double[] distanceTraveled = store.distancesTraveled();
+        float[] speed = store.speeds();
+        float[] heading = store.headings();
+        int[] routeId = store.routeIds();
+        double tickHours = tickMillis / 3_600_000.0;
+        UpdateScheduler plan = updateScheduler;
+        int advanced = 0;
+
+        for (int i = 0; i < count; i++) {
+            int ticks = plan == null ? (int) (now - updatedTick[i]) : plan.due(i, now);
+            if (ticks == 0) continue;
+            advanced++;
+            updatedTick[i] = now;
+
+            RouteGeometry route = routes[routeId[i]];
+            double kmh = MIN_SPEED_KMH + random.nextDouble() * SPEED_RANGE_KMH;
+            double km = distanceTraveled[i] + kmh * tickHours * ticks;
+            if (km >= route.getLengthKm()) {
+                // Reached end, reset to start
+                km = 0;
+            }
+
+            int segment = route.positionAt(km, position);
+            lat[i] = position[0];
+            lng[i] = position[1];
+            heading[i] = route.segmentBearing(segment);
+            speed[i] = (float) kmh;
+            distanceTraveled[i] = km;
+        }
+        if (plan != null) {
+            plan.recordWake(advanced, count - advanced);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.busapp.lk.fleet;
+
+/**
+ * Read-only view of every bus after one engine tick. Indices match the order
+ * buses were added to the {@link FleetEngine}.
+ *
+ * <p>Snapshots are recycled through a triple buffer so publishing does not
+ * allocate. A snapshot returned by {@link FleetEngine#acquireSnapshot()} does
+ * not change until the consumer acquires the next one.
+ */
+public final class FleetSnapshot {
+
+    private long tick = -1;
+    private long timestampMillis;
+    private int size;
+    private double[] lat = new double[0];
+    private double[] lng = new double[0];
+    private double[] distanceTraveled = new double[0];
+    private float[] speed = new float[0];
+    private float[] heading = new float[0];
+    private int[] routeId = new int[0];
+    private long[] updatedTick = new long[0];
+
+    FleetSnapshot() {
+    }
+
+    void copyFrom(VehicleStateStore store, long[] updated, long tick, long timestampMillis) {
+        int count = store.size();
+        if (lat.length < count) {
+            int capacity = store.capacity();
+            lat = new double[capacity];
+            lng = new double[capacity];
+            distanceTraveled = new double[capacity];
+            speed = new float[capacity];
+            heading = new float[capacity];
+            routeId = new int[capacity];
+            updatedTick = new long[capacity];
+        }
+        System.arraycopy(store.latitudes(), 0, lat, 0, count);
+        System.arraycopy(store.longitudes(), 0, lng, 0, count);
+        System.arraycopy(store.distancesTraveled(), 0, distanceTraveled, 0, count);
+        System.arraycopy(store.speeds(), 0, speed, 0, count);
+        System.arraycopy(store.headings(), 0, heading, 0, count);
+        System.arraycopy(store.routeIds(), 0, routeId, 0, count);
+        System.arraycopy(updated, 0, updatedTick, 0, count);
+        this.size = count;
+        this.tick = tick;
+        this.timestampMillis = timestampMillis;
+    }
+
+    // -1 until the engine has published at least once
+    public long getTick() {
+        return tick;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double lat(int index) {
+        return lat[index];
+    }
+
+    public double lng(int index) {
+        return lng[index];
+    }
+
+    // km/h
+    public float speed(int index) {
+        return speed[index];
+    }
+
+    // Degrees clockwise from north
+    public float heading(int index) {
+        return heading[index];
+    }
+
+    // km
+    public double distanceTraveled(int index) {
+        return distanceTraveled[index];
+    }
+
+    public int routeId(int index) {
+        return routeId[index];
+    }
+
+    /**
+     * Tick at which the bus last moved. Buses the engine skipped keep an
+     * older tick, so a consumer can skip them too.
+     */
+    public long updatedTick(int index) {
+        return updatedTick[index];
+    }
+}
@@ -0,0 +1,81 @@
+package com.busapp.lk.fleet;
+
+import com.busapp.lk.eta.EtaEngine;
+import com.busapp.lk.geo.ClusterIndex;
+import com.busapp.lk.geo.SpatialGrid;
+import com.busapp.lk.journal.PositionJournal;
+import com.busapp.lk.motion.MotionPredictor;
+import com.busapp.lk.util.IntList;
+
+/**
+ * Applies fleet snapshots to everything that tracks bus positions off
+ * screen: the motion predictor, the ETA engine, the spatial and cluster
+ * indexes and, when set, the position journal. This is the per-tick work
+ * of the map screen minus the views, so it can be benchmarked on a JVM.
+ *
+ * <p>Bus indices are the engine's. Not thread safe; call from the thread
+ * that owns the indexes.
+ */
+public final class FleetTracker {
+
+    private final MotionPredictor predictor;
+    private final EtaEngine etaEngine;
+    private final SpatialGrid busIndex;
+    private final ClusterIndex clusterIndex;
+    private PositionJournal journal;
+    private long appliedTick;
+
+    public FleetTracker(MotionPredictor predictor, EtaEngine etaEngine, SpatialGrid busIndex,
+                        ClusterIndex clusterIndex) {
+        this.predictor = predictor;
+        this.etaEngine = etaEngine;
+        this.busIndex = busIndex;
+        this.clusterIndex = clusterIndex;
+    }
+
+    // Null stops journaling
+    public void setJournal(PositionJournal journal) {
+        this.journal = journal;
+    }
+
+    public long getAppliedTick() {
+        return appliedTick;
+    }
+
+    /**
+     * Applies every bus the snapshot updated since the last applied one,
+     * then recomputes ETAs. The indices of those buses are written to
+     * {@code changed}, which is cleared first. Returns false, changing
+     * nothing, if the snapshot is not newer than the last one applied.
+     */
+    public boolean apply(FleetSnapshot snapshot, long nanos, long wallClockMillis, IntList changed) {
+        changed.clear();
+        if (snapshot.getTick() <= appliedTick) return false;
+        long previousTick = appliedTick;
+        appliedTick = snapshot.getTick();
+
+        long timestamp = snapshot.getTimestampMillis();
+        for (int i = 0, n = snapshot.size(); i < n; i++) {
+            // Buses the engine left alone this wakeup have nothing new
+            if (snapshot.updatedTick(i) <= previousTick) continue;
+            double km = snapshot.distanceTraveled(i);
+            double lat = snapshot.lat(i);
+            double lng = snapshot.lng(i);
+            predictor.onFix(i, km, snapshot.speed(i), nanos);
+            etaEngine.updateBus(i, km, wallClockMillis);
+            if (journal != null) {
+                journal.append(i, timestamp, lat, lng, km, snapshot.speed(i), snapshot.heading(i));
+            }
+            place(i, lat, lng);
+            changed.add(i);
+        }
+        etaEngine.tick(wallClockMillis);
+        return true;
+    }
+
+    // Moves a bus in the spatial and cluster indexes, for fixes that do not come from a snapshot
+    public void place(int bus, double lat, double lng) {
+        busIndex.update(bus, lat, lng);
+        clusterIndex.update(bus, lat, lng);
+    }
+}
@@ -0,0 +1,270 @@
+package com.busapp.lk.fleet;
+
+import com.busapp.lk.util.IntList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Live headways between consecutive buses on each route, and bunching and
+ * gap detection from them.
+ *
+ * <p>Buses on a route are kept in a tree ordered by distance along the
+ * route. An update that does not pass a neighbour only rewrites the bus's
+ * distance; one that does is a remove and an insert. Either way it costs
+ * O(log n) in the route's bus count and recomputes at most three
+ * headways: the moved bus's, and those of the buses behind it before and
+ * after the move. A headway is the time the follower needs to reach where
+ * its leader is now. The route's mean headway is kept as a running sum.
+ *
+ * <p>A follower is {@link Spacing#BUNCHED} when its headway is under
+ * {@link #BUNCH_SECONDS} or a fraction of the route mean, and
+ * {@link Spacing#GAP} when it is a multiple of the mean on a route with at
+ * least three buses. The listener hears only changes of spacing. Not
+ * thread safe.
+ */
+public final class HeadwayMonitor {
+
+    public enum Spacing {
+        REGULAR, BUNCHED, GAP
+    }
+
+    /** Seconds until a bus reaches a distance along its route, negative if unknown. */
+    public interface Eta {
+        float etaSeconds(int bus, double km);
+    }
+
+    public interface Listener {
+        void onSpacingChanged(int route, int follower, int leader, Spacing spacing, float headwaySeconds);
+    }
+
+    // Nose-to-tail whatever the route's frequency
+    public static final float BUNCH_SECONDS = 90;
+    public static final float BUNCH_RATIO = 0.3f;
+    public static final float GAP_RATIO = 2f;
+    // For followers the ETA engine has no time for yet
+    public static final double FALLBACK_SPEED_KMH = 20;
+
+    private static final int NONE = -1;
+    private static final Spacing[] SPACINGS = Spacing.values();
+
+    private final Eta eta;
+    private Listener listener;
+
+    // Per bus; headway is NaN for a route's leader and buses not on a route
+    private int[] busRoute = new int[16];
+    private double[] busKm = new double[16];
+    private float[] headway = new float[16];
+    private byte[] spacing = new byte[16];
+    private Integer[] boxed = new Integer[16];
+    private boolean[] ordered = new boolean[16];
+
+    // Per route
+    private final List<TreeSet<Integer>> order = new ArrayList<>();
+    private double[] headwaySum = new double[16];
+    private int[] headwayCount = new int[16];
+
+    private long updates;
+    private long reorders;
+
+    public HeadwayMonitor(Eta eta) {
+        this.eta = eta;
+        Arrays.fill(busRoute, NONE);
+        Arrays.fill(headway, Float.NaN);
+    }
+
+    // Null stops events
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Puts a bus on a route; it joins the route's order at its next update. */
+    public void setBusRoute(int bus, int route) {
+        if (route < 0) {
+            throw new IllegalArgumentException("Bad route " + route);
+        }
+        ensureBus(bus);
+        if (busRoute[bus] != NONE && busRoute[bus] != route) remove(bus);
+        busRoute[bus] = route;
+        while (order.size() <= route) {
+            order.add(null);
+        }
+        if (route >= headwaySum.length) {
+            int capacity = Math.max(route + 1, headwaySum.length * 2);
+            headwaySum = Arrays.copyOf(headwaySum, capacity);
+            headwayCount = Arrays.copyOf(headwayCount, capacity);
+        }
+    }
+
+    /** Moves a bus to a distance along its route and refreshes the headways around it. */
+    public void update(int bus, double km) {
+        if (bus >= busRoute.length || busRoute[bus] == NONE) return;
+        updates++;
+        int route = busRoute[bus];
+        TreeSet<Integer> buses = route(route);
+        Integer key = boxed[bus];
+
+        if (!ordered[bus]) {
+            ordered[bus] = true;
+            busKm[bus] = km;
+            buses.add(key);
+            placed(buses, key);
+            return;
+        }
+        Integer behind = buses.lower(key);
+        Integer ahead = buses.higher(key);
+        if (staysBetween(bus, km, behind, ahead)) {
+            busKm[bus] = km;
+            refresh(bus, ahead);
+            if (behind != null) refresh(behind, key);
+            return;
+        }
+        reorders++;
+        buses.remove(key);
+        busKm[bus] = km;
+        buses.add(key);
+        // The bus it left behind now follows the one it was following
+        if (behind != null) refresh(behind, ahead);
+        placed(buses, key);
+    }
+
+    /** Takes a bus out of its route's order, such as when it leaves service. */
+    public void remove(int bus) {
+        if (bus >= busRoute.length || busRoute[bus] == NONE) return;
+        TreeSet<Integer> buses = route(busRoute[bus]);
+        Integer key = boxed[bus];
+        if (!ordered[bus]) return;
+        Integer behind = buses.lower(key);
+        Integer ahead = buses.higher(key);
+        buses.remove(key);
+        ordered[bus] = false;
+        setHeadway(busRoute[bus], bus, Float.NaN);
+        spacing[bus] = (byte) Spacing.REGULAR.ordinal();
+        if (behind != null) refresh(behind, ahead);
+    }
+
+    /** Writes the route's buses into {@code out} from the rearmost to the leader. */
+    public void buses(int route, IntList out) {
+        out.clear();
+        if (route < 0 || route >= order.size() || order.get(route) == null) return;
+        for (Integer bus : order.get(route)) {
+            out.add(bus);
+        }
+    }
+
+    // Seconds behind the bus ahead, NaN for a route's leader
+    public float headwaySeconds(int bus) {
+        return bus < headway.length ? headway[bus] : Float.NaN;
+    }
+
+    public Spacing spacing(int bus) {
+        return bus < spacing.length ? SPACINGS[spacing[bus]] : Spacing.REGULAR;
+    }
+
+    public double distanceKm(int bus) {
+        return busKm[bus];
+    }
+
+    // NaN with fewer than two buses on the route
+    public float meanHeadwaySeconds(int route) {
+        if (route < 0 || route >= headwayCount.length || headwayCount[route] == 0) return Float.NaN;
+        return (float) (headwaySum[route] / headwayCount[route]);
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    // Updates that passed a neighbour and moved in the tree
+    public long getReorders() {
+        return reorders;
+    }
+
+    private boolean staysBetween(int bus, double km, Integer behind, Integer ahead) {
+        if (behind != null && compare(km, bus, busKm[behind], behind) < 0) return false;
+        return ahead == null || compare(km, bus, busKm[ahead], ahead) < 0;
+    }
+
+    // A bus just inserted, and whoever is now behind it
+    private void placed(TreeSet<Integer> buses, Integer key) {
+        refresh(key, buses.higher(key));
+        Integer behind = buses.lower(key);
+        if (behind != null) refresh(behind, key);
+    }
+
+    private void refresh(int bus, Integer ahead) {
+        int route = busRoute[bus];
+        float seconds = ahead == null ? Float.NaN : headwayTo(bus, ahead);
+        setHeadway(route, bus, seconds);
+
+        Spacing next = classify(route, seconds);
+        if (next.ordinal() != spacing[bus]) {
+            spacing[bus] = (byte) next.ordinal();
+            if (listener != null) {
+                listener.onSpacingChanged(route, bus, ahead == null ? NONE : ahead, next, seconds);
+            }
+        }
+    }
+
+    private float headwayTo(int follower, int leader) {
+        double gap = busKm[leader] - busKm[follower];
+        if (gap <= 0) return 0;
+        float seconds = eta.etaSeconds(follower, busKm[leader]);
+        return seconds >= 0 ? seconds : (float) (gap / FALLBACK_SPEED_KMH * 3600);
+    }
+
+    private Spacing classify(int route, float seconds) {
+        if (Float.isNaN(seconds)) return Spacing.REGULAR;
+        float mean = meanHeadwaySeconds(route);
+        if (seconds < BUNCH_SECONDS || seconds < BUNCH_RATIO * mean) return Spacing.BUNCHED;
+        if (headwayCount[route] >= 2 && seconds > GAP_RATIO * mean) return Spacing.GAP;
+        return Spacing.REGULAR;
+    }
+
+    private void setHeadway(int route, int bus, float seconds) {
+        float old = headway[bus];
+        if (!Float.isNaN(old)) {
+            headwaySum[route] -= old;
+            headwayCount[route]--;
+        }
+        if (!Float.isNaN(seconds)) {
+            headwaySum[route] += seconds;
+            headwayCount[route]++;
+        }
+        headway[bus] = seconds;
+    }
+
+    private TreeSet<Integer> route(int route) {
+        TreeSet<Integer> buses = order.get(route);
+        if (buses == null) {
+            buses = new TreeSet<>((a, b) -> compare(busKm[a], a, busKm[b], b));
+            order.set(route, buses);
+        }
+        return buses;
+    }
+
+    // By distance, then by bus so two buses at the same point still both fit
+    private static int compare(double kmA, int busA, double kmB, int busB) {
+        int byKm = Double.compare(kmA, kmB);
+        return byKm != 0 ? byKm : Integer.compare(busA, busB);
+    }
+
+    private void ensureBus(int bus) {
+        if (bus < busRoute.length) {
+            if (boxed[bus] == null) boxed[bus] = bus;
+            return;
+        }
+        int oldSize = busRoute.length;
+        int capacity = Math.max(bus + 1, oldSize * 2);
+        busRoute = Arrays.copyOf(busRoute, capacity);
+        busKm = Arrays.copyOf(busKm, capacity);
+        headway = Arrays.copyOf(headway, capacity);
+        spacing = Arrays.copyOf(spacing, capacity);
+        boxed = Arrays.copyOf(boxed, capacity);
+        ordered = Arrays.copyOf(ordered, capacity);
+        Arrays.fill(busRoute, oldSize, capacity, NONE);
+        Arrays.fill(headway, oldSize, capacity, Float.NaN);
+        boxed[bus] = bus;
+    }
+}
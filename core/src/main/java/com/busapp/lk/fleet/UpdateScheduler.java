@@ -0,0 +1,191 @@
+package com.busapp.lk.fleet;
+
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Decides which buses a {@link FleetEngine} advances on each wakeup. Every
+ * bus has a {@link Priority} with a stride in engine ticks; a bus is only
+ * advanced once its stride has elapsed, and then by all the ticks it
+ * missed. The engine sleeps for the smallest stride in use, so with
+ * nothing selected it wakes at the visible rate rather than every tick.
+ *
+ * <p>New buses start as {@link Priority#FAR} and are raised through
+ * {@link #focus}. Not thread safe; the engine guards it with its own lock.
+ */
+public final class UpdateScheduler {
+
+    public enum Priority {
+        SELECTED,
+        VISIBLE,
+        NEARBY,
+        FAR
+    }
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final int[] strides = new int[PRIORITIES.length];
+    private final int[] counts = new int[PRIORITIES.length];
+
+    private byte[] priority = new byte[0];
+    private long[] lastTick = new long[0];
+    private int size;
+
+    // Buses currently above FAR, so refocusing only touches what changes
+    private int[] focused = new int[16];
+    private int focusedCount;
+    private int focusGeneration;
+    private int[] focusMark = new int[0];
+
+    private long wakeups;
+    private long updates;
+    private long skipped;
+    private long startNanos = System.nanoTime();
+
+    // Strides are in engine ticks, one per priority, each at least 1
+    public UpdateScheduler(int selected, int visible, int nearby, int far) {
+        int[] values = {selected, visible, nearby, far};
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] < 1) {
+                throw new IllegalArgumentException(PRIORITIES[i] + " stride must be positive: " + values[i]);
+            }
+            strides[i] = values[i];
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int stride(Priority priority) {
+        return strides[priority.ordinal()];
+    }
+
+    public Priority priority(int bus) {
+        return PRIORITIES[priority[bus]];
+    }
+
+    /**
+     * Smallest stride among priorities that have at least one bus; the
+     * engine's wakeup period in ticks.
+     */
+    public int wakeStride() {
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            if (counts[i] > 0) return strides[i];
+        }
+        return strides[Priority.FAR.ordinal()];
+    }
+
+    void add(int bus, long tick) {
+        if (bus >= priority.length) {
+            int capacity = Math.max(bus + 1, priority.length * 2);
+            priority = Arrays.copyOf(priority, capacity);
+            lastTick = Arrays.copyOf(lastTick, capacity);
+            focusMark = Arrays.copyOf(focusMark, capacity);
+        }
+        priority[bus] = (byte) Priority.FAR.ordinal();
+        lastTick[bus] = tick;
+        counts[Priority.FAR.ordinal()]++;
+        size = Math.max(size, bus + 1);
+    }
+
+    /**
+     * Raises the selected bus (or -1 for none), the visible ones and the
+     * nearby ones, and drops every other previously raised bus back to
+     * {@link Priority#FAR}. Costs O(raised buses), not O(fleet).
+     */
+    public void focus(int selected, IntList visible, IntList nearby) {
+        int generation = ++focusGeneration;
+        int previous = focusedCount;
+        for (int i = 0; i < nearby.size(); i++) {
+            raise(nearby.get(i), Priority.NEARBY, generation);
+        }
+        for (int i = 0; i < visible.size(); i++) {
+            raise(visible.get(i), Priority.VISIBLE, generation);
+        }
+        if (selected >= 0) {
+            raise(selected, Priority.SELECTED, generation);
+        }
+
+        // Compact the raised list, demoting the buses this focus did not mention
+        int kept = 0;
+        for (int i = 0; i < focusedCount; i++) {
+            int bus = focused[i];
+            if (i < previous && focusMark[bus] != generation) {
+                counts[priority[bus]]--;
+                counts[Priority.FAR.ordinal()]++;
+                priority[bus] = (byte) Priority.FAR.ordinal();
+            } else if (priority[bus] != Priority.FAR.ordinal()) {
+                focused[kept++] = bus;
+            }
+        }
+        focusedCount = kept;
+    }
+
+    private void raise(int bus, Priority value, int generation) {
+        focusMark[bus] = generation;
+        int old = priority[bus];
+        if (old == value.ordinal()) return;
+        counts[old]--;
+        counts[value.ordinal()]++;
+        priority[bus] = (byte) value.ordinal();
+        if (old == Priority.FAR.ordinal()) {
+            if (focusedCount == focused.length) {
+                focused = Arrays.copyOf(focused, focusedCount * 2);
+            }
+            focused[focusedCount++] = bus;
+        }
+    }
+
+    /**
+     * Ticks the bus has missed if it is due at this tick, else 0. A due bus
+     * is marked as updated.
+     */
+    int due(int bus, long tick) {
+        long elapsed = tick - lastTick[bus];
+        if (elapsed < strides[priority[bus]]) return 0;
+        lastTick[bus] = tick;
+        return (int) elapsed;
+    }
+
+    void recordWake(int advanced, int idle) {
+        wakeups++;
+        updates += advanced;
+        skipped += idle;
+    }
+
+    public long getWakeups() {
+        return wakeups;
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    public double getWakeupsPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds <= 0 ? 0 : wakeups / seconds;
+    }
+
+    public double getUpdatesPerWake() {
+        return wakeups == 0 ? 0 : (double) updates / wakeups;
+    }
+
+    public String stats() {
+        long total = updates + skipped;
+        return String.format(Locale.US,
+                "wakeups=%d (%.2f/s) updatesPerWake=%.1f skipped=%.1f%% wakeStride=%d "
+                        + "selected=%d visible=%d nearby=%d far=%d",
+                wakeups, getWakeupsPerSecond(), getUpdatesPerWake(),
+                total == 0 ? 0 : 100.0 * skipped / total, wakeStride(),
+                counts[0], counts[1], counts[2], counts[3]);
+    }
+
+    public void resetCounters() {
+        wakeups = 0;
+        updates = 0;
+        skipped = 0;
+        startNanos = System.nanoTime();
+    }
+}
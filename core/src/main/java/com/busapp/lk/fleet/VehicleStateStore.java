@@ -0,0 +1,150 @@
+package com.busapp.lk.fleet;
+
+import java.util.Arrays;
+
+/**
+ * Struct-of-arrays state for the whole fleet. Vehicle {@code i} lives at index
+ * {@code i} of every array, so a tick walks a handful of primitive arrays
+ * instead of chasing one object per bus.
+ *
+ * <p>The array accessors return the live backing arrays. They are only valid
+ * until the next {@link #add} grows the store, so re-read them after adding.
+ * The store is not thread safe; {@link FleetEngine} guards it with its own lock.
+ */
+public final class VehicleStateStore {
+
+    public static final int NO_STOP = -1;
+
+    private int size;
+    private double[] lat;
+    private double[] lng;
+    private double[] distanceTraveled;
+    private float[] speed;
+    private float[] heading;
+    private int[] routeId;
+    private int[] stopId;
+
+    public VehicleStateStore(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        lat = new double[capacity];
+        lng = new double[capacity];
+        distanceTraveled = new double[capacity];
+        speed = new float[capacity];
+        heading = new float[capacity];
+        routeId = new int[capacity];
+        stopId = new int[capacity];
+    }
+
+    public int add(int route, double latitude, double longitude) {
+        if (size == lat.length) {
+            grow(size * 2);
+        }
+        int index = size++;
+        lat[index] = latitude;
+        lng[index] = longitude;
+        distanceTraveled[index] = 0;
+        speed[index] = 0;
+        heading[index] = 0;
+        routeId[index] = route;
+        stopId[index] = NO_STOP;
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return lat.length;
+    }
+
+    public double lat(int index) {
+        return lat[index];
+    }
+
+    public double lng(int index) {
+        return lng[index];
+    }
+
+    // km
+    public double distanceTraveled(int index) {
+        return distanceTraveled[index];
+    }
+
+    // km/h
+    public float speed(int index) {
+        return speed[index];
+    }
+
+    // Degrees clockwise from north
+    public float heading(int index) {
+        return heading[index];
+    }
+
+    public int routeId(int index) {
+        return routeId[index];
+    }
+
+    public int stopId(int index) {
+        return stopId[index];
+    }
+
+    public void setPosition(int index, double latitude, double longitude) {
+        lat[index] = latitude;
+        lng[index] = longitude;
+    }
+
+    public void setDistanceTraveled(int index, double km) {
+        distanceTraveled[index] = km;
+    }
+
+    public void setSpeed(int index, float kmh) {
+        speed[index] = kmh;
+    }
+
+    public void setHeading(int index, float degrees) {
+        heading[index] = degrees;
+    }
+
+    public void setStopId(int index, int stop) {
+        stopId[index] = stop;
+    }
+
+    public double[] latitudes() {
+        return lat;
+    }
+
+    public double[] longitudes() {
+        return lng;
+    }
+
+    public double[] distancesTraveled() {
+        return distanceTraveled;
+    }
+
+    public float[] speeds() {
+        return speed;
+    }
+
+    public float[] headings() {
+        return heading;
+    }
+
+    public int[] routeIds() {
+        return routeId;
+    }
+
+    public int[] stopIds() {
+        return stopId;
+    }
+
+    private void grow(int capacity) {
+        lat = Arrays.copyOf(lat, capacity);
+        lng = Arrays.copyOf(lng, capacity);
+        distanceTraveled = Arrays.copyOf(distanceTraveled, capacity);
+        speed = Arrays.copyOf(speed, capacity);
+        heading = Arrays.copyOf(heading, capacity);
+        routeId = Arrays.copyOf(routeId, capacity);
+        stopId = Arrays.copyOf(stopId, capacity);
+    }
+}
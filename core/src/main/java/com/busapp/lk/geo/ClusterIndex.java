@@ -0,0 +1,364 @@
+package com.busapp.lk.geo;
+
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+
+/**
+ * Marker clusters for every zoom level, kept current as ids (bus indices)
+ * move. Each zoom has a grid of Web Mercator cells {@link #CELL_PIXELS} on
+ * a side; cell sizes halve from one zoom to the next, so every cell nests in
+ * exactly one cell of the zoom above and a point's cell at any zoom is its
+ * finest cell shifted right.
+ *
+ * <p>A cluster is a non-empty cell holding its count and coordinate sums,
+ * so moving a point adjusts at most two clusters per zoom and never
+ * rebuilds anything. Cluster handles returned by {@link #query} stay valid
+ * until the next update or removal. Not thread safe.
+ */
+public final class ClusterIndex {
+
+    public static final int CELL_PIXELS = 64;
+    public static final int NO_ID = -1;
+
+    // World width in cells at zoom z is 2^(z + CELL_SHIFT): 256 px tiles over 64 px cells
+    private static final int CELL_SHIFT = 2;
+    private static final long EMPTY = -1;
+
+    private final int minZoom;
+    private final int maxZoom;
+    private final double scale;
+    private final int maxCell;
+    private final Level[] levels;
+
+    private double[] lat = new double[0];
+    private double[] lng = new double[0];
+    // Finest cell of each id, or -1 when absent
+    private int[] cellX = new int[0];
+    private int[] cellY = new int[0];
+    // Last known slot of each id's cluster per level, checked against the key before use
+    private int[] slots = new int[0];
+    private int size;
+
+    public ClusterIndex(int minZoom, int maxZoom) {
+        if (minZoom < 0 || maxZoom < minZoom || maxZoom + CELL_SHIFT > 30) {
+            throw new IllegalArgumentException("Invalid zoom range " + minZoom + ".." + maxZoom);
+        }
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.maxCell = (1 << (maxZoom + CELL_SHIFT)) - 1;
+        this.scale = maxCell + 1;
+        this.levels = new Level[maxZoom - minZoom + 1];
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new Level();
+        }
+    }
+
+    public int getMinZoom() {
+        return minZoom;
+    }
+
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return id < cellX.length && cellX[id] >= 0;
+    }
+
+    /**
+     * Inserts the id or moves it to a new position. Zooms where the point
+     * stays in its cell only shift that cluster's centre.
+     */
+    public void update(int id, double latitude, double longitude) {
+        if (id >= cellX.length) {
+            grow(Math.max(id + 1, cellX.length * 2));
+        }
+        int x = cellX(longitude);
+        int y = cellY(latitude);
+        int oldX = cellX[id];
+        int oldY = cellY[id];
+
+        int base = id * levels.length;
+        for (int i = 0; i < levels.length; i++) {
+            int shift = levels.length - 1 - i;
+            Level level = levels[i];
+            long key = key(x >> shift, y >> shift);
+            if (oldX >= 0) {
+                long oldKey = key(oldX >> shift, oldY >> shift);
+                int slot = level.slotOf(oldKey, slots[base + i]);
+                if (oldKey == key) {
+                    level.sumLat[slot] += latitude - lat[id];
+                    level.sumLng[slot] += longitude - lng[id];
+                    slots[base + i] = slot;
+                    continue;
+                }
+                level.remove(slot, id, lat[id], lng[id]);
+            }
+            slots[base + i] = level.add(key, id, latitude, longitude);
+        }
+
+        if (oldX < 0) size++;
+        lat[id] = latitude;
+        lng[id] = longitude;
+        cellX[id] = x;
+        cellY[id] = y;
+    }
+
+    public void remove(int id) {
+        if (!contains(id)) return;
+        int base = id * levels.length;
+        for (int i = 0; i < levels.length; i++) {
+            int shift = levels.length - 1 - i;
+            Level level = levels[i];
+            int slot = level.slotOf(key(cellX[id] >> shift, cellY[id] >> shift), slots[base + i]);
+            level.remove(slot, id, lat[id], lng[id]);
+        }
+        cellX[id] = -1;
+        cellY[id] = -1;
+        size--;
+    }
+
+    /**
+     * Collects the clusters whose cells overlap the box at a zoom level into
+     * {@code out}, which is cleared first. Zooms outside the index range use
+     * the nearest level. The work is bounded by the number of cells on
+     * screen, not by how many points there are.
+     */
+    public void query(float zoom, double south, double west, double north, double east, IntList out) {
+        out.clear();
+        int z = levelOf(zoom);
+        Level level = levels[z - minZoom];
+        int shift = maxZoom - z;
+        int x0 = cellX(west) >> shift;
+        int x1 = cellX(east) >> shift;
+        int y0 = cellY(north) >> shift;
+        int y1 = cellY(south) >> shift;
+
+        long cells = (long) (x1 - x0 + 1) * (y1 - y0 + 1);
+        if (cells > level.keys.length) {
+            // Zoomed out past the data: walking the table is cheaper than probing every cell
+            for (int slot = 0; slot < level.keys.length; slot++) {
+                long key = level.keys[slot];
+                if (key == EMPTY || level.count[slot] == 0) continue;
+                int x = (int) (key & 0xFFFFFFFFL);
+                int y = (int) (key >>> 32);
+                if (x >= x0 && x <= x1 && y >= y0 && y <= y1) {
+                    out.add(slot);
+                }
+            }
+            return;
+        }
+        for (int y = y0; y <= y1; y++) {
+            for (int x = x0; x <= x1; x++) {
+                int slot = level.find(key(x, y));
+                if (slot >= 0 && level.count[slot] > 0) {
+                    out.add(slot);
+                }
+            }
+        }
+    }
+
+    public int count(float zoom, int cluster) {
+        return level(zoom).count[cluster];
+    }
+
+    // Mean position of the cluster's points
+    public double lat(float zoom, int cluster) {
+        Level level = level(zoom);
+        return level.sumLat[cluster] / level.count[cluster];
+    }
+
+    public double lng(float zoom, int cluster) {
+        Level level = level(zoom);
+        return level.sumLng[cluster] / level.count[cluster];
+    }
+
+    /**
+     * The only id in a cluster of one, or {@link #NO_ID} for larger clusters.
+     */
+    public int single(float zoom, int cluster) {
+        Level level = level(zoom);
+        return level.count[cluster] == 1 ? level.idXor[cluster] : NO_ID;
+    }
+
+    /**
+     * Identity of the cluster's cell, stable across updates, for matching
+     * clusters between renders at the same zoom.
+     */
+    public long key(float zoom, int cluster) {
+        return level(zoom).keys[cluster];
+    }
+
+    private int levelOf(float zoom) {
+        int z = (int) Math.floor(zoom);
+        return z < minZoom ? minZoom : (z > maxZoom ? maxZoom : z);
+    }
+
+    private Level level(float zoom) {
+        return levels[levelOf(zoom) - minZoom];
+    }
+
+    private int cellX(double longitude) {
+        int x = (int) Math.floor((longitude + 180) / 360 * scale);
+        return x < 0 ? 0 : (x > maxCell ? maxCell : x);
+    }
+
+    private int cellY(double latitude) {
+        double sin = Math.sin(Math.toRadians(latitude));
+        double y = 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+        int cell = (int) Math.floor(y * scale);
+        return cell < 0 ? 0 : (cell > maxCell ? maxCell : cell);
+    }
+
+    private static long key(int x, int y) {
+        return ((long) y << 32) | (x & 0xFFFFFFFFL);
+    }
+
+    private void grow(int capacity) {
+        int oldLength = cellX.length;
+        lat = Arrays.copyOf(lat, capacity);
+        lng = Arrays.copyOf(lng, capacity);
+        cellX = Arrays.copyOf(cellX, capacity);
+        cellY = Arrays.copyOf(cellY, capacity);
+        slots = Arrays.copyOf(slots, capacity * levels.length);
+        Arrays.fill(cellX, oldLength, capacity, -1);
+        Arrays.fill(cellY, oldLength, capacity, -1);
+    }
+
+    /**
+     * Open-addressing table of the non-empty cells at one zoom. Cells that
+     * empty out keep their slot until the next resize drops them; a resize
+     * that keeps the capacity swaps to the arrays of the one before, so
+     * buses drifting between cells do not allocate.
+     */
+    private static final class Level {
+        long[] keys = new long[0];
+        int[] count;
+        double[] sumLat;
+        double[] sumLng;
+        // XOR of member ids: the member itself once a cluster is down to one
+        int[] idXor;
+        int used;
+        // The arrays a rehash moved away from, reused when the next one keeps the capacity
+        long[] spareKeys;
+        int[] spareCount;
+        double[] spareLat;
+        double[] spareLng;
+        int[] spareXor;
+
+        Level() {
+            allocate(64);
+        }
+
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                long k = keys[slot];
+                if (k == key) return slot;
+                if (k == EMPTY) return -1;
+            }
+        }
+
+        // The hint when it still holds the key, which it does until a resize moves the cell
+        int slotOf(long key, int hint) {
+            return keys[hint] == key ? hint : find(key);
+        }
+
+        int add(long key, int id, double latitude, double longitude) {
+            int slot = find(key);
+            if (slot < 0) {
+                if (2 * (used + 1) > keys.length) {
+                    rehash(keys.length * 2);
+                }
+                slot = insert(key);
+            }
+            count[slot]++;
+            sumLat[slot] += latitude;
+            sumLng[slot] += longitude;
+            idXor[slot] ^= id;
+            return slot;
+        }
+
+        void remove(int slot, int id, double latitude, double longitude) {
+            if (--count[slot] == 0) {
+                // Reset rather than subtract so rounding never leaves a ghost centre
+                sumLat[slot] = 0;
+                sumLng[slot] = 0;
+                idXor[slot] = 0;
+            } else {
+                sumLat[slot] -= latitude;
+                sumLng[slot] -= longitude;
+                idXor[slot] ^= id;
+            }
+        }
+
+        private int insert(long key) {
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            used++;
+            return slot;
+        }
+
+        private void rehash(int capacity) {
+            long[] oldKeys = keys;
+            int[] oldCount = count;
+            double[] oldLat = sumLat;
+            double[] oldLng = sumLng;
+            int[] oldXor = idXor;
+            int live = 0;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] != EMPTY && oldCount[slot] > 0) live++;
+            }
+            // Dropping empty cells is enough when under a quarter of the table is live
+            allocate(4 * (live + 1) > capacity / 2 ? capacity : capacity / 2);
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldKeys[slot] == EMPTY || oldCount[slot] == 0) continue;
+                int to = insert(oldKeys[slot]);
+                count[to] = oldCount[slot];
+                sumLat[to] = oldLat[slot];
+                sumLng[to] = oldLng[slot];
+                idXor[to] = oldXor[slot];
+            }
+            spareKeys = oldKeys;
+            spareCount = oldCount;
+            spareLat = oldLat;
+            spareLng = oldLng;
+            spareXor = oldXor;
+        }
+
+        private void allocate(int capacity) {
+            if (spareKeys != null && spareKeys.length == capacity) {
+                keys = spareKeys;
+                count = spareCount;
+                sumLat = spareLat;
+                sumLng = spareLng;
+                idXor = spareXor;
+                Arrays.fill(count, 0);
+                Arrays.fill(sumLat, 0);
+                Arrays.fill(sumLng, 0);
+                Arrays.fill(idXor, 0);
+            } else {
+                keys = new long[capacity];
+                count = new int[capacity];
+                sumLat = new double[capacity];
+                sumLng = new double[capacity];
+                idXor = new int[capacity];
+            }
+            Arrays.fill(keys, EMPTY);
+            used = 0;
+        }
+
+        private static int hash(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+}
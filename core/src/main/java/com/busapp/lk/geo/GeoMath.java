@@ -0,0 +1,40 @@
+package com.busapp.lk.geo;
+
+/**
+ * Great-circle helpers shared by the routing and tracking code.
+ */
+public final class GeoMath {
+
+    public static final double EARTH_RADIUS_KM = 6371;
+
+    private GeoMath() {
+    }
+
+    // Haversine formula, in km
+    public static double distanceKm(double lat1, double lon1, double lat2, double lon2) {
+        double latDistance = Math.toRadians(lat2 - lat1);
+        double lonDistance = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
+        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+        return EARTH_RADIUS_KM * c;
+    }
+
+    // Initial bearing in degrees clockwise from north, 0-360
+    public static double bearing(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double deltaLambda = Math.toRadians(lon2 - lon1);
+        double y = Math.sin(deltaLambda) * Math.cos(phi2);
+        double x = Math.cos(phi1) * Math.sin(phi2)
+                - Math.sin(phi1) * Math.cos(phi2) * Math.cos(deltaLambda);
+        double degrees = Math.toDegrees(Math.atan2(y, x));
+        return degrees < 0 ? degrees + 360 : degrees;
+    }
+
+    // Ground size of one Web Mercator pixel (256 px tiles) at the given zoom and latitude
+    public static double metersPerPixel(double zoom, double lat) {
+        return 156543.03392 * Math.cos(Math.toRadians(lat)) / Math.pow(2, zoom);
+    }
+}
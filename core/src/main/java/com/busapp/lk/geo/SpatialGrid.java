@@ -0,0 +1,262 @@
+package com.busapp.lk.geo;
+
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+
+/**
+ * Uniform lat/lng grid over integer ids (bus indices). Each cell is an
+ * intrusive doubly linked list threaded through primitive arrays, so moving
+ * a bus is O(1) and allocation free, and queries only touch nearby cells.
+ *
+ * <p>Points outside the grid bounds are clamped into the border cells; the
+ * stored coordinates stay exact, so query results are still correct.
+ * Not thread safe.
+ */
+public final class SpatialGrid {
+
+    private static final int NONE = -1;
+
+    private final double minLat;
+    private final double minLng;
+    private final double cellSize;
+    private final int rows;
+    private final int cols;
+    private final int[] cellHead;
+
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private int[] cellOf = new int[0];
+    private double[] lat = new double[0];
+    private double[] lng = new double[0];
+    private int size;
+
+    // Reused max-heap for nearest() queries
+    private int[] heapIds = new int[8];
+    private double[] heapDist = new double[8];
+
+    public SpatialGrid(double minLat, double minLng, double maxLat, double maxLng,
+                       double cellSizeDegrees) {
+        if (cellSizeDegrees <= 0 || maxLat <= minLat || maxLng <= minLng) {
+            throw new IllegalArgumentException("Invalid grid bounds or cell size");
+        }
+        this.minLat = minLat;
+        this.minLng = minLng;
+        this.cellSize = cellSizeDegrees;
+        this.rows = (int) Math.ceil((maxLat - minLat) / cellSizeDegrees);
+        this.cols = (int) Math.ceil((maxLng - minLng) / cellSizeDegrees);
+        this.cellHead = new int[rows * cols];
+        Arrays.fill(cellHead, NONE);
+    }
+
+    public static SpatialGrid forSriLanka(double cellSizeDegrees) {
+        return new SpatialGrid(SriLanka.MIN_LAT, SriLanka.MIN_LNG,
+                SriLanka.MAX_LAT, SriLanka.MAX_LNG, cellSizeDegrees);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return id < cellOf.length && cellOf[id] != NONE;
+    }
+
+    /**
+     * Inserts the id or moves it to a new position. Only relinks when the cell changes.
+     */
+    public void update(int id, double latitude, double longitude) {
+        if (id >= cellOf.length) {
+            grow(Math.max(id + 1, cellOf.length * 2));
+        }
+        lat[id] = latitude;
+        lng[id] = longitude;
+
+        int cell = cellIndex(latitude, longitude);
+        int old = cellOf[id];
+        if (old == cell) return;
+        if (old == NONE) {
+            size++;
+        } else {
+            unlink(id, old);
+        }
+        link(id, cell);
+    }
+
+    public void remove(int id) {
+        if (!contains(id)) return;
+        unlink(id, cellOf[id]);
+        cellOf[id] = NONE;
+        size--;
+    }
+
+    /**
+     * Collects every id inside the box (inclusive) into {@code out}, which is cleared first.
+     */
+    public void queryBox(double south, double west, double north, double east, IntList out) {
+        out.clear();
+        int rowFrom = row(south);
+        int rowTo = row(north);
+        int colFrom = col(west);
+        int colTo = col(east);
+
+        for (int r = rowFrom; r <= rowTo; r++) {
+            int base = r * cols;
+            for (int c = colFrom; c <= colTo; c++) {
+                for (int id = cellHead[base + c]; id != NONE; id = next[id]) {
+                    double y = lat[id];
+                    double x = lng[id];
+                    if (y >= south && y <= north && x >= west && x <= east) {
+                        out.add(id);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes up to {@code k} ids closest to the point into {@code out}, nearest
+     * first, and returns how many were written.
+     */
+    public int nearest(double latitude, double longitude, int k, int[] out) {
+        if (k <= 0 || size == 0) return 0;
+        k = Math.min(k, Math.min(size, out.length));
+        if (heapIds.length < k) {
+            heapIds = new int[k];
+            heapDist = new double[k];
+        }
+
+        // Equirectangular distance in degrees of latitude, good enough for ranking
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        int centerRow = row(latitude);
+        int centerCol = col(longitude);
+        int maxRing = Math.max(rows, cols);
+        int found = 0;
+
+        for (int ring = 0; ring <= maxRing; ring++) {
+            int rowFrom = centerRow - ring;
+            int rowTo = centerRow + ring;
+            int colFrom = centerCol - ring;
+            int colTo = centerCol + ring;
+            for (int r = Math.max(rowFrom, 0); r <= Math.min(rowTo, rows - 1); r++) {
+                boolean edgeRow = r == rowFrom || r == rowTo;
+                // Interior rows of the ring only contribute their first and last column
+                int step = edgeRow ? 1 : Math.max(colTo - colFrom, 1);
+                for (int c = colFrom; c <= colTo; c += step) {
+                    if (c < 0 || c >= cols) continue;
+                    for (int id = cellHead[r * cols + c]; id != NONE; id = next[id]) {
+                        double dy = lat[id] - latitude;
+                        double dx = (lng[id] - longitude) * cosLat;
+                        double dist = dx * dx + dy * dy;
+                        if (found < k) {
+                            heapPush(found++, id, dist);
+                        } else if (dist < heapDist[0]) {
+                            heapReplaceTop(k, id, dist);
+                        }
+                    }
+                }
+            }
+
+            // Anything outside this ring is at least ring cells away on one axis
+            if (found == k) {
+                double bound = ring * cellSize * Math.min(cosLat, 1);
+                if (bound * bound >= heapDist[0]) break;
+            }
+        }
+
+        // Pop the max-heap from the back so out[] ends up nearest first
+        for (int n = found; n > 0; n--) {
+            out[n - 1] = heapIds[0];
+            heapRemoveTop(n);
+        }
+        return found;
+    }
+
+    private int row(double latitude) {
+        int r = (int) Math.floor((latitude - minLat) / cellSize);
+        return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+    }
+
+    private int col(double longitude) {
+        int c = (int) Math.floor((longitude - minLng) / cellSize);
+        return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+    }
+
+    private int cellIndex(double latitude, double longitude) {
+        return row(latitude) * cols + col(longitude);
+    }
+
+    private void link(int id, int cell) {
+        int head = cellHead[cell];
+        next[id] = head;
+        prev[id] = NONE;
+        if (head != NONE) {
+            prev[head] = id;
+        }
+        cellHead[cell] = id;
+        cellOf[id] = cell;
+    }
+
+    private void unlink(int id, int cell) {
+        int before = prev[id];
+        int after = next[id];
+        if (before == NONE) {
+            cellHead[cell] = after;
+        } else {
+            next[before] = after;
+        }
+        if (after != NONE) {
+            prev[after] = before;
+        }
+    }
+
+    private void grow(int capacity) {
+        int oldLength = cellOf.length;
+        next = Arrays.copyOf(next, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        cellOf = Arrays.copyOf(cellOf, capacity);
+        lat = Arrays.copyOf(lat, capacity);
+        lng = Arrays.copyOf(lng, capacity);
+        Arrays.fill(cellOf, oldLength, capacity, NONE);
+    }
+
+    private void heapPush(int count, int id, double dist) {
+        int i = count;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapDist[parent] >= dist) break;
+            heapIds[i] = heapIds[parent];
+            heapDist[i] = heapDist[parent];
+            i = parent;
+        }
+        heapIds[i] = id;
+        heapDist[i] = dist;
+    }
+
+    private void heapReplaceTop(int count, int id, double dist) {
+        siftDown(count, id, dist);
+    }
+
+    private void heapRemoveTop(int count) {
+        int last = count - 1;
+        if (last > 0) {
+            siftDown(last, heapIds[last], heapDist[last]);
+        }
+    }
+
+    private void siftDown(int count, int id, double dist) {
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= count) break;
+            if (child + 1 < count && heapDist[child + 1] > heapDist[child]) {
+                child++;
+            }
+            if (heapDist[child] <= dist) break;
+            heapIds[i] = heapIds[child];
+            heapDist[i] = heapDist[child];
+            i = child;
+        }
+        heapIds[i] = id;
+        heapDist[i] = dist;
+    }
+}
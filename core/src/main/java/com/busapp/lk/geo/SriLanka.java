@@ -0,0 +1,15 @@
+package com.busapp.lk.geo;
+
+/**
+ * Bounding box of Sri Lanka, used to size indexes and test fixtures.
+ */
+public final class SriLanka {
+
+    public static final double MIN_LAT = 5.85;
+    public static final double MAX_LAT = 9.90;
+    public static final double MIN_LNG = 79.50;
+    public static final double MAX_LNG = 81.95;
+
+    private SriLanka() {
+    }
+}
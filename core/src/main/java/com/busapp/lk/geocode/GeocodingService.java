@@ -0,0 +1,350 @@
+package com.busapp.lk.geocode;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Reverse geocoding on a small bounded executor.
+ *
+ * <ul>
+ * <li>Results are cached per rounded coordinate cell with a TTL and LRU eviction.
+ * <li>Concurrent lookups for the same cell share one geocoder call.
+ * <li>Each requester (a bus id) only receives its newest answer; older
+ * requests are dropped, and skipped entirely if they have not started yet.
+ * <li>When the queue is full the oldest queued lookup is dropped.
+ * <li>Geocoder calls are rate limited by a token bucket of {@link #BURST}
+ * calls; a worker waits for a token, and drops the lookup if every
+ * requester moved on while it waited.
+ * </ul>
+ */
+public final class GeocodingService {
+
+    public interface Callback {
+        // Called on a worker thread, or inline for cache hits. Null means unknown.
+        void onAddress(String address);
+    }
+
+    public static final double DEFAULT_CELL_DEGREES = 0.001;
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+    public static final int DEFAULT_MAX_ENTRIES = 512;
+    // Public geocoders such as Nominatim ask for no more than one call a second
+    public static final double DEFAULT_CALLS_PER_SECOND = 1;
+    public static final int BURST = 4;
+
+    private static final int THREADS = 2;
+    private static final int QUEUE_CAPACITY = 16;
+
+    private final ReverseGeocoder geocoder;
+    private final double cellDegrees;
+    private final long ttlMillis;
+    private final LongSupplier clock;
+    private final double callsPerSecond;
+    private final ThreadPoolExecutor executor;
+
+    // Guarded by this
+    private final LinkedHashMap<Long, CachedAddress> cache;
+    private final Map<Long, LookupTask> inFlight = new HashMap<>();
+    private final Map<String, Long> latestRequest = new HashMap<>();
+    private long requestSequence;
+    private double tokens = BURST;
+    private long refilledAtNanos = System.nanoTime();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong lookupNanos = new AtomicLong();
+    private final AtomicLong maxLookupNanos = new AtomicLong();
+
+    public GeocodingService(ReverseGeocoder geocoder) {
+        this(geocoder, DEFAULT_CELL_DEGREES, DEFAULT_TTL_MILLIS, DEFAULT_MAX_ENTRIES,
+                System::currentTimeMillis);
+    }
+
+    public GeocodingService(ReverseGeocoder geocoder, double cellDegrees, long ttlMillis,
+                            int maxEntries, LongSupplier clock) {
+        this(geocoder, cellDegrees, ttlMillis, maxEntries, DEFAULT_CALLS_PER_SECOND, clock);
+    }
+
+    // The clock only ages cache entries; the rate limit runs on System.nanoTime
+    public GeocodingService(ReverseGeocoder geocoder, double cellDegrees, long ttlMillis,
+                            int maxEntries, double callsPerSecond, LongSupplier clock) {
+        if (!(callsPerSecond > 0)) {
+            throw new IllegalArgumentException("callsPerSecond must be positive: " + callsPerSecond);
+        }
+        this.geocoder = geocoder;
+        this.cellDegrees = cellDegrees;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.callsPerSecond = callsPerSecond;
+        this.cache = new LinkedHashMap<Long, CachedAddress>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, CachedAddress> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "geocoder-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    if (pool.isShutdown()) return;
+                    Runnable oldest = pool.getQueue().poll();
+                    if (oldest instanceof LookupTask) {
+                        ((LookupTask) oldest).abandon();
+                    }
+                    pool.execute(runnable);
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Looks up the address for a position on behalf of a requester. A newer
+     * call with the same requester supersedes this one.
+     */
+    public void lookup(String requester, double lat, double lng, Callback callback) {
+        long cell = cellKey(lat, lng);
+        long now = clock.getAsLong();
+        LookupTask task;
+        String cached;
+
+        synchronized (this) {
+            long request = ++requestSequence;
+            latestRequest.put(requester, request);
+
+            CachedAddress entry = cache.get(cell);
+            if (entry != null && now - entry.storedAt <= ttlMillis) {
+                cached = entry.address;
+                task = null;
+            } else {
+                if (entry != null) {
+                    cache.remove(cell);
+                }
+                cached = null;
+                Waiter waiter = new Waiter(requester, request, callback);
+                task = inFlight.get(cell);
+                if (task != null) {
+                    task.waiters.add(waiter);
+                    coalesced.incrementAndGet();
+                    return;
+                }
+                task = new LookupTask(cell, lat, lng);
+                task.waiters.add(waiter);
+                inFlight.put(cell, task);
+            }
+        }
+
+        if (task == null) {
+            hits.incrementAndGet();
+            callback.onAddress(cached);
+            return;
+        }
+        misses.incrementAndGet();
+        executor.execute(task);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // Lookups that had to wait for the rate limit
+    public long getThrottled() {
+        return throttled.get();
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    public double getAverageLatencyMillis() {
+        long count = lookups.get();
+        return count == 0 ? 0 : lookupNanos.get() / 1e6 / count;
+    }
+
+    public String stats() {
+        return String.format(Locale.US,
+                "hits=%d misses=%d hitRate=%.1f%% coalesced=%d dropped=%d throttled=%d failures=%d"
+                        + " avg=%.1fms max=%.1fms",
+                hits.get(), misses.get(), getHitRate() * 100, coalesced.get(), dropped.get(),
+                throttled.get(), failures.get(), getAverageLatencyMillis(), maxLookupNanos.get() / 1e6);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // The cache cell of a position; positions in the same cell share an answer
+    public long cellKey(double lat, double lng) {
+        long row = Math.round(lat / cellDegrees);
+        long col = Math.round(lng / cellDegrees);
+        return (row << 32) ^ (col & 0xFFFFFFFFL);
+    }
+
+    private final class LookupTask implements Runnable {
+        final long cell;
+        final double lat;
+        final double lng;
+        // Guarded by GeocodingService.this
+        final List<Waiter> waiters = new ArrayList<>(2);
+
+        LookupTask(long cell, double lat, double lng) {
+            this.cell = cell;
+            this.lat = lat;
+            this.lng = lng;
+        }
+
+        @Override
+        public void run() {
+            boolean waited = false;
+            while (true) {
+                long waitNanos;
+                synchronized (GeocodingService.this) {
+                    if (!hasCurrentWaiter()) {
+                        // Every requester has moved on; skip the geocoder call
+                        inFlight.remove(cell);
+                        dropped.addAndGet(waiters.size());
+                        return;
+                    }
+                    waitNanos = takeToken();
+                }
+                if (waitNanos == 0) break;
+                if (!waited) {
+                    waited = true;
+                    throttled.incrementAndGet();
+                }
+                try {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } catch (InterruptedException e) {
+                    // Shut down
+                    abandon();
+                    return;
+                }
+            }
+
+            String address = null;
+            boolean failed = false;
+            long start = System.nanoTime();
+            try {
+                address = geocoder.reverseGeocode(lat, lng);
+            } catch (IOException e) {
+                failed = true;
+                failures.incrementAndGet();
+            }
+            recordLatency(System.nanoTime() - start);
+
+            List<Waiter> current;
+            synchronized (GeocodingService.this) {
+                current = new ArrayList<>(waiters.size());
+                inFlight.remove(cell);
+                if (!failed) {
+                    cache.put(cell, new CachedAddress(address, clock.getAsLong()));
+                }
+                for (Waiter waiter : waiters) {
+                    if (isCurrent(waiter)) {
+                        current.add(waiter);
+                    } else {
+                        dropped.incrementAndGet();
+                    }
+                }
+            }
+            for (Waiter waiter : current) {
+                waiter.callback.onAddress(address);
+            }
+        }
+
+        void abandon() {
+            synchronized (GeocodingService.this) {
+                inFlight.remove(cell);
+                dropped.addAndGet(waiters.size());
+            }
+        }
+
+        private boolean hasCurrentWaiter() {
+            for (Waiter waiter : waiters) {
+                if (isCurrent(waiter)) return true;
+            }
+            return false;
+        }
+    }
+
+    // Caller holds the lock. Returns 0 with a token taken, or how long until one is due.
+    private long takeToken() {
+        long now = System.nanoTime();
+        tokens = Math.min(BURST, tokens + (now - refilledAtNanos) / 1e9 * callsPerSecond);
+        refilledAtNanos = now;
+        if (tokens >= 1) {
+            tokens--;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) / callsPerSecond * 1e9));
+    }
+
+    // Caller holds the lock
+    private boolean isCurrent(Waiter waiter) {
+        Long latest = latestRequest.get(waiter.requester);
+        return latest != null && latest == waiter.request;
+    }
+
+    private void recordLatency(long nanos) {
+        lookups.incrementAndGet();
+        lookupNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxLookupNanos.get();
+        } while (nanos > max && !maxLookupNanos.compareAndSet(max, nanos));
+    }
+
+    private static final class Waiter {
+        final String requester;
+        final long request;
+        final Callback callback;
+
+        Waiter(String requester, long request, Callback callback) {
+            this.requester = requester;
+            this.request = request;
+            this.callback = callback;
+        }
+    }
+
+    private static final class CachedAddress {
+        final String address;
+        final long storedAt;
+
+        CachedAddress(String address, long storedAt) {
+            this.address = address;
+            this.storedAt = storedAt;
+        }
+    }
+}
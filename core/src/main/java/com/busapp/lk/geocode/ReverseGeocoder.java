@@ -0,0 +1,13 @@
+package com.busapp.lk.geocode;
+
+import java.io.IOException;
+
+/**
+ * Blocking coordinate-to-address lookup. Implementations are only ever
+ * called from {@link GeocodingService} worker threads.
+ */
+public interface ReverseGeocoder {
+
+    // Returns a short display address, or null when nothing is known
+    String reverseGeocode(double lat, double lng) throws IOException;
+}
@@ -0,0 +1,130 @@
+package com.busapp.lk.gtfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Streaming RFC 4180 reader for GTFS text files. Handles quoted fields,
+ * doubled quotes, CRLF line endings and a leading byte order mark. Rows are
+ * read one at a time into a reused field array, so memory use does not
+ * depend on file size.
+ */
+public final class CsvReader implements Closeable {
+
+    private static final int EOF = -1;
+
+    private final Reader reader;
+    private final char[] buffer = new char[16 * 1024];
+    private int bufferPos;
+    private int bufferLimit;
+
+    private final StringBuilder field = new StringBuilder(32);
+    private String[] fields = new String[16];
+    private int fieldCount;
+    private boolean first = true;
+
+    public CsvReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Advances to the next record. Returns false at end of input.
+     */
+    public boolean next() throws IOException {
+        fieldCount = 0;
+        int c = read();
+        if (first) {
+            first = false;
+            if (c == '\uFEFF') {
+                c = read();
+            }
+        }
+        // Skip blank lines between records
+        while (c == '\r' || c == '\n') {
+            c = read();
+        }
+        if (c == EOF) return false;
+
+        field.setLength(0);
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == EOF) {
+                    throw new IOException("Unterminated quoted field");
+                }
+                if (c == '"') {
+                    int peek = read();
+                    if (peek == '"') {
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                        c = peek;
+                        continue;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                addField();
+            } else if (c == '\n' || c == '\r' || c == EOF) {
+                addField();
+                if (c == '\r') {
+                    int peek = read();
+                    if (peek != '\n' && peek != EOF) {
+                        bufferPos--;
+                    }
+                }
+                return true;
+            } else {
+                field.append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    // Missing trailing columns read as empty strings
+    public String field(int index) {
+        return index >= 0 && index < fieldCount ? fields[index] : "";
+    }
+
+    /**
+     * Index of a header column in the current record, or -1.
+     */
+    public int indexOf(String column) {
+        for (int i = 0; i < fieldCount; i++) {
+            if (fields[i].trim().equals(column)) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void addField() {
+        if (fieldCount == fields.length) {
+            fields = Arrays.copyOf(fields, fieldCount * 2);
+        }
+        fields[fieldCount++] = field.toString();
+        field.setLength(0);
+    }
+
+    private int read() throws IOException {
+        if (bufferPos == bufferLimit) {
+            int n = reader.read(buffer, 0, buffer.length);
+            if (n <= 0) return EOF;
+            bufferPos = 0;
+            bufferLimit = n;
+        }
+        return buffer[bufferPos++];
+    }
+}
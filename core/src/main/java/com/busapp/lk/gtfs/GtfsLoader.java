@@ -0,0 +1,381 @@
+package com.busapp.lk.gtfs;
+
+import com.busapp.lk.util.DoubleList;
+import com.busapp.lk.util.IntList;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Parses a GTFS static zip (stops, routes, trips, stop_times and the optional
+ * shapes, calendar and calendar_dates files) into a {@link TransitNetwork}.
+ * Each file is streamed row by row; rows that reference unknown ids are
+ * skipped.
+ */
+public final class GtfsLoader {
+
+    private static final String[] WEEKDAYS = {
+            "monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday"};
+
+    private final Map<String, String> strings = new HashMap<>();
+
+    private GtfsLoader() {
+    }
+
+    public static TransitNetwork load(File zipFile) throws IOException {
+        try (ZipFile zip = new ZipFile(zipFile)) {
+            return new GtfsLoader().parse(zip);
+        }
+    }
+
+    private TransitNetwork parse(ZipFile zip) throws IOException {
+        // stops.txt
+        List<String> stopIds = new ArrayList<>();
+        List<String> stopNames = new ArrayList<>();
+        DoubleList stopLat = new DoubleList();
+        DoubleList stopLng = new DoubleList();
+        Map<String, Integer> stopIndex = new HashMap<>();
+        try (CsvReader csv = open(zip, "stops.txt", true)) {
+            int id = column(csv, "stops.txt", "stop_id");
+            int name = csv.indexOf("stop_name");
+            int lat = column(csv, "stops.txt", "stop_lat");
+            int lon = column(csv, "stops.txt", "stop_lon");
+            while (csv.next()) {
+                String stopId = intern(csv.field(id));
+                if (stopId.isEmpty() || csv.field(lat).isEmpty()) continue;
+                stopIndex.put(stopId, stopIds.size());
+                stopIds.add(stopId);
+                stopNames.add(intern(csv.field(name)));
+                stopLat.add(parseDouble(csv.field(lat)));
+                stopLng.add(parseDouble(csv.field(lon)));
+            }
+        }
+
+        // routes.txt
+        List<String> routeIds = new ArrayList<>();
+        List<String> shortNames = new ArrayList<>();
+        List<String> longNames = new ArrayList<>();
+        Map<String, Integer> routeIndex = new HashMap<>();
+        try (CsvReader csv = open(zip, "routes.txt", true)) {
+            int id = column(csv, "routes.txt", "route_id");
+            int shortName = csv.indexOf("route_short_name");
+            int longName = csv.indexOf("route_long_name");
+            while (csv.next()) {
+                String routeId = intern(csv.field(id));
+                routeIndex.put(routeId, routeIds.size());
+                routeIds.add(routeId);
+                shortNames.add(intern(csv.field(shortName)));
+                longNames.add(intern(csv.field(longName)));
+            }
+        }
+
+        // shapes.txt (optional)
+        List<String> shapeIds = new ArrayList<>();
+        Map<String, Integer> shapeIndex = new HashMap<>();
+        IntList shapeOf = new IntList();
+        IntList shapeSequence = new IntList();
+        DoubleList shapeLat = new DoubleList();
+        DoubleList shapeLng = new DoubleList();
+        try (CsvReader csv = open(zip, "shapes.txt", false)) {
+            if (csv != null) {
+                int id = column(csv, "shapes.txt", "shape_id");
+                int lat = column(csv, "shapes.txt", "shape_pt_lat");
+                int lon = column(csv, "shapes.txt", "shape_pt_lon");
+                int sequence = column(csv, "shapes.txt", "shape_pt_sequence");
+                while (csv.next()) {
+                    String shapeId = intern(csv.field(id));
+                    Integer shape = shapeIndex.get(shapeId);
+                    if (shape == null) {
+                        shape = shapeIds.size();
+                        shapeIndex.put(shapeId, shape);
+                        shapeIds.add(shapeId);
+                    }
+                    shapeOf.add(shape);
+                    shapeSequence.add(parseInt(csv.field(sequence)));
+                    shapeLat.add(parseDouble(csv.field(lat)));
+                    shapeLng.add(parseDouble(csv.field(lon)));
+                }
+            }
+        }
+        int[] shapeStart = new int[shapeIds.size() + 1];
+        int[] shapeOrder = groupAndSort(shapeOf, shapeSequence, shapeStart);
+        double[] orderedShapeLat = new double[shapeOrder.length];
+        double[] orderedShapeLng = new double[shapeOrder.length];
+        for (int i = 0; i < shapeOrder.length; i++) {
+            orderedShapeLat[i] = shapeLat.get(shapeOrder[i]);
+            orderedShapeLng[i] = shapeLng.get(shapeOrder[i]);
+        }
+
+        // calendar.txt (optional)
+        List<String> serviceIds = new ArrayList<>();
+        Map<String, Integer> serviceIndex = new HashMap<>();
+        IntList serviceDays = new IntList();
+        IntList serviceStartDate = new IntList();
+        IntList serviceEndDate = new IntList();
+        try (CsvReader csv = open(zip, "calendar.txt", false)) {
+            if (csv != null) {
+                int id = column(csv, "calendar.txt", "service_id");
+                int[] weekdays = new int[WEEKDAYS.length];
+                for (int d = 0; d < WEEKDAYS.length; d++) {
+                    weekdays[d] = column(csv, "calendar.txt", WEEKDAYS[d]);
+                }
+                int start = column(csv, "calendar.txt", "start_date");
+                int end = column(csv, "calendar.txt", "end_date");
+                while (csv.next()) {
+                    String serviceId = intern(csv.field(id));
+                    if (serviceId.isEmpty() || serviceIndex.containsKey(serviceId)) continue;
+                    int days = 0;
+                    for (int d = 0; d < WEEKDAYS.length; d++) {
+                        if (csv.field(weekdays[d]).trim().equals("1")) days |= 1 << d;
+                    }
+                    serviceIndex.put(serviceId, serviceIds.size());
+                    serviceIds.add(serviceId);
+                    serviceDays.add(days);
+                    serviceStartDate.add(parseDate(csv.field(start)));
+                    serviceEndDate.add(parseDate(csv.field(end)));
+                }
+            }
+        }
+
+        // calendar_dates.txt (optional); a service may be defined by its dates alone
+        IntList exceptionService = new IntList();
+        IntList exceptionDate = new IntList();
+        IntList exceptionType = new IntList();
+        try (CsvReader csv = open(zip, "calendar_dates.txt", false)) {
+            if (csv != null) {
+                int id = column(csv, "calendar_dates.txt", "service_id");
+                int date = column(csv, "calendar_dates.txt", "date");
+                int type = column(csv, "calendar_dates.txt", "exception_type");
+                while (csv.next()) {
+                    String serviceId = intern(csv.field(id));
+                    if (serviceId.isEmpty()) continue;
+                    int exception = parseInt(csv.field(type));
+                    if (exception != TransitNetwork.SERVICE_ADDED && exception != TransitNetwork.SERVICE_REMOVED) {
+                        continue;
+                    }
+                    Integer service = serviceIndex.get(serviceId);
+                    if (service == null) {
+                        service = serviceIds.size();
+                        serviceIndex.put(serviceId, service);
+                        serviceIds.add(serviceId);
+                        serviceDays.add(0);
+                        serviceStartDate.add(0);
+                        serviceEndDate.add(0);
+                    }
+                    exceptionService.add(service);
+                    exceptionDate.add(parseDate(csv.field(date)));
+                    exceptionType.add(exception);
+                }
+            }
+        }
+        int[] serviceExceptionStart = new int[serviceIds.size() + 1];
+        int[] exceptionOrder = groupAndSort(exceptionService, exceptionDate, serviceExceptionStart);
+        int[] orderedExceptionDate = new int[exceptionOrder.length];
+        int[] orderedExceptionType = new int[exceptionOrder.length];
+        for (int i = 0; i < exceptionOrder.length; i++) {
+            orderedExceptionDate[i] = exceptionDate.get(exceptionOrder[i]);
+            orderedExceptionType[i] = exceptionType.get(exceptionOrder[i]);
+        }
+
+        // trips.txt; without a calendar every trip runs every day
+        boolean hasCalendar = !serviceIds.isEmpty();
+        List<String> tripIds = new ArrayList<>();
+        IntList tripRoute = new IntList();
+        IntList tripShape = new IntList();
+        IntList tripService = new IntList();
+        Map<String, Integer> tripIndex = new HashMap<>();
+        try (CsvReader csv = open(zip, "trips.txt", true)) {
+            int id = column(csv, "trips.txt", "trip_id");
+            int route = column(csv, "trips.txt", "route_id");
+            int shape = csv.indexOf("shape_id");
+            int service = csv.indexOf("service_id");
+            while (csv.next()) {
+                Integer routeId = routeIndex.get(csv.field(route));
+                if (routeId == null) continue;
+                Integer serviceId = serviceIndex.get(csv.field(service));
+                if (hasCalendar && serviceId == null) continue;
+                String tripId = intern(csv.field(id));
+                Integer shapeId = shapeIndex.get(csv.field(shape));
+                tripIndex.put(tripId, tripIds.size());
+                tripIds.add(tripId);
+                tripRoute.add(routeId);
+                tripShape.add(shapeId == null ? TransitNetwork.NO_SHAPE : shapeId);
+                tripService.add(serviceId == null ? TransitNetwork.NO_SERVICE : serviceId);
+            }
+        }
+
+        // stop_times.txt, usually by far the largest file
+        IntList timeTrip = new IntList(1024);
+        IntList timeSequence = new IntList(1024);
+        IntList timeStop = new IntList(1024);
+        IntList timeArrival = new IntList(1024);
+        IntList timeDeparture = new IntList(1024);
+        try (CsvReader csv = open(zip, "stop_times.txt", true)) {
+            int trip = column(csv, "stop_times.txt", "trip_id");
+            int stop = column(csv, "stop_times.txt", "stop_id");
+            int arrival = column(csv, "stop_times.txt", "arrival_time");
+            int departure = column(csv, "stop_times.txt", "departure_time");
+            int sequence = column(csv, "stop_times.txt", "stop_sequence");
+            while (csv.next()) {
+                Integer tripId = tripIndex.get(csv.field(trip));
+                Integer stopId = stopIndex.get(csv.field(stop));
+                if (tripId == null || stopId == null) continue;
+                timeTrip.add(tripId);
+                timeSequence.add(parseInt(csv.field(sequence)));
+                timeStop.add(stopId);
+                timeArrival.add(parseTime(csv.field(arrival)));
+                timeDeparture.add(parseTime(csv.field(departure)));
+            }
+        }
+        int[] tripStopTimeStart = new int[tripIds.size() + 1];
+        int[] timeOrder = groupAndSort(timeTrip, timeSequence, tripStopTimeStart);
+        int[] stopTimeStop = new int[timeOrder.length];
+        int[] stopTimeArrival = new int[timeOrder.length];
+        int[] stopTimeDeparture = new int[timeOrder.length];
+        for (int i = 0; i < timeOrder.length; i++) {
+            int row = timeOrder[i];
+            stopTimeStop[i] = timeStop.get(row);
+            stopTimeArrival[i] = timeArrival.get(row);
+            stopTimeDeparture[i] = timeDeparture.get(row);
+        }
+
+        return new TransitNetwork(
+                stopIds.toArray(new String[0]), stopNames.toArray(new String[0]),
+                stopLat.toArray(), stopLng.toArray(),
+                routeIds.toArray(new String[0]), shortNames.toArray(new String[0]),
+                longNames.toArray(new String[0]),
+                shapeIds.toArray(new String[0]), shapeStart, orderedShapeLat, orderedShapeLng,
+                serviceIds.toArray(new String[0]), serviceDays.toArray(), serviceStartDate.toArray(),
+                serviceEndDate.toArray(), serviceExceptionStart, orderedExceptionDate, orderedExceptionType,
+                tripIds.toArray(new String[0]), tripRoute.toArray(), tripShape.toArray(), tripService.toArray(),
+                tripStopTimeStart,
+                stopTimeStop, stopTimeArrival, stopTimeDeparture);
+    }
+
+    /**
+     * Counting sort of rows by group, then by sequence within each group.
+     * Fills {@code groupStart} (length groups + 1) and returns row indices in order.
+     */
+    static int[] groupAndSort(IntList group, IntList sequence, int[] groupStart) {
+        int rows = group.size();
+        int groups = groupStart.length - 1;
+        for (int i = 0; i < rows; i++) {
+            groupStart[group.get(i) + 1]++;
+        }
+        for (int g = 0; g < groups; g++) {
+            groupStart[g + 1] += groupStart[g];
+        }
+
+        int[] order = new int[rows];
+        int[] cursor = new int[groups];
+        for (int g = 0; g < groups; g++) {
+            cursor[g] = groupStart[g];
+        }
+        for (int i = 0; i < rows; i++) {
+            order[cursor[group.get(i)]++] = i;
+        }
+
+        // Feeds are nearly always already in sequence order, so insertion sort is ~linear
+        for (int g = 0; g < groups; g++) {
+            for (int i = groupStart[g] + 1; i < groupStart[g + 1]; i++) {
+                int row = order[i];
+                int key = sequence.get(row);
+                int j = i - 1;
+                while (j >= groupStart[g] && sequence.get(order[j]) > key) {
+                    order[j + 1] = order[j];
+                    j--;
+                }
+                order[j + 1] = row;
+            }
+        }
+        return order;
+    }
+
+    // HH:MM:SS, where HH may exceed 23 for trips running past midnight
+    static int parseTime(String value) throws IOException {
+        String time = value.trim();
+        if (time.isEmpty()) return TransitNetwork.NO_TIME;
+        int first = time.indexOf(':');
+        int second = time.indexOf(':', first + 1);
+        if (first < 0 || second < 0) {
+            throw new IOException("Bad GTFS time: " + value);
+        }
+        try {
+            return Integer.parseInt(time.substring(0, first)) * 3600
+                    + Integer.parseInt(time.substring(first + 1, second)) * 60
+                    + Integer.parseInt(time.substring(second + 1));
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad GTFS time: " + value, e);
+        }
+    }
+
+    // yyyymmdd, kept as that int
+    static int parseDate(String value) throws IOException {
+        String date = value.trim();
+        if (date.length() != 8) {
+            throw new IOException("Bad GTFS date: " + value);
+        }
+        int parsed = parseInt(date);
+        try {
+            TransitNetwork.dayOfWeek(parsed);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad GTFS date: " + value, e);
+        }
+        return parsed;
+    }
+
+    private String intern(String value) {
+        String trimmed = value.trim();
+        String existing = strings.get(trimmed);
+        if (existing != null) return existing;
+        strings.put(trimmed, trimmed);
+        return trimmed;
+    }
+
+    private static CsvReader open(ZipFile zip, String name, boolean required) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        if (entry == null) {
+            if (required) {
+                throw new IOException("GTFS feed is missing " + name);
+            }
+            return null;
+        }
+        CsvReader csv = new CsvReader(new InputStreamReader(zip.getInputStream(entry), StandardCharsets.UTF_8));
+        if (!csv.next()) {
+            csv.close();
+            throw new IOException(name + " is empty");
+        }
+        return csv;
+    }
+
+    private static int column(CsvReader header, String file, String name) throws IOException {
+        int index = header.indexOf(name);
+        if (index < 0) {
+            throw new IOException(file + " has no " + name + " column");
+        }
+        return index;
+    }
+
+    private static double parseDouble(String value) throws IOException {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad number: " + value, e);
+        }
+    }
+
+    private static int parseInt(String value) throws IOException {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad integer: " + value, e);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.busapp.lk.gtfs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary snapshot of a parsed {@link TransitNetwork}. The tables are written
+ * as big-endian primitive blocks behind a header holding the format version
+ * and a stamp of the source feed (for example its size and modification
+ * time), so a changed feed or an older format is simply re-parsed.
+ *
+ * <p>Reading maps the file and bulk-copies each block into its array; there
+ * is no per-row parsing or boxing. Strings are stored once in a table and
+ * referenced by index.
+ */
+public final class NetworkSnapshot {
+
+    private static final int MAGIC = 0x42555347; // "BUSG"
+    private static final int VERSION = 2;
+
+    private NetworkSnapshot() {
+    }
+
+    /**
+     * Writes the snapshot through a temporary file so a crash never leaves a
+     * half-written snapshot behind.
+     */
+    public static void write(TransitNetwork network, File file, long sourceStamp) throws IOException {
+        StringTable strings = new StringTable();
+        int[] stopIds = strings.indices(network.stopIds);
+        int[] stopNames = strings.indices(network.stopNames);
+        int[] routeIds = strings.indices(network.routeIds);
+        int[] routeShortNames = strings.indices(network.routeShortNames);
+        int[] routeLongNames = strings.indices(network.routeLongNames);
+        int[] shapeIds = strings.indices(network.shapeIds);
+        int[] serviceIds = strings.indices(network.serviceIds);
+        int[] tripIds = strings.indices(network.tripIds);
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(sourceStamp);
+
+            byte[][] encoded = strings.encoded();
+            out.writeInt(encoded.length);
+            for (byte[] value : encoded) {
+                out.writeInt(value.length);
+                out.write(value);
+            }
+
+            out.writeInt(network.stopCount());
+            writeInts(out, stopIds);
+            writeInts(out, stopNames);
+            writeDoubles(out, network.stopLat);
+            writeDoubles(out, network.stopLng);
+
+            out.writeInt(network.routeCount());
+            writeInts(out, routeIds);
+            writeInts(out, routeShortNames);
+            writeInts(out, routeLongNames);
+
+            out.writeInt(network.shapeCount());
+            out.writeInt(network.shapeLat.length);
+            writeInts(out, shapeIds);
+            writeInts(out, network.shapeStart);
+            writeDoubles(out, network.shapeLat);
+            writeDoubles(out, network.shapeLng);
+
+            out.writeInt(network.serviceCount());
+            out.writeInt(network.exceptionDate.length);
+            writeInts(out, serviceIds);
+            writeInts(out, network.serviceDays);
+            writeInts(out, network.serviceStartDate);
+            writeInts(out, network.serviceEndDate);
+            writeInts(out, network.serviceExceptionStart);
+            writeInts(out, network.exceptionDate);
+            writeInts(out, network.exceptionType);
+
+            out.writeInt(network.tripCount());
+            out.writeInt(network.stopTimeCount());
+            writeInts(out, tripIds);
+            writeInts(out, network.tripRoute);
+            writeInts(out, network.tripShape);
+            writeInts(out, network.tripService);
+            writeInts(out, network.tripStopTimeStart);
+            writeInts(out, network.stopTimeStop);
+            writeInts(out, network.stopTimeArrival);
+            writeInts(out, network.stopTimeDeparture);
+        }
+        if (!temp.renameTo(file)) {
+            file.delete();
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException("Could not replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Reads a snapshot, or returns null if it is missing, from another format
+     * version, stamped for a different source, or damaged.
+     */
+    public static TransitNetwork read(File file, long expectedStamp) throws IOException {
+        if (!file.isFile()) return null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 16
+                    || buffer.getInt() != MAGIC
+                    || buffer.getInt() != VERSION
+                    || buffer.getLong() != expectedStamp) {
+                return null;
+            }
+            return readTables(buffer);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static TransitNetwork readTables(ByteBuffer in) {
+        // Each string takes at least its length
+        String[] strings = new String[count(in, in.getInt(), Integer.BYTES)];
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < strings.length; i++) {
+            int length = count(in, in.getInt(), 1);
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            in.get(scratch, 0, length);
+            strings[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        int stops = in.getInt();
+        String[] stopIds = readStrings(in, stops, strings);
+        String[] stopNames = readStrings(in, stops, strings);
+        double[] stopLat = readDoubles(in, stops);
+        double[] stopLng = readDoubles(in, stops);
+
+        int routes = in.getInt();
+        String[] routeIds = readStrings(in, routes, strings);
+        String[] routeShortNames = readStrings(in, routes, strings);
+        String[] routeLongNames = readStrings(in, routes, strings);
+
+        int shapes = in.getInt();
+        int shapeVertices = in.getInt();
+        String[] shapeIds = readStrings(in, shapes, strings);
+        int[] shapeStart = readInts(in, shapes + 1);
+        double[] shapeLat = readDoubles(in, shapeVertices);
+        double[] shapeLng = readDoubles(in, shapeVertices);
+
+        int services = in.getInt();
+        int exceptions = in.getInt();
+        String[] serviceIds = readStrings(in, services, strings);
+        int[] serviceDays = readInts(in, services);
+        int[] serviceStartDate = readInts(in, services);
+        int[] serviceEndDate = readInts(in, services);
+        int[] serviceExceptionStart = readInts(in, services + 1);
+        int[] exceptionDate = readInts(in, exceptions);
+        int[] exceptionType = readInts(in, exceptions);
+
+        int trips = in.getInt();
+        int stopTimes = in.getInt();
+        String[] tripIds = readStrings(in, trips, strings);
+        int[] tripRoute = readInts(in, trips);
+        int[] tripShape = readInts(in, trips);
+        int[] tripService = readInts(in, trips);
+        int[] tripStopTimeStart = readInts(in, trips + 1);
+        int[] stopTimeStop = readInts(in, stopTimes);
+        int[] stopTimeArrival = readInts(in, stopTimes);
+        int[] stopTimeDeparture = readInts(in, stopTimes);
+
+        return new TransitNetwork(stopIds, stopNames, stopLat, stopLng,
+                routeIds, routeShortNames, routeLongNames,
+                shapeIds, shapeStart, shapeLat, shapeLng,
+                serviceIds, serviceDays, serviceStartDate, serviceEndDate,
+                serviceExceptionStart, exceptionDate, exceptionType,
+                tripIds, tripRoute, tripShape, tripService, tripStopTimeStart,
+                stopTimeStop, stopTimeArrival, stopTimeDeparture);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    // Checks a count read from the file against what is left, before anything is allocated for it
+    private static int count(ByteBuffer in, int count, int bytesEach) {
+        if (count < 0 || (long) count * bytesEach > in.remaining()) {
+            throw new IllegalArgumentException("Bad count " + count);
+        }
+        return count;
+    }
+
+    private static int[] readInts(ByteBuffer in, int count) {
+        int[] values = new int[count(in, count, Integer.BYTES)];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + count * Integer.BYTES);
+        return values;
+    }
+
+    private static double[] readDoubles(ByteBuffer in, int count) {
+        double[] values = new double[count(in, count, Double.BYTES)];
+        in.asDoubleBuffer().get(values);
+        in.position(in.position() + count * Double.BYTES);
+        return values;
+    }
+
+    private static String[] readStrings(ByteBuffer in, int count, String[] table) {
+        int[] indices = readInts(in, count);
+        String[] values = new String[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = table[indices[i]];
+        }
+        return values;
+    }
+
+    private static final class StringTable {
+        private final Map<String, Integer> index = new HashMap<>();
+        private String[] values = new String[0];
+        private int size;
+
+        int[] indices(String[] strings) {
+            int[] indices = new int[strings.length];
+            for (int i = 0; i < strings.length; i++) {
+                Integer existing = index.get(strings[i]);
+                if (existing == null) {
+                    existing = size;
+                    index.put(strings[i], existing);
+                    if (size == values.length) {
+                        values = Arrays.copyOf(values, Math.max(16, size * 2));
+                    }
+                    values[size++] = strings[i];
+                }
+                indices[i] = existing;
+            }
+            return indices;
+        }
+
+        byte[][] encoded() {
+            byte[][] bytes = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                bytes[i] = values[i].getBytes(StandardCharsets.UTF_8);
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.busapp.lk.gtfs;
+
+import com.busapp.lk.route.RouteGeometry;
+import java.util.Arrays;
+
+/**
+ * Static transit network held in flat primitive tables. Entities are
+ * addressed by dense int indices; GTFS string ids are kept only for lookup
+ * and display, and repeated strings share one instance.
+ *
+ * <p>Stop times are grouped by trip and ordered by stop sequence: the stop
+ * times of trip {@code t} are {@code [tripStopTimeStart(t), tripStopTimeEnd(t))}.
+ * Shape vertices use the same layout. Times are seconds after midnight of the
+ * service day, or {@link #NO_TIME}.
+ *
+ * <p>Each trip runs on a service from calendar.txt and calendar_dates.txt:
+ * a weekly pattern over a date range, with dates added or removed. Dates are
+ * GTFS style {@code yyyymmdd} ints. A feed without either file has no
+ * services, and its trips run every day ({@link #NO_SERVICE}).
+ */
+public final class TransitNetwork {
+
+    public static final int NO_SHAPE = -1;
+    public static final int NO_TIME = -1;
+    public static final int NO_SERVICE = -1;
+    // calendar_dates.txt exception_type
+    public static final int SERVICE_ADDED = 1;
+    public static final int SERVICE_REMOVED = 2;
+
+    final String[] stopIds;
+    final String[] stopNames;
+    final double[] stopLat;
+    final double[] stopLng;
+
+    final String[] routeIds;
+    final String[] routeShortNames;
+    final String[] routeLongNames;
+
+    final String[] shapeIds;
+    final int[] shapeStart;
+    final double[] shapeLat;
+    final double[] shapeLng;
+
+    // Weekday bits, bit 0 for Monday; exceptions of service s are [serviceExceptionStart[s], [s + 1])
+    final String[] serviceIds;
+    final int[] serviceDays;
+    final int[] serviceStartDate;
+    final int[] serviceEndDate;
+    final int[] serviceExceptionStart;
+    final int[] exceptionDate;
+    final int[] exceptionType;
+
+    final String[] tripIds;
+    final int[] tripRoute;
+    final int[] tripShape;
+    final int[] tripService;
+    final int[] tripStopTimeStart;
+
+    final int[] stopTimeStop;
+    final int[] stopTimeArrival;
+    final int[] stopTimeDeparture;
+
+    private final RouteGeometry[] geometries;
+
+    TransitNetwork(String[] stopIds, String[] stopNames, double[] stopLat, double[] stopLng,
+                   String[] routeIds, String[] routeShortNames, String[] routeLongNames,
+                   String[] shapeIds, int[] shapeStart, double[] shapeLat, double[] shapeLng,
+                   String[] serviceIds, int[] serviceDays, int[] serviceStartDate, int[] serviceEndDate,
+                   int[] serviceExceptionStart, int[] exceptionDate, int[] exceptionType,
+                   String[] tripIds, int[] tripRoute, int[] tripShape, int[] tripService, int[] tripStopTimeStart,
+                   int[] stopTimeStop, int[] stopTimeArrival, int[] stopTimeDeparture) {
+        this.stopIds = stopIds;
+        this.stopNames = stopNames;
+        this.stopLat = stopLat;
+        this.stopLng = stopLng;
+        this.routeIds = routeIds;
+        this.routeShortNames = routeShortNames;
+        this.routeLongNames = routeLongNames;
+        this.shapeIds = shapeIds;
+        this.shapeStart = shapeStart;
+        this.shapeLat = shapeLat;
+        this.shapeLng = shapeLng;
+        this.serviceIds = serviceIds;
+        this.serviceDays = serviceDays;
+        this.serviceStartDate = serviceStartDate;
+        this.serviceEndDate = serviceEndDate;
+        this.serviceExceptionStart = serviceExceptionStart;
+        this.exceptionDate = exceptionDate;
+        this.exceptionType = exceptionType;
+        this.tripIds = tripIds;
+        this.tripRoute = tripRoute;
+        this.tripShape = tripShape;
+        this.tripService = tripService;
+        this.tripStopTimeStart = tripStopTimeStart;
+        this.stopTimeStop = stopTimeStop;
+        this.stopTimeArrival = stopTimeArrival;
+        this.stopTimeDeparture = stopTimeDeparture;
+        this.geometries = new RouteGeometry[shapeIds.length];
+    }
+
+    public int stopCount() {
+        return stopIds.length;
+    }
+
+    public String stopId(int stop) {
+        return stopIds[stop];
+    }
+
+    public String stopName(int stop) {
+        return stopNames[stop];
+    }
+
+    public double stopLat(int stop) {
+        return stopLat[stop];
+    }
+
+    public double stopLng(int stop) {
+        return stopLng[stop];
+    }
+
+    public int routeCount() {
+        return routeIds.length;
+    }
+
+    public String routeId(int route) {
+        return routeIds[route];
+    }
+
+    public String routeShortName(int route) {
+        return routeShortNames[route];
+    }
+
+    public String routeLongName(int route) {
+        return routeLongNames[route];
+    }
+
+    public int shapeCount() {
+        return shapeIds.length;
+    }
+
+    public String shapeId(int shape) {
+        return shapeIds[shape];
+    }
+
+    public int shapeVertexCount(int shape) {
+        return shapeStart[shape + 1] - shapeStart[shape];
+    }
+
+    /**
+     * Geometry of a shape, built on first use so cold start only pays for
+     * the shapes that are actually shown or simulated.
+     */
+    public synchronized RouteGeometry shape(int shape) {
+        RouteGeometry geometry = geometries[shape];
+        if (geometry == null) {
+            int from = shapeStart[shape];
+            int to = shapeStart[shape + 1];
+            geometry = new RouteGeometry(
+                    Arrays.copyOfRange(shapeLat, from, to), Arrays.copyOfRange(shapeLng, from, to));
+            geometries[shape] = geometry;
+        }
+        return geometry;
+    }
+
+    public int serviceCount() {
+        return serviceIds.length;
+    }
+
+    public String serviceId(int service) {
+        return serviceIds[service];
+    }
+
+    /**
+     * True if the service runs on a {@code yyyymmdd} date: an added date
+     * always, a removed one never, otherwise by its weekly pattern within
+     * its date range. {@link #NO_SERVICE} runs every day.
+     */
+    public boolean serviceRunsOn(int service, int date) {
+        if (service == NO_SERVICE) return true;
+        for (int i = serviceExceptionStart[service]; i < serviceExceptionStart[service + 1]; i++) {
+            if (exceptionDate[i] == date) return exceptionType[i] == SERVICE_ADDED;
+        }
+        return date >= serviceStartDate[service] && date <= serviceEndDate[service]
+                && (serviceDays[service] & 1 << dayOfWeek(date)) != 0;
+    }
+
+    public int tripCount() {
+        return tripIds.length;
+    }
+
+    public String tripId(int trip) {
+        return tripIds[trip];
+    }
+
+    public int tripRoute(int trip) {
+        return tripRoute[trip];
+    }
+
+    // NO_SHAPE when the feed has no shape for the trip
+    public int tripShape(int trip) {
+        return tripShape[trip];
+    }
+
+    // NO_SERVICE when the feed has no calendar
+    public int tripService(int trip) {
+        return tripService[trip];
+    }
+
+    public boolean tripRunsOn(int trip, int date) {
+        return serviceRunsOn(tripService[trip], date);
+    }
+
+    public int tripStopTimeStart(int trip) {
+        return tripStopTimeStart[trip];
+    }
+
+    public int tripStopTimeEnd(int trip) {
+        return tripStopTimeStart[trip + 1];
+    }
+
+    public int stopTimeCount() {
+        return stopTimeStop.length;
+    }
+
+    public int stopTimeStop(int stopTime) {
+        return stopTimeStop[stopTime];
+    }
+
+    public int stopTimeArrival(int stopTime) {
+        return stopTimeArrival[stopTime];
+    }
+
+    public int stopTimeDeparture(int stopTime) {
+        return stopTimeDeparture[stopTime];
+    }
+
+    /**
+     * Day of the week of a {@code yyyymmdd} date, 0 for Monday to 6 for
+     * Sunday, from its day number in the proleptic Gregorian calendar.
+     *
+     * @throws IllegalArgumentException if the month or day is out of range
+     */
+    public static int dayOfWeek(int date) {
+        int year = date / 10000;
+        int month = date / 100 % 100;
+        int day = date % 100;
+        if (date < 0 || month < 1 || month > 12 || day < 1 || day > 31) {
+            throw new IllegalArgumentException("Not a yyyymmdd date: " + date);
+        }
+        // Days since 1970-01-01, counting years from March so leap days come last
+        int y = month <= 2 ? year - 1 : year;
+        int era = Math.floorDiv(y, 400);
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = era * 146097L + dayOfEra - 719468;
+        // 1970-01-01 was a Thursday
+        return (int) Math.floorMod(days + 3, 7L);
+    }
+}
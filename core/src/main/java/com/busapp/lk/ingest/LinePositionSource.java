@@ -0,0 +1,158 @@
+package com.busapp.lk.ingest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Line-delimited position updates, one per line:
+ *
+ * <pre>vehicleId,timestamp,lat,lng,speedKmh,headingDegrees</pre>
+ *
+ * Blank lines and lines starting with '#' are skipped, and malformed lines
+ * are counted and skipped so one bad record does not stop a live feed.
+ * Numbers are parsed in place without splitting the line.
+ */
+public final class LinePositionSource implements PositionSource {
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+    private final Reader reader;
+    private final Socket socket;
+    private volatile boolean closed;
+    private long malformed;
+
+    public LinePositionSource(Reader reader) {
+        this(reader, null);
+    }
+
+    private LinePositionSource(Reader reader, Socket socket) {
+        this.reader = reader;
+        this.socket = socket;
+    }
+
+    public static LinePositionSource file(File file) throws IOException {
+        return new LinePositionSource(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+    }
+
+    public static LinePositionSource socket(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        return new LinePositionSource(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8), socket);
+    }
+
+    @Override
+    public void run(Sink sink) throws IOException {
+        BufferedReader lines = new BufferedReader(reader, 64 * 1024);
+        try {
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') continue;
+                if (!decode(line, sink)) {
+                    malformed++;
+                }
+            }
+        } catch (IOException e) {
+            // Closing the stream from another thread is a normal way to stop
+            if (!closed) throw e;
+        }
+    }
+
+    // Only meaningful once run() has returned, or as an estimate while it runs
+    public long getMalformed() {
+        return malformed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (socket != null) {
+            socket.close();
+        }
+        reader.close();
+    }
+
+    static boolean decode(String line, Sink sink) {
+        int c1 = line.indexOf(',');
+        int c2 = line.indexOf(',', c1 + 1);
+        int c3 = line.indexOf(',', c2 + 1);
+        int c4 = line.indexOf(',', c3 + 1);
+        int c5 = line.indexOf(',', c4 + 1);
+        if (c1 <= 0 || c2 < 0 || c3 < 0 || c4 < 0 || c5 < 0) return false;
+
+        long timestamp = parseLong(line, c1 + 1, c2);
+        double lat = parseDecimal(line, c2 + 1, c3);
+        double lng = parseDecimal(line, c3 + 1, c4);
+        double speed = parseDecimal(line, c4 + 1, c5);
+        int end = line.indexOf(',', c5 + 1);
+        double heading = parseDecimal(line, c5 + 1, end < 0 ? line.length() : end);
+        if (timestamp == Long.MIN_VALUE || Double.isNaN(lat) || Double.isNaN(lng)
+                || Double.isNaN(speed) || Double.isNaN(heading)) {
+            return false;
+        }
+        sink.accept(line.substring(0, c1), timestamp, lat, lng, (float) speed, (float) heading);
+        return true;
+    }
+
+    // Long.MIN_VALUE when the field is not an integer
+    static long parseLong(String s, int from, int to) {
+        if (from >= to) return Long.MIN_VALUE;
+        boolean negative = s.charAt(from) == '-';
+        int i = negative ? from + 1 : from;
+        if (i >= to || to - i > 18) return Long.MIN_VALUE;
+        long value = 0;
+        for (; i < to; i++) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) return Long.MIN_VALUE;
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Plain decimal such as "-6.927100"; NaN when malformed. Anything with an
+     * exponent or too many digits to be exact falls back to the JDK parser.
+     */
+    static double parseDecimal(String s, int from, int to) {
+        if (from >= to) return Double.NaN;
+        boolean negative = s.charAt(from) == '-';
+        int i = negative || s.charAt(from) == '+' ? from + 1 : from;
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 15) return slowParse(s, from, to);
+                mantissa = mantissa * 10 + (c - '0');
+                if (point) fractionDigits++;
+            } else if (c == '.' && !point) {
+                point = true;
+            } else if (c == 'e' || c == 'E') {
+                return slowParse(s, from, to);
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digits == 0) return Double.NaN;
+        double value = mantissa / POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+
+    private static double slowParse(String s, int from, int to) {
+        try {
+            return Double.parseDouble(s.substring(from, to));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.busapp.lk.ingest;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes position updates into the compact batches that
+ * {@link PositionBatchDecoder} reads; the format is described there. Call
+ * {@link #add} for each update and {@link #finish} to write the batch.
+ *
+ * <p>The encoder remembers the ids it has sent and each vehicle's previous
+ * fix, so every batch it finishes must reach the decoder, in order. Not
+ * thread safe.
+ */
+public final class PositionBatchEncoder {
+
+    // Worst case of the six varints of one update, and the route index
+    static final int MAX_UPDATE_BYTES = 5 + 5 + 10 + 5 + 5 + 5 + 5;
+
+    private final Map<String, Integer> routeIds = new HashMap<>();
+    private final Map<String, Integer> vehicleIds = new HashMap<>();
+    // Ids not sent yet, in index order
+    private String[] newRoutes = new String[16];
+    private int newRouteCount;
+    private String[] newVehicles = new String[16];
+    private int newVehicleCount;
+
+    // Per vehicle: route index, previous fix in microdegrees
+    private int[] route = new int[64];
+    private int[] lastLat = new int[64];
+    private int[] lastLng = new int[64];
+
+    private ByteBuffer updates = ByteBuffer.allocate(4096);
+    private int count;
+    private long firstTimestamp;
+    private long lastTimestamp;
+
+    // Forgets the ids sent and the previous fixes, for a new connection
+    public void reset() {
+        routeIds.clear();
+        vehicleIds.clear();
+        newRouteCount = 0;
+        newVehicleCount = 0;
+        updates.clear();
+        count = 0;
+    }
+
+    public void add(String vehicleId, String routeId, long timestamp, double lat, double lng,
+                    float speed, float heading) {
+        if (updates.remaining() < MAX_UPDATE_BYTES) {
+            ByteBuffer larger = ByteBuffer.allocate(updates.capacity() * 2);
+            updates.flip();
+            updates = larger.put(updates);
+        }
+        int vehicle = vehicleIndex(vehicleId);
+        int routeIndex = routeIndex(routeId);
+        int latUnits = (int) Math.round(lat * PositionRecorder.DEGREE_UNITS);
+        int lngUnits = (int) Math.round(lng * PositionRecorder.DEGREE_UNITS);
+        if (count == 0) {
+            firstTimestamp = timestamp;
+            lastTimestamp = timestamp;
+        }
+
+        boolean routeChanged = route[vehicle] != routeIndex;
+        PositionRecorder.putVarint(updates, vehicle << 1 | (routeChanged ? 1 : 0));
+        if (routeChanged) {
+            PositionRecorder.putVarint(updates, routeIndex);
+        }
+        PositionRecorder.putVarlong(updates, PositionRecorder.zigzag(timestamp - lastTimestamp));
+        PositionRecorder.putVarint(updates, PositionRecorder.zigzag(latUnits - lastLat[vehicle]));
+        PositionRecorder.putVarint(updates, PositionRecorder.zigzag(lngUnits - lastLng[vehicle]));
+        PositionRecorder.putVarint(updates, Math.max(0, Math.round(speed * 10)));
+        PositionRecorder.putVarint(updates, Math.round(((heading % 360) + 360) % 360 * 10));
+
+        route[vehicle] = routeIndex;
+        lastLat[vehicle] = latUnits;
+        lastLng[vehicle] = lngUnits;
+        lastTimestamp = timestamp;
+        count++;
+    }
+
+    // Updates added since the last finish()
+    public int size() {
+        return count;
+    }
+
+    // Upper bound on what finish() will write, for sizing its buffer
+    public int maxBatchBytes() {
+        int bytes = 5 + 5 + 5 + 10 + updates.position();
+        for (int i = 0; i < newRouteCount; i++) {
+            bytes += 5 + newRoutes[i].length() * 3;
+        }
+        for (int i = 0; i < newVehicleCount; i++) {
+            bytes += 5 + newVehicles[i].length() * 3;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes the batch at the buffer's position and starts the next one.
+     * Returns the bytes written.
+     *
+     * @throws BufferOverflowException if {@code out} has less room than
+     *                                 {@link #maxBatchBytes}; nothing is
+     *                                 lost and the call can be retried
+     */
+    public int finish(ByteBuffer out) {
+        if (out.remaining() < maxBatchBytes()) {
+            throw new BufferOverflowException();
+        }
+        int start = out.position();
+        PositionRecorder.putVarint(out, newRouteCount);
+        for (int i = 0; i < newRouteCount; i++) {
+            putString(out, newRoutes[i]);
+        }
+        PositionRecorder.putVarint(out, newVehicleCount);
+        for (int i = 0; i < newVehicleCount; i++) {
+            putString(out, newVehicles[i]);
+        }
+        PositionRecorder.putVarint(out, count);
+        if (count > 0) {
+            PositionRecorder.putVarlong(out, firstTimestamp);
+            updates.flip();
+            out.put(updates);
+        }
+        Arrays.fill(newRoutes, 0, newRouteCount, null);
+        Arrays.fill(newVehicles, 0, newVehicleCount, null);
+        newRouteCount = 0;
+        newVehicleCount = 0;
+        updates.clear();
+        count = 0;
+        return out.position() - start;
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        PositionRecorder.putVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    private int routeIndex(String routeId) {
+        Integer known = routeIds.get(routeId);
+        if (known != null) return known;
+        int index = routeIds.size();
+        routeIds.put(routeId, index);
+        if (newRouteCount == newRoutes.length) newRoutes = Arrays.copyOf(newRoutes, newRouteCount * 2);
+        newRoutes[newRouteCount++] = routeId;
+        return index;
+    }
+
+    private int vehicleIndex(String vehicleId) {
+        Integer known = vehicleIds.get(vehicleId);
+        if (known != null) return known;
+        int index = vehicleIds.size();
+        vehicleIds.put(vehicleId, index);
+        if (newVehicleCount == newVehicles.length) {
+            newVehicles = Arrays.copyOf(newVehicles, newVehicleCount * 2);
+        }
+        newVehicles[newVehicleCount++] = vehicleId;
+        if (index == route.length) {
+            route = Arrays.copyOf(route, index * 2);
+            lastLat = Arrays.copyOf(lastLat, index * 2);
+            lastLng = Arrays.copyOf(lastLng, index * 2);
+        }
+        // No route yet, so the first update always sends one
+        route[index] = -1;
+        lastLat[index] = 0;
+        lastLng[index] = 0;
+        return index;
+    }
+}
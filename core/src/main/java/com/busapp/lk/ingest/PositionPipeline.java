@@ -0,0 +1,322 @@
+package com.busapp.lk.ingest;
+
+import com.busapp.lk.fleet.VehicleStateStore;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.ToIntFunction;
+
+/**
+ * Feeds a {@link PositionSource} into a {@link VehicleStateStore}.
+ *
+ * <ul>
+ * <li>The source is read and decoded on its own background thread.
+ * <li>Decoded updates go into a bounded ring; when it is full the oldest
+ * update is dropped, since a newer one for the same bus is usually behind it.
+ * <li>{@link #drain} is called once per frame and applies everything queued
+ * as one batch. Updates are last-writer-wins by timestamp per vehicle, so
+ * duplicates and out-of-order updates never move a bus backwards.
+ * </ul>
+ *
+ * Queue storage is primitive arrays, so steady-state ingestion allocates only
+ * what the source needs to read a line.
+ */
+public final class PositionPipeline {
+
+    public interface Listener {
+        // Once per drain for each vehicle whose state changed; receivedNanos is when its update was decoded
+        void onVehicleUpdated(int vehicle, long timestamp, long receivedNanos);
+    }
+
+    public static final int UNKNOWN_VEHICLE = -1;
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private final ToIntFunction<String> vehicleIds;
+
+    // Ring buffer, guarded by this
+    private final int capacity;
+    private final int[] queueVehicle;
+    private final long[] queueTimestamp;
+    private final long[] queueReceived;
+    private final double[] queueLat;
+    private final double[] queueLng;
+    private final float[] queueSpeed;
+    private final float[] queueHeading;
+    private int head;
+    private int count;
+    private int rewinds;
+
+    // Drain-side copies of the ring, only touched by the draining thread
+    private final int[] batchVehicle;
+    private final long[] batchTimestamp;
+    private final long[] batchReceived;
+    private final double[] batchLat;
+    private final double[] batchLng;
+    private final float[] batchSpeed;
+    private final float[] batchHeading;
+    private long[] lastTimestamp = new long[0];
+    private long[] lastReceived = new long[0];
+    private int[] touchedGeneration = new int[0];
+    private int[] touched;
+    private int generation;
+    private int rewindsSeen;
+
+    // Guarded by this
+    private long received;
+    private long dropped;
+    private long unknown;
+    // Drain thread only
+    private long superseded;
+    private long applied;
+    private long batches;
+
+    private PositionSource source;
+    private Thread thread;
+    private volatile IOException failure;
+
+    /**
+     * @param vehicleIds maps a source vehicle id to its store index, or
+     *                   {@link #UNKNOWN_VEHICLE}; called on the ingest thread
+     */
+    public PositionPipeline(int capacity, ToIntFunction<String> vehicleIds) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.vehicleIds = vehicleIds;
+        queueVehicle = new int[capacity];
+        queueTimestamp = new long[capacity];
+        queueReceived = new long[capacity];
+        queueLat = new double[capacity];
+        queueLng = new double[capacity];
+        queueSpeed = new float[capacity];
+        queueHeading = new float[capacity];
+        batchVehicle = new int[capacity];
+        batchTimestamp = new long[capacity];
+        batchReceived = new long[capacity];
+        batchLat = new double[capacity];
+        batchLng = new double[capacity];
+        batchSpeed = new float[capacity];
+        batchHeading = new float[capacity];
+        touched = new int[Math.min(capacity, 1024)];
+    }
+
+    // Can be started again after stop(), with a new source; queued updates are kept
+    public synchronized void start(PositionSource source) {
+        if (this.source != null) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        this.source = source;
+        failure = null;
+        PositionSource.Sink sink = new PositionSource.Sink() {
+            @Override
+            public void accept(String vehicleId, long timestamp, double lat, double lng, float speed, float heading) {
+                offer(vehicleId, timestamp, lat, lng, speed, heading);
+            }
+
+            @Override
+            public void rewind() {
+                PositionPipeline.this.rewind();
+            }
+        };
+        thread = new Thread(() -> {
+            try {
+                source.run(sink);
+            } catch (IOException e) {
+                // Closing the source in stop() also lands here; that is not a failure
+                synchronized (this) {
+                    if (this.source == source) {
+                        failure = e;
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                // A sink that could not write; report it rather than kill the thread
+                synchronized (this) {
+                    if (this.source == source) {
+                        failure = e.getCause();
+                    }
+                }
+            }
+        }, "position-ingest");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        PositionSource current;
+        synchronized (this) {
+            current = source;
+            source = null;
+        }
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+                // Already stopping
+            }
+        }
+    }
+
+    // True while the source thread is still reading
+    public synchronized boolean isRunning() {
+        return thread != null && thread.isAlive();
+    }
+
+    // The error that ended the source, if any
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Queues one update; public so a source can also be pushed to directly.
+     */
+    public void offer(String vehicleId, long timestamp, double lat, double lng, float speed, float heading) {
+        int vehicle = vehicleIds.applyAsInt(vehicleId);
+        long now = System.nanoTime();
+        synchronized (this) {
+            received++;
+            if (vehicle < 0) {
+                unknown++;
+                return;
+            }
+            if (count == capacity) {
+                head = head + 1 == capacity ? 0 : head + 1;
+                count--;
+                dropped++;
+            }
+            int slot = head + count;
+            if (slot >= capacity) slot -= capacity;
+            queueVehicle[slot] = vehicle;
+            queueTimestamp[slot] = timestamp;
+            queueReceived[slot] = now;
+            queueLat[slot] = lat;
+            queueLng[slot] = lng;
+            queueSpeed[slot] = speed;
+            queueHeading[slot] = heading;
+            count++;
+        }
+    }
+
+    /**
+     * Applies every queued update to the store and reports each changed
+     * vehicle once. Must always be called from the same thread, and that
+     * thread must own the store. Updates for vehicles beyond the store size
+     * are discarded. Returns the number of vehicles updated.
+     */
+    public int drain(VehicleStateStore store, Listener listener) {
+        int n;
+        boolean rewound;
+        synchronized (this) {
+            n = count;
+            int first = Math.min(n, capacity - head);
+            copyOut(head, 0, first);
+            copyOut(0, first, n - first);
+            head = 0;
+            count = 0;
+            rewound = rewinds != rewindsSeen;
+            rewindsSeen = rewinds;
+        }
+        if (rewound) {
+            Arrays.fill(lastTimestamp, Long.MIN_VALUE);
+        }
+        if (n == 0) return 0;
+        batches++;
+
+        ensureVehicles(store.size());
+        int gen = ++generation;
+        int touchedCount = 0;
+        for (int i = 0; i < n; i++) {
+            int v = batchVehicle[i];
+            if (v >= store.size() || batchTimestamp[i] <= lastTimestamp[v]) {
+                superseded++;
+                continue;
+            }
+            lastTimestamp[v] = batchTimestamp[i];
+            lastReceived[v] = batchReceived[i];
+            store.setPosition(v, batchLat[i], batchLng[i]);
+            store.setSpeed(v, batchSpeed[i]);
+            store.setHeading(v, batchHeading[i]);
+            if (touchedGeneration[v] != gen) {
+                touchedGeneration[v] = gen;
+                if (touchedCount == touched.length) {
+                    touched = Arrays.copyOf(touched, touchedCount * 2);
+                }
+                touched[touchedCount++] = v;
+            } else {
+                // An older update in this batch was overwritten
+                superseded++;
+            }
+        }
+        applied += touchedCount;
+
+        if (listener != null) {
+            for (int i = 0; i < touchedCount; i++) {
+                int v = touched[i];
+                listener.onVehicleUpdated(v, lastTimestamp[v], lastReceived[v]);
+            }
+        }
+        return touchedCount;
+    }
+
+    /**
+     * Discards queued updates and forgets the newest timestamp seen per
+     * vehicle, for a source that jumps back in time such as a replay being
+     * scrubbed. Updates offered after this are kept. Safe from any thread;
+     * a started source calls it through its sink before the first update
+     * from the new position, and the next drain forgets the timestamps.
+     */
+    public synchronized void rewind() {
+        head = 0;
+        count = 0;
+        rewinds++;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized int getQueued() {
+        return count;
+    }
+
+    // Drain-side counters are exact only when read from the draining thread
+    public String stats() {
+        long receivedNow;
+        long droppedNow;
+        long unknownNow;
+        synchronized (this) {
+            receivedNow = received;
+            droppedNow = dropped;
+            unknownNow = unknown;
+        }
+        return String.format(Locale.US,
+                "received=%d dropped=%d unknown=%d superseded=%d applied=%d batches=%d",
+                receivedNow, droppedNow, unknownNow, superseded, applied, batches);
+    }
+
+    private void copyOut(int from, int to, int length) {
+        if (length <= 0) return;
+        System.arraycopy(queueVehicle, from, batchVehicle, to, length);
+        System.arraycopy(queueTimestamp, from, batchTimestamp, to, length);
+        System.arraycopy(queueReceived, from, batchReceived, to, length);
+        System.arraycopy(queueLat, from, batchLat, to, length);
+        System.arraycopy(queueLng, from, batchLng, to, length);
+        System.arraycopy(queueSpeed, from, batchSpeed, to, length);
+        System.arraycopy(queueHeading, from, batchHeading, to, length);
+    }
+
+    private void ensureVehicles(int size) {
+        if (size <= lastTimestamp.length) return;
+        int oldSize = lastTimestamp.length;
+        int newSize = Math.max(size, oldSize * 2);
+        lastTimestamp = Arrays.copyOf(lastTimestamp, newSize);
+        Arrays.fill(lastTimestamp, oldSize, newSize, Long.MIN_VALUE);
+        lastReceived = Arrays.copyOf(lastReceived, newSize);
+        touchedGeneration = Arrays.copyOf(touchedGeneration, newSize);
+    }
+}
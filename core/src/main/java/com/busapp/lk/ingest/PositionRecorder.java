@@ -0,0 +1,323 @@
+package com.busapp.lk.ingest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records a position stream to a compact file that {@link ReplaySource}
+ * plays back. Use it as the sink of any source, or call {@link #accept}
+ * directly.
+ *
+ * <p>Updates are written in blocks of about 64 KB, and a block can be
+ * decoded without the blocks before it. Each record is varint coded:
+ * <ul>
+ * <li>the vehicle as an index into the id table;
+ * <li>the timestamp as a delta from the previous record;
+ * <li>lat/lng in microdegrees, as a delta from the vehicle's previous fix in
+ * the same block;
+ * <li>speed and heading in tenths.
+ * </ul>
+ * A fix takes 11 to 15 bytes, against about 45 as a text line. The id
+ * table and a block index go in a footer written by {@link #close}, so a
+ * recording is only playable once it has been closed. Updates that arrive
+ * after {@link #close} are ignored, so a feed thread can still be
+ * delivering while another thread closes it.
+ *
+ * <p>Through {@link #recording} a failed write (a full disk, say) stops the
+ * recording but not the feed; see {@link #getFailure}.
+ */
+public final class PositionRecorder implements PositionSource.Sink, Closeable {
+
+    static final int MAGIC = 0x42555352; // "BUSR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 8;
+    // byteLength, count, firstTimestamp
+    static final int BLOCK_HEADER_BYTES = 16;
+    static final int BLOCK_BYTES = 64 * 1024;
+    // Worst case of the six varints of one record
+    static final int MAX_RECORD_BYTES = 5 + 10 + 5 + 5 + 5 + 5;
+    static final double DEGREE_UNITS = 1e6;
+
+    private final FileChannel channel;
+    private final ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_BYTES + BLOCK_BYTES + MAX_RECORD_BYTES);
+    private final Map<String, Integer> vehicleIds = new HashMap<>();
+    private String[] ids = new String[64];
+
+    // Per-vehicle previous fix; stale once blockOf differs from the current block
+    private int[] blockOf = new int[64];
+    private int[] lastLat = new int[64];
+    private int[] lastLng = new int[64];
+
+    private long offset = HEADER_BYTES;
+    private int blocks;
+    private long[] blockOffsets = new long[64];
+    private long[] blockFirst = new long[64];
+    private int blockCount;
+    private long lastTimestamp;
+    private long firstTimestamp = Long.MAX_VALUE;
+    private long maxTimestamp = Long.MIN_VALUE;
+    private long records;
+    private boolean closed;
+    private IOException failure;
+
+    private PositionRecorder(FileChannel channel) {
+        this.channel = channel;
+        Arrays.fill(blockOf, -1);
+    }
+
+    public static PositionRecorder create(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        return new PositionRecorder(channel);
+    }
+
+    /**
+     * Appends one update. Records should arrive roughly in time order;
+     * playback paces by timestamp and does not reorder.
+     *
+     * @throws UncheckedIOException if the file cannot be written
+     */
+    @Override
+    public synchronized void accept(String vehicleId, long timestamp, double lat, double lng,
+                                    float speed, float heading) {
+        if (closed) return;
+        try {
+            record(vehicleId, timestamp, lat, lng, speed, heading);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void record(String vehicleId, long timestamp, double lat, double lng, float speed, float heading)
+            throws IOException {
+        if (block.position() >= BLOCK_HEADER_BYTES + BLOCK_BYTES) {
+            writeBlock();
+        }
+        if (block.position() == 0) {
+            startBlock(timestamp);
+        }
+        int vehicle = vehicleIndex(vehicleId);
+        int latUnits = (int) Math.round(lat * DEGREE_UNITS);
+        int lngUnits = (int) Math.round(lng * DEGREE_UNITS);
+        boolean seen = blockOf[vehicle] == blocks;
+
+        putVarint(block, vehicle);
+        putVarlong(block, zigzag(timestamp - lastTimestamp));
+        putVarint(block, zigzag(seen ? latUnits - lastLat[vehicle] : latUnits));
+        putVarint(block, zigzag(seen ? lngUnits - lastLng[vehicle] : lngUnits));
+        putVarint(block, Math.max(0, Math.round(speed * 10)));
+        putVarint(block, Math.round(((heading % 360) + 360) % 360 * 10));
+
+        blockOf[vehicle] = blocks;
+        lastLat[vehicle] = latUnits;
+        lastLng[vehicle] = lngUnits;
+        lastTimestamp = timestamp;
+        firstTimestamp = Math.min(firstTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        block.putInt(4, block.getInt(4) + 1);
+        records++;
+    }
+
+    // Records unless an earlier write failed; the first failure stops the recording
+    private synchronized void recordUnlessFailed(String vehicleId, long timestamp, double lat, double lng,
+                                                 float speed, float heading) {
+        if (closed || failure != null) return;
+        try {
+            record(vehicleId, timestamp, lat, lng, speed, heading);
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    /**
+     * Wraps a source so every update it delivers is recorded first. Closing
+     * the returned source closes both, which finishes the recording. If the
+     * file cannot be written the recording stops and updates keep flowing.
+     */
+    public PositionSource recording(PositionSource source) {
+        PositionRecorder recorder = this;
+        return new PositionSource() {
+            @Override
+            public void run(Sink sink) throws IOException {
+                source.run(new Sink() {
+                    @Override
+                    public void accept(String vehicleId, long timestamp, double lat, double lng,
+                                       float speed, float heading) {
+                        recorder.recordUnlessFailed(vehicleId, timestamp, lat, lng, speed, heading);
+                        sink.accept(vehicleId, timestamp, lat, lng, speed, heading);
+                    }
+
+                    @Override
+                    public void rewind() {
+                        sink.rewind();
+                    }
+                });
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    source.close();
+                } finally {
+                    recorder.close();
+                }
+            }
+        };
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    // Bytes written so far, not counting the unfinished block
+    public synchronized long getBytes() {
+        return offset;
+    }
+
+    // The write that stopped a recording() wrapper, or null
+    public synchronized IOException getFailure() {
+        return failure;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            // A recording cut short has lost records; leave it unplayable rather than finish it
+            if (failure != null) return;
+            if (block.position() > 0) {
+                writeBlock();
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream footer = new DataOutputStream(bytes);
+            footer.writeLong(records);
+            footer.writeLong(records == 0 ? 0 : firstTimestamp);
+            footer.writeLong(records == 0 ? 0 : maxTimestamp);
+            footer.writeInt(vehicleIds.size());
+            for (int i = 0; i < vehicleIds.size(); i++) {
+                footer.writeUTF(ids[i]);
+            }
+            footer.writeInt(blockCount);
+            for (int i = 0; i < blockCount; i++) {
+                footer.writeLong(blockOffsets[i]);
+                footer.writeLong(blockFirst[i]);
+            }
+            footer.writeLong(offset);
+            ByteBuffer out = ByteBuffer.wrap(bytes.toByteArray());
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void startBlock(long timestamp) {
+        block.clear();
+        block.putInt(0).putInt(0).putLong(timestamp);
+        lastTimestamp = timestamp;
+        if (blockCount == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+            blockFirst = Arrays.copyOf(blockFirst, blockCount * 2);
+        }
+        blockOffsets[blockCount] = offset;
+        blockFirst[blockCount] = timestamp;
+        blockCount++;
+    }
+
+    private void writeBlock() throws IOException {
+        int length = block.position();
+        block.putInt(0, length - BLOCK_HEADER_BYTES);
+        block.flip();
+        while (block.hasRemaining()) {
+            channel.write(block);
+        }
+        offset += length;
+        blocks++;
+        block.clear();
+    }
+
+    private int vehicleIndex(String vehicleId) {
+        Integer known = vehicleIds.get(vehicleId);
+        if (known != null) return known;
+        int index = vehicleIds.size();
+        vehicleIds.put(vehicleId, index);
+        if (index == ids.length) {
+            ids = Arrays.copyOf(ids, index * 2);
+            int oldSize = blockOf.length;
+            blockOf = Arrays.copyOf(blockOf, index * 2);
+            Arrays.fill(blockOf, oldSize, blockOf.length, -1);
+            lastLat = Arrays.copyOf(lastLat, index * 2);
+            lastLng = Arrays.copyOf(lastLng, index * 2);
+        }
+        ids[index] = vehicleId;
+        return index;
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static void putVarlong(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    static long getVarlong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.busapp.lk.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A stream of vehicle position updates, such as a live feed or a recorded
+ * replay. {@link #run} blocks on the calling thread until the stream ends or
+ * {@link #close} is called from another thread.
+ */
+public interface PositionSource extends Closeable {
+
+    interface Sink {
+        // timestamp is the source's event time; speed in km/h, heading in degrees from north
+        void accept(String vehicleId, long timestamp, double lat, double lng, float speed, float heading);
+
+        // The source jumped back in time, such as a replay being scrubbed; called before the first update after it
+        default void rewind() {
+        }
+    }
+
+    void run(Sink sink) throws IOException;
+}
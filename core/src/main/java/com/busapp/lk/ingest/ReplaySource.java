@@ -0,0 +1,399 @@
+package com.busapp.lk.ingest;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Plays a {@link PositionRecorder} file back as a live source, paced by the
+ * recorded timestamps at an adjustable speed. The file is streamed one block
+ * at a time, so a day of recording does not have to fit in memory.
+ *
+ * <p>The replay clock maps wall time to recorded time. {@link #setSpeed}
+ * and {@link #seek} move it from any thread and take effect on the next
+ * record. Consumers report what they have applied through
+ * {@link #recordApplied}; the gap between that and the replay clock is the
+ * lag of everything downstream, kept per speed.
+ *
+ * <p>Reaching the end of the recording does not end {@link #run}: it waits
+ * there for a seek back, so the replay can still be scrubbed, and returns
+ * only once the source is closed.
+ */
+public final class ReplaySource implements PositionSource {
+
+    private final FileChannel channel;
+    private final String[] vehicleIds;
+    private final long[] blockOffsets;
+    private final long[] blockFirst;
+    private final long blocksEnd;
+    private final long records;
+    private final long startTimestamp;
+    private final long endTimestamp;
+
+    // Replay clock, guarded by this
+    private double speed = 1;
+    private long anchorNanos;
+    private long anchorTimestamp;
+    private long seekTo = Long.MIN_VALUE;
+    private long lastSeek = Long.MIN_VALUE;
+    private int seekGeneration;
+    private boolean started;
+    private volatile boolean closed;
+    private final Map<Double, Lag> lagBySpeed = new TreeMap<>();
+
+    private ReplaySource(FileChannel channel, String[] vehicleIds, long[] blockOffsets, long[] blockFirst,
+                         long blocksEnd, long records, long startTimestamp, long endTimestamp) {
+        this.channel = channel;
+        this.vehicleIds = vehicleIds;
+        this.blockOffsets = blockOffsets;
+        this.blockFirst = blockFirst;
+        this.blocksEnd = blocksEnd;
+        this.records = records;
+        this.startTimestamp = startTimestamp;
+        this.endTimestamp = endTimestamp;
+        anchorTimestamp = startTimestamp;
+    }
+
+    public static ReplaySource open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(PositionRecorder.HEADER_BYTES);
+            readFully(channel, header, 0);
+            if (size < PositionRecorder.HEADER_BYTES + 8 || header.getInt(0) != PositionRecorder.MAGIC
+                    || header.getInt(4) != PositionRecorder.VERSION) {
+                throw new IOException("Not a position recording: " + file);
+            }
+            ByteBuffer tail = ByteBuffer.allocate(8);
+            readFully(channel, tail, size - 8);
+            long footerOffset = tail.getLong(0);
+            if (footerOffset < PositionRecorder.HEADER_BYTES || footerOffset > size - 8) {
+                throw new IOException("Recording was not closed: " + file);
+            }
+            ByteBuffer footerBytes = ByteBuffer.allocate((int) (size - footerOffset));
+            readFully(channel, footerBytes, footerOffset);
+            DataInputStream footer = new DataInputStream(new ByteArrayInputStream(footerBytes.array()));
+            long records = footer.readLong();
+            long start = footer.readLong();
+            long end = footer.readLong();
+            String[] ids = new String[footer.readInt()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = footer.readUTF();
+            }
+            int blocks = footer.readInt();
+            long[] offsets = new long[blocks];
+            long[] first = new long[blocks];
+            for (int i = 0; i < blocks; i++) {
+                offsets[i] = footer.readLong();
+                first[i] = footer.readLong();
+            }
+            return new ReplaySource(channel, ids, offsets, first, footerOffset, records, start, end);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Damaged recording: " + file, e);
+        }
+    }
+
+    public long getStartTimestamp() {
+        return startTimestamp;
+    }
+
+    public long getEndTimestamp() {
+        return endTimestamp;
+    }
+
+    public long getRecords() {
+        return records;
+    }
+
+    public int getVehicleCount() {
+        return vehicleIds.length;
+    }
+
+    public synchronized double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Sets the replay speed, e.g. 1, 10 or 100 times real time. The replay
+     * continues from where it is now.
+     */
+    public synchronized void setSpeed(double multiplier) {
+        if (!(multiplier > 0)) {
+            throw new IllegalArgumentException("speed must be positive: " + multiplier);
+        }
+        long now = System.nanoTime();
+        anchorTimestamp = replayTime(now);
+        anchorNanos = now;
+        speed = multiplier;
+        notifyAll();
+    }
+
+    /**
+     * Jumps to a recorded time, forwards or backwards. Records before it
+     * are skipped; the first one at or after it is delivered straight away.
+     */
+    public synchronized void seek(long timestamp) {
+        long target = Math.max(startTimestamp, Math.min(timestamp, endTimestamp));
+        anchorTimestamp = target;
+        anchorNanos = System.nanoTime();
+        seekTo = target;
+        lastSeek = target;
+        notifyAll();
+    }
+
+    /**
+     * Bumped each time the source thread carries out a seek, after the last
+     * record from before it was delivered. The sink's
+     * {@link PositionSource.Sink#rewind} is called on the source thread
+     * before the first record after it; consumers further downstream that
+     * keep per-vehicle state reset it when this changes.
+     */
+    public synchronized int getSeekGeneration() {
+        return seekGeneration;
+    }
+
+    // The recorded time the replay should be showing now
+    public synchronized long replayTime() {
+        return replayTime(System.nanoTime());
+    }
+
+    private long replayTime(long nanos) {
+        if (!started) return anchorTimestamp;
+        long time = anchorTimestamp + (long) ((nanos - anchorNanos) / 1e6 * speed);
+        return Math.min(time, endTimestamp);
+    }
+
+    /**
+     * Reports that updates up to this recorded timestamp are now on screen.
+     * The lag is how much wall time ago the replay clock passed it.
+     */
+    public synchronized void recordApplied(long timestamp) {
+        long now = System.nanoTime();
+        // Anything ahead of the clock or before the last seek was in flight when the replay jumped
+        if (!started || timestamp < lastSeek || timestamp > replayTime(now)) return;
+        long due = anchorNanos + (long) ((timestamp - anchorTimestamp) * 1e6 / speed);
+        lag(speed).applied((now - due) / 1e6);
+    }
+
+    // Wall millis the newest applied update trails the replay clock by, at the current speed
+    public synchronized double getLastLagMillis() {
+        Lag lag = lagBySpeed.get(speed);
+        return lag == null ? 0 : lag.last;
+    }
+
+    public synchronized String lagSummary() {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<Double, Lag> entry : lagBySpeed.entrySet()) {
+            if (out.length() > 0) out.append("; ");
+            double multiplier = entry.getKey();
+            out.append(multiplier == Math.rint(multiplier)
+                    ? String.format(Locale.US, "%dx: ", (long) multiplier)
+                    : String.format(Locale.US, "%.1fx: ", multiplier)).append(entry.getValue());
+        }
+        return out.toString();
+    }
+
+    private Lag lag(double atSpeed) {
+        Lag lag = lagBySpeed.get(atSpeed);
+        if (lag == null) {
+            lag = new Lag();
+            lagBySpeed.put(atSpeed, lag);
+        }
+        return lag;
+    }
+
+    @Override
+    public void run(Sink sink) throws IOException {
+        ByteBuffer block = ByteBuffer.allocate(PositionRecorder.BLOCK_HEADER_BYTES
+                + PositionRecorder.BLOCK_BYTES + PositionRecorder.MAX_RECORD_BYTES);
+        // Each read of a block is a new pass, so a block read again after a seek starts from absolute fixes
+        int[] blockOf = new int[vehicleIds.length];
+        int[] lastLat = new int[vehicleIds.length];
+        int[] lastLng = new int[vehicleIds.length];
+        Arrays.fill(blockOf, -1);
+        long skipBefore;
+        int next;
+        int pass = 0;
+        synchronized (this) {
+            started = true;
+            anchorNanos = System.nanoTime();
+            skipBefore = seekTo;
+            next = skipBefore == Long.MIN_VALUE ? 0 : blockFor(skipBefore);
+            seekTo = Long.MIN_VALUE;
+        }
+
+        try {
+            while (!closed) {
+                if (next == blockOffsets.length) {
+                    // Played to the end; the replay stays on screen and can be scrubbed back
+                    long target = awaitSeek();
+                    if (target == Long.MIN_VALUE) return;
+                    skipBefore = target;
+                    next = blockFor(target);
+                    sink.rewind();
+                    continue;
+                }
+                int current = next++;
+                pass++;
+                long end = next < blockOffsets.length ? blockOffsets[next] : blocksEnd;
+                block.clear();
+                block.limit((int) (end - blockOffsets[current]));
+                readFully(channel, block, blockOffsets[current]);
+                int count = block.getInt(4);
+                long timestamp = block.getLong(8);
+                block.position(PositionRecorder.BLOCK_HEADER_BYTES);
+
+                for (int i = 0; i < count; i++) {
+                    int vehicle = PositionRecorder.getVarint(block);
+                    timestamp += PositionRecorder.unzigzag(PositionRecorder.getVarlong(block));
+                    int latDelta = PositionRecorder.unzigzag(PositionRecorder.getVarint(block));
+                    int lngDelta = PositionRecorder.unzigzag(PositionRecorder.getVarint(block));
+                    float kmh = PositionRecorder.getVarint(block) / 10f;
+                    float heading = PositionRecorder.getVarint(block) / 10f;
+                    boolean seen = blockOf[vehicle] == pass;
+                    int lat = seen ? lastLat[vehicle] + latDelta : latDelta;
+                    int lng = seen ? lastLng[vehicle] + lngDelta : lngDelta;
+                    blockOf[vehicle] = pass;
+                    lastLat[vehicle] = lat;
+                    lastLng[vehicle] = lng;
+                    if (timestamp < skipBefore) continue;
+
+                    long target = awaitDue(timestamp);
+                    if (target != Long.MIN_VALUE) {
+                        skipBefore = target;
+                        next = blockFor(target);
+                        sink.rewind();
+                        break;
+                    }
+                    if (closed) return;
+                    sink.accept(vehicleIds[vehicle], timestamp, lat / PositionRecorder.DEGREE_UNITS,
+                            lng / PositionRecorder.DEGREE_UNITS, kmh, heading);
+                }
+            }
+        } catch (IOException e) {
+            // Closing the channel from another thread is a normal way to stop
+            if (!closed) throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until the replay clock reaches the timestamp. Returns the time
+     * to seek to if a seek came in meanwhile, else Long.MIN_VALUE.
+     */
+    private synchronized long awaitDue(long timestamp) throws InterruptedException {
+        while (!closed) {
+            if (seekTo != Long.MIN_VALUE) {
+                long target = seekTo;
+                seekTo = Long.MIN_VALUE;
+                seekGeneration++;
+                return target;
+            }
+            long due = anchorNanos + (long) ((timestamp - anchorTimestamp) * 1e6 / speed);
+            long wait = due - System.nanoTime();
+            if (wait <= 0) {
+                lag(speed).emitted(-wait / 1e6);
+                return Long.MIN_VALUE;
+            }
+            // Short waits are rounded up to 1 ms, which is below a frame at any speed
+            wait(Math.max(1, wait / 1_000_000));
+        }
+        return Long.MIN_VALUE;
+    }
+
+    // Waits for a seek and returns its time, or Long.MIN_VALUE once closed
+    private synchronized long awaitSeek() throws InterruptedException {
+        while (!closed) {
+            if (seekTo != Long.MIN_VALUE) {
+                long target = seekTo;
+                seekTo = Long.MIN_VALUE;
+                seekGeneration++;
+                return target;
+            }
+            wait();
+        }
+        return Long.MIN_VALUE;
+    }
+
+    // Last block starting at or before the timestamp
+    private int blockFor(long timestamp) {
+        int index = Arrays.binarySearch(blockFirst, timestamp);
+        index = Math.max(index < 0 ? -index - 2 : index, 0);
+        // Equal first timestamps can span blocks; start from the earliest
+        while (index > 0 && blockFirst[index - 1] == blockFirst[index]) {
+            index--;
+        }
+        return index;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        channel.close();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long at = position;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, at);
+            if (read < 0) throw new IOException("Unexpected end of recording");
+            at += read;
+        }
+        buffer.flip();
+    }
+
+    // Lag statistics at one replay speed; guarded by the source
+    private static final class Lag {
+        private static final double BUCKET_MILLIS = 5;
+        private static final int BUCKETS = 2000;
+
+        final long[] counts = new long[BUCKETS + 1];
+        long frames;
+        double sum;
+        double max;
+        double last;
+        double emittedMax;
+
+        void applied(double millis) {
+            last = millis;
+            counts[(int) Math.min(Math.max(millis, 0) / BUCKET_MILLIS, BUCKETS)]++;
+            frames++;
+            sum += millis;
+            max = Math.max(max, millis);
+        }
+
+        void emitted(double lateMillis) {
+            emittedMax = Math.max(emittedMax, lateMillis);
+        }
+
+        double percentile(double percentile) {
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * frames));
+            long seen = 0;
+            for (int i = 0; i <= BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) return i == BUCKETS ? max : (i + 1) * BUCKET_MILLIS;
+            }
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "frames=%d mean=%.1fms p95=%.0fms max=%.1fms sourceMax=%.1fms",
+                    frames, frames == 0 ? 0 : sum / frames, frames == 0 ? 0 : percentile(95), max, emittedMax);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.busapp.lk.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compacted, memory-mapped position history for one period of time.
+ * Records are grouped by vehicle and sorted by time, stored column by
+ * column behind a per-vehicle start index, so a range query is an index
+ * lookup plus two binary searches over the mapped timestamps. Nothing is
+ * read into the heap on open. Each column is mapped on its own, so a file
+ * can hold up to {@link #MAX_RECORDS}.
+ *
+ * <p>The header records the newest journal generation folded in, so on
+ * recovery only records from later segments are replayed into this period.
+ * Immutable once written.
+ */
+final class HistoryFile {
+
+    static final String PREFIX = "history-";
+    static final String SUFFIX = ".dat";
+    // Widest column, timestamps or doubles, within one mapping
+    static final int MAX_RECORDS = Integer.MAX_VALUE / 8;
+
+    private static final int MAGIC = 0x42555348; // "BUSH"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    // Maps a region of the file, or of a heap buffer for an empty history
+    private interface Region {
+        ByteBuffer map(long offset, long length) throws IOException;
+    }
+
+    private final long period;
+    private final long coveredGeneration;
+    private final int vehicles;
+    private final int records;
+    private final IntBuffer starts;
+    private final LongBuffer timestamps;
+    private final DoubleBuffer lat;
+    private final DoubleBuffer lng;
+    private final DoubleBuffer km;
+    private final FloatBuffer speed;
+    private final FloatBuffer heading;
+
+    private HistoryFile(long period, long coveredGeneration, int vehicles, int records, Region region)
+            throws IOException {
+        this.period = period;
+        this.coveredGeneration = coveredGeneration;
+        this.vehicles = vehicles;
+        this.records = records;
+        long offset = HEADER_BYTES;
+        starts = region.map(offset, (vehicles + 1) * 4L).asIntBuffer();
+        offset = align8(offset + (vehicles + 1) * 4L);
+        timestamps = region.map(offset, records * 8L).asLongBuffer();
+        offset += records * 8L;
+        lat = region.map(offset, records * 8L).asDoubleBuffer();
+        offset += records * 8L;
+        lng = region.map(offset, records * 8L).asDoubleBuffer();
+        offset += records * 8L;
+        km = region.map(offset, records * 8L).asDoubleBuffer();
+        offset += records * 8L;
+        speed = region.map(offset, records * 4L).asFloatBuffer();
+        offset += records * 4L;
+        heading = region.map(offset, records * 4L).asFloatBuffer();
+    }
+
+    static HistoryFile empty(long period) {
+        try {
+            return new HistoryFile(period, -1, 0, 0, (offset, length) -> ByteBuffer.allocate((int) length));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    static File file(File dir, long period) {
+        return new File(dir, PREFIX + period + SUFFIX);
+    }
+
+    // -1 when the name is not a history file
+    static long periodOf(File file) {
+        String name = file.getName();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static HistoryFile open(File file) throws IOException {
+        long period = periodOf(file);
+        if (period < 0) throw new IOException("Not a history file: " + file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) throw new IOException("Truncated history " + file);
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a history file: " + file);
+            }
+            long covered = header.getLong(8);
+            int vehicles = header.getInt(16);
+            int records = header.getInt(20);
+            if (vehicles < 0 || records < 0 || size != sizeOf(vehicles, records)) {
+                throw new IOException("Damaged history " + file);
+            }
+            // Mappings stay valid once the channel is closed
+            return new HistoryFile(period, covered, vehicles, records,
+                    (offset, length) -> channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+        }
+    }
+
+    long getPeriod() {
+        return period;
+    }
+
+    long getCoveredGeneration() {
+        return coveredGeneration;
+    }
+
+    int getVehicles() {
+        return vehicles;
+    }
+
+    int getRecords() {
+        return records;
+    }
+
+    /**
+     * Appends the vehicle's records with {@code from <= timestamp < to} to
+     * {@code out}, in time order, and returns how many there were.
+     */
+    int query(int vehicle, long from, long to, PositionTrack out) {
+        if (vehicle >= vehicles) return 0;
+        int start = starts.get(vehicle);
+        int end = starts.get(vehicle + 1);
+        int first = lowerBound(start, end, from);
+        int last = lowerBound(first, end, to);
+        for (int i = first; i < last; i++) {
+            out.add(vehicle, timestamps.get(i), lat.get(i), lng.get(i), km.get(i), speed.get(i), heading.get(i));
+        }
+        return last - first;
+    }
+
+    boolean latest(int vehicle, PositionTrack out) {
+        if (vehicle >= vehicles) return false;
+        int end = starts.get(vehicle + 1);
+        if (end == starts.get(vehicle)) return false;
+        int i = end - 1;
+        out.add(vehicle, timestamps.get(i), lat.get(i), lng.get(i), km.get(i), speed.get(i), heading.get(i));
+        return true;
+    }
+
+    // Newest timestamp of any vehicle, or Long.MIN_VALUE when empty
+    long newestTimestamp() {
+        long newest = Long.MIN_VALUE;
+        for (int v = 0; v < vehicles; v++) {
+            int end = starts.get(v + 1);
+            if (end > starts.get(v)) newest = Math.max(newest, timestamps.get(end - 1));
+        }
+        return newest;
+    }
+
+    /**
+     * Merges this history with journal records of the same period (in any
+     * order) into a new file, written through a temporary file and renamed
+     * into place, and opens it. Only this period is rewritten.
+     */
+    HistoryFile mergeWith(PositionTrack journal, long coveredGeneration, File dir) throws IOException {
+        int n = journal.size();
+        int newVehicles = vehicles;
+        for (int i = 0; i < n; i++) {
+            newVehicles = Math.max(newVehicles, journal.vehicle(i) + 1);
+        }
+
+        // Counting sort of the journal by vehicle, then by time within each vehicle
+        int[] journalStart = new int[newVehicles + 1];
+        for (int i = 0; i < n; i++) {
+            journalStart[journal.vehicle(i) + 1]++;
+        }
+        for (int v = 0; v < newVehicles; v++) {
+            journalStart[v + 1] += journalStart[v];
+        }
+        int[] order = new int[n];
+        int[] fill = journalStart.clone();
+        for (int i = 0; i < n; i++) {
+            order[fill[journal.vehicle(i)]++] = i;
+        }
+        for (int v = 0; v < newVehicles; v++) {
+            sortByTime(order, journalStart[v], journalStart[v + 1], journal);
+        }
+
+        long total = (long) records + n;
+        if (total > MAX_RECORDS) {
+            throw new IOException("Too many records for one history period: " + total);
+        }
+        File file = file(dir, period);
+        File temp = new File(dir, file.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+             FileChannel channel = raf.getChannel()) {
+            raf.setLength(sizeOf(newVehicles, (int) total));
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, coveredGeneration)
+                    .putInt(16, newVehicles).putInt(20, (int) total);
+            header.force();
+            List<MappedByteBuffer> columns = new ArrayList<>(7);
+            HistoryFile out = new HistoryFile(period, coveredGeneration, newVehicles, (int) total,
+                    (offset, length) -> {
+                        MappedByteBuffer column = channel.map(FileChannel.MapMode.READ_WRITE, offset, length);
+                        columns.add(column);
+                        return column;
+                    });
+
+            int k = 0;
+            for (int v = 0; v < newVehicles; v++) {
+                out.starts.put(v, k);
+                int a = v < vehicles ? starts.get(v) : 0;
+                int aEnd = v < vehicles ? starts.get(v + 1) : 0;
+                int b = journalStart[v];
+                int bEnd = journalStart[v + 1];
+                while (a < aEnd || b < bEnd) {
+                    // Ties go to the older history so equal timestamps keep arrival order
+                    boolean fromHistory = b == bEnd
+                            || (a < aEnd && timestamps.get(a) <= journal.timestamp(order[b]));
+                    if (fromHistory) {
+                        out.put(k++, timestamps.get(a), lat.get(a), lng.get(a), km.get(a),
+                                speed.get(a), heading.get(a));
+                        a++;
+                    } else {
+                        int j = order[b++];
+                        out.put(k++, journal.timestamp(j), journal.lat(j), journal.lng(j), journal.km(j),
+                                journal.speed(j), journal.heading(j));
+                    }
+                }
+            }
+            out.starts.put(newVehicles, k);
+            for (MappedByteBuffer column : columns) {
+                column.force();
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+        return open(file);
+    }
+
+
+    private void put(int i, long time, double latitude, double longitude, double distanceKm,
+                     float kmh, float degrees) {
+        timestamps.put(i, time);
+        lat.put(i, latitude);
+        lng.put(i, longitude);
+        km.put(i, distanceKm);
+        speed.put(i, kmh);
+        heading.put(i, degrees);
+    }
+
+    // First index in [from, to) whose timestamp is >= time
+    private int lowerBound(int from, int to, long time) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (timestamps.get(mid) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // Stable insertion sort; journal records are nearly in time order already
+    private static void sortByTime(int[] order, int from, int to, PositionTrack journal) {
+        for (int i = from + 1; i < to; i++) {
+            int index = order[i];
+            long time = journal.timestamp(index);
+            int j = i - 1;
+            while (j >= from && journal.timestamp(order[j]) > time) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = index;
+        }
+    }
+
+    private static long sizeOf(int vehicles, int records) {
+        return align8(HEADER_BYTES + (vehicles + 1) * 4L) + records * (8L * 4 + 4 * 2);
+    }
+
+    private static long align8(long offset) {
+        return (offset + 7) & ~7L;
+    }
+}
@@ -0,0 +1,154 @@
+package com.busapp.lk.journal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * One append-only journal file. Records are written in batches, each with
+ * its record count and a CRC32 of its body, so replay can tell a batch
+ * that was cut short by a crash from a complete one and drop just the tail.
+ */
+final class JournalSegment {
+
+    static final String PREFIX = "journal-";
+    static final String SUFFIX = ".log";
+
+    private static final int MAGIC = 0x4255534C; // "BUSL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int BATCH_HEADER_BYTES = 8;
+    // vehicle, timestamp, lat, lng, km, speed, heading
+    static final int RECORD_BYTES = 4 + 8 + 8 + 8 + 8 + 4 + 4;
+
+    private final long generation;
+    private final FileChannel channel;
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(BATCH_HEADER_BYTES + 1024 * RECORD_BYTES);
+    private long bytes;
+
+    private JournalSegment(long generation, FileChannel channel, long bytes) {
+        this.generation = generation;
+        this.channel = channel;
+        this.bytes = bytes;
+    }
+
+    static File file(File dir, long generation) {
+        return new File(dir, PREFIX + generation + SUFFIX);
+    }
+
+    // -1 when the name is not a journal segment
+    static long generationOf(File file) {
+        String name = file.getName();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static JournalSegment create(File dir, long generation) throws IOException {
+        FileChannel channel = FileChannel.open(file(dir, generation).toPath(),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(generation).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        return new JournalSegment(generation, channel, HEADER_BYTES);
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    boolean isEmpty() {
+        return bytes == HEADER_BYTES;
+    }
+
+    void append(PositionTrack batch) throws IOException {
+        int count = batch.size();
+        int needed = BATCH_HEADER_BYTES + count * RECORD_BYTES;
+        if (buffer.capacity() < needed) {
+            buffer = ByteBuffer.allocate(Math.max(needed, buffer.capacity() * 2));
+        }
+        buffer.clear();
+        buffer.position(BATCH_HEADER_BYTES);
+        for (int i = 0; i < count; i++) {
+            buffer.putInt(batch.vehicle(i))
+                    .putLong(batch.timestamp(i))
+                    .putDouble(batch.lat(i))
+                    .putDouble(batch.lng(i))
+                    .putDouble(batch.km(i))
+                    .putFloat(batch.speed(i))
+                    .putFloat(batch.heading(i));
+        }
+        crc.reset();
+        crc.update(buffer.array(), BATCH_HEADER_BYTES, count * RECORD_BYTES);
+        buffer.putInt(0, count);
+        buffer.putInt(4, (int) crc.getValue());
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        bytes += needed;
+    }
+
+    // Batched fsync: the caller decides how often
+    void sync() throws IOException {
+        channel.force(false);
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Appends every intact record of a segment to {@code out} and cuts the
+     * file after the last intact batch. Returns the number of records read,
+     * or -1 if the file is not a segment at all.
+     */
+    static int replay(File file, PositionTrack out) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) return -1;
+            ByteBuffer all = ByteBuffer.allocate((int) size);
+            // Segments are bounded by compaction, so reading one whole is fine
+            while (all.hasRemaining()) {
+                if (channel.read(all) < 0) break;
+            }
+            all.flip();
+            if (all.getInt() != MAGIC || all.getInt() != VERSION) return -1;
+            all.getLong();
+
+            CRC32 check = new CRC32();
+            int records = 0;
+            long good = HEADER_BYTES;
+            while (all.remaining() >= BATCH_HEADER_BYTES) {
+                int count = all.getInt();
+                int expected = all.getInt();
+                long body = (long) count * RECORD_BYTES;
+                if (count <= 0 || body > all.remaining()) break;
+                check.reset();
+                check.update(all.array(), all.position(), (int) body);
+                if ((int) check.getValue() != expected) break;
+                for (int i = 0; i < count; i++) {
+                    out.add(all.getInt(), all.getLong(), all.getDouble(), all.getDouble(),
+                            all.getDouble(), all.getFloat(), all.getFloat());
+                }
+                records += count;
+                good = all.position();
+            }
+            if (good < size) {
+                channel.truncate(good);
+                channel.force(false);
+            }
+            return records;
+        }
+    }
+}
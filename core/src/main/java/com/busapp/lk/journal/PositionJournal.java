@@ -0,0 +1,573 @@
+package com.busapp.lk.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Local store of vehicle position history.
+ *
+ * <ul>
+ * <li>{@link #append} only copies the fix into an in-memory buffer; a
+ * background writer appends buffered fixes to the current journal segment
+ * in batches and fsyncs at most once per sync interval.
+ * <li>Once enough fixes are on disk the writer rolls to a new segment and
+ * folds everything older into the history: one {@link HistoryFile} per
+ * period of time, sorted by vehicle and time and memory-mapped, so range
+ * queries binary search it in place.
+ * <li>A compaction only rewrites the periods its fixes fall in, normally
+ * just the current one, so its cost is bounded by the period length rather
+ * than growing with the history. Periods older than the retention window
+ * are deleted whole.
+ * <li>Fixes not yet folded in stay in memory as the tail and are scanned
+ * by queries alongside the history.
+ * </ul>
+ *
+ * Opening a journal reads only the segments written since the last
+ * compaction, so recovery time is bounded by the compaction threshold, not
+ * by how much history there is. A batch cut short by a crash is dropped on
+ * recovery. Thread safe.
+ */
+public final class PositionJournal implements Closeable {
+
+    public static final int DEFAULT_BUFFER_RECORDS = 16384;
+    public static final long DEFAULT_SYNC_MILLIS = 1000;
+    public static final int DEFAULT_COMPACT_RECORDS = 50_000;
+    public static final long DEFAULT_PERIOD_MILLIS = 60 * 60 * 1000;
+    public static final long DEFAULT_RETENTION_MILLIS = 24 * 60 * 60 * 1000;
+
+    // Written by versions that kept the whole history in one file
+    private static final String SINGLE_HISTORY_NAME = "history.dat";
+
+    private final File dir;
+    private final int bufferRecords;
+    private final long syncMillis;
+    private final int compactRecords;
+    private final long periodMillis;
+    private final long retentionMillis;
+
+    // Guarded by this
+    private PositionTrack pending;
+    private final PositionTrack tail = new PositionTrack(1024);
+    // By period, oldest first; replaced whole on compaction
+    private HistoryFile[] histories = new HistoryFile[0];
+    private long pendingSince;
+    private long requested;
+    private long completed;
+    private boolean compactRequested;
+    private boolean closing;
+    private long appended;
+    private long dropped;
+    private long batches;
+    private long syncs;
+    private long compactions;
+    private long compactNanos;
+    private long rewritten;
+    private IOException failure;
+
+    // Writer thread only
+    private PositionTrack batch;
+    private final PositionTrack folding = new PositionTrack(1024);
+    private final PositionTrack periodFolding = new PositionTrack(1024);
+    // Newest timestamp folded in, which the retention window counts back from
+    private long newestTimestamp = Long.MIN_VALUE;
+    private JournalSegment segment;
+    private final Thread writer;
+
+    private PositionJournal(File dir, int bufferRecords, long syncMillis, int compactRecords,
+                            long periodMillis, long retentionMillis) {
+        this.dir = dir;
+        this.bufferRecords = bufferRecords;
+        this.syncMillis = syncMillis;
+        this.compactRecords = compactRecords;
+        this.periodMillis = periodMillis;
+        this.retentionMillis = retentionMillis;
+        pending = new PositionTrack(Math.min(bufferRecords, 1024));
+        batch = new PositionTrack(Math.min(bufferRecords, 1024));
+        writer = new Thread(this::runWriter, "journal-writer");
+        writer.setDaemon(true);
+    }
+
+    public static PositionJournal open(File dir) throws IOException {
+        return open(dir, DEFAULT_BUFFER_RECORDS, DEFAULT_SYNC_MILLIS, DEFAULT_COMPACT_RECORDS);
+    }
+
+    public static PositionJournal open(File dir, int bufferRecords, long syncMillis, int compactRecords)
+            throws IOException {
+        return open(dir, bufferRecords, syncMillis, compactRecords, DEFAULT_PERIOD_MILLIS, DEFAULT_RETENTION_MILLIS);
+    }
+
+    /**
+     * @param bufferRecords   fixes buffered ahead of the writer; further
+     *                        appends are dropped until it catches up
+     * @param syncMillis      longest a fix waits before it is written and
+     *                        synced
+     * @param compactRecords  written fixes that trigger a compaction
+     * @param periodMillis    span of time kept in one history file; a
+     *                        compaction rewrites at most the periods its
+     *                        fixes fall in
+     * @param retentionMillis how far back from the newest fix history is
+     *                        kept, in whole periods
+     */
+    public static PositionJournal open(File dir, int bufferRecords, long syncMillis, int compactRecords,
+                                       long periodMillis, long retentionMillis) throws IOException {
+        if (bufferRecords <= 0 || syncMillis < 0 || compactRecords <= 0 || periodMillis <= 0
+                || retentionMillis < 0) {
+            throw new IllegalArgumentException("bufferRecords, compactRecords and periodMillis must be positive, "
+                    + "syncMillis and retentionMillis >= 0");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        PositionJournal journal = new PositionJournal(dir, bufferRecords, syncMillis, compactRecords,
+                periodMillis, retentionMillis);
+        journal.recover();
+        journal.writer.start();
+        return journal;
+    }
+
+    private void recover() throws IOException {
+        // Not carried over: splitting it could mean rewriting gigabytes before the app starts
+        new File(dir, SINGLE_HISTORY_NAME).delete();
+        File[] files = dir.listFiles();
+        if (files == null) files = new File[0];
+        HistoryFile[] found = new HistoryFile[files.length];
+        int periods = 0;
+        long[] generations = new long[files.length];
+        int count = 0;
+        long last = 0;
+        for (File file : files) {
+            if (file.getName().startsWith(HistoryFile.PREFIX) && file.getName().endsWith(".tmp")) {
+                // A compaction that did not finish; its segments are still there
+                file.delete();
+            } else if (HistoryFile.periodOf(file) >= 0) {
+                HistoryFile history = HistoryFile.open(file);
+                found[periods++] = history;
+                last = Math.max(last, history.getCoveredGeneration());
+                newestTimestamp = Math.max(newestTimestamp, history.newestTimestamp());
+            } else if (JournalSegment.generationOf(file) >= 0) {
+                generations[count++] = JournalSegment.generationOf(file);
+            }
+        }
+        histories = Arrays.copyOf(found, periods);
+        Arrays.sort(histories, (a, b) -> Long.compare(a.getPeriod(), b.getPeriod()));
+
+        // A crash during compaction can leave some periods with a segment folded in and others
+        // without, so each period skips only the segments it has already taken
+        Arrays.sort(generations, 0, count);
+        PositionTrack replayed = new PositionTrack(1024);
+        for (int i = 0; i < count; i++) {
+            long generation = generations[i];
+            File file = JournalSegment.file(dir, generation);
+            replayed.clear();
+            JournalSegment.replay(file, replayed);
+            int kept = 0;
+            for (int r = 0; r < replayed.size(); r++) {
+                HistoryFile history = history(periodOf(replayed.timestamp(r)));
+                if (history == null || generation > history.getCoveredGeneration()) {
+                    tail.add(replayed, r);
+                    kept++;
+                }
+            }
+            if (kept == 0 && generation <= last) {
+                // Already folded in everywhere; a crash stopped us deleting it
+                file.delete();
+            }
+            last = Math.max(last, generation);
+        }
+        segment = JournalSegment.create(dir, last + 1);
+    }
+
+    private long periodOf(long timestamp) {
+        return Math.floorDiv(timestamp, periodMillis);
+    }
+
+    // Caller holds the lock, or is recovering; null if the period has no file
+    private HistoryFile history(long period) {
+        int lo = 0;
+        int hi = histories.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long p = histories[mid].getPeriod();
+            if (p < period) {
+                lo = mid + 1;
+            } else if (p > period) {
+                hi = mid - 1;
+            } else {
+                return histories[mid];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records a fix. Never blocks on disk; returns false if the buffer is
+     * full or the journal is closed, in which case the fix is dropped.
+     *
+     * @param km distance along the vehicle's route
+     */
+    public synchronized boolean append(int vehicle, long timestamp, double lat, double lng, double km,
+                                       float speed, float heading) {
+        if (vehicle < 0) {
+            throw new IllegalArgumentException("vehicle must be >= 0: " + vehicle);
+        }
+        if (closing || pending.size() >= bufferRecords) {
+            dropped++;
+            return false;
+        }
+        if (pending.size() == 0) {
+            pendingSince = System.nanoTime();
+            notifyAll();
+        }
+        pending.add(vehicle, timestamp, lat, lng, km, speed, heading);
+        tail.add(vehicle, timestamp, lat, lng, km, speed, heading);
+        appended++;
+        if (pending.size() == bufferRecords / 2) {
+            notifyAll();
+        }
+        return true;
+    }
+
+    /**
+     * Positions of a vehicle with {@code from <= timestamp < to}, in time
+     * order. {@code out} is cleared first.
+     */
+    public synchronized void query(int vehicle, long from, long to, PositionTrack out) {
+        out.clear();
+        for (HistoryFile history : histories) {
+            long start = history.getPeriod() * periodMillis;
+            if (start < to && start + periodMillis > from) {
+                history.query(vehicle, from, to, out);
+            }
+        }
+        for (int i = 0, n = tail.size(); i < n; i++) {
+            if (tail.vehicle(i) == vehicle) {
+                long time = tail.timestamp(i);
+                if (time >= from && time < to) {
+                    out.add(tail, i);
+                }
+            }
+        }
+        out.sortByTime();
+    }
+
+    /**
+     * Replaces {@code out} with the newest fix of the vehicle and returns
+     * true, or returns false with {@code out} empty if it has none.
+     */
+    public synchronized boolean latest(int vehicle, PositionTrack out) {
+        out.clear();
+        historyLatest(vehicle, out);
+        for (int i = 0, n = tail.size(); i < n; i++) {
+            if (tail.vehicle(i) != vehicle) continue;
+            if (out.size() == 0) {
+                out.add(tail, i);
+            } else if (tail.timestamp(i) >= out.timestamp(0)) {
+                out.set(0, tail, i);
+            }
+        }
+        return out.size() > 0;
+    }
+
+    /**
+     * Replaces {@code out} with the newest fix of every vehicle that has
+     * one, in vehicle order: the last known state of the fleet.
+     */
+    public synchronized void snapshot(PositionTrack out) {
+        out.clear();
+        int vehicles = 0;
+        for (HistoryFile history : histories) {
+            vehicles = Math.max(vehicles, history.getVehicles());
+        }
+        for (int i = 0, n = tail.size(); i < n; i++) {
+            vehicles = Math.max(vehicles, tail.vehicle(i) + 1);
+        }
+        int[] newest = new int[vehicles];
+        Arrays.fill(newest, -1);
+        for (int i = 0, n = tail.size(); i < n; i++) {
+            int v = tail.vehicle(i);
+            if (newest[v] < 0 || tail.timestamp(i) >= tail.timestamp(newest[v])) {
+                newest[v] = i;
+            }
+        }
+        for (int v = 0; v < vehicles; v++) {
+            int i = newest[v];
+            if (historyLatest(v, out)) {
+                if (i >= 0 && tail.timestamp(i) >= out.timestamp(out.size() - 1)) {
+                    out.set(out.size() - 1, tail, i);
+                }
+            } else if (i >= 0) {
+                out.add(tail, i);
+            }
+        }
+    }
+
+    // Caller holds the lock. Appends the vehicle's newest fix in the history, if it has one.
+    private boolean historyLatest(int vehicle, PositionTrack out) {
+        for (int i = histories.length - 1; i >= 0; i--) {
+            if (histories[i].latest(vehicle, out)) return true;
+        }
+        return false;
+    }
+
+    // Waits until everything appended so far is written and synced
+    public void flush() throws IOException {
+        request(false);
+    }
+
+    // Writes and syncs everything appended so far, then compacts it into the history
+    public void compact() throws IOException {
+        request(true);
+    }
+
+    private synchronized void request(boolean compact) throws IOException {
+        long ticket = ++requested;
+        compactRequested |= compact;
+        notifyAll();
+        boolean interrupted = false;
+        while (completed < ticket && failure == null && writer.isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes what is buffered and stops the writer. Appends after this are
+     * dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closing = true;
+            notifyAll();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    private void runWriter() {
+        try {
+            boolean unsynced = false;
+            while (true) {
+                long ticket;
+                boolean compact;
+                boolean stop;
+                synchronized (this) {
+                    while (!closing && requested == completed && !batchDue()) {
+                        if (pending.size() == 0) {
+                            wait();
+                        } else {
+                            long left = syncMillis - (System.nanoTime() - pendingSince) / 1_000_000;
+                            if (left > 0) wait(left);
+                        }
+                    }
+                    PositionTrack swap = pending;
+                    pending = batch;
+                    batch = swap;
+                    ticket = requested;
+                    compact = compactRequested;
+                    compactRequested = false;
+                    stop = closing;
+                }
+
+                if (batch.size() > 0) {
+                    segment.append(batch);
+                    batch.clear();
+                    unsynced = true;
+                    synchronized (this) {
+                        batches++;
+                    }
+                }
+                if (unsynced) {
+                    segment.sync();
+                    unsynced = false;
+                    synchronized (this) {
+                        syncs++;
+                    }
+                }
+                if (compact || written() >= compactRecords) {
+                    compactSegments();
+                }
+                synchronized (this) {
+                    completed = ticket;
+                    notifyAll();
+                }
+                if (stop) break;
+            }
+            segment.close();
+            if (segment.isEmpty()) {
+                // Nothing was written since opening; don't leave a file per restart
+                JournalSegment.file(dir, segment.getGeneration()).delete();
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+                notifyAll();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Guarded by this
+    private boolean batchDue() {
+        int size = pending.size();
+        return size >= bufferRecords / 2
+                || (size > 0 && System.nanoTime() - pendingSince >= syncMillis * 1_000_000);
+    }
+
+    // Fixes at the front of the tail that are already in a segment
+    private synchronized int written() {
+        return tail.size() - pending.size();
+    }
+
+    /**
+     * Rolls to a new segment and folds every fix from the closed segments
+     * into the history files of their periods, then drops periods that have
+     * left the retention window. Appends keep going meanwhile; the lock is
+     * only held to copy the tail and to swap in the result.
+     */
+    private void compactSegments() throws IOException {
+        long start = System.nanoTime();
+        long covered = segment.getGeneration();
+        int n;
+        // Only this thread writes segments, so everything written now is in generations <= covered
+        synchronized (this) {
+            n = tail.size() - pending.size();
+            if (n == 0) return;
+            folding.clear();
+            for (int i = 0; i < n; i++) {
+                folding.add(tail, i);
+            }
+        }
+        segment.close();
+        segment = JournalSegment.create(dir, covered + 1);
+
+        for (int i = 0; i < n; i++) {
+            newestTimestamp = Math.max(newestTimestamp, folding.timestamp(i));
+        }
+        long oldestKept = periodOf(newestTimestamp - retentionMillis);
+        HistoryFile[] current = histories();
+        HistoryFile[] merged = new HistoryFile[0];
+        long records = 0;
+        // Fixes arrive nearly in time order, so this visits the few periods they span in turn
+        long done = Long.MIN_VALUE;
+        while (true) {
+            long period = Long.MAX_VALUE;
+            for (int i = 0; i < n; i++) {
+                long p = periodOf(folding.timestamp(i));
+                if (p > done && p < period) period = p;
+            }
+            if (period == Long.MAX_VALUE) break;
+            done = period;
+            if (period < oldestKept) continue;
+            periodFolding.clear();
+            for (int i = 0; i < n; i++) {
+                if (periodOf(folding.timestamp(i)) == period) periodFolding.add(folding, i);
+            }
+            HistoryFile old = find(current, period);
+            HistoryFile history = (old != null ? old : HistoryFile.empty(period))
+                    .mergeWith(periodFolding, covered, dir);
+            records += history.getRecords();
+            merged = Arrays.copyOf(merged, merged.length + 1);
+            merged[merged.length - 1] = history;
+        }
+        periodFolding.clear();
+
+        HistoryFile[] kept = new HistoryFile[current.length + merged.length];
+        int count = 0;
+        for (HistoryFile history : current) {
+            if (history.getPeriod() >= oldestKept && find(merged, history.getPeriod()) == null) {
+                kept[count++] = history;
+            }
+        }
+        for (HistoryFile history : merged) {
+            kept[count++] = history;
+        }
+        kept = Arrays.copyOf(kept, count);
+        Arrays.sort(kept, (a, b) -> Long.compare(a.getPeriod(), b.getPeriod()));
+        synchronized (this) {
+            histories = kept;
+            tail.removeFirst(n);
+            compactions++;
+            compactNanos += System.nanoTime() - start;
+            rewritten += records;
+        }
+        folding.clear();
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                long generation = JournalSegment.generationOf(file);
+                long period = HistoryFile.periodOf(file);
+                if ((generation >= 0 && generation <= covered) || (period >= 0 && period < oldestKept)) {
+                    file.delete();
+                }
+            }
+        }
+    }
+
+    private static HistoryFile find(HistoryFile[] histories, long period) {
+        for (HistoryFile history : histories) {
+            if (history.getPeriod() == period) return history;
+        }
+        return null;
+    }
+
+    private synchronized HistoryFile[] histories() {
+        return histories;
+    }
+
+    public synchronized int getTailSize() {
+        return tail.size();
+    }
+
+    public synchronized int getHistorySize() {
+        int records = 0;
+        for (HistoryFile history : histories) {
+            records += history.getRecords();
+        }
+        return records;
+    }
+
+    // Records written into history files by every compaction so far
+    public synchronized long getRewrittenRecords() {
+        return rewritten;
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized String stats() {
+        return String.format(Locale.US,
+                "appended=%d dropped=%d batches=%d syncs=%d compactions=%d (avg %.1fms, %d rewritten) "
+                        + "tail=%d history=%d in %d periods",
+                appended, dropped, batches, syncs, compactions,
+                compactions == 0 ? 0 : compactNanos / 1e6 / compactions, rewritten,
+                tail.size(), getHistorySize(), histories.length);
+    }
+}
@@ -0,0 +1,161 @@
+package com.busapp.lk.journal;
+
+import java.util.Arrays;
+
+/**
+ * Growable column store of position records, used both for query results
+ * and for the journal's own buffers. Reuse one across queries to avoid
+ * allocating.
+ */
+public final class PositionTrack {
+
+    private int[] vehicle;
+    private long[] timestamp;
+    private double[] lat;
+    private double[] lng;
+    private double[] km;
+    private float[] speed;
+    private float[] heading;
+    private int size;
+
+    public PositionTrack() {
+        this(64);
+    }
+
+    public PositionTrack(int initialCapacity) {
+        int capacity = Math.max(initialCapacity, 1);
+        vehicle = new int[capacity];
+        timestamp = new long[capacity];
+        lat = new double[capacity];
+        lng = new double[capacity];
+        km = new double[capacity];
+        speed = new float[capacity];
+        heading = new float[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int vehicle(int index) {
+        return vehicle[index];
+    }
+
+    // Epoch millis
+    public long timestamp(int index) {
+        return timestamp[index];
+    }
+
+    public double lat(int index) {
+        return lat[index];
+    }
+
+    public double lng(int index) {
+        return lng[index];
+    }
+
+    // km along the vehicle's route
+    public double km(int index) {
+        return km[index];
+    }
+
+    public float speed(int index) {
+        return speed[index];
+    }
+
+    public float heading(int index) {
+        return heading[index];
+    }
+
+    void add(int vehicleId, long time, double latitude, double longitude, double distanceKm,
+             float kmh, float degrees) {
+        if (size == timestamp.length) {
+            grow(size * 2);
+        }
+        vehicle[size] = vehicleId;
+        timestamp[size] = time;
+        lat[size] = latitude;
+        lng[size] = longitude;
+        km[size] = distanceKm;
+        speed[size] = kmh;
+        heading[size] = degrees;
+        size++;
+    }
+
+    void add(PositionTrack from, int index) {
+        add(from.vehicle[index], from.timestamp[index], from.lat[index], from.lng[index],
+                from.km[index], from.speed[index], from.heading[index]);
+    }
+
+    void set(int index, PositionTrack from, int fromIndex) {
+        vehicle[index] = from.vehicle[fromIndex];
+        timestamp[index] = from.timestamp[fromIndex];
+        lat[index] = from.lat[fromIndex];
+        lng[index] = from.lng[fromIndex];
+        km[index] = from.km[fromIndex];
+        speed[index] = from.speed[fromIndex];
+        heading[index] = from.heading[fromIndex];
+    }
+
+    // Drops the first n records, keeping the rest in order
+    void removeFirst(int n) {
+        int rest = size - n;
+        System.arraycopy(vehicle, n, vehicle, 0, rest);
+        System.arraycopy(timestamp, n, timestamp, 0, rest);
+        System.arraycopy(lat, n, lat, 0, rest);
+        System.arraycopy(lng, n, lng, 0, rest);
+        System.arraycopy(km, n, km, 0, rest);
+        System.arraycopy(speed, n, speed, 0, rest);
+        System.arraycopy(heading, n, heading, 0, rest);
+        size = rest;
+    }
+
+    /**
+     * Sorts by timestamp. Records arrive almost in order, so this is an
+     * insertion sort that is linear when nothing is out of place.
+     */
+    void sortByTime() {
+        for (int i = 1; i < size; i++) {
+            if (timestamp[i - 1] <= timestamp[i]) continue;
+            int v = vehicle[i];
+            long t = timestamp[i];
+            double la = lat[i];
+            double ln = lng[i];
+            double k = km[i];
+            float s = speed[i];
+            float h = heading[i];
+            int j = i - 1;
+            while (j >= 0 && timestamp[j] > t) {
+                vehicle[j + 1] = vehicle[j];
+                timestamp[j + 1] = timestamp[j];
+                lat[j + 1] = lat[j];
+                lng[j + 1] = lng[j];
+                km[j + 1] = km[j];
+                speed[j + 1] = speed[j];
+                heading[j + 1] = heading[j];
+                j--;
+            }
+            vehicle[j + 1] = v;
+            timestamp[j + 1] = t;
+            lat[j + 1] = la;
+            lng[j + 1] = ln;
+            km[j + 1] = k;
+            speed[j + 1] = s;
+            heading[j + 1] = h;
+        }
+    }
+
+    private void grow(int capacity) {
+        vehicle = Arrays.copyOf(vehicle, capacity);
+        timestamp = Arrays.copyOf(timestamp, capacity);
+        lat = Arrays.copyOf(lat, capacity);
+        lng = Arrays.copyOf(lng, capacity);
+        km = Arrays.copyOf(km, capacity);
+        speed = Arrays.copyOf(speed, capacity);
+        heading = Arrays.copyOf(heading, capacity);
+    }
+}
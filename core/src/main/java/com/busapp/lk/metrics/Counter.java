@@ -0,0 +1,43 @@
+package com.busapp.lk.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free event count from a {@link MetricsRegistry}. Increments are
+ * dropped while the registry is disabled.
+ */
+public final class Counter {
+
+    private final String name;
+    private final MetricsRegistry registry;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, MetricsRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        if (registry.enabled) {
+            count.increment();
+        }
+    }
+
+    public void add(long amount) {
+        if (registry.enabled) {
+            count.add(amount);
+        }
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    public void reset() {
+        count.reset();
+    }
+}
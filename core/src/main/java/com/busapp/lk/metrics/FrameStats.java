@@ -0,0 +1,90 @@
+package com.busapp.lk.metrics;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Frame interval statistics for a single render thread: p50/p95/p99 frame
+ * duration and an estimate of dropped frames. Durations are bucketed at
+ * 0.25 ms up to 250 ms so recording never allocates.
+ */
+public final class FrameStats {
+
+    private static final long BUCKET_NANOS = 250_000;
+    private static final int BUCKETS = 1000;
+
+    private final long expectedFrameNanos;
+    private final long[] counts = new long[BUCKETS + 1];
+    private long frames;
+    private long droppedFrames;
+    private long maxNanos;
+
+    public FrameStats(long expectedFrameNanos) {
+        if (expectedFrameNanos <= 0) {
+            throw new IllegalArgumentException("expectedFrameNanos must be positive");
+        }
+        this.expectedFrameNanos = expectedFrameNanos;
+    }
+
+    // 60 Hz display
+    public static FrameStats sixtyHz() {
+        return new FrameStats(16_666_667L);
+    }
+
+    public void record(long frameNanos) {
+        if (frameNanos < 0) return;
+        int bucket = (int) Math.min(frameNanos / BUCKET_NANOS, BUCKETS);
+        counts[bucket]++;
+        frames++;
+        if (frameNanos > maxNanos) {
+            maxNanos = frameNanos;
+        }
+        // A frame that took 2.4 vsync periods hid roughly one extra frame
+        long missed = (frameNanos + expectedFrameNanos / 2) / expectedFrameNanos - 1;
+        if (missed > 0) {
+            droppedFrames += missed;
+        }
+    }
+
+    public long getFrameCount() {
+        return frames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos / 1e6;
+    }
+
+    /**
+     * Upper bound of the bucket containing the given percentile (0-100), in ms.
+     */
+    public double percentileMillis(double percentile) {
+        if (frames == 0) return 0;
+        long rank = (long) Math.ceil(percentile / 100.0 * frames);
+        long seen = 0;
+        for (int i = 0; i <= BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= Math.max(rank, 1)) {
+                return i == BUCKETS ? getMaxMillis() : (i + 1) * BUCKET_NANOS / 1e6;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        frames = 0;
+        droppedFrames = 0;
+        maxNanos = 0;
+    }
+
+    public String summary() {
+        return String.format(Locale.US,
+                "frames=%d p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms dropped=%d",
+                frames, percentileMillis(50), percentileMillis(95), percentileMillis(99),
+                getMaxMillis(), droppedFrames);
+    }
+}
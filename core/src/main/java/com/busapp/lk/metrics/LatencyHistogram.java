@@ -0,0 +1,122 @@
+package com.busapp.lk.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram from a {@link MetricsRegistry}, bucketed the
+ * way HdrHistogram does it: each power of two is split into 32 linear
+ * sub-buckets, so any recorded value is known to within about 3% from 1 ns
+ * to {@link #MAX_NANOS}. Longer values count as the maximum.
+ *
+ * <p>Time a call with {@code long start = histogram.start(); ...;
+ * histogram.stop(start);}. While the registry is disabled {@link #start}
+ * does not read the clock and {@link #stop} returns at once, so
+ * instrumented code costs a field read and a branch.
+ */
+public final class LatencyHistogram {
+
+    // What start() returns while disabled
+    public static final long OFF = Long.MIN_VALUE;
+    // About 68.7 s
+    public static final long MAX_NANOS = (1L << 36) - 1;
+
+    private static final int SUB_BITS = 6;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int BUCKETS = bucketOf(MAX_NANOS) + 1;
+
+    private final String name;
+    private final MetricsRegistry registry;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram(String name, MetricsRegistry registry) {
+        this.name = name;
+        this.registry = registry;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long start() {
+        return registry.enabled ? System.nanoTime() : OFF;
+    }
+
+    public void stop(long start) {
+        if (start == OFF) return;
+        record(System.nanoTime() - start);
+    }
+
+    public void record(long nanos) {
+        if (!registry.enabled || nanos < 0) return;
+        long value = Math.min(nanos, MAX_NANOS);
+        counts.getAndIncrement(bucketOf(value));
+        count.increment();
+        totalNanos.add(value);
+        long max = maxNanos.get();
+        while (value > max && !maxNanos.compareAndSet(max, value)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    /**
+     * Upper bound of the bucket containing the given percentile (0-100), in
+     * ms. Concurrent recording can make it lag slightly behind the counts.
+     */
+    public double percentileMillis(double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxNanos.get()) / 1e6;
+            }
+        }
+        return getMaxMillis();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        totalNanos.reset();
+        maxNanos.set(0);
+    }
+
+    // Values below 2 * HALF map to themselves; above, the top SUB_BITS bits pick the bucket
+    static int bucketOf(long value) {
+        if (value < 2 * HALF) return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < 2 * HALF) return bucket;
+        int shift = bucket / HALF - 1;
+        long sub = bucket - (long) shift * HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,115 @@
+package com.busapp.lk.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Named counters and latency histograms for finding where time goes. Look
+ * metrics up once, when setting up, and keep the returned instances; the
+ * lookups lock, recording does not.
+ *
+ * <p>The registry starts disabled. One volatile flag gates every metric,
+ * so instrumentation can stay in place in release builds: while disabled
+ * nothing is recorded and no clock is read.
+ */
+public final class MetricsRegistry {
+
+    volatile boolean enabled;
+
+    // Guarded by this
+    private final List<Counter> counters = new ArrayList<>();
+    private final List<LatencyHistogram> histograms = new ArrayList<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public synchronized Counter counter(String name) {
+        for (Counter counter : counters) {
+            if (counter.getName().equals(name)) return counter;
+        }
+        Counter counter = new Counter(name, this);
+        counters.add(counter);
+        return counter;
+    }
+
+    public synchronized LatencyHistogram histogram(String name) {
+        for (LatencyHistogram histogram : histograms) {
+            if (histogram.getName().equals(name)) return histogram;
+        }
+        LatencyHistogram histogram = new LatencyHistogram(name, this);
+        histograms.add(histogram);
+        return histogram;
+    }
+
+    public synchronized void reset() {
+        for (Counter counter : counters) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * One line per metric in registration order, histograms first, e.g.
+     * {@code tick n=120 p50=0.42ms p99=1.90ms max=2.31ms mean=0.51ms}.
+     */
+    public synchronized String dumpText() {
+        StringBuilder out = new StringBuilder();
+        for (LatencyHistogram h : histograms) {
+            out.append(String.format(Locale.US, "%s n=%d p50=%.2fms p99=%.2fms max=%.2fms mean=%.2fms%n",
+                    h.getName(), h.getCount(), h.percentileMillis(50), h.percentileMillis(99),
+                    h.getMaxMillis(), h.getMeanMillis()));
+        }
+        for (Counter c : counters) {
+            out.append(c.getName()).append(' ').append(c.get()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * The same as {@link #dumpText} as a JSON object, with histograms under
+     * {@code "histograms"} and counters under {@code "counters"}, keyed by name.
+     */
+    public synchronized String dumpJson() {
+        StringBuilder out = new StringBuilder("{\"histograms\":{");
+        for (int i = 0; i < histograms.size(); i++) {
+            LatencyHistogram h = histograms.get(i);
+            if (i > 0) out.append(',');
+            appendName(out, h.getName());
+            out.append(String.format(Locale.US,
+                    "{\"count\":%d,\"p50Ms\":%.3f,\"p90Ms\":%.3f,\"p99Ms\":%.3f,\"maxMs\":%.3f,\"meanMs\":%.3f}",
+                    h.getCount(), h.percentileMillis(50), h.percentileMillis(90), h.percentileMillis(99),
+                    h.getMaxMillis(), h.getMeanMillis()));
+        }
+        out.append("},\"counters\":{");
+        for (int i = 0; i < counters.size(); i++) {
+            Counter c = counters.get(i);
+            if (i > 0) out.append(',');
+            appendName(out, c.getName());
+            out.append(c.get());
+        }
+        return out.append("}}").toString();
+    }
+
+    private static void appendName(StringBuilder out, String name) {
+        out.append('"');
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                out.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                out.append(String.format(Locale.US, "\\u%04x", (int) ch));
+            } else {
+                out.append(ch);
+            }
+        }
+        out.append("\":");
+    }
+}
@@ -0,0 +1,145 @@
+package com.busapp.lk.motion;
+
+import com.busapp.lk.route.RouteGeometry;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Dead reckoning along route geometry between sparse position fixes.
+ *
+ * <p>Each vehicle is tracked as a distance along its route. Between fixes
+ * the distance advances at the last reported speed, so a marker keeps moving
+ * and follows the road. When a fix arrives, the gap between where the bus
+ * was drawn and where it really is shrinks to zero over a short blend window
+ * instead of jumping. Gaps larger than {@link #snapKm} (a bus wrapping to the
+ * start of its route, or a wrong projection) are applied at once.
+ *
+ * <p>Extrapolation stops {@code maxExtrapolationNanos} after the last fix, so
+ * a bus whose feed went quiet does not drive on forever. Times are any
+ * monotonic nanosecond clock, as long as fixes and queries use the same one.
+ * Not thread safe.
+ */
+public final class MotionPredictor {
+
+    public static final long DEFAULT_BLEND_NANOS = 1_500_000_000L;
+    public static final long DEFAULT_MAX_EXTRAPOLATION_NANOS = 60_000_000_000L;
+    public static final double DEFAULT_SNAP_KM = 0.5;
+
+    // km/h to km per nanosecond
+    private static final double KMH_TO_KM_PER_NANO = 1.0 / 3.6e12;
+
+    private final long blendNanos;
+    private final long maxExtrapolationNanos;
+    private final double snapKm;
+
+    private RouteGeometry[] routes = new RouteGeometry[16];
+    private double[] fixKm = new double[16];
+    private long[] fixNanos = new long[16];
+    private float[] speedKmh = new float[16];
+    // Drawn minus actual distance at the moment of the last fix; decays to 0 over the blend
+    private double[] offsetKm = new double[16];
+
+    private long corrections;
+    private double correctionKmTotal;
+    private double maxCorrectionKm;
+
+    public MotionPredictor() {
+        this(DEFAULT_BLEND_NANOS, DEFAULT_MAX_EXTRAPOLATION_NANOS, DEFAULT_SNAP_KM);
+    }
+
+    public MotionPredictor(long blendNanos, long maxExtrapolationNanos, double snapKm) {
+        this.blendNanos = blendNanos;
+        this.maxExtrapolationNanos = maxExtrapolationNanos;
+        this.snapKm = snapKm;
+    }
+
+    /**
+     * Starts tracking a vehicle, or moves it to another route, with no blending.
+     */
+    public void place(int vehicle, RouteGeometry route, double km, float speed, long nanos) {
+        ensureCapacity(vehicle + 1);
+        routes[vehicle] = route;
+        fixKm[vehicle] = km;
+        fixNanos[vehicle] = nanos;
+        speedKmh[vehicle] = speed;
+        offsetKm[vehicle] = 0;
+    }
+
+    public boolean isTracked(int vehicle) {
+        return vehicle < routes.length && routes[vehicle] != null;
+    }
+
+    public RouteGeometry route(int vehicle) {
+        return routes[vehicle];
+    }
+
+    /**
+     * Records a fix and starts blending from the currently drawn position to it.
+     */
+    public void onFix(int vehicle, double km, float speed, long nanos) {
+        if (!isTracked(vehicle)) {
+            throw new IllegalArgumentException("Vehicle " + vehicle + " has not been placed");
+        }
+        double drawn = predictedKm(vehicle, nanos);
+        double gap = drawn - km;
+        double absGap = Math.abs(gap);
+        corrections++;
+        correctionKmTotal += absGap;
+        if (absGap > maxCorrectionKm) {
+            maxCorrectionKm = absGap;
+        }
+
+        fixKm[vehicle] = km;
+        fixNanos[vehicle] = nanos;
+        speedKmh[vehicle] = speed;
+        offsetKm[vehicle] = absGap > snapKm ? 0 : gap;
+    }
+
+    /**
+     * Distance along the route to draw the vehicle at, clamped to the route.
+     */
+    public double predictedKm(int vehicle, long nanos) {
+        long elapsed = nanos - fixNanos[vehicle];
+        if (elapsed < 0) elapsed = 0;
+        long moving = Math.min(elapsed, maxExtrapolationNanos);
+        double km = fixKm[vehicle] + speedKmh[vehicle] * KMH_TO_KM_PER_NANO * moving;
+
+        double offset = offsetKm[vehicle];
+        if (offset != 0 && elapsed < blendNanos) {
+            // Smoothstep so the correction eases in and out rather than changing speed abruptly
+            double t = (double) elapsed / blendNanos;
+            km += offset * (1 - t * t * (3 - 2 * t));
+        }
+
+        double length = routes[vehicle].getLengthKm();
+        return km < 0 ? 0 : Math.min(km, length);
+    }
+
+    /**
+     * Writes the predicted lat/lng into {@code out[0..1]} and returns the
+     * route segment, whose bearing is the vehicle's heading.
+     */
+    public int positionAt(int vehicle, long nanos, double[] out) {
+        return routes[vehicle].positionAt(predictedKm(vehicle, nanos), out);
+    }
+
+    // Mean distance between the drawn and the reported position when fixes arrived
+    public double getMeanCorrectionMeters() {
+        return corrections == 0 ? 0 : correctionKmTotal / corrections * 1000;
+    }
+
+    public String stats() {
+        return String.format(Locale.US, "fixes=%d meanCorrection=%.1fm maxCorrection=%.1fm",
+                corrections, getMeanCorrectionMeters(), maxCorrectionKm * 1000);
+    }
+
+    private void ensureCapacity(int size) {
+        if (size <= routes.length) return;
+        int capacity = Math.max(size, routes.length * 2);
+        routes = Arrays.copyOf(routes, capacity);
+        fixKm = Arrays.copyOf(fixKm, capacity);
+        fixNanos = Arrays.copyOf(fixNanos, capacity);
+        speedKmh = Arrays.copyOf(speedKmh, capacity);
+        offsetKm = Arrays.copyOf(offsetKm, capacity);
+    }
+}
@@ -0,0 +1,64 @@
+package com.busapp.lk.plan;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One trip plan from {@link JourneyPlanner}: legs in travel order, each a
+ * ride on one trip or a walk. Times are seconds after midnight of the
+ * service day, including any live delays the planner knew about.
+ */
+public final class Journey {
+
+    public enum Mode {
+        WALK,
+        RIDE
+    }
+
+    public static final class Leg {
+        // Origin and destination of a walk to or from a point rather than a stop
+        public static final int POINT = -1;
+
+        public final Mode mode;
+        public final int fromStop;
+        public final int toStop;
+        public final int departure;
+        public final int arrival;
+        // Network trip of a ride, -1 for walks
+        public final int trip;
+
+        Leg(Mode mode, int fromStop, int toStop, int departure, int arrival, int trip) {
+            this.mode = mode;
+            this.fromStop = fromStop;
+            this.toStop = toStop;
+            this.departure = departure;
+            this.arrival = arrival;
+            this.trip = trip;
+        }
+    }
+
+    private final List<Leg> legs;
+    private final int transfers;
+
+    Journey(List<Leg> legs, int transfers) {
+        this.legs = Collections.unmodifiableList(legs);
+        this.transfers = transfers;
+    }
+
+    public List<Leg> getLegs() {
+        return legs;
+    }
+
+    // Changes between vehicles: one less than the rides
+    public int getTransfers() {
+        return transfers;
+    }
+
+    public int getDeparture() {
+        return legs.get(0).departure;
+    }
+
+    public int getArrival() {
+        return legs.get(legs.size() - 1).arrival;
+    }
+}
@@ -0,0 +1,433 @@
+package com.busapp.lk.plan;
+
+import com.busapp.lk.geo.GeoMath;
+import com.busapp.lk.gtfs.TransitNetwork;
+import com.busapp.lk.util.IntList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Earliest-arrival journeys over a {@link RaptorTimetable} with the
+ * round-based RAPTOR algorithm (Delling, Pajor and Werneck). Round k finds
+ * the best arrival at every stop using k rides, so after each round the
+ * destination either improves, giving a journey with one more transfer
+ * that arrives earlier, or does not. The journeys returned are therefore
+ * the Pareto set on arrival time and number of transfers, fewest
+ * transfers first. Every journey has at least one ride; whether walking
+ * the whole way would be quicker is left to the caller.
+ *
+ * <p>Each round only scans patterns serving a stop that improved in the
+ * round before, and a stop is only improved by an arrival earlier than the
+ * best known at the destination. Working arrays are allocated once and
+ * reused, so a query allocates only its result.
+ *
+ * <p>Departure times are seconds after midnight of the timetable's service
+ * date, so only trips whose calendar runs that day are considered. Trips of
+ * the day before that run past midnight are not; plan an early morning
+ * departure of 00:30 as 24:30 on a timetable for the day before.
+ *
+ * <p>Live delays shift every time of a trip. Boarding picks the first trip
+ * in timetable order that is still catchable, which is the earliest to
+ * arrive unless delays let a later trip overtake it. Not thread safe; use
+ * one planner per thread over a shared timetable.
+ */
+public final class JourneyPlanner {
+
+    public static final int DEFAULT_MAX_TRANSFERS = 4;
+    // Time to get off one bus and onto another at the same stop
+    public static final int DEFAULT_TRANSFER_SLACK_SECONDS = 60;
+
+    private static final int INFINITY = Integer.MAX_VALUE;
+    private static final int NONE = -1;
+    private static final int ACCESS = -2;
+
+    private final RaptorTimetable timetable;
+    private final int stops;
+    private final int rounds;
+    private final int transferSlack;
+
+    // Per round and stop, at round * stops + stop
+    private final int[] arrival;
+    private final int[] boardTrip;
+    private final int[] boardPosition;
+    private final int[] walkFrom;
+    private final int[] best;
+    // Arrival by ride in the current round, which is what footpaths leave from
+    private final int[] rideArrival;
+
+    private final boolean[] marked;
+    private final IntList markedStops = new IntList();
+    private final int[] queuedPosition;
+    private final IntList queuedPatterns = new IntList();
+
+    // Indexed by timetable trip
+    private final int[] delay;
+    private int maxDelay;
+
+    private final IntList accessStops = new IntList();
+    private final IntList egressStops = new IntList();
+    private final int[] accessSeconds;
+    private final int[] egressSeconds;
+
+    public JourneyPlanner(RaptorTimetable timetable) {
+        this(timetable, DEFAULT_MAX_TRANSFERS, DEFAULT_TRANSFER_SLACK_SECONDS);
+    }
+
+    public JourneyPlanner(RaptorTimetable timetable, int maxTransfers, int transferSlackSeconds) {
+        if (maxTransfers < 0 || transferSlackSeconds < 0) {
+            throw new IllegalArgumentException("maxTransfers and transferSlackSeconds must not be negative");
+        }
+        this.timetable = timetable;
+        this.stops = timetable.network.stopCount();
+        this.rounds = maxTransfers + 1;
+        this.transferSlack = transferSlackSeconds;
+        int cells = (rounds + 1) * stops;
+        arrival = new int[cells];
+        boardTrip = new int[cells];
+        boardPosition = new int[cells];
+        walkFrom = new int[cells];
+        best = new int[stops];
+        rideArrival = new int[stops];
+        marked = new boolean[stops];
+        queuedPosition = new int[timetable.patternCount()];
+        Arrays.fill(queuedPosition, NONE);
+        delay = new int[timetable.tripCount()];
+        accessSeconds = new int[stops];
+        egressSeconds = new int[stops];
+    }
+
+    /**
+     * Sets how late a network trip is running. Early running counts as on
+     * time, since a rider cannot be told to catch a bus before its
+     * timetable says.
+     */
+    public void setDelay(int networkTrip, int seconds) {
+        int trip = timetable.networkTripIndex[networkTrip];
+        if (trip < 0) return;
+        delay[trip] = Math.max(0, seconds);
+        maxDelay = Math.max(maxDelay, delay[trip]);
+    }
+
+    public void clearDelays() {
+        Arrays.fill(delay, 0);
+        maxDelay = 0;
+    }
+
+    public RaptorTimetable getTimetable() {
+        return timetable;
+    }
+
+    /**
+     * Journeys between two stops leaving at or after the departure time,
+     * in seconds after midnight.
+     */
+    public List<Journey> plan(int fromStop, int toStop, int departure) {
+        accessStops.clear();
+        accessStops.add(fromStop);
+        accessSeconds[fromStop] = 0;
+        egressStops.clear();
+        egressStops.add(toStop);
+        egressSeconds[toStop] = 0;
+        return run(departure, false, false);
+    }
+
+    /**
+     * Journeys between two points, walking to and from any stop within the
+     * timetable's walking distance. Empty if either point has no stop nearby.
+     */
+    public List<Journey> plan(double fromLat, double fromLng, double toLat, double toLng, int departure) {
+        walkableStops(fromLat, fromLng, accessStops, accessSeconds);
+        walkableStops(toLat, toLng, egressStops, egressSeconds);
+        if (accessStops.isEmpty() || egressStops.isEmpty()) return Collections.emptyList();
+        return run(departure, true, true);
+    }
+
+    private void walkableStops(double lat, double lng, IntList out, int[] seconds) {
+        TransitNetwork network = timetable.network;
+        timetable.stopsWithin(lat, lng, timetable.maxWalkKm, out);
+        for (int i = 0; i < out.size(); i++) {
+            int s = out.get(i);
+            seconds[s] = RaptorTimetable.walkSeconds(
+                    GeoMath.distanceKm(lat, lng, network.stopLat(s), network.stopLng(s)));
+        }
+    }
+
+    private List<Journey> run(int departure, boolean fromPoint, boolean toPoint) {
+        Arrays.fill(arrival, INFINITY);
+        Arrays.fill(boardTrip, NONE);
+        Arrays.fill(walkFrom, NONE);
+        Arrays.fill(best, INFINITY);
+        markedStops.clear();
+
+        for (int i = 0; i < accessStops.size(); i++) {
+            int s = accessStops.get(i);
+            int time = departure + accessSeconds[s];
+            if (time < arrival[s]) {
+                arrival[s] = time;
+                best[s] = time;
+                walkFrom[s] = ACCESS;
+                mark(s, markedStops);
+            }
+        }
+
+        List<Journey> journeys = new ArrayList<>();
+        int bestTarget = INFINITY;
+        for (int k = 1; k <= rounds && !markedStops.isEmpty(); k++) {
+            System.arraycopy(arrival, (k - 1) * stops, arrival, k * stops, stops);
+            queuePatterns();
+            scanPatterns(k, bestTarget);
+            walkTransfers(k, bestTarget);
+
+            int target = targetArrival(k);
+            if (target < bestTarget) {
+                bestTarget = target;
+                journeys.add(reconstruct(k, fromPoint, toPoint));
+            }
+        }
+        unmarkAll(markedStops);
+        return journeys;
+    }
+
+    // Earliest arrival at the destination after round k, walking included; walking alone does not count
+    private int targetArrival(int k) {
+        int result = INFINITY;
+        for (int i = 0; i < egressStops.size(); i++) {
+            int s = egressStops.get(i);
+            int time = arrival[k * stops + s];
+            if (time != INFINITY && time != arrival[s]) {
+                result = Math.min(result, time + egressSeconds[s]);
+            }
+        }
+        return result;
+    }
+
+    // Each pattern serving a marked stop is scanned from the first such stop along it
+    private void queuePatterns() {
+        int[] patternStopStart = timetable.patternStopStart;
+        int[] patternStops = timetable.patternStops;
+        for (int m = 0; m < markedStops.size(); m++) {
+            int s = markedStops.get(m);
+            for (int i = timetable.stopPatternStart[s]; i < timetable.stopPatternStart[s + 1]; i++) {
+                int p = timetable.stopPatterns[i];
+                int from = patternStopStart[p];
+                int position = from;
+                while (patternStops[position] != s) {
+                    position++;
+                }
+                position -= from;
+                int queued = queuedPosition[p];
+                if (queued == NONE) {
+                    queuedPatterns.add(p);
+                    queuedPosition[p] = position;
+                } else if (position < queued) {
+                    queuedPosition[p] = position;
+                }
+            }
+        }
+        unmarkAll(markedStops);
+    }
+
+    private void scanPatterns(int k, int bestTarget) {
+        int[] patternStops = timetable.patternStops;
+        int[] times = timetable.tripTimeStart;
+        int previousRound = (k - 1) * stops;
+        int round = k * stops;
+        int slack = k > 1 ? transferSlack : 0;
+
+        for (int q = 0; q < queuedPatterns.size(); q++) {
+            int p = queuedPatterns.get(q);
+            int from = timetable.patternStopStart[p];
+            int length = timetable.patternStopStart[p + 1] - from;
+            int trip = NONE;
+            int boardedAt = NONE;
+
+            for (int i = queuedPosition[p]; i < length; i++) {
+                int s = patternStops[from + i];
+                if (trip != NONE) {
+                    int time = timetable.arrivals[times[trip] + i] + delay[trip];
+                    if (time < best[s] && time < bestTarget) {
+                        arrival[round + s] = time;
+                        best[s] = time;
+                        rideArrival[s] = time;
+                        boardTrip[round + s] = trip;
+                        boardPosition[round + s] = boardedAt;
+                        walkFrom[round + s] = NONE;
+                        mark(s, markedStops);
+                    }
+                }
+                int ready = arrival[previousRound + s];
+                if (ready == INFINITY) continue;
+                ready += slack;
+                if (trip == NONE || ready <= timetable.departures[times[trip] + i] + delay[trip]) {
+                    int earlier = earliestTrip(p, i, ready);
+                    if (earlier != NONE && earlier != trip) {
+                        trip = earlier;
+                        boardedAt = i;
+                    }
+                }
+            }
+            queuedPosition[p] = NONE;
+        }
+        queuedPatterns.clear();
+    }
+
+    // First trip of the pattern catchable at a stop position, or NONE
+    private int earliestTrip(int p, int position, int ready) {
+        int[] times = timetable.tripTimeStart;
+        int[] departures = timetable.departures;
+        int lo = timetable.patternTripStart[p];
+        int hi = timetable.patternTripStart[p + 1];
+        int end = hi;
+        // Trips are sorted by scheduled departure, and delays only make them later
+        int threshold = ready - maxDelay;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (departures[times[mid] + position] < threshold) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int t = lo; t < end; t++) {
+            if (departures[times[t] + position] + delay[t] >= ready) return t;
+            if (maxDelay == 0) break;
+        }
+        return NONE;
+    }
+
+    // Footpaths from stops reached by a ride this round
+    private void walkTransfers(int k, int bestTarget) {
+        int round = k * stops;
+        int rideMarked = markedStops.size();
+        for (int m = 0; m < rideMarked; m++) {
+            int s = markedStops.get(m);
+            int start = rideArrival[s];
+            for (int i = timetable.transferStart[s]; i < timetable.transferStart[s + 1]; i++) {
+                int to = timetable.transferStop[i];
+                int time = start + timetable.transferSeconds[i];
+                if (time < best[to] && time < bestTarget) {
+                    arrival[round + to] = time;
+                    best[to] = time;
+                    walkFrom[round + to] = s;
+                    mark(to, markedStops);
+                }
+            }
+        }
+    }
+
+    private Journey reconstruct(int k, boolean fromPoint, boolean toPoint) {
+        // The egress stop that gave the best arrival
+        int stop = NONE;
+        int arrivalTime = INFINITY;
+        for (int i = 0; i < egressStops.size(); i++) {
+            int s = egressStops.get(i);
+            int time = arrival[k * stops + s];
+            if (time != INFINITY && time != arrival[s] && time + egressSeconds[s] < arrivalTime) {
+                arrivalTime = time + egressSeconds[s];
+                stop = s;
+            }
+        }
+
+        List<Journey.Leg> legs = new ArrayList<>();
+        if (toPoint && egressSeconds[stop] > 0) {
+            int at = arrival[k * stops + stop];
+            legs.add(new Journey.Leg(Journey.Mode.WALK, stop, Journey.Leg.POINT, at, at + egressSeconds[stop], -1));
+        }
+        int rides = 0;
+        int round = k;
+        boolean mustRide = false;
+        while (true) {
+            int cell = round * stops + stop;
+            if (!mustRide && walkFrom[cell] == ACCESS) {
+                if (fromPoint && accessSeconds[stop] > 0) {
+                    // Leave just in time for the first ride rather than at the query time
+                    int board = legs.isEmpty() ? arrival[cell] : legs.get(legs.size() - 1).departure;
+                    legs.add(new Journey.Leg(Journey.Mode.WALK, Journey.Leg.POINT, stop,
+                            board - accessSeconds[stop], board, -1));
+                }
+                break;
+            }
+            if (!mustRide && walkFrom[cell] >= 0) {
+                int source = walkFrom[cell];
+                legs.add(new Journey.Leg(Journey.Mode.WALK, source, stop, rideArrival(round, source),
+                        arrival[cell], -1));
+                stop = source;
+                mustRide = true;
+                continue;
+            }
+            if (boardTrip[cell] != NONE) {
+                int trip = boardTrip[cell];
+                int p = patternOf(trip);
+                int position = boardPosition[cell];
+                int boardStop = timetable.patternStops[timetable.patternStopStart[p] + position];
+                int base = timetable.tripTimeStart[trip];
+                int alight = alightPosition(p, trip, position, stop, arrival[cell]);
+                legs.add(new Journey.Leg(Journey.Mode.RIDE, boardStop, stop,
+                        timetable.departures[base + position] + delay[trip],
+                        timetable.arrivals[base + alight] + delay[trip], timetable.tripNetworkIndex[trip]));
+                rides++;
+                stop = boardStop;
+                round--;
+                mustRide = false;
+                continue;
+            }
+            // Reached no better this round than the one before
+            round--;
+        }
+        Collections.reverse(legs);
+        return new Journey(legs, Math.max(0, rides - 1));
+    }
+
+    // What a walk's source stop was reached at by ride in that round
+    private int rideArrival(int round, int source) {
+        int trip = boardTrip[round * stops + source];
+        int p = patternOf(trip);
+        int position = boardPosition[round * stops + source];
+        int alight = alightPosition(p, trip, position, source, INFINITY);
+        return timetable.arrivals[timetable.tripTimeStart[trip] + alight] + delay[trip];
+    }
+
+    // Position where the trip reaches the stop after boarding, matching the arrival when it loops
+    private int alightPosition(int p, int trip, int boardedAt, int stop, int time) {
+        int from = timetable.patternStopStart[p];
+        int length = timetable.patternStopStart[p + 1] - from;
+        int found = NONE;
+        for (int i = boardedAt + 1; i < length; i++) {
+            if (timetable.patternStops[from + i] != stop) continue;
+            if (found == NONE) found = i;
+            if (timetable.arrivals[timetable.tripTimeStart[trip] + i] + delay[trip] == time) return i;
+        }
+        return found;
+    }
+
+    private int patternOf(int trip) {
+        int[] starts = timetable.patternTripStart;
+        int lo = 0;
+        int hi = starts.length - 2;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (starts[mid] <= trip) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    private void mark(int stop, IntList list) {
+        if (!marked[stop]) {
+            marked[stop] = true;
+            list.add(stop);
+        }
+    }
+
+    private void unmarkAll(IntList list) {
+        for (int i = 0; i < list.size(); i++) {
+            marked[list.get(i)] = false;
+        }
+        list.clear();
+    }
+}
@@ -0,0 +1,346 @@
+package com.busapp.lk.plan;
+
+import com.busapp.lk.geo.GeoMath;
+import com.busapp.lk.geo.SpatialGrid;
+import com.busapp.lk.gtfs.TransitNetwork;
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A {@link TransitNetwork} rearranged for {@link JourneyPlanner}. Trips that
+ * call at the same stops in the same order form a pattern, the unit RAPTOR
+ * scans. Within a pattern trips are sorted by departure and never overtake
+ * each other (a trip that would goes into a pattern of its own), so the
+ * earliest trip catchable at a stop is found by binary search.
+ *
+ * <p>All tables are flat primitive arrays:
+ * <ul>
+ * <li>the stops of pattern {@code p} are {@code patternStops[patternStopStart[p] ..
+ * patternStopStart[p + 1])};
+ * <li>its trips are {@code [patternTripStart[p], patternTripStart[p + 1])},
+ * and trip {@code t} at stop position {@code i} has its times at
+ * {@code tripTimeStart[t] + i};
+ * <li>the patterns serving stop {@code s} and the footpaths leaving it use
+ * the same start/end layout.
+ * </ul>
+ * Missing stop times are interpolated. Footpaths join stops within
+ * {@link #DEFAULT_MAX_WALK_KM} in a straight line at walking speed.
+ *
+ * <p>A timetable built for a service date only holds the trips whose
+ * calendar runs that day; one built for {@link #ANY_DATE} holds every trip.
+ * Immutable once built, so planners on several threads can share one.
+ */
+public final class RaptorTimetable {
+
+    public static final double DEFAULT_MAX_WALK_KM = 0.5;
+    public static final double WALK_KMH = 4.5;
+    // Service date of a timetable that ignores the feed's calendar
+    public static final int ANY_DATE = 0;
+
+    private static final double GRID_CELL_DEGREES = 0.005;
+
+    final TransitNetwork network;
+    final double maxWalkKm;
+    final int serviceDate;
+
+    final int[] patternStopStart;
+    final int[] patternStops;
+    final int[] patternTripStart;
+    // Indexed by timetable trip
+    final int[] tripNetworkIndex;
+    final int[] tripTimeStart;
+    final int[] arrivals;
+    final int[] departures;
+    // Timetable trip of each network trip, or -1 if it was dropped
+    final int[] networkTripIndex;
+
+    final int[] stopPatternStart;
+    final int[] stopPatterns;
+    final int[] transferStart;
+    final int[] transferStop;
+    final int[] transferSeconds;
+
+    private final SpatialGrid stopGrid;
+
+    private RaptorTimetable(TransitNetwork network, double maxWalkKm, int serviceDate, int[] patternStopStart,
+                            int[] patternStops, int[] patternTripStart, int[] tripNetworkIndex,
+                            int[] tripTimeStart, int[] arrivals, int[] departures) {
+        this.network = network;
+        this.maxWalkKm = maxWalkKm;
+        this.serviceDate = serviceDate;
+        this.patternStopStart = patternStopStart;
+        this.patternStops = patternStops;
+        this.patternTripStart = patternTripStart;
+        this.tripNetworkIndex = tripNetworkIndex;
+        this.tripTimeStart = tripTimeStart;
+        this.arrivals = arrivals;
+        this.departures = departures;
+
+        networkTripIndex = new int[network.tripCount()];
+        Arrays.fill(networkTripIndex, -1);
+        for (int t = 0; t < tripNetworkIndex.length; t++) {
+            networkTripIndex[tripNetworkIndex[t]] = t;
+        }
+
+        int stops = network.stopCount();
+        int patterns = patternStopStart.length - 1;
+        // Patterns per stop, each pattern listed once even if it loops back through the stop
+        int[] lastPattern = new int[stops];
+        Arrays.fill(lastPattern, -1);
+        stopPatternStart = new int[stops + 1];
+        for (int p = 0; p < patterns; p++) {
+            for (int i = patternStopStart[p]; i < patternStopStart[p + 1]; i++) {
+                int s = patternStops[i];
+                if (lastPattern[s] != p) {
+                    lastPattern[s] = p;
+                    stopPatternStart[s + 1]++;
+                }
+            }
+        }
+        for (int s = 0; s < stops; s++) {
+            stopPatternStart[s + 1] += stopPatternStart[s];
+        }
+        stopPatterns = new int[stopPatternStart[stops]];
+        int[] fill = Arrays.copyOf(stopPatternStart, stops);
+        Arrays.fill(lastPattern, -1);
+        for (int p = 0; p < patterns; p++) {
+            for (int i = patternStopStart[p]; i < patternStopStart[p + 1]; i++) {
+                int s = patternStops[i];
+                if (lastPattern[s] != p) {
+                    lastPattern[s] = p;
+                    stopPatterns[fill[s]++] = p;
+                }
+            }
+        }
+
+        stopGrid = SpatialGrid.forSriLanka(GRID_CELL_DEGREES);
+        for (int s = 0; s < stops; s++) {
+            stopGrid.update(s, network.stopLat(s), network.stopLng(s));
+        }
+        IntList near = new IntList();
+        IntList to = new IntList();
+        IntList seconds = new IntList();
+        transferStart = new int[stops + 1];
+        for (int s = 0; s < stops; s++) {
+            stopsWithin(network.stopLat(s), network.stopLng(s), maxWalkKm, near);
+            for (int n = 0; n < near.size(); n++) {
+                int other = near.get(n);
+                if (other == s) continue;
+                to.add(other);
+                seconds.add(walkSeconds(GeoMath.distanceKm(network.stopLat(s), network.stopLng(s),
+                        network.stopLat(other), network.stopLng(other))));
+            }
+            transferStart[s + 1] = to.size();
+        }
+        transferStop = to.toArray();
+        transferSeconds = seconds.toArray();
+    }
+
+    public static RaptorTimetable build(TransitNetwork network) {
+        return build(network, DEFAULT_MAX_WALK_KM, ANY_DATE);
+    }
+
+    public static RaptorTimetable build(TransitNetwork network, double maxWalkKm) {
+        return build(network, maxWalkKm, ANY_DATE);
+    }
+
+    /**
+     * @param serviceDate {@code yyyymmdd} day to take trips from, or {@link #ANY_DATE}
+     */
+    public static RaptorTimetable build(TransitNetwork network, double maxWalkKm, int serviceDate) {
+        if (maxWalkKm < 0) {
+            throw new IllegalArgumentException("maxWalkKm must not be negative: " + maxWalkKm);
+        }
+        if (serviceDate != ANY_DATE) {
+            TransitNetwork.dayOfWeek(serviceDate);
+        }
+        int trips = network.tripCount();
+        int[][] tripArrivals = new int[trips][];
+        int[][] tripDepartures = new int[trips][];
+        IntList usable = new IntList();
+        for (int t = 0; t < trips; t++) {
+            if (serviceDate != ANY_DATE && !network.tripRunsOn(t, serviceDate)) continue;
+            if (fillTimes(network, t, tripArrivals, tripDepartures)) {
+                usable.add(t);
+            }
+        }
+
+        // Group by stop sequence, then by first departure
+        Integer[] order = new Integer[usable.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = usable.get(i);
+        }
+        Comparator<Integer> bySequence = (a, b) -> compareSequences(network, a, b);
+        Arrays.sort(order, bySequence.thenComparingInt(t -> tripDepartures[t][0]));
+
+        IntList patternStopStart = new IntList();
+        IntList patternStops = new IntList();
+        IntList patternTripStart = new IntList();
+        IntList tripOrder = new IntList();
+        patternStopStart.add(0);
+        patternTripStart.add(0);
+
+        int[] subPatternLast = new int[8];
+        int[][] subPatternTrips = new int[8][];
+        int[] subPatternSize = new int[8];
+        for (int from = 0; from < order.length; ) {
+            int to = from + 1;
+            while (to < order.length && compareSequences(network, order[from], order[to]) == 0) {
+                to++;
+            }
+            // Split the group into non-overtaking patterns, first fit in departure order
+            int subPatterns = 0;
+            for (int i = from; i < to; i++) {
+                int trip = order[i];
+                int target = 0;
+                while (target < subPatterns
+                        && overtakes(trip, subPatternLast[target], tripArrivals, tripDepartures)) {
+                    target++;
+                }
+                if (target == subPatterns) {
+                    if (subPatterns == subPatternLast.length) {
+                        subPatternLast = Arrays.copyOf(subPatternLast, subPatterns * 2);
+                        subPatternTrips = Arrays.copyOf(subPatternTrips, subPatterns * 2);
+                        subPatternSize = Arrays.copyOf(subPatternSize, subPatterns * 2);
+                    }
+                    subPatternTrips[target] = new int[to - from];
+                    subPatternSize[target] = 0;
+                    subPatterns++;
+                }
+                subPatternLast[target] = trip;
+                subPatternTrips[target][subPatternSize[target]++] = trip;
+            }
+
+            int first = network.tripStopTimeStart(order[from]);
+            int end = network.tripStopTimeEnd(order[from]);
+            for (int sp = 0; sp < subPatterns; sp++) {
+                for (int st = first; st < end; st++) {
+                    patternStops.add(network.stopTimeStop(st));
+                }
+                patternStopStart.add(patternStops.size());
+                for (int i = 0; i < subPatternSize[sp]; i++) {
+                    tripOrder.add(subPatternTrips[sp][i]);
+                }
+                patternTripStart.add(tripOrder.size());
+            }
+            from = to;
+        }
+
+        int tripTotal = tripOrder.size();
+        int[] tripNetworkIndex = tripOrder.toArray();
+        int[] tripTimeStart = new int[tripTotal + 1];
+        for (int t = 0; t < tripTotal; t++) {
+            tripTimeStart[t + 1] = tripTimeStart[t] + tripArrivals[tripNetworkIndex[t]].length;
+        }
+        int[] arrivals = new int[tripTimeStart[tripTotal]];
+        int[] departures = new int[tripTimeStart[tripTotal]];
+        for (int t = 0; t < tripTotal; t++) {
+            int n = tripNetworkIndex[t];
+            System.arraycopy(tripArrivals[n], 0, arrivals, tripTimeStart[t], tripArrivals[n].length);
+            System.arraycopy(tripDepartures[n], 0, departures, tripTimeStart[t], tripDepartures[n].length);
+        }
+        return new RaptorTimetable(network, maxWalkKm, serviceDate, patternStopStart.toArray(), patternStops.toArray(),
+                patternTripStart.toArray(), tripNetworkIndex, Arrays.copyOf(tripTimeStart, tripTotal),
+                arrivals, departures);
+    }
+
+    public TransitNetwork getNetwork() {
+        return network;
+    }
+
+    public int patternCount() {
+        return patternStopStart.length - 1;
+    }
+
+    // Network trips that made it into a pattern; trips without usable times or not running that day are left out
+    public int tripCount() {
+        return tripNetworkIndex.length;
+    }
+
+    // yyyymmdd, or ANY_DATE
+    public int getServiceDate() {
+        return serviceDate;
+    }
+
+    public int transferCount() {
+        return transferStop.length;
+    }
+
+    public double getMaxWalkKm() {
+        return maxWalkKm;
+    }
+
+    /**
+     * Collects the stops within a straight-line distance into {@code out},
+     * which is cleared first. Safe to call from several threads.
+     */
+    public void stopsWithin(double lat, double lng, double km, IntList out) {
+        double dLat = km / 111.32;
+        double dLng = dLat / Math.max(0.01, Math.cos(Math.toRadians(lat)));
+        stopGrid.queryBox(lat - dLat, lng - dLng, lat + dLat, lng + dLng, out);
+        int kept = 0;
+        for (int i = 0; i < out.size(); i++) {
+            int s = out.get(i);
+            if (GeoMath.distanceKm(lat, lng, network.stopLat(s), network.stopLng(s)) <= km) {
+                out.set(kept++, s);
+            }
+        }
+        out.truncate(kept);
+    }
+
+    static int walkSeconds(double km) {
+        return (int) Math.ceil(km / WALK_KMH * 3600);
+    }
+
+    // Copies a trip's times, filling gaps; false if its ends have no time at all
+    private static boolean fillTimes(TransitNetwork network, int trip, int[][] arrivals, int[][] departures) {
+        int from = network.tripStopTimeStart(trip);
+        int n = network.tripStopTimeEnd(trip) - from;
+        if (n < 2) return false;
+        int[] arr = new int[n];
+        int[] dep = new int[n];
+        for (int i = 0; i < n; i++) {
+            int a = network.stopTimeArrival(from + i);
+            int d = network.stopTimeDeparture(from + i);
+            arr[i] = a != TransitNetwork.NO_TIME ? a : d;
+            dep[i] = d != TransitNetwork.NO_TIME ? d : a;
+        }
+        if (arr[0] == TransitNetwork.NO_TIME || arr[n - 1] == TransitNetwork.NO_TIME) return false;
+        // Untimed stops in between get times proportional to their position
+        for (int i = 1, known = 0; i < n; i++) {
+            if (arr[i] == TransitNetwork.NO_TIME) continue;
+            for (int j = known + 1; j < i; j++) {
+                arr[j] = dep[known] + (arr[i] - dep[known]) * (j - known) / (i - known);
+                dep[j] = arr[j];
+            }
+            known = i;
+        }
+        arrivals[trip] = arr;
+        departures[trip] = dep;
+        return true;
+    }
+
+    private static int compareSequences(TransitNetwork network, int a, int b) {
+        int aFrom = network.tripStopTimeStart(a);
+        int bFrom = network.tripStopTimeStart(b);
+        int aLength = network.tripStopTimeEnd(a) - aFrom;
+        int bLength = network.tripStopTimeEnd(b) - bFrom;
+        if (aLength != bLength) return Integer.compare(aLength, bLength);
+        for (int i = 0; i < aLength; i++) {
+            int c = Integer.compare(network.stopTimeStop(aFrom + i), network.stopTimeStop(bFrom + i));
+            if (c != 0) return c;
+        }
+        return 0;
+    }
+
+    // True if the trip is earlier than the previous one anywhere along the pattern
+    private static boolean overtakes(int trip, int previous, int[][] arrivals, int[][] departures) {
+        int[] arr = arrivals[trip];
+        int[] dep = departures[trip];
+        for (int i = 0; i < arr.length; i++) {
+            if (arr[i] < arrivals[previous][i] || dep[i] < departures[previous][i]) return true;
+        }
+        return false;
+    }
+}
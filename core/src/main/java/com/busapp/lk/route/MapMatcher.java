@@ -0,0 +1,337 @@
+package com.busapp.lk.route;
+
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+
+/**
+ * Online map matching of GPS fixes to each bus's route shape with a hidden
+ * Markov model, after Newson and Krumm.
+ *
+ * <p>The candidates for a fix are its projections onto the route segments
+ * within {@link #SEARCH_RADIUS_METERS}, found through a per-route
+ * {@link SegmentIndex}; the radius widens up to
+ * {@link #MAX_SEARCH_RADIUS_METERS} when nothing is that close. A
+ * candidate's emission score falls off as a Gaussian of its distance from
+ * the fix. Moving between candidates of consecutive fixes scores by how
+ * far the distance along the route differs from the straight-line distance
+ * between the fixes, so a bus on a route that doubles back stays on the
+ * leg it is on. Going backwards further than GPS noise explains, or faster
+ * than a bus can, is ruled out.
+ *
+ * <p>Each bus keeps a Viterbi lattice of its last {@code window} fixes in
+ * a ring, so a fix costs candidates times previous candidates however long
+ * the bus has run. {@link #match} returns the best candidate for the
+ * newest fix; {@link #smoothedKm} follows the back pointers to where the
+ * best path puts an earlier fix, which later fixes can correct. A fix no
+ * candidate of the previous one can reach is dropped as an outlier, but
+ * {@link #RESTART_AFTER} in a row, such as a bus starting its route again,
+ * restart the lattice.
+ *
+ * <p>Routes and buses are dense indices, as in the ETA engine. Not thread
+ * safe; the scratch buffers are shared by all buses.
+ */
+public final class MapMatcher {
+
+    public static final int DEFAULT_WINDOW = 8;
+    // Typical urban GPS error; Newson and Krumm measured 4 m on open roads
+    public static final double GPS_SIGMA_METERS = 15;
+    public static final double SEARCH_RADIUS_METERS = 4 * GPS_SIGMA_METERS;
+    public static final double MAX_SEARCH_RADIUS_METERS = 200;
+    // Scale of the route-versus-straight distance mismatch between fixes
+    static final double BETA_METERS = 30;
+    // Backwards movement along the route that noise can explain
+    static final double BACKTRACK_METERS = 40;
+    static final double MAX_SPEED_MPS = 100 / 3.6;
+    static final int MAX_CANDIDATES = 8;
+    // Fixes in a row that no candidate can reach before they start a new path
+    static final int RESTART_AFTER = 2;
+
+    private static final double NEGATIVE_INFINITY = Double.NEGATIVE_INFINITY;
+
+    private final int window;
+    private final int columnStride;
+
+    private SegmentIndex[] routes = new SegmentIndex[4];
+    private int routeCount;
+    private int maxSegments;
+
+    // Per bus
+    private int busCount;
+    private int[] busRoute = new int[16];
+    // Newest column in the ring, and how many columns hold fixes
+    private int[] head = new int[16];
+    private int[] columns = new int[16];
+    private double[] lastX = new double[16];
+    private double[] lastY = new double[16];
+    private long[] lastTime = new long[16];
+    private double[] matchedKm = new double[16];
+    private int[] misses = new int[16];
+
+    // Per bus and column: candidate count; per bus, column and candidate: km, score, back pointer
+    private byte[] count;
+    private double[] km;
+    private double[] score;
+    private byte[] back;
+
+    // Scratch for one fix
+    private final IntList nearSegments = new IntList();
+    private boolean[] seen = new boolean[16];
+    private final double[] candidateKm = new double[MAX_CANDIDATES];
+    private final double[] candidateMeters = new double[MAX_CANDIDATES];
+    // Scored here first, so a dropped fix leaves the ring as it was
+    private final double[] candidateScore = new double[MAX_CANDIDATES];
+    private final byte[] candidateBack = new byte[MAX_CANDIDATES];
+
+    private long matched;
+    private long unmatched;
+    private long restarts;
+
+    public MapMatcher() {
+        this(DEFAULT_WINDOW);
+    }
+
+    public MapMatcher(int window) {
+        if (window < 2 || window > 127) {
+            throw new IllegalArgumentException("window must be 2 to 127: " + window);
+        }
+        this.window = window;
+        this.columnStride = window * MAX_CANDIDATES;
+        count = new byte[16 * window];
+        km = new double[16 * columnStride];
+        score = new double[16 * columnStride];
+        back = new byte[16 * columnStride];
+    }
+
+    public int addRoute(RouteGeometry route) {
+        if (routeCount == routes.length) {
+            routes = Arrays.copyOf(routes, routeCount * 2);
+        }
+        SegmentIndex index = new SegmentIndex(route);
+        routes[routeCount] = index;
+        if (index.segmentCount() > maxSegments) {
+            maxSegments = index.segmentCount();
+            seen = new boolean[maxSegments];
+        }
+        return routeCount++;
+    }
+
+    public int addBus(int route) {
+        if (route < 0 || route >= routeCount) {
+            throw new IllegalArgumentException("Unknown route " + route);
+        }
+        if (busCount == busRoute.length) {
+            int capacity = busCount * 2;
+            busRoute = Arrays.copyOf(busRoute, capacity);
+            head = Arrays.copyOf(head, capacity);
+            columns = Arrays.copyOf(columns, capacity);
+            lastX = Arrays.copyOf(lastX, capacity);
+            lastY = Arrays.copyOf(lastY, capacity);
+            lastTime = Arrays.copyOf(lastTime, capacity);
+            matchedKm = Arrays.copyOf(matchedKm, capacity);
+            misses = Arrays.copyOf(misses, capacity);
+            count = Arrays.copyOf(count, capacity * window);
+            km = Arrays.copyOf(km, capacity * columnStride);
+            score = Arrays.copyOf(score, capacity * columnStride);
+            back = Arrays.copyOf(back, capacity * columnStride);
+        }
+        int bus = busCount++;
+        busRoute[bus] = route;
+        reset(bus);
+        return bus;
+    }
+
+    // Forgets the bus's fixes, such as after seeking a replay
+    public void reset(int bus) {
+        columns[bus] = 0;
+        head[bus] = 0;
+        matchedKm[bus] = Double.NaN;
+        misses[bus] = 0;
+    }
+
+    /**
+     * Matches a fix to the bus's route and returns its distance along the
+     * route in km. A fix with no segment within
+     * {@link #MAX_SEARCH_RADIUS_METERS}, or the first of a run the path
+     * cannot reach, is dropped and the last match returned, which is NaN
+     * before the first.
+     */
+    public double match(int bus, double lat, double lng, long timeMillis) {
+        SegmentIndex index = routes[busRoute[bus]];
+        double x = index.toX(lng);
+        double y = index.toY(lat);
+        int found = candidates(index, x, y);
+        if (found == 0) {
+            unmatched++;
+            return matchedKm[bus];
+        }
+
+        int previous = columns[bus] == 0 ? -1 : head[bus];
+        int reachable = 0;
+        if (previous >= 0) {
+            double straight = Math.hypot(x - lastX[bus], y - lastY[bus]);
+            double seconds = Math.max(1, (timeMillis - lastTime[bus]) / 1000.0);
+            double maxForward = MAX_SPEED_MPS * seconds + 2 * MAX_SEARCH_RADIUS_METERS;
+            int from = bus * columnStride + previous * MAX_CANDIDATES;
+            int fromCount = count[bus * window + previous];
+            for (int j = 0; j < found; j++) {
+                double best = NEGATIVE_INFINITY;
+                int bestFrom = -1;
+                for (int i = 0; i < fromCount; i++) {
+                    double along = (candidateKm[j] - km[from + i]) * 1000;
+                    if (along < -BACKTRACK_METERS || along > maxForward) continue;
+                    double total = score[from + i] - Math.abs(along - straight) / BETA_METERS;
+                    if (total > best) {
+                        best = total;
+                        bestFrom = i;
+                    }
+                }
+                candidateScore[j] = best + emission(candidateMeters[j]);
+                candidateBack[j] = (byte) bestFrom;
+                if (bestFrom >= 0) reachable++;
+            }
+        }
+        if (reachable == 0 && previous >= 0 && ++misses[bus] < RESTART_AFTER) {
+            // Most likely an outlier; the path goes on from the fix before
+            unmatched++;
+            return matchedKm[bus];
+        }
+        matched++;
+        misses[bus] = 0;
+        int column;
+        if (reachable == 0) {
+            if (previous >= 0) restarts++;
+            column = 0;
+            for (int j = 0; j < found; j++) {
+                candidateScore[j] = emission(candidateMeters[j]);
+                candidateBack[j] = -1;
+            }
+            columns[bus] = 1;
+        } else {
+            column = (head[bus] + 1) % window;
+            columns[bus] = Math.min(window, columns[bus] + 1);
+        }
+        int base = bus * columnStride + column * MAX_CANDIDATES;
+        System.arraycopy(candidateKm, 0, km, base, found);
+        System.arraycopy(candidateScore, 0, score, base, found);
+        System.arraycopy(candidateBack, 0, back, base, found);
+        count[bus * window + column] = (byte) found;
+        head[bus] = column;
+        lastX[bus] = x;
+        lastY[bus] = y;
+        lastTime[bus] = timeMillis;
+
+        // Keep scores near zero so long runs do not lose precision
+        int best = bestCandidate(bus, column);
+        double top = score[base + best];
+        for (int j = 0; j < found; j++) {
+            score[base + j] -= top;
+        }
+        matchedKm[bus] = km[base + best];
+        return matchedKm[bus];
+    }
+
+    /**
+     * Where the best path through the window puts the fix {@code lag}
+     * fixes before the newest, in km along the route. Lags beyond the
+     * window give the oldest fix it holds; NaN before the first match.
+     */
+    public double smoothedKm(int bus, int lag) {
+        if (columns[bus] == 0) return Double.NaN;
+        int column = head[bus];
+        int candidate = bestCandidate(bus, column);
+        int steps = Math.min(lag, columns[bus] - 1);
+        for (int s = 0; s < steps; s++) {
+            int pointer = back[bus * columnStride + column * MAX_CANDIDATES + candidate];
+            if (pointer < 0) break;
+            candidate = pointer;
+            column = (column - 1 + window) % window;
+        }
+        return km[bus * columnStride + column * MAX_CANDIDATES + candidate];
+    }
+
+    public double getMatchedKm(int bus) {
+        return matchedKm[bus];
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public long getMatched() {
+        return matched;
+    }
+
+    // Fixes too far from the route, or from the path, to match
+    public long getUnmatched() {
+        return unmatched;
+    }
+
+    // Fixes that could not follow on from the one before and started a new path
+    public long getRestarts() {
+        return restarts;
+    }
+
+    private int bestCandidate(int bus, int column) {
+        int base = bus * columnStride + column * MAX_CANDIDATES;
+        int n = count[bus * window + column];
+        int best = 0;
+        for (int j = 1; j < n; j++) {
+            if (score[base + j] > score[base + best]) best = j;
+        }
+        return best;
+    }
+
+    // Log of the Gaussian, without the constant that every candidate shares
+    private static double emission(double meters) {
+        double z = meters / GPS_SIGMA_METERS;
+        return -0.5 * z * z;
+    }
+
+    // Fills candidateKm/candidateMeters with the closest projections, one per segment, and returns how many
+    private int candidates(SegmentIndex index, double px, double py) {
+        for (double radius = SEARCH_RADIUS_METERS; ; radius *= 2) {
+            radius = Math.min(radius, MAX_SEARCH_RADIUS_METERS);
+            int found = project(index, px, py, radius);
+            if (found > 0 || radius >= MAX_SEARCH_RADIUS_METERS) return found;
+        }
+    }
+
+    private int project(SegmentIndex index, double px, double py, double radius) {
+        index.near(px, py, radius, nearSegments, seen);
+        RouteGeometry route = index.getRoute();
+        double[] x = index.x;
+        double[] y = index.y;
+        int found = 0;
+        for (int n = 0; n < nearSegments.size(); n++) {
+            int s = nearSegments.get(n);
+            double dx = x[s + 1] - x[s];
+            double dy = y[s + 1] - y[s];
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : ((px - x[s]) * dx + (py - y[s]) * dy) / lengthSquared;
+            // A vertex belongs to the segment ending there, so it is not a candidate twice
+            if (t <= 0 && s > 0) continue;
+            if (t < 0) t = 0;
+            if (t > 1) t = 1;
+            double meters = Math.hypot(x[s] + t * dx - px, y[s] + t * dy - py);
+            if (meters > radius) continue;
+            double along = route.cumulativeKm(s) + t * (route.cumulativeKm(s + 1) - route.cumulativeKm(s));
+            found = keepClosest(found, along, meters);
+        }
+        return found;
+    }
+
+    // Inserts by distance, dropping the farthest once full
+    private int keepClosest(int found, double along, double meters) {
+        int at = found;
+        while (at > 0 && candidateMeters[at - 1] > meters) {
+            at--;
+        }
+        if (at == MAX_CANDIDATES) return found;
+        int end = Math.min(found, MAX_CANDIDATES - 1);
+        System.arraycopy(candidateKm, at, candidateKm, at + 1, end - at);
+        System.arraycopy(candidateMeters, at, candidateMeters, at + 1, end - at);
+        candidateKm[at] = along;
+        candidateMeters[at] = meters;
+        return Math.min(found + 1, MAX_CANDIDATES);
+    }
+}
@@ -0,0 +1,228 @@
+package com.busapp.lk.route;
+
+import com.busapp.lk.geo.GeoMath;
+import java.util.Arrays;
+
+/**
+ * Shape polyline of one route with a precomputed cumulative distance per
+ * vertex. Positioning at a distance along the route is a binary search plus
+ * a linear interpolation, and drawing can use a Douglas-Peucker
+ * simplification cached per zoom level.
+ *
+ * <p>Immutable apart from the lazily built simplification cache, which is
+ * safe to race on.
+ */
+public final class RouteGeometry {
+
+    public static final int MAX_ZOOM = 21;
+
+    private static final double METERS_PER_DEGREE_LAT = 110_540;
+    private static final double METERS_PER_DEGREE_LNG = 111_320;
+
+    private final double[] lat;
+    private final double[] lng;
+    private final double[] cumulativeKm;
+    private final float[] segmentBearing;
+    private final int[][] simplifiedByZoom = new int[MAX_ZOOM + 1][];
+
+    public RouteGeometry(double[] lat, double[] lng) {
+        if (lat.length != lng.length || lat.length < 2) {
+            throw new IllegalArgumentException("A route needs at least two vertices");
+        }
+        this.lat = lat.clone();
+        this.lng = lng.clone();
+
+        int n = lat.length;
+        cumulativeKm = new double[n];
+        segmentBearing = new float[n - 1];
+        for (int i = 1; i < n; i++) {
+            cumulativeKm[i] = cumulativeKm[i - 1]
+                    + GeoMath.distanceKm(lat[i - 1], lng[i - 1], lat[i], lng[i]);
+            segmentBearing[i - 1] = (float) GeoMath.bearing(lat[i - 1], lng[i - 1], lat[i], lng[i]);
+        }
+    }
+
+    public static RouteGeometry straight(double startLat, double startLng, double endLat, double endLng) {
+        return new RouteGeometry(new double[]{startLat, endLat}, new double[]{startLng, endLng});
+    }
+
+    public int vertexCount() {
+        return lat.length;
+    }
+
+    public double lat(int vertex) {
+        return lat[vertex];
+    }
+
+    public double lng(int vertex) {
+        return lng[vertex];
+    }
+
+    // km from the first vertex
+    public double cumulativeKm(int vertex) {
+        return cumulativeKm[vertex];
+    }
+
+    public double getLengthKm() {
+        return cumulativeKm[cumulativeKm.length - 1];
+    }
+
+    /**
+     * Index of the segment containing the distance, clamped to the route.
+     * Segment {@code i} runs from vertex {@code i} to vertex {@code i + 1}.
+     */
+    public int segmentAt(double km) {
+        int last = cumulativeKm.length - 2;
+        if (km <= 0) return 0;
+        if (km >= cumulativeKm[last + 1]) return last;
+        int found = Arrays.binarySearch(cumulativeKm, km);
+        int segment = found >= 0 ? found : -found - 2;
+        return Math.min(segment, last);
+    }
+
+    public float segmentBearing(int segment) {
+        return segmentBearing[segment];
+    }
+
+    /**
+     * Writes the lat/lng at the distance along the route into {@code out[0..1]}
+     * and returns the segment index. Distances are clamped to the route.
+     */
+    public int positionAt(double km, double[] out) {
+        int segment = segmentAt(km);
+        double segmentStart = cumulativeKm[segment];
+        double segmentLength = cumulativeKm[segment + 1] - segmentStart;
+        double t = segmentLength > 0 ? (km - segmentStart) / segmentLength : 0;
+        if (t < 0) t = 0;
+        if (t > 1) t = 1;
+        out[0] = lat[segment] + (lat[segment + 1] - lat[segment]) * t;
+        out[1] = lng[segment] + (lng[segment + 1] - lng[segment]) * t;
+        return segment;
+    }
+
+    /**
+     * Distance along the route of the point on it closest to the position,
+     * searching the whole route.
+     */
+    public double project(double latitude, double longitude) {
+        return project(latitude, longitude, 0, getLengthKm());
+    }
+
+    /**
+     * Like {@link #project(double, double)} but only considers segments that
+     * overlap {@code [fromKm, toKm]}, so a route that doubles back on itself
+     * resolves to the stretch the bus is known to be on.
+     */
+    public double project(double latitude, double longitude, double fromKm, double toKm) {
+        int first = segmentAt(fromKm);
+        int last = segmentAt(toKm);
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        double px = longitude * METERS_PER_DEGREE_LNG * cosLat;
+        double py = latitude * METERS_PER_DEGREE_LAT;
+
+        double bestDistance = Double.MAX_VALUE;
+        double bestKm = cumulativeKm[first];
+        for (int i = first; i <= last; i++) {
+            double ax = lng[i] * METERS_PER_DEGREE_LNG * cosLat;
+            double ay = lat[i] * METERS_PER_DEGREE_LAT;
+            double dx = lng[i + 1] * METERS_PER_DEGREE_LNG * cosLat - ax;
+            double dy = lat[i + 1] * METERS_PER_DEGREE_LAT - ay;
+            double lengthSquared = dx * dx + dy * dy;
+            double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+            if (t < 0) t = 0;
+            if (t > 1) t = 1;
+            double cx = ax + t * dx - px;
+            double cy = ay + t * dy - py;
+            double distance = cx * cx + cy * cy;
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestKm = cumulativeKm[i] + t * (cumulativeKm[i + 1] - cumulativeKm[i]);
+            }
+        }
+        return bestKm;
+    }
+
+    /**
+     * Vertex indices to draw at a zoom level, simplified to about one pixel.
+     */
+    public int[] simplifiedForZoom(int zoom) {
+        int z = Math.max(0, Math.min(MAX_ZOOM, zoom));
+        int[] indices = simplifiedByZoom[z];
+        if (indices == null) {
+            double midLat = (lat[0] + lat[lat.length - 1]) / 2;
+            indices = simplify(GeoMath.metersPerPixel(z, midLat));
+            simplifiedByZoom[z] = indices;
+        }
+        return indices;
+    }
+
+    /**
+     * Douglas-Peucker simplification; returns the kept vertex indices in order.
+     */
+    public int[] simplify(double toleranceMeters) {
+        int n = lat.length;
+        if (n <= 2) return new int[]{0, n - 1};
+
+        // Project to local metres so the tolerance is isotropic
+        double cosLat = Math.cos(Math.toRadians(lat[0]));
+        double[] x = new double[n];
+        double[] y = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = lng[i] * METERS_PER_DEGREE_LNG * cosLat;
+            y[i] = lat[i] * METERS_PER_DEGREE_LAT;
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+        double toleranceSquared = toleranceMeters * toleranceMeters;
+
+        // Explicit stack of [from, to] ranges instead of recursion
+        int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        int kept = 2;
+        while (top > 0) {
+            int to = stack[--top];
+            int from = stack[--top];
+            double maxDistance = -1;
+            int farthest = -1;
+            for (int i = from + 1; i < to; i++) {
+                double d = segmentDistanceSquared(x[i], y[i], x[from], y[from], x[to], y[to]);
+                if (d > maxDistance) {
+                    maxDistance = d;
+                    farthest = i;
+                }
+            }
+            if (farthest >= 0 && maxDistance > toleranceSquared) {
+                keep[farthest] = true;
+                kept++;
+                stack[top++] = from;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = to;
+            }
+        }
+
+        int[] indices = new int[kept];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (keep[i]) indices[k++] = i;
+        }
+        return indices;
+    }
+
+    private static double segmentDistanceSquared(double px, double py,
+                                                 double ax, double ay, double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - ax) * dx + (py - ay) * dy) / lengthSquared;
+        if (t < 0) t = 0;
+        if (t > 1) t = 1;
+        double cx = ax + t * dx - px;
+        double cy = ay + t * dy - py;
+        return cx * cx + cy * cy;
+    }
+}
@@ -0,0 +1,72 @@
+package com.busapp.lk.route;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads route shapes from a small CSV of {@code route,lat,lng} rows, one row
+ * per vertex in drawing order. Blank lines and lines starting with '#' are ignored.
+ */
+public final class RouteShapeLoader {
+
+    private RouteShapeLoader() {
+    }
+
+    public static Map<String, RouteGeometry> load(Reader source) throws IOException {
+        Map<String, ShapeBuilder> builders = new LinkedHashMap<>();
+        BufferedReader reader = new BufferedReader(source);
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.charAt(0) == '#') continue;
+
+            String[] fields = line.split(",");
+            if (fields.length != 3) {
+                throw new IOException("Expected route,lat,lng on line " + lineNumber);
+            }
+            try {
+                String route = fields[0].trim();
+                ShapeBuilder builder = builders.get(route);
+                if (builder == null) {
+                    builder = new ShapeBuilder();
+                    builders.put(route, builder);
+                }
+                builder.add(Double.parseDouble(fields[1].trim()), Double.parseDouble(fields[2].trim()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Bad coordinate on line " + lineNumber, e);
+            }
+        }
+
+        Map<String, RouteGeometry> shapes = new LinkedHashMap<>();
+        for (Map.Entry<String, ShapeBuilder> entry : builders.entrySet()) {
+            shapes.put(entry.getKey(), entry.getValue().build());
+        }
+        return shapes;
+    }
+
+    private static final class ShapeBuilder {
+        double[] lat = new double[16];
+        double[] lng = new double[16];
+        int size;
+
+        void add(double latitude, double longitude) {
+            if (size == lat.length) {
+                lat = Arrays.copyOf(lat, size * 2);
+                lng = Arrays.copyOf(lng, size * 2);
+            }
+            lat[size] = latitude;
+            lng[size] = longitude;
+            size++;
+        }
+
+        RouteGeometry build() {
+            return new RouteGeometry(Arrays.copyOf(lat, size), Arrays.copyOf(lng, size));
+        }
+    }
+}
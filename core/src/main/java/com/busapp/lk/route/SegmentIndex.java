@@ -0,0 +1,141 @@
+package com.busapp.lk.route;
+
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+
+/**
+ * Grid index over the segments of one route, for finding the segments
+ * near a fix without walking the whole shape.
+ *
+ * <p>Vertices are kept in a local planar frame in metres around the
+ * route's first vertex. Each segment is filed under every cell its
+ * bounding box touches; the (cell, segment) pairs are sorted by cell so a
+ * cell is found by binary search, and only cells the route passes through
+ * take any space. Immutable; queries use caller-owned scratch and are safe
+ * from several threads.
+ */
+final class SegmentIndex {
+
+    static final double CELL_METERS = 100;
+    // Cell keys take 40 bits, so 23 are left for the segment
+    private static final int SEGMENT_BITS = 23;
+
+    private static final double METERS_PER_DEGREE_LAT = 110_540;
+    private static final double METERS_PER_DEGREE_LNG = 111_320;
+
+    private final RouteGeometry route;
+    private final double originLat;
+    private final double originLng;
+    private final double metersPerDegreeLng;
+    final double[] x;
+    final double[] y;
+
+    // Sorted cell keys, and the segments of cell i in segments[start[i]..start[i + 1])
+    private final long[] cells;
+    private final int[] start;
+    private final int[] segments;
+
+    SegmentIndex(RouteGeometry route) {
+        this.route = route;
+        int n = route.vertexCount();
+        originLat = route.lat(0);
+        originLng = route.lng(0);
+        metersPerDegreeLng = METERS_PER_DEGREE_LNG * Math.cos(Math.toRadians(originLat));
+        x = new double[n];
+        y = new double[n];
+        for (int v = 0; v < n; v++) {
+            x[v] = toX(route.lng(v));
+            y[v] = toY(route.lat(v));
+        }
+
+        if (n - 1 > 1 << SEGMENT_BITS) {
+            throw new IllegalArgumentException("Too many segments to index: " + (n - 1));
+        }
+        // (cell, segment) pairs packed in a non-negative long so one sort groups them by cell
+        long[] pairs = new long[Math.max(16, n * 2)];
+        int count = 0;
+        for (int s = 0; s < n - 1; s++) {
+            int x0 = cell(Math.min(x[s], x[s + 1]));
+            int x1 = cell(Math.max(x[s], x[s + 1]));
+            int y0 = cell(Math.min(y[s], y[s + 1]));
+            int y1 = cell(Math.max(y[s], y[s + 1]));
+            for (int cx = x0; cx <= x1; cx++) {
+                for (int cy = y0; cy <= y1; cy++) {
+                    if (count == pairs.length) pairs = Arrays.copyOf(pairs, count * 2);
+                    pairs[count++] = key(cx, cy) << SEGMENT_BITS | s;
+                }
+            }
+        }
+        Arrays.sort(pairs, 0, count);
+
+        long[] cellKeys = new long[count];
+        int[] cellStart = new int[count + 1];
+        segments = new int[count];
+        int cellCount = 0;
+        for (int i = 0; i < count; i++) {
+            long cell = pairs[i] >>> SEGMENT_BITS;
+            if (cellCount == 0 || cellKeys[cellCount - 1] != cell) {
+                cellKeys[cellCount] = cell;
+                cellStart[cellCount++] = i;
+            }
+            segments[i] = (int) (pairs[i] & ((1 << SEGMENT_BITS) - 1));
+        }
+        cellStart[cellCount] = count;
+        cells = Arrays.copyOf(cellKeys, cellCount);
+        start = Arrays.copyOf(cellStart, cellCount + 1);
+    }
+
+    RouteGeometry getRoute() {
+        return route;
+    }
+
+    double toX(double lng) {
+        return (lng - originLng) * metersPerDegreeLng;
+    }
+
+    double toY(double lat) {
+        return (lat - originLat) * METERS_PER_DEGREE_LAT;
+    }
+
+    /**
+     * Writes each segment with a cell within {@code radius} metres of the
+     * point into {@code out}, once. {@code seen} must hold one slot per
+     * segment and is left cleared.
+     */
+    void near(double px, double py, double radius, IntList out, boolean[] seen) {
+        out.clear();
+        int x0 = cell(px - radius);
+        int x1 = cell(px + radius);
+        int y0 = cell(py - radius);
+        int y1 = cell(py + radius);
+        for (int cx = x0; cx <= x1; cx++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                int c = Arrays.binarySearch(cells, key(cx, cy));
+                if (c < 0) continue;
+                for (int i = start[c]; i < start[c + 1]; i++) {
+                    int s = segments[i];
+                    if (!seen[s]) {
+                        seen[s] = true;
+                        out.add(s);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < out.size(); i++) {
+            seen[out.get(i)] = false;
+        }
+    }
+
+    int segmentCount() {
+        return x.length - 1;
+    }
+
+    private static int cell(double meters) {
+        return (int) Math.floor(meters / CELL_METERS);
+    }
+
+    // 20 bits a coordinate covers +-52 000 km of cells, far beyond any route
+    private static long key(int cx, int cy) {
+        return ((long) (cx + (1 << 19)) << 20) | (cy + (1 << 19));
+    }
+}
@@ -0,0 +1,74 @@
+package com.busapp.lk.alert;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class StopAlertsTest {
+
+    // Every bus does 30 km/h
+    private final StopAlerts alerts = new StopAlerts((bus, km) -> (float) ((km - km(bus)) / 30 * 3600));
+    private final double[] busKm = new double[4];
+    private final List<String> fired = new ArrayList<>();
+    private final StopAlerts.Listener listener = (subscription, bus, seconds) ->
+            fired.add(subscription + ":" + bus + ":" + Math.round(seconds));
+
+    private double km(int bus) {
+        return busKm[bus];
+    }
+
+    private void move(int bus, double km) {
+        busKm[bus] = km;
+        alerts.update(bus, km, listener);
+    }
+
+    @Test
+    public void firesOnceWhenDueWithinLeadOnTheSameRouteOnly() {
+        int stop = alerts.subscribe(138, 10.0, 300);
+        alerts.subscribe(138, 20.0, 300);
+        alerts.subscribe(177, 10.0, 300);
+        alerts.setBusRoute(0, 138);
+
+        // 5 km out is 10 minutes away, 2.5 km is exactly 5
+        move(0, 5.0);
+        assertEquals(0, fired.size());
+        move(0, 7.5);
+        assertEquals(1, fired.size());
+        assertEquals(stop + ":0:300", fired.get(0));
+        move(0, 8.5);
+        move(0, 9.9);
+        assertEquals(1, fired.size());
+
+        // Past the stop it is quiet until the next run comes round
+        move(0, 12.0);
+        move(0, 1.0);
+        move(0, 9.0);
+        assertEquals(2, fired.size());
+        assertEquals(3, alerts.size());
+    }
+
+    @Test
+    public void rearmsForTheNextBusOnceTheFirstHasPassed() {
+        int stop = alerts.subscribe(138, 10.0, 600);
+        alerts.setBusRoute(1, 138);
+        alerts.setBusRoute(2, 138);
+
+        move(1, 6.0);
+        move(2, 5.5);
+        assertEquals(1, fired.size());
+        move(1, 10.2);
+        move(2, 6.0);
+        assertEquals(2, fired.size());
+        assertEquals(stop + ":2:480", fired.get(1));
+
+        alerts.unsubscribe(stop);
+        move(1, 1.0);
+        move(1, 8.0);
+        assertEquals(2, fired.size());
+        assertEquals(0, alerts.size());
+        // The second bus was not looked up while the first was still due
+        assertEquals(2, alerts.getChecks());
+    }
+}
@@ -0,0 +1,73 @@
+package com.busapp.lk.eta;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public class ArrivalBoardTest {
+
+    @Test
+    public void topFollowsUpdatesAndRemovals() {
+        ArrivalBoard board = new ArrivalBoard();
+        board.update(0, 300);
+        board.update(1, 120);
+        board.update(2, 600);
+        board.update(3, 60);
+        IntList top = new IntList();
+
+        board.top(3, top);
+        assertArrayEquals(new int[]{3, 1, 0}, top.toArray());
+
+        // Bus 2 speeds up, bus 3 is gone
+        board.update(2, 30);
+        board.remove(3);
+        board.top(10, top);
+        assertArrayEquals(new int[]{2, 1, 0}, top.toArray());
+        assertFalse(board.contains(3));
+        assertEquals(3, board.size());
+    }
+
+    @Test
+    public void matchesFullSortUnderRandomChanges() {
+        Random random = new Random(9);
+        int ids = 500;
+        float[] expected = new float[ids];
+        Arrays.fill(expected, Float.NaN);
+        ArrivalBoard board = new ArrivalBoard();
+        IntList top = new IntList();
+
+        for (int step = 0; step < 20_000; step++) {
+            int id = random.nextInt(ids);
+            if (random.nextInt(5) == 0) {
+                board.remove(id);
+                expected[id] = Float.NaN;
+            } else {
+                float eta = random.nextInt(3600);
+                board.update(id, eta);
+                expected[id] = eta;
+            }
+
+            if (step % 500 == 0) {
+                int[] sorted = IntStream.range(0, ids)
+                        .filter(i -> !Float.isNaN(expected[i]))
+                        .boxed()
+                        .sorted(Comparator.comparingDouble(i -> expected[i]))
+                        .mapToInt(Integer::intValue)
+                        .toArray();
+                assertEquals(sorted.length, board.size());
+                board.top(10, top);
+                for (int k = 0; k < top.size(); k++) {
+                    // Ties may come out in either order, so compare ETAs
+                    assertEquals(expected[sorted[k]], board.eta(top.get(k)), 0);
+                }
+            }
+        }
+    }
+}
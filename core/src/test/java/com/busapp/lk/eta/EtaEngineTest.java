@@ -0,0 +1,104 @@
+package com.busapp.lk.eta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.TimeZone;
+import org.junit.Test;
+
+public class EtaEngineTest {
+
+    private static final long HOUR = 3_600_000L;
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    // Runs one bus over the route at a constant speed, reporting every 10 s
+    private static void drive(EtaEngine engine, int bus, double lengthKm, double speedKmh, long startMillis) {
+        double km = 0;
+        long time = startMillis;
+        while (km < lengthKm) {
+            engine.updateBus(bus, km, time);
+            km += speedKmh / 360;
+            time += 10_000;
+        }
+        engine.updateBus(bus, lengthKm, time);
+    }
+
+    @Test
+    public void usesDefaultSpeedWithoutHistory() {
+        EtaEngine engine = new EtaEngine(UTC, 20);
+        int route = engine.addRoute(new double[]{0, 1, 2, 3});
+        int bus = engine.addBus(route);
+
+        engine.updateBus(bus, 0.5, 0);
+        engine.tick(0);
+
+        // 20 km/h is 180 s/km
+        assertEquals(270, engine.etaSeconds(bus, 2), 1e-3);
+        assertEquals(EtaEngine.NO_ETA, engine.etaSeconds(bus, 0), 0);
+        assertEquals(90, engine.etaSecondsToKm(bus, 1.0), 1e-3);
+        assertEquals(0, engine.lastStop(bus));
+    }
+
+    @Test
+    public void learnsSegmentPaceFromBusesCrossingStops() {
+        EtaEngine engine = new EtaEngine(UTC, 20);
+        int route = engine.addRoute(new double[]{0, 1, 2, 3, 4});
+        int bus = engine.addBus(route);
+        for (int run = 0; run < 5; run++) {
+            drive(engine, bus, 4, 36, 8 * HOUR + run * 600_000L);
+        }
+        assertTrue(engine.getObservations() > 0);
+
+        // 36 km/h is 100 s/km, within the histogram's resolution
+        float learnt = engine.pace(route, 1, 8);
+        assertEquals(100, learnt, 8);
+
+        int next = engine.addBus(route);
+        engine.updateBus(next, 0, 8 * HOUR);
+        engine.tick(8 * HOUR);
+        assertEquals(3 * learnt, engine.etaSeconds(next, 3), 1);
+    }
+
+    @Test
+    public void keepsHoursApartAndFallsBackToAllDay() {
+        EtaEngine engine = new EtaEngine(UTC, 20);
+        int route = engine.addRoute(new double[]{0, 1, 2, 3});
+        int bus = engine.addBus(route);
+        for (int run = 0; run < 3; run++) {
+            drive(engine, bus, 3, 12, 8 * HOUR + run * 1_000_000L);
+        }
+        for (int run = 0; run < 5; run++) {
+            drive(engine, bus, 3, 40, 14 * HOUR + run * 600_000L);
+        }
+
+        float rushHour = engine.pace(route, 1, 8);
+        float afternoon = engine.pace(route, 1, 14);
+        assertEquals(300, rushHour, 25);
+        assertEquals(90, afternoon, 8);
+        // No samples at 03:00, so the all-day median applies
+        float night = engine.pace(route, 1, 3);
+        assertTrue(night >= afternoon && night <= rushHour);
+    }
+
+    @Test
+    public void rollingDecayFollowsChangedTraffic() {
+        EtaEngine engine = new EtaEngine(UTC, 20);
+        int route = engine.addRoute(new double[]{0, 1, 2, 3});
+        int bus = engine.addBus(route);
+        for (int run = 0; run < 40; run++) {
+            drive(engine, bus, 3, 40, 9 * HOUR + run * 60_000L);
+        }
+        for (int run = 0; run < 120; run++) {
+            drive(engine, bus, 3, 15, 9 * HOUR + run * 20_000L);
+        }
+        assertEquals(240, engine.pace(route, 1, 9), 20);
+    }
+
+    @Test
+    public void binsAreGeometric() {
+        assertEquals(0, EtaEngine.binOf(10));
+        assertEquals(0, EtaEngine.binOf(44));
+        assertEquals(1, EtaEngine.binOf(45));
+        assertEquals(EtaEngine.BINS - 1, EtaEngine.binOf(100_000));
+    }
+}
@@ -0,0 +1,48 @@
+package com.busapp.lk.eta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Locale;
+import org.junit.Test;
+
+public class InfoCardTextTest {
+
+    @Test
+    public void textMatchesTheFormattedCard() {
+        InfoCardText card = new InfoCardText();
+        for (double value = 0; value < 120; value += 0.37) {
+            card.update(value, value, value / 2, value / 3, 600, 2);
+            assertEquals(String.format(Locale.US, "%.0f km/h", value), card.speed.toString());
+            assertEquals(String.format(Locale.US, "%.1f km", value), card.routeDistance.toString());
+            assertEquals(String.format(Locale.US, "%.1f km away from you", value / 3),
+                    card.distanceToUser.toString());
+        }
+        assertEquals("50% Complete", card.progress.toString());
+        assertEquals("\uD83D\uDE8C Arriving in 10 mins", card.eta.toString());
+    }
+
+    @Test
+    public void onlyFieldsWhoseTextChangedAreReported() {
+        InfoCardText card = new InfoCardText();
+        assertEquals(InfoCardText.ALL, card.update(31.2, 15.2, 3, 1.04, 250, 4));
+        assertEquals("\u23F1\uFE0F Near you in 5 mins", card.eta.toString());
+        assertEquals(TripStatus.Motion.MOVING, card.getMotion());
+
+        // A few metres and seconds later nothing shown has moved
+        assertEquals(0, card.update(30.9, 15.2, 3.01, 1.02, 241, 4));
+
+        assertEquals(InfoCardText.SPEED | InfoCardText.STATUS | InfoCardText.ETA,
+                card.update(4, 15.2, 3.02, 1.02, 59, 4));
+        assertEquals("4 km/h", card.speed.toString());
+        assertEquals(TripStatus.EtaBand.IMMINENT, card.getEtaBand());
+
+        assertEquals(InfoCardText.DISTANCE_TO_USER | InfoCardText.ETA,
+                card.update(4, 15.2, 3.02, Double.NaN, 0, 0));
+        assertEquals("Location required for ETA", card.eta.toString());
+        assertNull(card.getEtaBand());
+
+        card.reset();
+        assertEquals(InfoCardText.ALL, card.update(4, 15.2, 3.02, Double.NaN, 0, 0));
+    }
+}
@@ -0,0 +1,25 @@
+package com.busapp.lk.eta;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TripStatusTest {
+
+    @Test
+    public void bandsFollowTheInfoCardThresholds() {
+        assertEquals(TripStatus.EtaBand.PASSED, TripStatus.etaBand(EtaEngine.NO_ETA, 2, 3));
+        assertEquals(TripStatus.EtaBand.UNAVAILABLE, TripStatus.etaBand(EtaEngine.NO_ETA, 4, 3));
+        assertEquals(TripStatus.EtaBand.IMMINENT, TripStatus.etaBand(59, 4, 3));
+        assertEquals(TripStatus.EtaBand.NEAR, TripStatus.etaBand(300, 4, 3));
+        assertEquals(TripStatus.EtaBand.SOON, TripStatus.etaBand(301, 4, 3));
+        assertEquals(TripStatus.EtaBand.LATER, TripStatus.etaBand(901, 4, 3));
+        assertEquals(6, TripStatus.etaMinutes(301));
+
+        assertEquals(TripStatus.Motion.STOPPED, TripStatus.motion(4.9));
+        assertEquals(TripStatus.Motion.SLOW, TripStatus.motion(5));
+        assertEquals(TripStatus.Motion.MOVING, TripStatus.motion(20));
+        assertEquals(100, TripStatus.progressPercent(16, 15.2), 0);
+        assertEquals(50, TripStatus.progressPercent(7.6, 15.2), 1e-9);
+    }
+}
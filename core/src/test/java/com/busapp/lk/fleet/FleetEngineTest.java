@@ -0,0 +1,159 @@
+package com.busapp.lk.fleet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.busapp.lk.route.RouteGeometry;
+import com.busapp.lk.util.IntList;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class FleetEngineTest {
+
+    @Test
+    public void tickMovesBusAlongRouteBySpeed() {
+        FleetEngine engine = new FleetEngine(2000, new Random(1));
+        engine.addBus(engine.addRoute(6.9271, 79.8612, 6.8406, 79.8636));
+
+        engine.tick();
+        FleetSnapshot snapshot = engine.acquireSnapshot();
+
+        assertEquals(1, snapshot.getTick());
+        assertEquals(1, snapshot.size());
+        assertTrue(snapshot.lat(0) < 6.9271);
+        assertTrue(snapshot.speed(0) >= 20 && snapshot.speed(0) < 55);
+        assertEquals(snapshot.speed(0) * 2000 / 3_600_000.0, snapshot.distanceTraveled(0), 1e-6);
+        // Heading roughly south
+        assertEquals(178, snapshot.heading(0), 2);
+    }
+
+    @Test
+    public void busFollowsRouteVertices() {
+        // An L-shaped route: about 0.3 km north, then 2.2 km east
+        RouteGeometry route = new RouteGeometry(
+                new double[]{6.9000, 6.9025, 6.9025},
+                new double[]{79.86, 79.86, 79.88});
+        FleetEngine engine = new FleetEngine(60_000, new Random(1));
+        engine.addBus(engine.addRoute(route));
+
+        engine.tick();
+        FleetSnapshot snapshot = engine.acquireSnapshot();
+        double[] expected = new double[2];
+        route.positionAt(snapshot.distanceTraveled(0), expected);
+
+        assertEquals(expected[0], snapshot.lat(0), 1e-12);
+        assertEquals(expected[1], snapshot.lng(0), 1e-12);
+        assertTrue(snapshot.distanceTraveled(0) > route.cumulativeKm(1));
+        assertEquals(90, snapshot.heading(0), 1);
+    }
+
+    @Test
+    public void busResetsToStartAfterArriving() {
+        FleetEngine engine = new FleetEngine(2000, new Random(1));
+        engine.addBus(engine.addRoute(6.9000, 79.8600, 6.9000, 79.8601));
+
+        engine.tick();
+        FleetSnapshot snapshot = engine.acquireSnapshot();
+
+        assertEquals(6.9000, snapshot.lat(0), 0);
+        assertEquals(79.8600, snapshot.lng(0), 0);
+        assertEquals(0, snapshot.distanceTraveled(0), 0);
+    }
+
+    @Test
+    public void acquiredSnapshotIsStableUntilNextAcquire() {
+        FleetEngine engine = new FleetEngine(2000, new Random(1));
+        engine.addBus(engine.addRoute(6.9271, 79.8612, 6.8406, 79.8636));
+
+        engine.tick();
+        FleetSnapshot first = engine.acquireSnapshot();
+        double lat = first.lat(0);
+        // Several publishes recycle the other two buffers but never the one being read
+        engine.tick();
+        engine.tick();
+        engine.tick();
+        assertEquals(1, first.getTick());
+        assertEquals(lat, first.lat(0), 0);
+
+        FleetSnapshot latest = engine.acquireSnapshot();
+        assertNotSame(first, latest);
+        assertEquals(4, latest.getTick());
+        assertSame(latest, engine.acquireSnapshot());
+    }
+
+    @Test
+    public void scheduledTicksNotifyListener() throws InterruptedException {
+        FleetEngine engine = new FleetEngine(5, new Random(1));
+        engine.addBus(engine.addRoute(6.9271, 79.8612, 6.8406, 79.8636));
+        CountDownLatch published = new CountDownLatch(3);
+        engine.setListener(tick -> published.countDown());
+
+        engine.start();
+        try {
+            assertTrue(published.await(5, TimeUnit.SECONDS));
+        } finally {
+            engine.shutdown();
+        }
+        assertTrue(engine.acquireSnapshot().getTick() >= 3);
+    }
+
+    @Test
+    public void scheduledEngineWakesAtVisibleRateAndAdvancesFarBusesLater() {
+        FleetEngine engine = new FleetEngine(500, new Random(1));
+        int route = engine.addRoute(6.9271, 79.8612, 6.8406, 79.8636);
+        int visible = engine.addBus(route);
+        int far = engine.addBus(route);
+        engine.setUpdateScheduler(new UpdateScheduler(1, 4, 8, 16));
+        IntList shown = new IntList();
+        shown.add(visible);
+        engine.focus(-1, shown, new IntList());
+
+        engine.tick();
+        FleetSnapshot snapshot = engine.acquireSnapshot();
+        assertEquals(4, snapshot.getTick());
+        assertEquals(4, snapshot.updatedTick(visible));
+        assertEquals(0, snapshot.updatedTick(far));
+        assertEquals(snapshot.speed(visible) * 4 * 500 / 3_600_000.0, snapshot.distanceTraveled(visible), 1e-6);
+        assertEquals(0, snapshot.distanceTraveled(far), 0);
+
+        for (int i = 0; i < 3; i++) {
+            engine.tick();
+        }
+        snapshot = engine.acquireSnapshot();
+        // The far bus moves once, by all 16 ticks it waited
+        assertEquals(16, snapshot.updatedTick(far));
+        assertEquals(snapshot.speed(far) * 16 * 500 / 3_600_000.0, snapshot.distanceTraveled(far), 1e-6);
+        assertEquals(4, engine.getUpdateScheduler().getWakeups());
+        assertEquals(5, engine.getUpdateScheduler().getUpdates());
+    }
+
+    @Test
+    public void movedBusIsUpdatedInTheNextSnapshotEvenWhenNotDue() {
+        FleetEngine engine = new FleetEngine(500, new Random(1));
+        int route = engine.addRoute(6.9271, 79.8612, 6.8406, 79.8636);
+        int visible = engine.addBus(route);
+        int far = engine.addBus(route);
+        engine.setUpdateScheduler(new UpdateScheduler(1, 4, 8, 16));
+        IntList shown = new IntList();
+        shown.add(visible);
+        engine.focus(-1, shown, new IntList());
+        engine.tick();
+        long seen = engine.acquireSnapshot().getTick();
+
+        engine.moveBus(far, 2.5);
+        engine.tick();
+        FleetSnapshot snapshot = engine.acquireSnapshot();
+        assertTrue(snapshot.updatedTick(far) > seen);
+        assertTrue(snapshot.updatedTick(far) <= snapshot.getTick());
+        assertEquals(2.5, snapshot.distanceTraveled(far), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addBusRejectsUnknownRoute() {
+        new FleetEngine(2000).addBus(0);
+    }
+}
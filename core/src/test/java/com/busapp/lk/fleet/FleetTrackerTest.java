@@ -0,0 +1,57 @@
+package com.busapp.lk.fleet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.busapp.lk.eta.EtaEngine;
+import com.busapp.lk.geo.ClusterIndex;
+import com.busapp.lk.geo.SpatialGrid;
+import com.busapp.lk.motion.MotionPredictor;
+import com.busapp.lk.route.RouteGeometry;
+import com.busapp.lk.util.IntList;
+import java.util.Random;
+import java.util.TimeZone;
+import org.junit.Test;
+
+public class FleetTrackerTest {
+
+    @Test
+    public void appliesOnlyBusesTheSnapshotUpdated() {
+        FleetEngine engine = new FleetEngine(500, new Random(1));
+        RouteGeometry geometry = RouteGeometry.straight(6.9271, 79.8612, 6.8406, 79.8636);
+        int route = engine.addRoute(geometry);
+        MotionPredictor predictor = new MotionPredictor();
+        EtaEngine eta = new EtaEngine(TimeZone.getTimeZone("Asia/Colombo"), 20);
+        int etaRoute = eta.addRoute(new double[] {0, geometry.getLengthKm()});
+        SpatialGrid grid = SpatialGrid.forSriLanka(0.01);
+        FleetTracker tracker = new FleetTracker(predictor, eta, grid, new ClusterIndex(6, 16));
+        for (int i = 0; i < 2; i++) {
+            int bus = engine.addBus(route);
+            eta.addBus(etaRoute);
+            predictor.place(bus, geometry, 0, 0, 0);
+        }
+        engine.setUpdateScheduler(new UpdateScheduler(1, 4, 8, 16));
+        IntList visible = new IntList();
+        visible.add(1);
+        engine.focus(-1, visible, new IntList());
+
+        IntList changed = new IntList();
+        engine.tick();
+        FleetSnapshot snapshot = engine.acquireSnapshot();
+        assertTrue(tracker.apply(snapshot, 1_000_000_000L, 1_700_000_000_000L, changed));
+        assertEquals(1, changed.size());
+        assertEquals(1, changed.get(0));
+        assertEquals(4, tracker.getAppliedTick());
+        assertTrue(grid.contains(1));
+        assertFalse(grid.contains(0));
+        // Once the blend is over the predictor has caught up with the fix
+        long blended = 1_000_000_000L + MotionPredictor.DEFAULT_BLEND_NANOS;
+        assertTrue(predictor.predictedKm(1, blended) >= snapshot.distanceTraveled(1));
+        assertEquals(0, predictor.predictedKm(0, blended), 1e-9);
+
+        // The same snapshot again is a no-op
+        assertFalse(tracker.apply(snapshot, 2_000_000_000L, 1_700_000_001_000L, changed));
+        assertEquals(0, changed.size());
+    }
+}
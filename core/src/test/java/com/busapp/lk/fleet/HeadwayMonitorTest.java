@@ -0,0 +1,126 @@
+package com.busapp.lk.fleet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busapp.lk.util.IntList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class HeadwayMonitorTest {
+
+    // No ETAs, so headways come from the fallback speed: 2 km is 6 minutes
+    private final HeadwayMonitor monitor = new HeadwayMonitor((bus, km) -> -1f);
+    private final List<String> events = new ArrayList<>();
+
+    public HeadwayMonitorTest() {
+        monitor.setListener((route, follower, leader, spacing, seconds) ->
+                events.add(route + ":" + follower + "->" + leader + ":" + spacing));
+    }
+
+    private static String text(IntList list) {
+        StringBuilder text = new StringBuilder("[");
+        for (int i = 0; i < list.size(); i++) {
+            text.append(i == 0 ? "" : ", ").append(list.get(i));
+        }
+        return text.append(']').toString();
+    }
+
+    private void place(int route, int bus, double km) {
+        monitor.setBusRoute(bus, route);
+        monitor.update(bus, km);
+    }
+
+    @Test
+    public void ordersBusesAndReportsBunchingAndOvertaking() {
+        place(138, 0, 1);
+        place(138, 1, 3);
+        place(138, 2, 5);
+        place(138, 3, 9);
+        IntList order = new IntList();
+        monitor.buses(138, order);
+        assertEquals("[0, 1, 2, 3]", text(order));
+        assertEquals(360, monitor.headwaySeconds(0), 0.01);
+        assertEquals(720, monitor.headwaySeconds(2), 0.01);
+        assertTrue(Float.isNaN(monitor.headwaySeconds(3)));
+        assertEquals(480, monitor.meanHeadwaySeconds(138), 0.01);
+        assertEquals(0, events.size());
+
+        // Right behind bus 2 without passing it
+        monitor.update(1, 4.8);
+        assertEquals(36, monitor.headwaySeconds(1), 0.01);
+        assertEquals(HeadwayMonitor.Spacing.BUNCHED, monitor.spacing(1));
+        assertEquals("138:1->2:BUNCHED", events.get(0));
+        assertEquals(0, monitor.getReorders());
+
+        // Overtaking reorders, and bus 1 now has room ahead
+        monitor.update(1, 6);
+        monitor.buses(138, order);
+        assertEquals("[0, 2, 1, 3]", text(order));
+        assertEquals(180, monitor.headwaySeconds(2), 0.01);
+        assertEquals(540, monitor.headwaySeconds(1), 0.01);
+        assertEquals(720, monitor.headwaySeconds(0), 0.01);
+        assertEquals("138:1->3:REGULAR", events.get(1));
+        assertEquals(1, monitor.getReorders());
+
+        monitor.remove(2);
+        monitor.buses(138, order);
+        assertEquals("[0, 1, 3]", text(order));
+        assertEquals(900, monitor.headwaySeconds(0), 0.01);
+    }
+
+    @Test
+    public void reportsGapsAgainstTheRouteMean() {
+        place(176, 10, 0);
+        place(176, 11, 1);
+        place(176, 12, 2);
+        place(176, 13, 3);
+        place(176, 14, 8);
+        assertEquals(HeadwayMonitor.Spacing.GAP, monitor.spacing(13));
+        assertEquals("176:13->14:GAP", events.get(events.size() - 1));
+        // Another route is unaffected
+        place(177, 20, 0);
+        assertTrue(Float.isNaN(monitor.meanHeadwaySeconds(177)));
+    }
+
+    @Test
+    public void staysConsistentWithASortAfterRandomMoves() {
+        Random random = new Random(11);
+        int buses = 600;
+        double[] km = new double[buses];
+        for (int bus = 0; bus < buses; bus++) {
+            km[bus] = random.nextDouble() * 30;
+            place(bus % 3, bus, km[bus]);
+        }
+        IntList order = new IntList();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 2000; i++) {
+                int bus = random.nextInt(buses);
+                km[bus] = random.nextInt(10) == 0 ? random.nextDouble() * 30
+                        : km[bus] + random.nextDouble() * 0.3;
+                monitor.update(bus, km[bus]);
+            }
+            for (int route = 0; route < 3; route++) {
+                monitor.buses(route, order);
+                assertEquals(buses / 3, order.size());
+                double sum = 0;
+                for (int i = 0; i < order.size(); i++) {
+                    int bus = order.get(i);
+                    assertEquals(km[bus], monitor.distanceKm(bus), 0);
+                    if (i + 1 == order.size()) {
+                        assertTrue(Float.isNaN(monitor.headwaySeconds(bus)));
+                        continue;
+                    }
+                    int ahead = order.get(i + 1);
+                    assertTrue(km[ahead] >= km[bus]);
+                    float expected = (float) ((km[ahead] - km[bus]) / HeadwayMonitor.FALLBACK_SPEED_KMH * 3600);
+                    assertEquals(expected, monitor.headwaySeconds(bus), 0.01);
+                    sum += expected;
+                }
+                assertEquals(sum / (order.size() - 1), monitor.meanHeadwaySeconds(route), 0.05);
+            }
+        }
+    }
+}
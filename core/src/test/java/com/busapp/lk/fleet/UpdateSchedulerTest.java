@@ -0,0 +1,57 @@
+package com.busapp.lk.fleet;
+
+import static org.junit.Assert.assertEquals;
+
+import com.busapp.lk.fleet.UpdateScheduler.Priority;
+import com.busapp.lk.util.IntList;
+import org.junit.Test;
+
+public class UpdateSchedulerTest {
+
+    @Test
+    public void focusRaisesMentionedBusesAndDemotesTheRest() {
+        UpdateScheduler scheduler = new UpdateScheduler(1, 4, 8, 30);
+        for (int i = 0; i < 6; i++) {
+            scheduler.add(i, 0);
+        }
+        assertEquals(30, scheduler.wakeStride());
+
+        scheduler.focus(0, list(1, 2), list(3));
+        assertEquals(Priority.SELECTED, scheduler.priority(0));
+        assertEquals(Priority.VISIBLE, scheduler.priority(1));
+        assertEquals(Priority.NEARBY, scheduler.priority(3));
+        assertEquals(Priority.FAR, scheduler.priority(5));
+        assertEquals(1, scheduler.wakeStride());
+
+        // Deselect and pan: bus 2 stays visible, the others fall back
+        scheduler.focus(-1, list(2, 4), list());
+        assertEquals(Priority.FAR, scheduler.priority(0));
+        assertEquals(Priority.FAR, scheduler.priority(1));
+        assertEquals(Priority.VISIBLE, scheduler.priority(2));
+        assertEquals(Priority.FAR, scheduler.priority(3));
+        assertEquals(Priority.VISIBLE, scheduler.priority(4));
+        assertEquals(4, scheduler.wakeStride());
+    }
+
+    @Test
+    public void busIsDueOnceItsStrideHasElapsedAndCatchesUp() {
+        UpdateScheduler scheduler = new UpdateScheduler(1, 4, 8, 30);
+        scheduler.add(0, 0);
+        scheduler.add(1, 0);
+        scheduler.focus(-1, list(0), list());
+
+        assertEquals(0, scheduler.due(0, 3));
+        assertEquals(4, scheduler.due(0, 4));
+        assertEquals(0, scheduler.due(1, 28));
+        assertEquals(32, scheduler.due(1, 32));
+        assertEquals(0, scheduler.due(1, 33));
+    }
+
+    private static IntList list(int... values) {
+        IntList list = new IntList();
+        for (int value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,36 @@
+package com.busapp.lk.fleet;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class VehicleStateStoreTest {
+
+    @Test
+    public void addGrowsAndKeepsExistingState() {
+        VehicleStateStore store = new VehicleStateStore(1);
+        int first = store.add(3, 6.9, 79.8);
+        store.setSpeed(first, 42);
+        int second = store.add(5, 7.0, 80.0);
+
+        assertEquals(0, first);
+        assertEquals(1, second);
+        assertEquals(2, store.size());
+        assertEquals(6.9, store.lat(first), 0);
+        assertEquals(42, store.speed(first), 0);
+        assertEquals(5, store.routeId(second));
+        assertEquals(VehicleStateStore.NO_STOP, store.stopId(second));
+    }
+
+    @Test
+    public void arrayAccessorsExposeLiveState() {
+        VehicleStateStore store = new VehicleStateStore(4);
+        int index = store.add(0, 6.9, 79.8);
+
+        store.latitudes()[index] = 7.1;
+        store.distancesTraveled()[index] = 2.5;
+
+        assertEquals(7.1, store.lat(index), 0);
+        assertEquals(2.5, store.distanceTraveled(index), 0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.busapp.lk.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.busapp.lk.util.IntList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+public class ClusterIndexTest {
+
+    private static final int COUNT = 3000;
+
+    @Test
+    public void nearbyPointsMergeWhenZoomedOutAndSplitWhenZoomedIn() {
+        ClusterIndex index = new ClusterIndex(8, 16);
+        index.update(0, 6.9271, 79.8612);
+        index.update(1, 6.9301, 79.8642);
+        index.update(2, 6.8406, 79.8636);
+
+        IntList clusters = new IntList();
+        index.query(10, SriLanka.MIN_LAT, SriLanka.MIN_LNG, SriLanka.MAX_LAT, SriLanka.MAX_LNG, clusters);
+        assertEquals(2, clusters.size());
+        int total = 0;
+        for (int i = 0; i < clusters.size(); i++) {
+            int cluster = clusters.get(i);
+            total += index.count(10, cluster);
+            if (index.count(10, cluster) == 2) {
+                assertEquals(6.9286, index.lat(10, cluster), 1e-9);
+                assertEquals(ClusterIndex.NO_ID, index.single(10, cluster));
+            } else {
+                assertEquals(2, index.single(10, cluster));
+            }
+        }
+        assertEquals(3, total);
+
+        index.query(16, 6.92, 79.85, 6.935, 79.87, clusters);
+        assertEquals(2, clusters.size());
+        assertEquals(1, index.count(16, clusters.get(0)));
+        assertEquals(1, index.count(16, clusters.get(1)));
+    }
+
+    @Test
+    public void incrementalUpdatesMatchAFreshIndex() {
+        Random random = new Random(5);
+        double[] lat = new double[COUNT];
+        double[] lng = new double[COUNT];
+        ClusterIndex moving = new ClusterIndex(8, 16);
+        for (int i = 0; i < COUNT; i++) {
+            lat[i] = 6.8 + random.nextDouble() * 0.2;
+            lng[i] = 79.8 + random.nextDouble() * 0.2;
+            moving.update(i, lat[i], lng[i]);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < COUNT; i++) {
+                lat[i] += (random.nextDouble() - 0.5) * 0.01;
+                lng[i] += (random.nextDouble() - 0.5) * 0.01;
+                moving.update(i, lat[i], lng[i]);
+            }
+        }
+        for (int i = 0; i < COUNT; i += 7) {
+            moving.remove(i);
+        }
+
+        ClusterIndex fresh = new ClusterIndex(8, 16);
+        for (int i = 0; i < COUNT; i++) {
+            if (i % 7 != 0) fresh.update(i, lat[i], lng[i]);
+        }
+        assertEquals(fresh.size(), moving.size());
+        assertFalse(moving.contains(7));
+
+        for (int zoom = 8; zoom <= 16; zoom += 4) {
+            Map<Long, double[]> expected = snapshot(fresh, zoom);
+            Map<Long, double[]> actual = snapshot(moving, zoom);
+            assertEquals(expected.keySet(), actual.keySet());
+            for (Map.Entry<Long, double[]> entry : expected.entrySet()) {
+                double[] want = entry.getValue();
+                double[] got = actual.get(entry.getKey());
+                assertEquals(want[0], got[0], 0);
+                assertEquals(want[1], got[1], 1e-9);
+                assertEquals(want[2], got[2], 1e-9);
+                assertEquals(want[3], got[3], 0);
+            }
+        }
+    }
+
+    // {count, lat, lng, single} per cluster key over the whole island
+    private static Map<Long, double[]> snapshot(ClusterIndex index, int zoom) {
+        IntList clusters = new IntList();
+        index.query(zoom, SriLanka.MIN_LAT, SriLanka.MIN_LNG, SriLanka.MAX_LAT, SriLanka.MAX_LNG, clusters);
+        Map<Long, double[]> byKey = new HashMap<>();
+        for (int i = 0; i < clusters.size(); i++) {
+            int cluster = clusters.get(i);
+            byKey.put(index.key(zoom, cluster), new double[]{
+                    index.count(zoom, cluster), index.lat(zoom, cluster),
+                    index.lng(zoom, cluster), index.single(zoom, cluster)});
+        }
+        return byKey;
+    }
+}
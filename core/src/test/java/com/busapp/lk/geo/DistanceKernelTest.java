@@ -0,0 +1,85 @@
+package com.busapp.lk.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class DistanceKernelTest {
+
+    private static final int POINTS = 20_000;
+
+    private static double randomLat(Random random) {
+        return SriLanka.MIN_LAT + random.nextDouble() * (SriLanka.MAX_LAT - SriLanka.MIN_LAT);
+    }
+
+    private static double randomLng(Random random) {
+        return SriLanka.MIN_LNG + random.nextDouble() * (SriLanka.MAX_LNG - SriLanka.MIN_LNG);
+    }
+
+    @Test
+    public void batchHaversineMatchesGeoMath() {
+        Random random = new Random(1);
+        double[] lat = new double[POINTS];
+        double[] lng = new double[POINTS];
+        for (int i = 0; i < POINTS; i++) {
+            lat[i] = randomLat(random);
+            lng[i] = randomLng(random);
+        }
+        double originLat = randomLat(random);
+        double originLng = randomLng(random);
+        double[] out = new double[POINTS];
+        new DistanceKernel(originLat, originLng).haversineKm(lat, lng, POINTS, out);
+
+        for (int i = 0; i < POINTS; i++) {
+            assertEquals(GeoMath.distanceKm(originLat, originLng, lat[i], lng[i]), out[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void equirectangularErrorBoundsAcrossSriLanka() {
+        Random random = new Random(2);
+        DistanceKernel kernel = new DistanceKernel(0, 0);
+        double maxNear = 0;
+        double maxAnywhere = 0;
+        for (int i = 0; i < 200_000; i++) {
+            double lat1 = randomLat(random);
+            double lng1 = randomLng(random);
+            double lat2;
+            double lng2;
+            if (i % 2 == 0) {
+                // Within roughly 50 km
+                lat2 = lat1 + (random.nextDouble() - 0.5) * 0.9;
+                lng2 = lng1 + (random.nextDouble() - 0.5) * 0.9;
+            } else {
+                lat2 = randomLat(random);
+                lng2 = randomLng(random);
+            }
+            double exact = GeoMath.distanceKm(lat1, lng1, lat2, lng2);
+            if (exact < 0.001) continue;
+            kernel.setOrigin(lat1, lng1);
+            double error = Math.abs(kernel.equirectangularKm(lat2, lng2) - exact) / exact;
+            if (exact <= DistanceKernel.FAST_PATH_MAX_KM) {
+                maxNear = Math.max(maxNear, error);
+            }
+            maxAnywhere = Math.max(maxAnywhere, error);
+        }
+        assertTrue("near error " + maxNear, maxNear < 1e-5);
+        assertTrue("box error " + maxAnywhere, maxAnywhere < 3e-4);
+    }
+
+    @Test
+    public void distancesUseHaversineBeyondFastPath() {
+        // Colombo to Jaffna is far beyond the fast path range
+        double[] lat = {6.9271, 6.9350, 9.6615};
+        double[] lng = {79.8612, 79.8500, 80.0255};
+        double[] out = new double[3];
+        DistanceKernel kernel = new DistanceKernel(6.9271, 79.8612);
+        kernel.distancesKm(lat, lng, 3, out);
+
+        assertEquals(0, out[0], 0);
+        assertEquals(GeoMath.distanceKm(6.9271, 79.8612, 6.9350, 79.8500), out[1], 1e-5);
+        assertEquals(GeoMath.distanceKm(6.9271, 79.8612, 9.6615, 80.0255), out[2], 1e-9);
+    }
+}
@@ -0,0 +1,105 @@
+package com.busapp.lk.geo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.busapp.lk.util.IntList;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class SpatialGridTest {
+
+    private static final int COUNT = 2000;
+
+    @Test
+    public void queryBoxMatchesLinearScanAfterMoves() {
+        Random random = new Random(3);
+        double[] lat = new double[COUNT];
+        double[] lng = new double[COUNT];
+        SpatialGrid grid = SpatialGrid.forSriLanka(0.01);
+        for (int i = 0; i < COUNT; i++) {
+            lat[i] = 6.8 + random.nextDouble() * 0.2;
+            lng[i] = 79.8 + random.nextDouble() * 0.2;
+            grid.update(i, lat[i], lng[i]);
+        }
+        for (int i = 0; i < COUNT; i += 3) {
+            lat[i] += (random.nextDouble() - 0.5) * 0.05;
+            lng[i] += (random.nextDouble() - 0.5) * 0.05;
+            grid.update(i, lat[i], lng[i]);
+        }
+
+        IntList result = new IntList();
+        grid.queryBox(6.85, 79.85, 6.92, 79.95, result);
+        int[] actual = result.toArray();
+        Arrays.sort(actual);
+
+        IntList expected = new IntList();
+        for (int i = 0; i < COUNT; i++) {
+            if (lat[i] >= 6.85 && lat[i] <= 6.92 && lng[i] >= 79.85 && lng[i] <= 79.95) {
+                expected.add(i);
+            }
+        }
+        assertArrayEquals(expected.toArray(), actual);
+    }
+
+    @Test
+    public void nearestMatchesLinearScan() {
+        Random random = new Random(5);
+        double[] lat = new double[COUNT];
+        double[] lng = new double[COUNT];
+        SpatialGrid grid = SpatialGrid.forSriLanka(0.02);
+        for (int i = 0; i < COUNT; i++) {
+            lat[i] = 6.7 + random.nextDouble() * 0.4;
+            lng[i] = 79.8 + random.nextDouble() * 0.4;
+            grid.update(i, lat[i], lng[i]);
+        }
+
+        double userLat = 6.91;
+        double userLng = 79.86;
+        int[] out = new int[5];
+        assertEquals(5, grid.nearest(userLat, userLng, 5, out));
+
+        double cosLat = Math.cos(Math.toRadians(userLat));
+        Integer[] order = new Integer[COUNT];
+        for (int i = 0; i < COUNT; i++) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(
+                squared(lat[a] - userLat, (lng[a] - userLng) * cosLat),
+                squared(lat[b] - userLat, (lng[b] - userLng) * cosLat)));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(order[i].intValue(), out[i]);
+        }
+    }
+
+    @Test
+    public void nearestFindsDistantPointsAcrossEmptyCells() {
+        SpatialGrid grid = SpatialGrid.forSriLanka(0.01);
+        grid.update(0, 9.5, 80.2);
+        grid.update(1, 6.0, 81.5);
+
+        int[] out = new int[2];
+        assertEquals(2, grid.nearest(6.9, 79.9, 2, out));
+        assertEquals(1, out[0]);
+        assertEquals(0, out[1]);
+    }
+
+    @Test
+    public void removeDropsIdFromQueries() {
+        SpatialGrid grid = SpatialGrid.forSriLanka(0.01);
+        grid.update(0, 6.90, 79.86);
+        grid.update(1, 6.90, 79.86);
+        grid.remove(0);
+
+        IntList result = new IntList();
+        grid.queryBox(6.8, 79.8, 7.0, 79.9, result);
+        assertEquals(1, result.size());
+        assertEquals(1, result.get(0));
+        assertEquals(1, grid.size());
+        assertFalse(grid.contains(0));
+    }
+
+    private static double squared(double a, double b) {
+        return a * a + b * b;
+    }
+}
@@ -0,0 +1,189 @@
+package com.busapp.lk.geocode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.After;
+import org.junit.Test;
+
+public class GeocodingServiceTest {
+
+    private final FakeGeocoder geocoder = new FakeGeocoder();
+    private final AtomicLong now = new AtomicLong(1_000);
+    private final GeocodingService service = new GeocodingService(
+            geocoder, 0.001, 60_000, 16, now::get);
+
+    @After
+    public void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    public void secondLookupInSameCellIsServedFromCache() throws InterruptedException {
+        Result first = new Result();
+        service.lookup("001", 6.92710, 79.86120, first);
+        assertEquals("6.927,79.861", first.await());
+
+        Result second = new Result();
+        service.lookup("001", 6.92712, 79.86118, second);
+        assertEquals("6.927,79.861", second.await());
+
+        assertEquals(1, geocoder.calls.get());
+        assertEquals(1, service.getHits());
+        assertEquals(0.5, service.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void expiredEntriesAreLookedUpAgain() throws InterruptedException {
+        Result first = new Result();
+        service.lookup("001", 6.9271, 79.8612, first);
+        first.await();
+
+        now.addAndGet(60_001);
+        Result second = new Result();
+        service.lookup("001", 6.9271, 79.8612, second);
+        second.await();
+
+        assertEquals(2, geocoder.calls.get());
+    }
+
+    @Test
+    public void concurrentLookupsForSameCellShareOneCall() throws InterruptedException {
+        geocoder.block();
+        Result bus1 = new Result();
+        Result bus2 = new Result();
+        service.lookup("001", 6.9271, 79.8612, bus1);
+        geocoder.awaitStarted();
+        service.lookup("002", 6.9271, 79.8612, bus2);
+        geocoder.release();
+
+        assertEquals("6.927,79.861", bus1.await());
+        assertEquals("6.927,79.861", bus2.await());
+        assertEquals(1, geocoder.calls.get());
+        assertEquals(1, service.getCoalesced());
+    }
+
+    @Test
+    public void olderRequestIsDroppedWhenRequesterMovesOn() throws InterruptedException {
+        geocoder.block();
+        Result stale = new Result();
+        Result fresh = new Result();
+        service.lookup("001", 6.9271, 79.8612, stale);
+        geocoder.awaitStarted();
+        service.lookup("001", 6.9000, 79.8700, fresh);
+        geocoder.release();
+
+        assertEquals("6.900,79.870", fresh.await());
+        // The stale lookup finishes on the other worker, possibly after the fresh one. It caches
+        // its answer and drops its requester in one step, so another lookup of that cell is
+        // answered only once the drop is counted, whether it hits the cache or joins the call.
+        Result after = new Result();
+        service.lookup("003", 6.9271, 79.8612, after);
+        assertEquals("6.927,79.861", after.await());
+        assertTrue(stale.addresses.isEmpty());
+        assertEquals(1, service.getDropped());
+        assertEquals(2, geocoder.calls.get());
+    }
+
+    @Test
+    public void callsBeyondTheBurstWaitForTheRateLimit() throws InterruptedException {
+        GeocodingService limited = new GeocodingService(geocoder, 0.001, 60_000, 16, 20, now::get);
+        try {
+            int lookups = GeocodingService.BURST + 4;
+            Result[] results = new Result[lookups];
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++) {
+                results[i] = new Result();
+                limited.lookup("bus-" + i, 6.90 + i * 0.01, 79.86, results[i]);
+            }
+            for (Result result : results) {
+                assertTrue(result.await() != null);
+            }
+            // 4 calls past the burst at 20 a second
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("took " + elapsedMillis + "ms", elapsedMillis >= 180);
+            assertEquals(lookups, geocoder.calls.get());
+            assertTrue(limited.getThrottled() >= 4);
+            assertTrue(limited.stats(), limited.stats().contains("throttled="));
+        } finally {
+            limited.shutdown();
+        }
+    }
+
+    @Test
+    public void failuresAreReportedAsUnknownAndNotCached() throws InterruptedException {
+        geocoder.fail = true;
+        Result first = new Result();
+        service.lookup("001", 6.9271, 79.8612, first);
+        assertNull(first.await());
+
+        geocoder.fail = false;
+        Result second = new Result();
+        service.lookup("001", 6.9271, 79.8612, second);
+        assertEquals("6.927,79.861", second.await());
+        assertEquals(2, geocoder.calls.get());
+    }
+
+    private static final class FakeGeocoder implements ReverseGeocoder {
+        final AtomicInteger calls = new AtomicInteger();
+        volatile boolean fail;
+        private volatile CountDownLatch gate;
+        private final CountDownLatch started = new CountDownLatch(1);
+
+        void block() {
+            gate = new CountDownLatch(1);
+        }
+
+        void release() {
+            gate.countDown();
+        }
+
+        void awaitStarted() throws InterruptedException {
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public String reverseGeocode(double lat, double lng) throws IOException {
+            calls.incrementAndGet();
+            started.countDown();
+            CountDownLatch current = gate;
+            if (current != null) {
+                try {
+                    current.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (fail) {
+                throw new IOException("offline");
+            }
+            return String.format(Locale.US, "%.3f,%.3f", lat, lng);
+        }
+    }
+
+    private static final class Result implements GeocodingService.Callback {
+        final List<String> addresses = new CopyOnWriteArrayList<>();
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        @Override
+        public void onAddress(String address) {
+            addresses.add(address == null ? "<null>" : address);
+            done.countDown();
+        }
+
+        String await() throws InterruptedException {
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            String address = addresses.get(0);
+            return "<null>".equals(address) ? null : address;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.busapp.lk.gtfs;
+
+import static com.busapp.lk.gtfs.GtfsFixtures.writeZip;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GtfsLoaderTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void loadsTablesAndOrdersStopTimesBySequence() throws IOException {
+        TransitNetwork network = GtfsLoader.load(sampleFeed());
+
+        assertEquals(3, network.stopCount());
+        assertEquals("Pettah, Central", network.stopName(0));
+        assertEquals(6.9344, network.stopLat(0), 1e-9);
+
+        assertEquals(1, network.routeCount());
+        assertEquals("138", network.routeShortName(0));
+        assertEquals("Pettah - \"Maharagama\"", network.routeLongName(0));
+
+        assertEquals(2, network.tripCount());
+        int trip = 0;
+        assertEquals("T1", network.tripId(trip));
+        assertEquals(3, network.tripStopTimeEnd(trip) - network.tripStopTimeStart(trip));
+        int first = network.tripStopTimeStart(trip);
+        assertEquals(0, network.stopTimeStop(first));
+        assertEquals(2, network.stopTimeStop(first + 2));
+        assertEquals(8 * 3600, network.stopTimeDeparture(first));
+        // Past midnight stays on the same service day
+        assertEquals(24 * 3600 + 10 * 60, network.stopTimeArrival(first + 2));
+        assertEquals(TransitNetwork.NO_TIME, network.stopTimeArrival(first + 1));
+
+        assertEquals(TransitNetwork.NO_SHAPE, network.tripShape(1));
+    }
+
+    @Test
+    public void shapesAreSortedAndShareGeometry() throws IOException {
+        TransitNetwork network = GtfsLoader.load(sampleFeed());
+
+        int shape = network.tripShape(0);
+        assertEquals("S1", network.shapeId(shape));
+        assertEquals(3, network.shapeVertexCount(shape));
+        assertEquals(6.9344, network.shape(shape).lat(0), 1e-9);
+        assertEquals(6.8400, network.shape(shape).lat(2), 1e-9);
+        assertSame(network.shape(shape), network.shape(shape));
+    }
+
+    @Test(expected = IOException.class)
+    public void missingRequiredColumnFails() throws IOException {
+        File zip = temp.newFile("bad.zip");
+        writeZip(zip,
+                "stops.txt", "stop_id,stop_name\nS1,Somewhere\n",
+                "routes.txt", "route_id\nR1\n",
+                "trips.txt", "route_id,trip_id\nR1,T1\n",
+                "stop_times.txt", "trip_id,stop_id,stop_sequence\n");
+        GtfsLoader.load(zip);
+    }
+
+    @Test
+    public void snapshotRoundTrips() throws IOException {
+        TransitNetwork parsed = GtfsLoader.load(sampleFeed());
+        File file = temp.newFile("network.bin");
+        NetworkSnapshot.write(parsed, file, 42L);
+
+        TransitNetwork read = NetworkSnapshot.read(file, 42L);
+        assertNotNull(read);
+        assertEquals(parsed.stopCount(), read.stopCount());
+        assertEquals(parsed.stopName(0), read.stopName(0));
+        assertEquals(parsed.stopLng(2), read.stopLng(2), 0);
+        assertEquals(parsed.routeLongName(0), read.routeLongName(0));
+        assertEquals(parsed.shapeVertexCount(0), read.shapeVertexCount(0));
+        assertEquals(parsed.shape(0).getLengthKm(), read.shape(0).getLengthKm(), 0);
+        assertEquals(parsed.tripCount(), read.tripCount());
+        assertEquals(parsed.tripShape(1), read.tripShape(1));
+        for (int i = 0; i < parsed.stopTimeCount(); i++) {
+            assertEquals(parsed.stopTimeStop(i), read.stopTimeStop(i));
+            assertEquals(parsed.stopTimeArrival(i), read.stopTimeArrival(i));
+            assertEquals(parsed.stopTimeDeparture(i), read.stopTimeDeparture(i));
+        }
+    }
+
+    @Test
+    public void staleOrDamagedSnapshotIsIgnored() throws IOException {
+        File file = temp.newFile("network.bin");
+        NetworkSnapshot.write(GtfsLoader.load(sampleFeed()), file, 42L);
+        assertNull(NetworkSnapshot.read(file, 43L));
+        assertNull(NetworkSnapshot.read(new File(temp.getRoot(), "missing.bin"), 42L));
+
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[]{0x42, 0x55, 0x53});
+        }
+        assertNull(NetworkSnapshot.read(file, 42L));
+    }
+
+    @Test
+    public void snapshotWithACorruptCountIsIgnored() throws IOException {
+        File file = temp.newFile("network.bin");
+        NetworkSnapshot.write(GtfsLoader.load(sampleFeed()), file, 42L);
+        byte[] good = Files.readAllBytes(file.toPath());
+        // Every count in the file, and every other int, read as negative or far too large
+        for (int at = 16; at + 4 <= good.length; at++) {
+            for (int bad : new int[]{-1, Integer.MAX_VALUE, 1 << 28}) {
+                byte[] damaged = good.clone();
+                ByteBuffer.wrap(damaged).putInt(at, bad);
+                Files.write(file.toPath(), damaged);
+                // Either null or a network; never an exception or a huge allocation
+                NetworkSnapshot.read(file, 42L);
+            }
+        }
+        ByteBuffer.wrap(good).putInt(16, -1);
+        Files.write(file.toPath(), good);
+        assertNull(NetworkSnapshot.read(file, 42L));
+    }
+
+    @Test
+    public void readsTheServiceCalendarAndItsExceptions() throws IOException {
+        File zip = temp.newFile("calendar.zip");
+        writeZip(zip,
+                "stops.txt", "stop_id,stop_name,stop_lat,stop_lon\n"
+                        + "P1,Pettah,6.9344,79.8500\n"
+                        + "P3,Maharagama,6.8400,79.9260\n",
+                "routes.txt", "route_id,route_short_name,route_long_name\n"
+                        + "R138,138,Pettah - Maharagama\n",
+                "calendar.txt", "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,"
+                        + "start_date,end_date\n"
+                        + "WK,1,1,1,1,1,0,0,20260101,20261231\n"
+                        + "SUN,0,0,0,0,0,0,1,20260101,20261231\n",
+                "calendar_dates.txt", "service_id,date,exception_type\n"
+                        + "WK,20260204,2\n"
+                        + "POYA,20261025,1\n",
+                "trips.txt", "route_id,service_id,trip_id\n"
+                        + "R138,WK,T1\n"
+                        + "R138,SUN,T2\n"
+                        + "R138,POYA,T3\n"
+                        + "R138,GONE,T4\n",
+                "stop_times.txt", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                        + "T1,08:00:00,08:00:00,P1,1\n"
+                        + "T1,08:40:00,08:40:00,P3,2\n");
+        TransitNetwork network = GtfsLoader.load(zip);
+
+        // A trip on a service in neither file is dropped
+        assertEquals(3, network.tripCount());
+        assertEquals(3, network.serviceCount());
+        assertEquals("POYA", network.serviceId(network.tripService(2)));
+
+        // Monday, Wednesday Independence Day, Saturday, Sunday, and past the end date
+        assertTrue(network.tripRunsOn(0, 20261019));
+        assertFalse(network.tripRunsOn(0, 20260204));
+        assertFalse(network.tripRunsOn(0, 20261017));
+        assertTrue(network.tripRunsOn(1, 20261018));
+        assertFalse(network.tripRunsOn(1, 20270103));
+        assertTrue(network.tripRunsOn(2, 20261025));
+        assertFalse(network.tripRunsOn(2, 20261018));
+
+        File file = temp.newFile("network.bin");
+        NetworkSnapshot.write(network, file, 42L);
+        TransitNetwork read = NetworkSnapshot.read(file, 42L);
+        assertNotNull(read);
+        for (int date : new int[]{20260204, 20261017, 20261018, 20261019, 20261025}) {
+            for (int trip = 0; trip < network.tripCount(); trip++) {
+                assertEquals(network.tripRunsOn(trip, date), read.tripRunsOn(trip, date));
+            }
+        }
+    }
+
+    @Test
+    public void withoutACalendarEveryTripRunsEveryDay() throws IOException {
+        TransitNetwork network = GtfsLoader.load(sampleFeed());
+        assertEquals(0, network.serviceCount());
+        assertEquals(TransitNetwork.NO_SERVICE, network.tripService(0));
+        assertTrue(network.tripRunsOn(0, 20261017));
+        assertEquals(3, TransitNetwork.dayOfWeek(19700101));
+        assertEquals(1, TransitNetwork.dayOfWeek(20000229));
+        assertEquals(6, TransitNetwork.dayOfWeek(20261018));
+    }
+
+    private File sampleFeed() throws IOException {
+        File zip = temp.newFile();
+        writeZip(zip,
+                "stops.txt", "\uFEFFstop_id,stop_name,stop_lat,stop_lon\r\n"
+                        + "P1,\"Pettah, Central\",6.9344,79.8500\r\n"
+                        + "P2,Town Hall,6.9150,79.8630\r\n"
+                        + "P3,Maharagama,6.8400,79.9260\r\n",
+                "routes.txt", "route_id,route_short_name,route_long_name\n"
+                        + "R138,138,\"Pettah - \"\"Maharagama\"\"\"\n",
+                "shapes.txt", "shape_id,shape_pt_lat,shape_pt_lon,shape_pt_sequence\n"
+                        + "S1,6.8400,79.9260,3\n"
+                        + "S1,6.9344,79.8500,1\n"
+                        + "S1,6.9150,79.8630,2\n",
+                "trips.txt", "route_id,service_id,trip_id,shape_id\n"
+                        + "R138,WK,T1,S1\n"
+                        + "R138,WK,T2,\n",
+                "stop_times.txt", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                        + "T1,24:10:00,24:10:00,P3,3\n"
+                        + "T1,08:00:00,08:00:00,P1,1\n"
+                        + "T2,09:00:00,09:00:00,P1,1\n"
+                        + "T1,,,P2,2\n"
+                        + "T2,09:30:00,09:30:00,P3,2\n");
+        return zip;
+    }
+}
@@ -0,0 +1,25 @@
+package com.busapp.lk.ingest;
+
+import com.busapp.lk.fleet.VehicleStateStore;
+
+/**
+ * Vehicles for the ingest tests: "V" followed by the store index.
+ */
+final class IngestFixtures {
+
+    private IngestFixtures() {
+    }
+
+    static int vehicleIndex(String id) {
+        return id.startsWith("V") ? Integer.parseInt(id.substring(1)) : PositionPipeline.UNKNOWN_VEHICLE;
+    }
+
+    // A store holding that many vehicles, all at 0, 0 on route 0
+    static VehicleStateStore store(int vehicles) {
+        VehicleStateStore store = new VehicleStateStore(vehicles);
+        for (int i = 0; i < vehicles; i++) {
+            store.add(0, 0, 0);
+        }
+        return store;
+    }
+}
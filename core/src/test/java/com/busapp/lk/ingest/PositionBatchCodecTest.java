@@ -0,0 +1,168 @@
+package com.busapp.lk.ingest;
+
+import static com.busapp.lk.ingest.IngestFixtures.store;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.busapp.lk.fleet.VehicleStateStore;
+import com.busapp.lk.util.IntList;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+public class PositionBatchCodecTest {
+
+    private static int routeIndex(String id) {
+        return Integer.parseInt(id.substring(1));
+    }
+
+    private static ByteBuffer finish(PositionBatchEncoder encoder, boolean direct) {
+        ByteBuffer out = direct ? ByteBuffer.allocateDirect(encoder.maxBatchBytes())
+                : ByteBuffer.allocate(encoder.maxBatchBytes());
+        encoder.finish(out);
+        out.flip();
+        return out;
+    }
+
+    @Test
+    public void roundTripsAFleetOverManyBatches() {
+        Random random = new Random(7);
+        int vehicles = 300;
+        PositionBatchEncoder encoder = new PositionBatchEncoder();
+        PositionBatchDecoder decoder = new PositionBatchDecoder(
+                IngestFixtures::vehicleIndex, PositionBatchCodecTest::routeIndex);
+        VehicleStateStore store = store(vehicles);
+        double[] lat = new double[vehicles];
+        double[] lng = new double[vehicles];
+        int[] route = new int[vehicles];
+        for (int v = 0; v < vehicles; v++) {
+            // Either side of the equator and the prime meridian
+            lat[v] = (random.nextDouble() - 0.5) * 120;
+            lng[v] = (random.nextDouble() - 0.5) * 340;
+            route[v] = random.nextInt(40);
+        }
+        IntList updated = new IntList();
+        long time = 1_700_000_000_000L;
+        long updates = 0;
+        long bytes = 0;
+        for (int batch = 0; batch < 50; batch++) {
+            int count = 1 + random.nextInt(400);
+            float[] speed = new float[vehicles];
+            float[] heading = new float[vehicles];
+            for (int i = 0; i < count; i++) {
+                int v = random.nextInt(vehicles);
+                time += random.nextInt(50);
+                lat[v] += (random.nextDouble() - 0.5) * 0.003;
+                lng[v] += (random.nextDouble() - 0.5) * 0.003;
+                if (random.nextInt(50) == 0) route[v] = random.nextInt(40);
+                speed[v] = random.nextInt(800) / 10f;
+                heading[v] = random.nextInt(3600) / 10f;
+                encoder.add("V" + v, "R" + route[v], time, lat[v], lng[v], speed[v], heading[v]);
+            }
+            ByteBuffer out = finish(encoder, batch % 2 == 0);
+            bytes += out.remaining();
+            updates += count;
+
+            updated.clear();
+            assertEquals(count, decoder.decode(out, store, updated));
+            assertEquals(0, out.remaining());
+            assertEquals(count, updated.size());
+            for (int i = 0; i < updated.size(); i++) {
+                int v = updated.get(i);
+                assertEquals(lat[v], store.lat(v), 0.5e-6);
+                assertEquals(lng[v], store.lng(v), 0.5e-6);
+                assertEquals(route[v], store.routeId(v));
+                assertEquals(speed[v], store.speed(v), 0.01);
+                assertEquals(heading[v], store.heading(v), 0.01);
+            }
+        }
+        assertEquals(updates, decoder.getApplied());
+        assertTrue("bytes/update " + (double) bytes / updates, bytes < updates * 14);
+    }
+
+    @Test
+    public void skipsUnknownAndOlderUpdatesButKeepsTheirDeltas() {
+        PositionBatchEncoder encoder = new PositionBatchEncoder();
+        PositionBatchDecoder decoder = new PositionBatchDecoder(
+                IngestFixtures::vehicleIndex, PositionBatchCodecTest::routeIndex);
+        VehicleStateStore store = store(2);
+        IntList updated = new IntList();
+
+        encoder.add("V0", "R138", 300, 6.93, 79.87, 35, 45);
+        encoder.add("bus-7", "R138", 300, 6.91, 79.80, 20, 0);
+        encoder.add("V5", "R138", 300, 6.91, 79.80, 20, 0);
+        encoder.add("V0", "R138", 200, 6.50, 79.50, 5, 0);
+        assertEquals(1, decoder.decode(finish(encoder, false), store, updated));
+        assertEquals(6.93, store.lat(0), 1e-9);
+        assertEquals(138, store.routeId(0));
+        assertEquals(4, decoder.getDecoded());
+
+        // The stale fix still moved the delta base, and the skipped vehicles stay known
+        encoder.add("V0", "R177", 400, 6.94, 79.88, 30, 90);
+        encoder.add("bus-7", "R138", 400, 6.92, 79.81, 20, 0);
+        ByteBuffer second = finish(encoder, false);
+        assertEquals(1, decoder.decode(second, store, updated));
+        assertEquals(6.94, store.lat(0), 1e-9);
+        assertEquals(79.88, store.lng(0), 1e-9);
+        assertEquals(177, store.routeId(0));
+        assertEquals(0, store.lat(1), 0);
+    }
+
+    @Test
+    public void dropsARepeatedTimestampLikeThePipeline() {
+        PositionBatchEncoder encoder = new PositionBatchEncoder();
+        PositionBatchDecoder decoder = new PositionBatchDecoder(
+                IngestFixtures::vehicleIndex, PositionBatchCodecTest::routeIndex);
+        VehicleStateStore store = store(2);
+        IntList updated = new IntList();
+
+        encoder.add("V0", "R138", 300, 6.93, 79.87, 35, 45);
+        encoder.add("V0", "R138", 300, 6.50, 79.50, 5, 0);
+        assertEquals(1, decoder.decode(finish(encoder, false), store, updated));
+        assertEquals(6.93, store.lat(0), 1e-9);
+
+        // A feed resending the same fix in a later batch does not count as an update
+        encoder.add("V0", "R138", 300, 6.50, 79.50, 5, 0);
+        assertEquals(0, decoder.decode(finish(encoder, false), store, updated));
+        assertEquals(6.93, store.lat(0), 1e-9);
+        assertEquals(79.87, store.lng(0), 1e-9);
+        assertEquals(3, decoder.getDecoded());
+    }
+
+    @Test
+    public void rejectsTruncatedBatchesAndStartsOverAfterReset() {
+        PositionBatchEncoder encoder = new PositionBatchEncoder();
+        PositionBatchDecoder decoder = new PositionBatchDecoder(
+                IngestFixtures::vehicleIndex, PositionBatchCodecTest::routeIndex);
+        VehicleStateStore store = store(1);
+        IntList updated = new IntList();
+
+        encoder.add("V0", "R1", 100, 6.9, 79.8, 10, 10);
+        ByteBuffer batch = finish(encoder, false);
+        batch.limit(batch.limit() - 1);
+        try {
+            decoder.decode(batch, store, updated);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // The last varint is cut off
+        }
+
+        // A batch that refers to ids the decoder was never sent
+        encoder.add("V0", "R1", 200, 6.9, 79.8, 10, 10);
+        decoder.reset();
+        try {
+            decoder.decode(finish(encoder, false), store, updated);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // Vehicle 0 was in the lost batch
+        }
+
+        encoder.reset();
+        decoder.reset();
+        encoder.add("V0", "R2", 300, 7.0, 80.0, 10, 10);
+        assertEquals(1, decoder.decode(finish(encoder, true), store, updated));
+        assertEquals(7.0, store.lat(0), 1e-9);
+        assertEquals(2, store.routeId(0));
+    }
+}
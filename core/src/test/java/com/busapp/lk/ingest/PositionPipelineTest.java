@@ -0,0 +1,128 @@
+package com.busapp.lk.ingest;
+
+import static com.busapp.lk.ingest.IngestFixtures.store;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.busapp.lk.fleet.VehicleStateStore;
+import com.busapp.lk.util.IntList;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Test;
+
+public class PositionPipelineTest {
+
+    @Test
+    public void newestTimestampWinsWithinAndAcrossBatches() {
+        PositionPipeline pipeline = new PositionPipeline(16, IngestFixtures::vehicleIndex);
+        VehicleStateStore store = store(2);
+        IntList updated = new IntList();
+
+        pipeline.offer("V0", 200, 6.92, 79.86, 30, 90);
+        pipeline.offer("V0", 100, 6.90, 79.85, 20, 0);
+        pipeline.offer("V1", 100, 6.80, 79.90, 10, 180);
+        pipeline.offer("V0", 300, 6.93, 79.87, 35, 45);
+        assertEquals(2, pipeline.drain(store, (vehicle, timestamp, receivedNanos) -> updated.add(vehicle)));
+
+        assertEquals(2, updated.size());
+        assertEquals(6.93, store.lat(0), 0);
+        assertEquals(45f, store.heading(0), 0);
+        assertEquals(6.80, store.lat(1), 0);
+
+        // A late update from an earlier batch does not move the bus back
+        pipeline.offer("V0", 250, 6.50, 79.50, 5, 0);
+        assertEquals(0, pipeline.drain(store, null));
+        assertEquals(6.93, store.lat(0), 0);
+    }
+
+    @Test
+    public void rewindDropsWhatWasInFlightAndKeepsLaterUpdates() {
+        PositionPipeline pipeline = new PositionPipeline(16, IngestFixtures::vehicleIndex);
+        VehicleStateStore store = store(1);
+        pipeline.offer("V0", 300, 6.93, 79.87, 35, 45);
+        pipeline.drain(store, null);
+
+        // A seek back in time, called from the ingest thread between two updates
+        pipeline.offer("V0", 400, 6.94, 79.88, 35, 45);
+        pipeline.rewind();
+        pipeline.offer("V0", 100, 6.90, 79.85, 20, 0);
+        assertEquals(1, pipeline.drain(store, null));
+        assertEquals(6.90, store.lat(0), 0);
+        pipeline.offer("V0", 50, 6.80, 79.80, 20, 0);
+        assertEquals(0, pipeline.drain(store, null));
+    }
+
+    @Test
+    public void fullQueueDropsOldest() {
+        PositionPipeline pipeline = new PositionPipeline(3, IngestFixtures::vehicleIndex);
+        VehicleStateStore store = store(5);
+        for (int i = 0; i < 5; i++) {
+            pipeline.offer("V" + i, 1, i, i, 0, 0);
+        }
+        assertEquals(2, pipeline.getDropped());
+
+        IntList updated = new IntList();
+        pipeline.drain(store, (vehicle, timestamp, receivedNanos) -> updated.add(vehicle));
+        assertEquals(3, updated.size());
+        assertEquals(2, updated.get(0));
+        assertEquals(4, updated.get(2));
+    }
+
+    @Test
+    public void unknownAndOutOfStoreVehiclesAreIgnored() {
+        PositionPipeline pipeline = new PositionPipeline(8, IngestFixtures::vehicleIndex);
+        VehicleStateStore store = store(1);
+        pipeline.offer("bus-7", 1, 6.9, 79.8, 0, 0);
+        pipeline.offer("V3", 1, 6.9, 79.8, 0, 0);
+        assertEquals(0, pipeline.drain(store, null));
+        assertEquals(0, store.lat(0), 0);
+    }
+
+    @Test
+    public void lineSourceDecodesAndSkipsMalformedLines() throws IOException {
+        String feed = "# vehicle,timestamp,lat,lng,speed,heading\n"
+                + "V0,1000,6.927100,79.861200,32.5,270\n"
+                + "\n"
+                + "V1,1000,not-a-number,79.8,0,0\n"
+                + "V1,1001,6.8,-1.5e1,12,90,extra\n"
+                + "V1,1002\n";
+        PositionPipeline pipeline = new PositionPipeline(8, IngestFixtures::vehicleIndex);
+        LinePositionSource source = new LinePositionSource(new StringReader(feed));
+        source.run(pipeline::offer);
+
+        assertEquals(2, source.getMalformed());
+        VehicleStateStore store = store(2);
+        assertEquals(2, pipeline.drain(store, null));
+        assertEquals(6.9271, store.lat(0), 1e-12);
+        assertEquals(79.8612, store.lng(0), 1e-12);
+        assertEquals(32.5f, store.speed(0), 0);
+        assertEquals(-15, store.lng(1), 0);
+    }
+
+    @Test
+    public void decimalParserMatchesJdk() {
+        String[] values = {"0", "6.9271", "-79.861234", "+12.5", "123456789.012345", "7."};
+        for (String value : values) {
+            assertEquals(value, Double.parseDouble(value),
+                    LinePositionSource.parseDecimal(value, 0, value.length()), 0);
+        }
+        assertTrue(Double.isNaN(LinePositionSource.parseDecimal("", 0, 0)));
+        assertTrue(Double.isNaN(LinePositionSource.parseDecimal("1.2.3", 0, 5)));
+        assertFalse(Double.isNaN(LinePositionSource.parseDecimal("1e3", 0, 3)));
+    }
+
+    @Test
+    public void sourceThreadFeedsPipeline() throws Exception {
+        PositionPipeline pipeline = new PositionPipeline(8, IngestFixtures::vehicleIndex);
+        pipeline.start(new LinePositionSource(new StringReader("V0,5,7.0,80.0,1,2\n")));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.isRunning() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        VehicleStateStore store = store(1);
+        assertEquals(1, pipeline.drain(store, null));
+        assertEquals(7.0, store.lat(0), 0);
+        pipeline.stop();
+    }
+}
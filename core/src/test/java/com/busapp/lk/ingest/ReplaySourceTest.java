@@ -0,0 +1,207 @@
+package com.busapp.lk.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplaySourceTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    // 200 buses every 10 s for 10 minutes: enough to span several blocks
+    private File record() throws IOException {
+        File file = temp.newFile("day.busr");
+        try (PositionRecorder recorder = PositionRecorder.create(file)) {
+            for (int i = 0; i < 60; i++) {
+                for (int bus = 0; bus < 200; bus++) {
+                    recorder.accept("bus-" + bus, T0 + i * 10_000L + bus, 6.9 + bus * 1e-3 + i * 1e-4,
+                            79.86 - i * 2e-4, 20 + bus % 30 + 0.5f, (i * 7 + bus) % 360);
+                }
+            }
+            assertTrue(recorder.getBytes() < 12 * 200 * 60);
+        }
+        return file;
+    }
+
+    @Test
+    public void replaysEveryRecordAtHighSpeed() throws IOException {
+        File file = record();
+        List<String> seen = new ArrayList<>();
+        double[] last = new double[4];
+        try (ReplaySource replay = ReplaySource.open(file)) {
+            assertEquals(12_000, replay.getRecords());
+            assertEquals(200, replay.getVehicleCount());
+            assertEquals(T0, replay.getStartTimestamp());
+            assertEquals(T0 + 59 * 10_000L + 199, replay.getEndTimestamp());
+
+            replay.setSpeed(1e6);
+            replay.run((id, timestamp, lat, lng, speed, heading) -> {
+                seen.add(id);
+                last[0] = timestamp;
+                last[1] = lat;
+                last[2] = speed;
+                last[3] = heading;
+                if (seen.size() == 12_000) stop(replay);
+            });
+        }
+        assertEquals(12_000, seen.size());
+        assertEquals("bus-199", seen.get(seen.size() - 1));
+        assertEquals(T0 + 59 * 10_000L + 199, (long) last[0]);
+        assertEquals(6.9 + 0.199 + 59e-4, last[1], 1e-6);
+        assertEquals(20 + 199 % 30 + 0.5, last[2], 0.05);
+        assertEquals((59 * 7 + 199) % 360, last[3], 0.05);
+    }
+
+    @Test
+    public void seekSkipsAheadAndPacingFollowsSpeed() throws IOException {
+        File file = record();
+        List<Long> times = new ArrayList<>();
+        try (ReplaySource replay = ReplaySource.open(file)) {
+            // The last 20 s of recording at 100x should take about 200 ms
+            replay.seek(T0 + 57 * 10_000L);
+            replay.setSpeed(100);
+            long start = System.nanoTime();
+            replay.run((id, timestamp, lat, lng, speed, heading) -> {
+                times.add(timestamp);
+                replay.recordApplied(timestamp);
+                if (times.size() == 600) stop(replay);
+            });
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("took " + elapsedMillis + "ms", elapsedMillis >= 150);
+            assertTrue(replay.lagSummary(), replay.lagSummary().startsWith("100x: frames=600"));
+        }
+        assertEquals(600, times.size());
+        assertEquals(T0 + 57 * 10_000L, (long) times.get(0));
+    }
+
+    @Test
+    public void seeksBackAndForwardWithinTheCurrentBlockMidRun() throws IOException {
+        File file = record();
+        List<Long> times = new ArrayList<>();
+        int[] rewinds = new int[1];
+        try (ReplaySource replay = ReplaySource.open(file)) {
+            replay.setSpeed(1e6);
+            replay.run(new PositionSource.Sink() {
+                @Override
+                public void accept(String id, long timestamp, double lat, double lng, float speed, float heading) {
+                    int bus = Integer.parseInt(id.substring(4));
+                    int i = (int) ((timestamp - T0) / 10_000);
+                    assertEquals(id + " at " + i, 6.9 + bus * 1e-3 + i * 1e-4, lat, 1e-6);
+                    assertEquals(id + " at " + i, 79.86 - i * 2e-4, lng, 1e-6);
+                    times.add(timestamp);
+                    if (timestamp == T0 + 20 * 10_000L + 50 && rewinds[0] == 0) {
+                        replay.seek(T0 + 10 * 10_000L);
+                    } else if (timestamp == T0 + 15 * 10_000L + 50 && rewinds[0] == 1) {
+                        replay.seek(T0 + 18 * 10_000L);
+                    } else if (times.size() == 20 * 200 + 51 + 5 * 200 + 51 + 42 * 200) {
+                        stop(replay);
+                    }
+                }
+
+                @Override
+                public void rewind() {
+                    rewinds[0]++;
+                }
+            });
+        }
+        assertEquals(2, rewinds[0]);
+        // 20 s + 51 fixes, then 5 s + 51 back from 10 s, then the rest from 18 s
+        assertEquals(20 * 200 + 51 + 5 * 200 + 51 + 42 * 200, times.size());
+        assertEquals(T0 + 10 * 10_000L, (long) times.get(20 * 200 + 51));
+        assertEquals(T0 + 18 * 10_000L, (long) times.get(20 * 200 + 51 + 5 * 200 + 51));
+    }
+
+    @Test
+    public void waitsAtTheEndForASeekBack() throws Exception {
+        File file = record();
+        List<Long> times = new CopyOnWriteArrayList<>();
+        CountDownLatch atEnd = new CountDownLatch(1);
+        CountDownLatch atEndAgain = new CountDownLatch(1);
+        long last = T0 + 59 * 10_000L + 199;
+        try (ReplaySource replay = ReplaySource.open(file)) {
+            replay.setSpeed(1e6);
+            Thread source = new Thread(() -> {
+                try {
+                    replay.run((id, timestamp, lat, lng, speed, heading) -> {
+                        times.add(timestamp);
+                        if (timestamp == last) {
+                            (atEnd.getCount() > 0 ? atEnd : atEndAgain).countDown();
+                        }
+                    });
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, "replay");
+            source.start();
+            assertTrue(atEnd.await(10, TimeUnit.SECONDS));
+            assertEquals(12_000, times.size());
+            assertTrue(source.isAlive());
+
+            // Scrubbed back after playback finished: the last 10 steps play again
+            replay.seek(T0 + 50 * 10_000L);
+            assertTrue(atEndAgain.await(10, TimeUnit.SECONDS));
+            assertEquals(12_000 + 10 * 200, times.size());
+            assertEquals(T0 + 50 * 10_000L, (long) times.get(12_000));
+            assertEquals(1, replay.getSeekGeneration());
+
+            replay.close();
+            source.join(5000);
+            assertFalse(source.isAlive());
+        }
+    }
+
+    @Test
+    public void aFailedWriteStopsTheRecordingButNotTheFeed() throws IOException {
+        File file = temp.newFile("cut.busr");
+        PositionRecorder recorder = PositionRecorder.create(file);
+        // Interrupting the writer closes the channel, so the first block write fails
+        PositionSource feed = new PositionSource() {
+            @Override
+            public void run(Sink sink) {
+                Thread.currentThread().interrupt();
+                for (int i = 0; i < 12_000; i++) {
+                    sink.accept("bus-" + i % 200, T0 + i * 50L, 6.9, 79.86, 20, 90);
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        int[] delivered = new int[1];
+        try (PositionSource source = recorder.recording(feed)) {
+            source.run((id, timestamp, lat, lng, speed, heading) -> delivered[0]++);
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertEquals(12_000, delivered[0]);
+        assertNotNull(recorder.getFailure());
+        assertTrue(recorder.getRecords() < 12_000);
+    }
+
+    // run() waits at the end of the recording for a seek back, so tests stop it once they have it all
+    private static void stop(ReplaySource replay) {
+        try {
+            replay.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.busapp.lk.journal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PositionJournalTest {
+
+    private static final long T0 = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void rangeQueriesSpanHistoryAndTail() throws IOException {
+        File dir = temp.newFolder();
+        PositionTrack out = new PositionTrack();
+        try (PositionJournal journal = PositionJournal.open(dir, 1024, 10, 100)) {
+            // Three buses reporting every 10 s, one fix slightly out of order
+            for (int i = 0; i < 300; i++) {
+                for (int bus = 0; bus < 3; bus++) {
+                    long time = T0 + i * 10_000L + (i == 150 && bus == 1 ? 15_000 : 0);
+                    assertTrue(journal.append(bus, time, 6.9 + i * 1e-4, 79.86, i * 0.1, 30, 90));
+                }
+                if (i == 200) journal.compact();
+            }
+
+            journal.query(1, T0 + 100 * 10_000L, T0 + 250 * 10_000L, out);
+            assertEquals(150, out.size());
+            for (int i = 1; i < out.size(); i++) {
+                assertTrue(out.timestamp(i - 1) <= out.timestamp(i));
+                assertEquals(1, out.vehicle(i));
+            }
+            assertTrue(journal.getHistorySize() > 0);
+            assertTrue(journal.getTailSize() > 0);
+
+            journal.compact();
+            assertEquals(0, journal.getTailSize());
+            assertEquals(900, journal.getHistorySize());
+            journal.query(1, T0 + 100 * 10_000L, T0 + 250 * 10_000L, out);
+            assertEquals(150, out.size());
+
+            assertTrue(journal.latest(2, out));
+            assertEquals(T0 + 299 * 10_000L, out.timestamp(0));
+            assertEquals(29.9, out.km(0), 1e-9);
+            assertFalse(journal.latest(7, out));
+        }
+    }
+
+    @Test
+    public void repeatedCompactionsOnlyRewriteTheOpenPeriodAndDropExpiredOnes() throws IOException {
+        File dir = temp.newFolder();
+        PositionTrack out = new PositionTrack();
+        // 10 buses every second for 30 minutes, in 1 minute periods kept for 5 minutes
+        long period = 60_000;
+        int compactions = 180;
+        long[] nanos = new long[compactions];
+        try (PositionJournal journal = PositionJournal.open(dir, 4096, 10, Integer.MAX_VALUE, period, 5 * period)) {
+            for (int c = 0; c < compactions; c++) {
+                for (int s = 0; s < 10; s++) {
+                    int second = c * 10 + s;
+                    for (int bus = 0; bus < 10; bus++) {
+                        assertTrue(journal.append(bus, T0 + second * 1000L, 6.9, 79.86, second * 0.01, 30, 90));
+                    }
+                }
+                long rewritten = journal.getRewrittenRecords();
+                long start = System.nanoTime();
+                journal.compact();
+                nanos[c] = System.nanoTime() - start;
+                // At most the minute the fixes fall in, never the whole history
+                assertTrue(journal.getRewrittenRecords() - rewritten <= 600);
+                assertTrue("history " + journal.getHistorySize(), journal.getHistorySize() <= 6 * 600);
+            }
+            assertTrue(dir.list((d, name) -> name.startsWith(HistoryFile.PREFIX)).length <= 6);
+
+            journal.query(3, 0, Long.MAX_VALUE, out);
+            assertEquals(T0 + 1799 * 1000L, out.timestamp(out.size() - 1));
+            assertTrue(out.timestamp(0) >= T0 + 1799 * 1000L - 6 * period);
+            journal.query(3, T0 + 1700 * 1000L, T0 + 1750 * 1000L, out);
+            assertEquals(50, out.size());
+        }
+        // Fsync dominates, but a compaction at the end takes no longer than one at the start
+        assertTrue(average(nanos, compactions - 30, compactions) < 4 * average(nanos, 30, 60) + 5_000_000);
+
+        try (PositionJournal journal = PositionJournal.open(dir, 4096, 10, Integer.MAX_VALUE, period, 5 * period)) {
+            assertTrue(journal.latest(9, out));
+            assertEquals(T0 + 1799 * 1000L, out.timestamp(0));
+            assertEquals(0, journal.getTailSize());
+        }
+    }
+
+    @Test
+    public void crashPartwayThroughACompactionReplaysOnlyThePeriodsItMissed() throws IOException {
+        File dir = temp.newFolder();
+        long period = 60_000;
+        File[] segments;
+        byte[][] saved;
+        try (PositionJournal journal = PositionJournal.open(dir, 1024, 10, Integer.MAX_VALUE, period, 60 * period)) {
+            // Two minutes of fixes, so two periods
+            for (int second = 0; second < 120; second++) {
+                journal.append(second % 4, T0 + second * 1000L, 6.9, 79.86, second, 0, 0);
+            }
+            journal.flush();
+            segments = dir.listFiles((d, name) -> name.startsWith(JournalSegment.PREFIX));
+            saved = new byte[segments.length][];
+            for (int i = 0; i < segments.length; i++) {
+                saved[i] = Files.readAllBytes(segments[i].toPath());
+            }
+            journal.compact();
+        }
+        // As if the crash came after the first period was written but before the second
+        for (int i = 0; i < segments.length; i++) {
+            Files.write(segments[i].toPath(), saved[i]);
+        }
+        assertTrue(HistoryFile.file(dir, Math.floorDiv(T0, period) + 1).delete());
+
+        PositionTrack out = new PositionTrack();
+        try (PositionJournal journal = PositionJournal.open(dir, 1024, 10, Integer.MAX_VALUE, period, 60 * period)) {
+            assertEquals(120, journal.getHistorySize() + journal.getTailSize());
+            journal.compact();
+            journal.query(1, 0, Long.MAX_VALUE, out);
+            assertEquals(30, out.size());
+            for (int i = 1; i < out.size(); i++) {
+                assertEquals(out.timestamp(i - 1) + 4000, out.timestamp(i));
+            }
+        }
+    }
+
+    private static double average(long[] values, int from, int to) {
+        long sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += values[i];
+        }
+        return (double) sum / (to - from);
+    }
+
+    @Test
+    public void reopenRecoversEverythingButATornBatch() throws IOException {
+        File dir = temp.newFolder();
+        try (PositionJournal journal = PositionJournal.open(dir, 1024, 10, 1000)) {
+            for (int i = 0; i < 50; i++) {
+                journal.append(i % 5, T0 + i * 1000L, 6.9, 79.86, i, 0, 0);
+            }
+            journal.compact();
+            for (int i = 50; i < 80; i++) {
+                journal.append(i % 5, T0 + i * 1000L, 6.9, 79.86, i, 0, 0);
+            }
+            journal.flush();
+        }
+        // A crash halfway through a batch leaves a header and part of its body
+        File[] segments = dir.listFiles((d, name) -> JournalSegment.generationOf(new File(name)) >= 0);
+        File newest = segments[0];
+        for (File segment : segments) {
+            if (JournalSegment.generationOf(segment) > JournalSegment.generationOf(newest)) newest = segment;
+        }
+        try (FileOutputStream torn = new FileOutputStream(newest, true)) {
+            torn.write(new byte[] {0, 0, 0, 3, 1, 2, 3, 4, 9, 9, 9});
+        }
+
+        PositionTrack out = new PositionTrack();
+        try (PositionJournal journal = PositionJournal.open(dir, 1024, 10, 1000)) {
+            assertEquals(50, journal.getHistorySize());
+            assertEquals(30, journal.getTailSize());
+            journal.query(3, 0, Long.MAX_VALUE, out);
+            assertEquals(16, out.size());
+
+            journal.snapshot(out);
+            assertEquals(5, out.size());
+            for (int bus = 0; bus < 5; bus++) {
+                assertEquals(bus, out.vehicle(bus));
+                assertEquals(75 + bus, out.km(bus), 1e-9);
+            }
+
+            // Recovery keeps appending into a fresh segment
+            journal.append(0, T0 + 100_000L, 6.9, 79.86, 100, 0, 0);
+            journal.flush();
+        }
+        try (PositionJournal journal = PositionJournal.open(dir)) {
+            assertEquals(81, journal.getHistorySize() + journal.getTailSize());
+        }
+    }
+}
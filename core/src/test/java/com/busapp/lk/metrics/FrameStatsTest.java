@@ -0,0 +1,49 @@
+package com.busapp.lk.metrics;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class FrameStatsTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void percentilesFollowRecordedFrames() {
+        FrameStats stats = FrameStats.sixtyHz();
+        for (int i = 0; i < 98; i++) {
+            stats.record(16 * MS);
+        }
+        stats.record(40 * MS);
+        stats.record(100 * MS);
+
+        assertEquals(100, stats.getFrameCount());
+        assertEquals(16.25, stats.percentileMillis(50), 1e-9);
+        assertEquals(16.25, stats.percentileMillis(95), 1e-9);
+        assertEquals(40.25, stats.percentileMillis(99), 1e-9);
+        assertEquals(100, stats.getMaxMillis(), 1e-9);
+    }
+
+    @Test
+    public void longFramesCountAsDropped() {
+        FrameStats stats = FrameStats.sixtyHz();
+        stats.record(16 * MS);
+        stats.record(20 * MS);
+        stats.record(34 * MS);
+        stats.record(67 * MS);
+
+        // 34 ms hides one vsync, 67 ms hides three
+        assertEquals(4, stats.getDroppedFrames());
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        FrameStats stats = FrameStats.sixtyHz();
+        stats.record(50 * MS);
+        stats.reset();
+
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getDroppedFrames());
+        assertEquals(0, stats.percentileMillis(99), 0);
+    }
+}
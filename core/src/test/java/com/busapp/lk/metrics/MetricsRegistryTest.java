@@ -0,0 +1,63 @@
+package com.busapp.lk.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+    private static final long MS = 1_000_000L;
+
+    @Test
+    public void histogramBucketsStayWithinThreePercent() {
+        for (long value = 1; value < LatencyHistogram.MAX_NANOS; value = value * 3 / 2 + 1) {
+            long upper = LatencyHistogram.upperBound(LatencyHistogram.bucketOf(value));
+            assertTrue(value + " -> " + upper, upper >= value && upper <= value * 1.032);
+        }
+        assertEquals(LatencyHistogram.bucketOf(31) + 1, LatencyHistogram.bucketOf(32));
+    }
+
+    @Test
+    public void recordsOnlyWhileEnabled() throws InterruptedException {
+        MetricsRegistry registry = new MetricsRegistry();
+        LatencyHistogram tick = registry.histogram("tick");
+        Counter fixes = registry.counter("fixes");
+        assertEquals(LatencyHistogram.OFF, tick.start());
+        tick.record(5 * MS);
+        fixes.increment();
+        assertEquals(0, tick.getCount());
+        assertEquals(0, fixes.get());
+
+        registry.setEnabled(true);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 1; i <= 1000; i++) {
+                    tick.record(i * 10_000L);
+                    fixes.increment();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(4000, tick.getCount());
+        assertEquals(4000, fixes.get());
+        assertEquals(10, tick.getMaxMillis(), 1e-9);
+        assertEquals(5, tick.percentileMillis(50), 0.15);
+        assertEquals(9.9, tick.percentileMillis(99), 0.3);
+        assertEquals(5.005, tick.getMeanMillis(), 1e-9);
+        assertTrue(registry.histogram("tick") == tick);
+
+        assertTrue(registry.dumpText(), registry.dumpText().startsWith("tick n=4000 p50="));
+        String json = registry.dumpJson();
+        assertTrue(json, json.startsWith("{\"histograms\":{\"tick\":{\"count\":4000,"));
+        assertTrue(json, json.endsWith(",\"counters\":{\"fixes\":4000}}"));
+
+        registry.reset();
+        assertEquals(0, tick.getCount());
+        assertEquals(0, tick.percentileMillis(99), 0);
+    }
+}
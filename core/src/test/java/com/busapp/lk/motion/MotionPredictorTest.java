@@ -0,0 +1,67 @@
+package com.busapp.lk.motion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busapp.lk.route.RouteGeometry;
+import org.junit.Test;
+
+public class MotionPredictorTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    // About 11 km due north
+    private final RouteGeometry route = RouteGeometry.straight(6.80, 79.90, 6.90, 79.90);
+
+    @Test
+    public void extrapolatesAtLastSpeed() {
+        MotionPredictor predictor = new MotionPredictor();
+        predictor.place(0, route, 1.0, 36, 0);
+
+        // 36 km/h is 10 m/s
+        assertEquals(1.1, predictor.predictedKm(0, 10 * SECOND), 1e-9);
+        assertEquals(1.3, predictor.predictedKm(0, 30 * SECOND), 1e-9);
+
+        double[] out = new double[2];
+        predictor.positionAt(0, 30 * SECOND, out);
+        assertEquals(79.90, out[1], 1e-12);
+        assertTrue(out[0] > 6.80);
+    }
+
+    @Test
+    public void fixIsBlendedInWithoutJump() {
+        MotionPredictor predictor = new MotionPredictor(2 * SECOND, 60 * SECOND, 0.5);
+        predictor.place(0, route, 1.0, 36, 0);
+
+        // Drawn at 1.1 km, but the bus is really at 1.05 km
+        predictor.onFix(0, 1.05, 36, 10 * SECOND);
+        assertEquals(1.1, predictor.predictedKm(0, 10 * SECOND), 1e-9);
+
+        double midway = predictor.predictedKm(0, 11 * SECOND);
+        assertTrue(midway > 1.06 && midway < 1.11);
+        assertEquals(1.07, predictor.predictedKm(0, 12 * SECOND), 1e-9);
+        assertEquals(1.08, predictor.predictedKm(0, 13 * SECOND), 1e-9);
+        assertEquals(50, predictor.getMeanCorrectionMeters(), 1e-6);
+    }
+
+    @Test
+    public void largeGapsSnap() {
+        MotionPredictor predictor = new MotionPredictor();
+        predictor.place(0, route, 10.0, 36, 0);
+
+        // Wrapped back to the start of the route
+        predictor.onFix(0, 0.0, 36, SECOND);
+        assertEquals(0.0, predictor.predictedKm(0, SECOND), 1e-9);
+    }
+
+    @Test
+    public void stopsExtrapolatingAfterHorizonAndAtRouteEnd() {
+        MotionPredictor predictor = new MotionPredictor(SECOND, 20 * SECOND, 0.5);
+        predictor.place(0, route, 1.0, 36, 0);
+        assertEquals(1.2, predictor.predictedKm(0, 20 * SECOND), 1e-9);
+        assertEquals(1.2, predictor.predictedKm(0, 120 * SECOND), 1e-9);
+
+        predictor.place(1, route, route.getLengthKm() - 0.01, 36, 0);
+        assertEquals(route.getLengthKm(), predictor.predictedKm(1, 10 * SECOND), 1e-12);
+    }
+}
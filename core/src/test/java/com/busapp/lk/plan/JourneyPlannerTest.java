@@ -0,0 +1,283 @@
+package com.busapp.lk.plan;
+
+import static com.busapp.lk.gtfs.GtfsFixtures.writeZip;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busapp.lk.gtfs.GtfsLoader;
+import com.busapp.lk.gtfs.TransitNetwork;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JourneyPlannerTest {
+
+    private static final int H8 = 8 * 3600;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void returnsFasterJourneyWithTransferAlongsideDirectOne() throws IOException {
+        TransitNetwork network = GtfsLoader.load(colomboFeed());
+        JourneyPlanner planner = new JourneyPlanner(RaptorTimetable.build(network));
+
+        List<Journey> journeys = planner.plan(stop(network, "PET"), stop(network, "KAD"), H8 - 300);
+        assertEquals(2, journeys.size());
+
+        Journey direct = journeys.get(0);
+        assertEquals(0, direct.getTransfers());
+        assertEquals(H8, direct.getDeparture());
+        assertEquals(H8 + 90 * 60, direct.getArrival());
+        assertEquals("T177", network.tripId(direct.getLegs().get(0).trip));
+
+        Journey viaBorella = journeys.get(1);
+        assertEquals(1, viaBorella.getTransfers());
+        assertEquals(H8 + 60 * 60, viaBorella.getArrival());
+        List<Journey.Leg> legs = viaBorella.getLegs();
+        assertEquals(2, legs.size());
+        assertEquals("T100", network.tripId(legs.get(0).trip));
+        assertEquals(stop(network, "BOR"), legs.get(0).toStop);
+        assertEquals("T190a", network.tripId(legs.get(1).trip));
+    }
+
+    @Test
+    public void delaysChangeWhichConnectionsHold() throws IOException {
+        TransitNetwork network = GtfsLoader.load(colomboFeed());
+        JourneyPlanner planner = new JourneyPlanner(RaptorTimetable.build(network));
+        int from = stop(network, "PET");
+        int to = stop(network, "KAD");
+
+        // The feeder now reaches Borella after the connection has left
+        planner.setDelay(trip(network, "T100"), 6 * 60);
+        List<Journey> journeys = planner.plan(from, to, H8 - 300);
+        assertEquals(1, journeys.size());
+        assertEquals(0, journeys.get(0).getTransfers());
+
+        // A late connection is still worth waiting for
+        planner.clearDelays();
+        planner.setDelay(trip(network, "T190a"), 10 * 60);
+        journeys = planner.plan(from, to, H8 - 300);
+        assertEquals(2, journeys.size());
+        assertEquals(H8 + 70 * 60, journeys.get(1).getArrival());
+        assertEquals(H8 + 30 * 60, journeys.get(1).getLegs().get(1).departure);
+    }
+
+    @Test
+    public void onlyTripsRunningOnTheServiceDateAreTaken() throws IOException {
+        TransitNetwork network = GtfsLoader.load(colomboFeed(
+                "calendar.txt", "service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,"
+                        + "start_date,end_date\n"
+                        + "WK,1,1,1,1,1,0,0,20260101,20261231\n",
+                "calendar_dates.txt", "service_id,date,exception_type\n"
+                        + "WK,20261024,1\n"));
+        int from = stop(network, "PET");
+        int to = stop(network, "KAD");
+
+        // Monday, a Saturday, and a Saturday the weekday service was added to
+        assertEquals(2, new JourneyPlanner(RaptorTimetable.build(network, 0.5, 20261019))
+                .plan(from, to, H8 - 300).size());
+        RaptorTimetable saturday = RaptorTimetable.build(network, 0.5, 20261017);
+        assertEquals(0, saturday.tripCount());
+        assertEquals(0, new JourneyPlanner(saturday).plan(from, to, H8 - 300).size());
+        assertEquals(2, new JourneyPlanner(RaptorTimetable.build(network, 0.5, 20261024))
+                .plan(from, to, H8 - 300).size());
+        assertEquals(network.tripCount(), RaptorTimetable.build(network).tripCount());
+    }
+
+    @Test
+    public void walksToFromAndBetweenStops() throws IOException {
+        TransitNetwork network = GtfsLoader.load(colomboFeed());
+        JourneyPlanner planner = new JourneyPlanner(RaptorTimetable.build(network));
+
+        // About 100 m from Pettah to about 100 m from Malabe
+        List<Journey> journeys = planner.plan(6.9353, 79.8500, 6.9009, 79.9500, H8 - 900);
+        assertEquals(1, journeys.size());
+        Journey journey = journeys.get(0);
+        assertEquals(1, journey.getTransfers());
+
+        List<Journey.Leg> legs = journey.getLegs();
+        Journey.Mode[] modes = new Journey.Mode[legs.size()];
+        for (int i = 0; i < modes.length; i++) {
+            modes[i] = legs.get(i).mode;
+        }
+        assertEquals(Arrays.asList(Journey.Mode.WALK, Journey.Mode.RIDE, Journey.Mode.WALK,
+                Journey.Mode.RIDE, Journey.Mode.WALK), Arrays.asList(modes));
+        assertEquals(Journey.Leg.POINT, legs.get(0).fromStop);
+        assertEquals(H8 + 5 * 60, legs.get(0).arrival);
+        assertEquals(stop(network, "BOR"), legs.get(2).fromStop);
+        assertEquals(stop(network, "BORW"), legs.get(2).toStop);
+        assertEquals(Journey.Leg.POINT, legs.get(4).toStop);
+        for (int i = 1; i < legs.size(); i++) {
+            assertTrue(legs.get(i).departure >= legs.get(i - 1).arrival);
+        }
+    }
+
+    @Test
+    public void matchesConnectionScanOnRandomNetworks() throws IOException {
+        Random random = new Random(7);
+        for (int feed = 0; feed < 5; feed++) {
+            int stopCount = 30;
+            Connections connections = new Connections();
+            TransitNetwork network = GtfsLoader.load(randomFeed(random, stopCount, connections));
+            // Stops are more than a kilometre apart, so nobody walks
+            JourneyPlanner planner = new JourneyPlanner(RaptorTimetable.build(network), 20, 0);
+
+            for (int query = 0; query < 100; query++) {
+                int from = random.nextInt(stopCount);
+                int to = random.nextInt(stopCount);
+                if (from == to) continue;
+                int departure = H8 + random.nextInt(3 * 3600);
+                int expected = connections.earliestArrival(network, from, to, departure);
+
+                List<Journey> journeys = planner.plan(from, to, departure);
+                if (expected == Integer.MAX_VALUE) {
+                    assertTrue(journeys.isEmpty());
+                    continue;
+                }
+                assertEquals(expected, journeys.get(journeys.size() - 1).getArrival());
+                for (int i = 1; i < journeys.size(); i++) {
+                    assertTrue(journeys.get(i).getTransfers() > journeys.get(i - 1).getTransfers());
+                    assertTrue(journeys.get(i).getArrival() < journeys.get(i - 1).getArrival());
+                }
+                for (Journey journey : journeys) {
+                    assertTrue(journey.getDeparture() >= departure);
+                    assertEquals(to, journey.getLegs().get(journey.getLegs().size() - 1).toStop);
+                }
+            }
+        }
+    }
+
+    // Every ride between consecutive stops of every trip, for a reference earliest arrival
+    private static final class Connections {
+        final List<int[]> list = new ArrayList<>();
+
+        void add(int trip, int fromStop, int toStop, int departure, int arrival) {
+            list.add(new int[]{departure, arrival, fromStop, toStop, trip});
+        }
+
+        int earliestArrival(TransitNetwork network, int from, int to, int departure) {
+            list.sort((a, b) -> Integer.compare(a[0], b[0]));
+            int[] best = new int[network.stopCount()];
+            Arrays.fill(best, Integer.MAX_VALUE);
+            best[from] = departure;
+            boolean[] onboard = new boolean[network.tripCount()];
+            for (int[] c : list) {
+                if (onboard[c[4]] || best[c[2]] <= c[0]) {
+                    onboard[c[4]] = true;
+                    best[c[3]] = Math.min(best[c[3]], c[1]);
+                }
+            }
+            return best[to];
+        }
+    }
+
+    private File randomFeed(Random random, int stopCount, Connections connections) throws IOException {
+        StringBuilder stops = new StringBuilder("stop_id,stop_name,stop_lat,stop_lon\n");
+        for (int s = 0; s < stopCount; s++) {
+            stops.append(String.format(Locale.US, "S%d,Stop %d,%.4f,%.4f\n",
+                    s, s, 6.85 + (s / 6) * 0.01, 79.85 + (s % 6) * 0.01));
+        }
+        StringBuilder routes = new StringBuilder("route_id,route_short_name,route_long_name\n");
+        StringBuilder trips = new StringBuilder("route_id,service_id,trip_id\n");
+        StringBuilder times = new StringBuilder("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+        int trip = 0;
+        for (int r = 0; r < 12; r++) {
+            routes.append("R").append(r).append(',').append(r).append(",Route ").append(r).append('\n');
+            List<Integer> order = new ArrayList<>();
+            for (int s = 0; s < stopCount; s++) {
+                order.add(s);
+            }
+            java.util.Collections.shuffle(order, random);
+            int length = 4 + random.nextInt(5);
+            int[] hops = new int[length];
+            for (int i = 1; i < length; i++) {
+                hops[i] = 60 * (2 + random.nextInt(10));
+            }
+            for (int t = 0; t < 10; t++, trip++) {
+                trips.append("R").append(r).append(",WK,T").append(trip).append('\n');
+                int time = H8 + random.nextInt(4 * 3600);
+                for (int i = 0; i < length; i++) {
+                    time += hops[i];
+                    int dwell = i == 0 || i == length - 1 ? 0 : 30;
+                    times.append("T").append(trip).append(',').append(clock(time)).append(',')
+                            .append(clock(time + dwell)).append(",S").append(order.get(i)).append(',')
+                            .append(i + 1).append('\n');
+                    if (i > 0) {
+                        connections.add(trip, order.get(i - 1), order.get(i),
+                                time - hops[i], time);
+                    }
+                    time += dwell;
+                }
+            }
+        }
+        File zip = temp.newFile();
+        writeZip(zip, "stops.txt", stops.toString(), "routes.txt", routes.toString(),
+                "trips.txt", trips.toString(), "stop_times.txt", times.toString());
+        return zip;
+    }
+
+    // Pettah to Kaduwela direct on the 177, or faster changing at Borella; extra entries are added to the zip
+    private File colomboFeed(String... extraEntries) throws IOException {
+        File zip = temp.newFile();
+        String[] entries = {
+                "stops.txt", "stop_id,stop_name,stop_lat,stop_lon\n"
+                        + "PET,Pettah,6.9344,79.8500\n"
+                        + "BOR,Borella,6.9147,79.8778\n"
+                        + "BORW,Borella West,6.9147,79.8792\n"
+                        + "KAD,Kaduwela,6.9330,79.9830\n"
+                        + "MAL,Malabe,6.9000,79.9500\n",
+                "routes.txt", "route_id,route_short_name,route_long_name\n"
+                        + "R177,177,Kollupitiya - Kaduwela\n"
+                        + "R100,100,Pettah - Borella\n"
+                        + "R190,190,Borella - Kaduwela\n"
+                        + "R120,120,Borella - Malabe\n",
+                "trips.txt", "route_id,service_id,trip_id\n"
+                        + "R177,WK,T177\n"
+                        + "R100,WK,T100\n"
+                        + "R190,WK,T190a\n"
+                        + "R190,WK,T190b\n"
+                        + "R120,WK,T120\n",
+                "stop_times.txt", "trip_id,arrival_time,departure_time,stop_id,stop_sequence\n"
+                        + "T177,08:00:00,08:00:00,PET,1\n"
+                        + "T177,08:25:00,08:25:00,BOR,2\n"
+                        + "T177,09:30:00,09:30:00,KAD,3\n"
+                        + "T100,08:05:00,08:05:00,PET,1\n"
+                        + "T100,08:15:00,08:15:00,BOR,2\n"
+                        + "T190a,08:20:00,08:20:00,BOR,1\n"
+                        + "T190a,09:00:00,09:00:00,KAD,2\n"
+                        + "T190b,08:50:00,08:50:00,BOR,1\n"
+                        + "T190b,09:35:00,09:35:00,KAD,2\n"
+                        + "T120,08:25:00,08:25:00,BORW,1\n"
+                        + "T120,08:45:00,08:45:00,MAL,2\n"};
+        String[] all = Arrays.copyOf(entries, entries.length + extraEntries.length);
+        System.arraycopy(extraEntries, 0, all, entries.length, extraEntries.length);
+        writeZip(zip, all);
+        return zip;
+    }
+
+    private static String clock(int seconds) {
+        return String.format(Locale.US, "%02d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+
+    private static int stop(TransitNetwork network, String id) {
+        for (int s = 0; s < network.stopCount(); s++) {
+            if (network.stopId(s).equals(id)) return s;
+        }
+        throw new AssertionError(id);
+    }
+
+    private static int trip(TransitNetwork network, String id) {
+        for (int t = 0; t < network.tripCount(); t++) {
+            if (network.tripId(t).equals(id)) return t;
+        }
+        throw new AssertionError(id);
+    }
+}
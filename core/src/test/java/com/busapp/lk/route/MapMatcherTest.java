@@ -0,0 +1,160 @@
+package com.busapp.lk.route;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busapp.lk.util.IntList;
+import java.util.Random;
+import org.junit.Test;
+
+public class MapMatcherTest {
+
+    private static final double LAT0 = 6.90;
+    private static final double LNG0 = 79.85;
+    private static final double METERS_PER_DEGREE_LAT = 110_540;
+    private static final double METERS_PER_DEGREE_LNG = 111_320 * Math.cos(Math.toRadians(LAT0));
+
+    // 3 km east, then back west on a parallel street 40 m north
+    private static RouteGeometry outAndBack() {
+        int legPoints = 31;
+        double[] lat = new double[legPoints * 2];
+        double[] lng = new double[legPoints * 2];
+        for (int i = 0; i < legPoints; i++) {
+            lat[i] = lat(0);
+            lng[i] = lng(i * 100);
+            lat[legPoints + i] = lat(40);
+            lng[legPoints + i] = lng(3000 - i * 100);
+        }
+        return new RouteGeometry(lat, lng);
+    }
+
+    private static double lat(double northMeters) {
+        return LAT0 + northMeters / METERS_PER_DEGREE_LAT;
+    }
+
+    private static double lng(double eastMeters) {
+        return LNG0 + eastMeters / METERS_PER_DEGREE_LNG;
+    }
+
+    @Test
+    public void staysOnTheLegTheBusIsOnWhereGreedyProjectionJumps() {
+        RouteGeometry route = outAndBack();
+        MapMatcher matcher = new MapMatcher();
+        int bus = matcher.addBus(matcher.addRoute(route));
+        Random random = new Random(21);
+
+        int greedyJumps = 0;
+        double worst = 0;
+        // 10 m/s with a fix every 5 s, out to the far end of the first leg
+        for (int step = 0; step <= 58; step++) {
+            double east = step * 50;
+            double fixLat = lat(random.nextGaussian() * 15);
+            double fixLng = lng(east + random.nextGaussian() * 15);
+            double km = matcher.match(bus, fixLat, fixLng, step * 5000L);
+            // Both legs meet at the terminus, so the first fix alone cannot tell them apart
+            if (step == 1) assertEquals(0, matcher.smoothedKm(bus, 1), 0.06);
+            if (step > 0) worst = Math.max(worst, Math.abs(km - east / 1000));
+            if (Math.abs(route.project(fixLat, fixLng) - east / 1000) > 1) greedyJumps++;
+        }
+        assertTrue("worst " + worst, worst < 0.06);
+        assertTrue("greedy jumped " + greedyJumps, greedyJumps > 0);
+        assertEquals(0, matcher.getRestarts());
+        assertEquals(59, matcher.getMatched());
+    }
+
+    @Test
+    public void dropsFixesFarOffTheRouteAndRestartsForANewRun() {
+        RouteGeometry route = outAndBack();
+        MapMatcher matcher = new MapMatcher(4);
+        int bus = matcher.addBus(matcher.addRoute(route));
+        assertTrue(Double.isNaN(matcher.match(bus, lat(600), lng(0), 0)));
+
+        double before = 0;
+        for (int step = 0; step < 10; step++) {
+            before = matcher.match(bus, lat(0), lng(step * 100), step * 10_000L);
+        }
+        assertEquals(0.9, before, 0.005);
+        assertEquals(before, matcher.match(bus, lat(500), lng(1000), 100_000L), 0);
+        assertEquals(2, matcher.getUnmatched());
+
+        // Back at the first stop: one fix the path cannot reach is taken for an outlier, two start over
+        assertEquals(before, matcher.match(bus, lat(0), lng(0), 105_000L), 0);
+        assertEquals(0, matcher.getRestarts());
+        assertEquals(0, matcher.match(bus, lat(0), lng(0), 110_000L), 0.005);
+        assertEquals(1, matcher.getRestarts());
+        assertEquals(3, matcher.getUnmatched());
+
+        // The window holds the last 4 fixes
+        for (int step = 1; step <= 6; step++) {
+            matcher.match(bus, lat(0), lng(step * 100), 110_000L + step * 10_000L);
+        }
+        assertEquals(0.5, matcher.smoothedKm(bus, 1), 0.005);
+        assertEquals(0.3, matcher.smoothedKm(bus, 10), 0.005);
+    }
+
+    @Test
+    public void anOutlierWithAFullWindowLeavesTheOldestFixAlone() {
+        MapMatcher matcher = new MapMatcher(4);
+        int bus = matcher.addBus(matcher.addRoute(outAndBack()));
+        for (int step = 0; step <= 5; step++) {
+            matcher.match(bus, lat(0), lng(step * 100), step * 10_000L);
+        }
+        assertEquals(0.2, matcher.smoothedKm(bus, 3), 0.005);
+
+        // On the route, but 2 km further on than the bus could have gone
+        assertEquals(0.5, matcher.match(bus, lat(0), lng(2500), 60_000L), 0.005);
+        assertEquals(1, matcher.getUnmatched());
+        assertEquals(0.5, matcher.smoothedKm(bus, 0), 0.005);
+        assertEquals(0.2, matcher.smoothedKm(bus, 3), 0.005);
+
+        assertEquals(0.6, matcher.match(bus, lat(0), lng(600), 70_000L), 0.005);
+        assertEquals(0.3, matcher.smoothedKm(bus, 3), 0.005);
+        assertEquals(0, matcher.getRestarts());
+    }
+
+    @Test
+    public void segmentIndexFindsEverySegmentWithinTheRadius() {
+        Random random = new Random(5);
+        int n = 400;
+        double[] lat = new double[n];
+        double[] lng = new double[n];
+        double east = 0;
+        double north = 0;
+        for (int i = 0; i < n; i++) {
+            east += random.nextGaussian() * 80;
+            north += random.nextGaussian() * 80;
+            lat[i] = lat(north);
+            lng[i] = lng(east);
+        }
+        SegmentIndex index = new SegmentIndex(new RouteGeometry(lat, lng));
+        IntList near = new IntList();
+        boolean[] seen = new boolean[index.segmentCount()];
+        boolean[] listed = new boolean[index.segmentCount()];
+        for (int query = 0; query < 200; query++) {
+            int v = random.nextInt(n);
+            double px = index.x[v] + random.nextGaussian() * 100;
+            double py = index.y[v] + random.nextGaussian() * 100;
+            double radius = 20 + random.nextDouble() * 150;
+            index.near(px, py, radius, near, seen);
+            java.util.Arrays.fill(listed, false);
+            for (int i = 0; i < near.size(); i++) {
+                assertTrue(!listed[near.get(i)]);
+                listed[near.get(i)] = true;
+            }
+            for (int s = 0; s < index.segmentCount(); s++) {
+                if (distance(index, s, px, py) <= radius) {
+                    assertTrue("segment " + s, listed[s]);
+                }
+            }
+        }
+    }
+
+    private static double distance(SegmentIndex index, int s, double px, double py) {
+        double dx = index.x[s + 1] - index.x[s];
+        double dy = index.y[s + 1] - index.y[s];
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared == 0 ? 0 : ((px - index.x[s]) * dx + (py - index.y[s]) * dy) / lengthSquared;
+        t = Math.max(0, Math.min(1, t));
+        return Math.hypot(index.x[s] + t * dx - px, index.y[s] + t * dy - py);
+    }
+}
@@ -0,0 +1,117 @@
+package com.busapp.lk.route;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busapp.lk.geo.GeoMath;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import org.junit.Test;
+
+public class RouteGeometryTest {
+
+    @Test
+    public void cumulativeDistanceSumsSegments() {
+        RouteGeometry route = new RouteGeometry(
+                new double[]{6.90, 6.91, 6.91},
+                new double[]{79.86, 79.86, 79.87});
+
+        double first = GeoMath.distanceKm(6.90, 79.86, 6.91, 79.86);
+        double second = GeoMath.distanceKm(6.91, 79.86, 6.91, 79.87);
+        assertEquals(first, route.cumulativeKm(1), 1e-12);
+        assertEquals(first + second, route.getLengthKm(), 1e-12);
+    }
+
+    @Test
+    public void positionAtInterpolatesWithinSegment() {
+        RouteGeometry route = new RouteGeometry(
+                new double[]{6.90, 6.91, 6.91},
+                new double[]{79.86, 79.86, 79.87});
+        double[] out = new double[2];
+
+        int segment = route.positionAt(route.cumulativeKm(1) / 2, out);
+        assertEquals(0, segment);
+        assertEquals(6.905, out[0], 1e-9);
+        assertEquals(79.86, out[1], 1e-9);
+
+        segment = route.positionAt(route.getLengthKm() + 5, out);
+        assertEquals(1, segment);
+        assertEquals(79.87, out[1], 1e-12);
+
+        segment = route.positionAt(-1, out);
+        assertEquals(0, segment);
+        assertEquals(6.90, out[0], 1e-12);
+    }
+
+    @Test
+    public void segmentAtHandlesExactVertexDistances() {
+        RouteGeometry route = new RouteGeometry(
+                new double[]{6.90, 6.91, 6.92, 6.93},
+                new double[]{79.86, 79.86, 79.86, 79.86});
+
+        assertEquals(1, route.segmentAt(route.cumulativeKm(1)));
+        assertEquals(2, route.segmentAt(route.cumulativeKm(2) + 1e-9));
+        assertEquals(2, route.segmentAt(route.getLengthKm()));
+    }
+
+    @Test
+    public void simplifyDropsCollinearVerticesAndKeepsCorners() {
+        RouteGeometry route = new RouteGeometry(
+                new double[]{6.90, 6.905, 6.91, 6.91, 6.91},
+                new double[]{79.86, 79.86, 79.86, 79.865, 79.87});
+
+        assertArrayEquals(new int[]{0, 2, 4}, route.simplify(1));
+    }
+
+    @Test
+    public void coarserZoomKeepsFewerVertices() {
+        int n = 500;
+        double[] lat = new double[n];
+        double[] lng = new double[n];
+        for (int i = 0; i < n; i++) {
+            lat[i] = 6.9 + i * 0.0002;
+            // Small zig-zag of about 5 m
+            lng[i] = 79.86 + (i % 2 == 0 ? 0 : 0.00005);
+        }
+        RouteGeometry route = new RouteGeometry(lat, lng);
+
+        int[] city = route.simplifiedForZoom(12);
+        int[] street = route.simplifiedForZoom(21);
+        assertEquals(2, city.length);
+        assertTrue(street.length > 400);
+        assertEquals(0, street[0]);
+        assertEquals(n - 1, street[street.length - 1]);
+    }
+
+    @Test
+    public void loaderGroupsRowsByRoute() throws IOException {
+        Map<String, RouteGeometry> shapes = RouteShapeLoader.load(new StringReader(
+                "# comment\n138,6.9271,79.8612\n138,6.8406,79.8636\n\n176,6.93,79.85\n176,6.86,79.90\n"));
+
+        assertEquals(2, shapes.size());
+        assertEquals(2, shapes.get("138").vertexCount());
+        assertEquals(6.8406, shapes.get("138").lat(1), 0);
+    }
+
+    @Test(expected = IOException.class)
+    public void loaderRejectsMalformedRows() throws IOException {
+        RouteShapeLoader.load(new StringReader("138,6.9271\n"));
+    }
+
+    @Test
+    public void projectFindsDistanceOfClosestPoint() {
+        RouteGeometry route = new RouteGeometry(
+                new double[]{6.90, 6.91, 6.91},
+                new double[]{79.86, 79.86, 79.87});
+
+        // Slightly east of the first segment's midpoint
+        assertEquals(route.cumulativeKm(1) / 2, route.project(6.905, 79.8601), 1e-3);
+        // Past the end clamps to the last vertex
+        assertEquals(route.getLengthKm(), route.project(6.91, 79.90), 1e-9);
+        // A window restricted to the second segment
+        assertEquals(route.cumulativeKm(1),
+                route.project(6.905, 79.86, route.cumulativeKm(1), route.getLengthKm()), 1e-9);
+    }
+}